@@ -0,0 +1,222 @@
+package org.mitallast.queue.client
+
+import com.typesafe.config.Config
+import io.netty.channel.*
+import io.netty.util.AttributeKey
+import io.vavr.collection.HashMap
+import io.vavr.collection.Map
+import io.vavr.concurrent.Future
+import io.vavr.concurrent.Promise
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.common.logging.LoggingService
+import org.mitallast.queue.common.netty.NettyClientBootstrap
+import org.mitallast.queue.common.netty.NettyProvider
+import org.mitallast.queue.security.ECDHFlow
+import org.mitallast.queue.security.ECDHResponse
+import org.mitallast.queue.security.SecurityService
+import org.mitallast.queue.transport.DiscoveryNode
+import org.mitallast.queue.transport.TransportError
+import org.mitallast.queue.transport.TransportException
+import org.mitallast.queue.transport.TransportRequest
+import org.mitallast.queue.transport.TransportResponse
+import org.mitallast.queue.transport.netty.CodecDecoder
+import org.mitallast.queue.transport.netty.CodecEncoder
+import org.mitallast.queue.transport.netty.ECDHCodecDecoder
+import org.mitallast.queue.transport.netty.ECDHNewEncoder
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Pool of connections per node. Requests are pipelined: every request is written with its id
+ * without waiting for previous responses, writes of concurrent requests are joined into one flush.
+ * Closed connection fails its pending requests and is reconnected by the next request.
+ */
+@Suppress("OverridingDeprecatedMember")
+class ClientTransport(
+    config: Config,
+    private val logging: LoggingService,
+    provider: NettyProvider,
+    private val securityService: SecurityService
+) : NettyClientBootstrap(config, logging, provider) {
+    private val connections = config.getInt("client.connections")
+    private val timeout = config.getDuration("client.timeout", TimeUnit.MILLISECONDS)
+    private val requestId = AtomicLong()
+
+    @Volatile
+    private var pools: Map<DiscoveryNode, NodePool> = HashMap.empty()
+
+    override fun channelInitializer(): ChannelInitializer<Channel> {
+        return object : ChannelInitializer<Channel>() {
+            override fun initChannel(ch: Channel) {
+                ch.attr(ECDHFlow.key).set(securityService.ecdh())
+                val pipeline = ch.pipeline()
+                pipeline.addLast(CodecEncoder())
+                pipeline.addLast(CodecDecoder(logging))
+                pipeline.addLast(ECDHNewEncoder())
+                pipeline.addLast(ECDHCodecDecoder())
+                pipeline.addLast(object : SimpleChannelInboundHandler<Message>(false) {
+
+                    override fun channelActive(ctx: ChannelHandlerContext) {
+                        val ecdh = ctx.channel().attr(ECDHFlow.key).get()
+                        ctx.writeAndFlush(ecdh.requestStart())
+                        super.channelActive(ctx)
+                    }
+
+                    override fun channelInactive(ctx: ChannelHandlerContext) {
+                        ctx.channel().attr(connectionKey).get()?.failAll(TransportException("connection closed"))
+                        super.channelInactive(ctx)
+                    }
+
+                    override fun channelRead0(ctx: ChannelHandlerContext, message: Message) {
+                        when (message) {
+                            is ECDHResponse -> ctx.channel().attr(ECDHFlow.key).get().keyAgreement(message)
+                            is TransportResponse -> ctx.channel().attr(connectionKey).get()?.complete(message)
+                            else -> logger.warn("unexpected message {}", message)
+                        }
+                    }
+
+                    override fun exceptionCaught(ctx: ChannelHandlerContext, cause: Throwable) {
+                        logger.error("unexpected exception {}", ctx, cause)
+                        ctx.close()
+                    }
+                })
+            }
+        }
+    }
+
+    fun send(node: DiscoveryNode, message: Message): Future<Message> {
+        checkIsStarted()
+        return pool(node).connection().send(message)
+    }
+
+    private fun pool(node: DiscoveryNode): NodePool {
+        val pool = pools.getOrElse(node, null)
+        if (pool != null) {
+            return pool
+        }
+        synchronized(this) {
+            return pools.getOrElse(node, null) ?: NodePool(node).also { pools = pools.put(node, it) }
+        }
+    }
+
+    override fun doStop() {
+        synchronized(this) {
+            pools.values().forEach { it.close() }
+            pools = HashMap.empty()
+        }
+        super.doStop()
+    }
+
+    private inner class NodePool(private val node: DiscoveryNode) {
+        private val pool = arrayOfNulls<Connection>(connections)
+        private val counter = AtomicInteger()
+
+        fun connection(): Connection {
+            val index = Math.floorMod(counter.getAndIncrement(), connections)
+            synchronized(pool) {
+                var connection = pool[index]
+                if (connection == null || connection.isClosed()) {
+                    logger.debug("connect to {}", node)
+                    connection = Connection(connect(node))
+                    pool[index] = connection
+                }
+                return connection
+            }
+        }
+
+        fun close() {
+            synchronized(pool) {
+                pool.forEach { it?.close() }
+            }
+        }
+    }
+
+    private class Pending(val promise: Promise<Message>) {
+        @Volatile var timeout: ScheduledFuture<*>? = null
+    }
+
+    private inner class Connection(private val future: ChannelFuture) {
+        private val pending = ConcurrentHashMap<Long, Pending>()
+        private val flushCounter = AtomicInteger()
+        private val flush = Runnable {
+            if (flushCounter.decrementAndGet() == 0) {
+                future.channel().flush()
+            }
+        }
+
+        init {
+            future.channel().attr(connectionKey).set(this)
+        }
+
+        fun isClosed(): Boolean = future.isDone && (!future.isSuccess || !future.channel().isActive)
+
+        fun send(message: Message): Future<Message> {
+            val id = requestId.incrementAndGet()
+            val request = Pending(Promise.make())
+            pending[id] = request
+            val channel = future.channel()
+            if (future.isSuccess && channel.attr(ECDHFlow.key).get().isAgreement) {
+                write(channel, id, message)
+            } else {
+                future.addListener {
+                    if (it.isSuccess) {
+                        channel.attr(ECDHFlow.key).get().agreementFuture().whenComplete { _, error ->
+                            if (error == null) {
+                                write(channel, id, message)
+                            } else {
+                                fail(id, error)
+                            }
+                        }
+                    } else {
+                        fail(id, it.cause())
+                    }
+                }
+            }
+            request.timeout = channel.eventLoop().schedule({
+                fail(id, TimeoutException("request $id is timed out"))
+            }, timeout, TimeUnit.MILLISECONDS)
+            return request.promise.future()
+        }
+
+        private fun write(channel: Channel, id: Long, message: Message) {
+            flushCounter.incrementAndGet()
+            channel.write(TransportRequest(id, message), channel.voidPromise())
+            channel.eventLoop().execute(flush)
+        }
+
+        fun complete(response: TransportResponse) {
+            val request = pending.remove(response.id) ?: return
+            request.timeout?.cancel(false)
+            val message = response.message
+            if (message is TransportError) {
+                request.promise.tryFailure(TransportException(message.error))
+            } else {
+                request.promise.trySuccess(message)
+            }
+        }
+
+        private fun fail(id: Long, error: Throwable) {
+            val request = pending.remove(id) ?: return
+            request.timeout?.cancel(false)
+            request.promise.tryFailure(error)
+        }
+
+        fun failAll(error: Throwable) {
+            for (id in pending.keys) {
+                fail(id, error)
+            }
+        }
+
+        fun close() {
+            future.addListener { future.channel().close() }
+        }
+    }
+
+    companion object {
+        private val connectionKey: AttributeKey<Connection> = AttributeKey.valueOf("client-connection")
+    }
+}
@@ -0,0 +1,171 @@
+package org.mitallast.queue.client
+
+import com.typesafe.config.Config
+import io.vavr.collection.Vector
+import io.vavr.concurrent.Future
+import io.vavr.control.Option
+import org.apache.logging.log4j.MarkerManager
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.common.json.JsonModule
+import org.mitallast.queue.common.logging.LoggingService
+import org.mitallast.queue.common.netty.NettyProvider
+import org.mitallast.queue.crdt.CrdtModule
+import org.mitallast.queue.crdt.commutative.OrderedGSet
+import org.mitallast.queue.crdt.protocol.BucketNotAllocated
+import org.mitallast.queue.crdt.protocol.ConsumeRequest
+import org.mitallast.queue.crdt.protocol.ConsumeResponse
+import org.mitallast.queue.crdt.protocol.CounterRequest
+import org.mitallast.queue.crdt.protocol.CounterResponse
+import org.mitallast.queue.crdt.protocol.ProduceRequest
+import org.mitallast.queue.crdt.protocol.RegisterRequest
+import org.mitallast.queue.crdt.protocol.RoutingTableRequest
+import org.mitallast.queue.crdt.protocol.SetRequest
+import org.mitallast.queue.crdt.protocol.ValuesResponse
+import org.mitallast.queue.crdt.routing.Resource
+import org.mitallast.queue.crdt.routing.ResourceType
+import org.mitallast.queue.crdt.routing.RoutingTable
+import org.mitallast.queue.crdt.routing.fsm.AddResources
+import org.mitallast.queue.crdt.routing.fsm.AddResourcesResponse
+import org.mitallast.queue.crdt.routing.fsm.RemoveResources
+import org.mitallast.queue.crdt.routing.fsm.RemoveResourcesResponse
+import org.mitallast.queue.raft.RaftModule
+import org.mitallast.queue.security.SecurityModule
+import org.mitallast.queue.security.SecurityService
+import org.mitallast.queue.transport.DiscoveryNode
+import org.mitallast.queue.transport.TransportException
+import org.mitallast.queue.transport.TransportModule
+import java.io.Closeable
+
+/**
+ * Client of binary transport protocol. Routing table is cached and requests are sent directly to
+ * replica of resource bucket; request answered by [BucketNotAllocated] refreshes routing table
+ * and is retried once, other failures are not retried as request could be already applied. Nodes to fetch routing table from are configured as client.nodes = ["host:port"].
+ */
+class CrdtClient(config: Config) : Closeable {
+    private val logging = LoggingService(MarkerManager.getMarker("client"))
+    private val logger = logging.logger()
+    private val provider = NettyProvider(config, logging)
+    private val transport = ClientTransport(config, logging, provider, SecurityService(config))
+    private val seeds = Vector.ofAll(config.getStringList("client.nodes")).map { address ->
+        val index = address.lastIndexOf(':')
+        DiscoveryNode(address.substring(0, index), address.substring(index + 1).toInt())
+    }
+
+    @Volatile
+    private var routingTable: RoutingTable? = null
+
+    init {
+        // codecs are registered by modules
+        for (module in arrayOf(SecurityModule::class, TransportModule::class, RaftModule::class, CrdtModule::class, JsonModule::class)) {
+            Class.forName(module.java.name)
+        }
+        provider.start()
+        transport.start()
+    }
+
+    fun routingTable(): Future<RoutingTable> {
+        val table = routingTable
+        return if (table != null) Future.successful(table) else refresh()
+    }
+
+    fun refresh(): Future<RoutingTable> = refresh(0)
+
+    private fun refresh(seed: Int): Future<RoutingTable> {
+        if (seed >= seeds.size()) {
+            return Future.failed(TransportException("no seed node is available"))
+        }
+        return send(seeds[seed], RoutingTableRequest.INSTANCE)
+            .map { it as RoutingTable }
+            .andThen { result -> result.forEach { routingTable = it } }
+            .recoverWith { error ->
+                logger.warn("error fetch routing table from {}", seeds[seed], error)
+                refresh(seed + 1)
+            }
+    }
+
+    fun addResources(resources: Vector<Resource>): Future<Vector<Boolean>> {
+        return seed(AddResources(resources)).map { (it as AddResourcesResponse).created }
+    }
+
+    fun removeResources(ids: Vector<Long>): Future<Vector<Boolean>> {
+        return seed(RemoveResources(ids)).map { (it as RemoveResourcesResponse).removed }
+    }
+
+    fun counter(id: Long, type: ResourceType, delta: Long): Future<Option<Long>> {
+        return route(id, CounterRequest(id, type, delta)).map { (it as CounterResponse).value }
+    }
+
+    fun register(id: Long): Future<Option<Message>> {
+        return route(id, RegisterRequest(id, Option.none(), 0)).map { values(it).flatMap { v -> v.headOption() } }
+    }
+
+    fun assign(id: Long, value: Message): Future<Boolean> {
+        return route(id, RegisterRequest(id, Option.some(value), System.currentTimeMillis())).map { (it as ValuesResponse).found }
+    }
+
+    fun values(id: Long, type: ResourceType): Future<Option<Vector<Message>>> {
+        return route(id, SetRequest(id, type, Vector.empty(), Vector.empty())).map { values(it) }
+    }
+
+    fun update(id: Long, type: ResourceType, add: Vector<Message>, remove: Vector<Message>): Future<Boolean> {
+        return route(id, SetRequest(id, type, add, remove)).map { (it as ValuesResponse).found }
+    }
+
+    fun produce(id: Long, value: Message): Future<Boolean> {
+        return route(id, ProduceRequest(id, value, System.currentTimeMillis())).map { (it as ValuesResponse).found }
+    }
+
+    fun consume(id: Long, query: OrderedGSet.Query): Future<Option<OrderedGSet.Page>> {
+        return route(id, ConsumeRequest(id, query)).map { (it as ConsumeResponse).page }
+    }
+
+    fun send(node: DiscoveryNode, message: Message): Future<Message> = transport.send(node, message)
+
+    private fun values(response: Message): Option<Vector<Message>> {
+        val values = response as ValuesResponse
+        return if (values.found) Option.some(values.values) else Option.none()
+    }
+
+    /**
+     * Resource requests are applied by raft leader, any node forwards them to it.
+     */
+    private fun seed(message: Message): Future<Message> {
+        return routingTable()
+            .map { table -> if (table.members.isEmpty) seeds.head() else table.members.toVector()[0] }
+            .flatMap { send(it, message) }
+    }
+
+    private fun route(id: Long, message: Message): Future<Message> {
+        return routingTable()
+            .flatMap { table -> send(replica(table, id), message) }
+            .flatMap { response ->
+                if (response is BucketNotAllocated) {
+                    refresh().flatMap { table -> send(replica(table, id), message) }.map { allocated(it) }
+                } else {
+                    Future.successful(response)
+                }
+            }
+    }
+
+    private fun allocated(response: Message): Message {
+        if (response is BucketNotAllocated) {
+            throw TransportException("bucket ${response.bucket} is not allocated")
+        }
+        return response
+    }
+
+    private fun replica(table: RoutingTable, id: Long): DiscoveryNode {
+        val replicas = table.bucket(id).replicaSeq().filter { it.isOpened }.toVector()
+        if (replicas.isEmpty) {
+            throw TransportException("bucket of resource $id has no open replica")
+        }
+        return replicas[Math.floorMod(id, replicas.size())].member
+    }
+
+    override fun close() {
+        transport.stop()
+        transport.close()
+        provider.stop()
+        provider.close()
+    }
+}
@@ -39,6 +39,7 @@ interface Codec<T> {
         fun longCodec(): Codec<Long> = LongCodec
         fun stringCodec(): Codec<String> = StringCodec
         fun bytesCodec(): Codec<ByteArray> = ByteArrayCodec
+        fun longArrayCodec(): Codec<LongArray> = LongArrayCodec
         fun byteBufCodec(): Codec<ByteBuf> = ByteBufCodec
 
         fun <T : Message> anyCodec(): Codec<T> = AnyCodec()
@@ -227,6 +228,30 @@ internal object ByteArrayCodec : Codec<ByteArray> {
     }
 }
 
+internal object LongArrayCodec : Codec<LongArray> {
+    private val empty = LongArray(0)
+
+    override fun read(stream: DataInput): LongArray {
+        val size = stream.readInt()
+        return if (size > 0) {
+            LongArray(size) { stream.readLong() }
+        } else {
+            empty
+        }
+    }
+
+    override fun write(stream: DataOutput, value: LongArray) {
+        stream.writeInt(value.size)
+        for (l in value) {
+            stream.writeLong(l)
+        }
+    }
+
+    override fun size(value: LongArray): Int {
+        return 4 + value.size * 8
+    }
+}
+
 internal object ByteBufCodec : Codec<ByteBuf> {
 
     override fun read(stream: DataInput): ByteBuf {
@@ -0,0 +1,136 @@
+package org.mitallast.queue.common.collection
+
+/**
+ * Insertion ordered grow-only hash set.
+ *
+ * Elements are appended to flat array, and open addressing table with linear probing
+ * stores element position. Writes must be externally synchronized, reads of [size],
+ * [get] and [iterator] are lock-free and see a prefix of the set: elements never move
+ * inside array, and grown array is published before the size.
+ */
+class AppendOnlyHashSet<T : Any>(capacity: Int = 16) : Iterable<T> {
+    @Volatile private var elements: Array<Any?>
+    @Volatile private var size: Int = 0
+    private var table: IntArray
+    private var mask: Int
+
+    init {
+        val tableSize = tableSizeFor(capacity)
+        elements = arrayOfNulls(Math.max(capacity, 1))
+        table = IntArray(tableSize)
+        mask = tableSize - 1
+    }
+
+    fun size(): Int = size
+
+    fun isEmpty(): Boolean = size == 0
+
+    @Suppress("UNCHECKED_CAST")
+    operator fun get(index: Int): T {
+        val size = this.size
+        if (index < 0 || index >= size) {
+            throw IndexOutOfBoundsException("index $index, size $size")
+        }
+        return elements[index] as T
+    }
+
+    /**
+     * Requires writer lock, table is not safe for concurrent readers.
+     */
+    fun contains(value: T): Boolean = find(value) >= 0
+
+    /**
+     * Returns false if set already contains value.
+     */
+    fun add(value: T): Boolean {
+        var slot = hash(value) and mask
+        while (true) {
+            val pos = table[slot]
+            if (pos == 0) {
+                break
+            }
+            if (elements[pos - 1] == value) {
+                return false
+            }
+            slot = (slot + 1) and mask
+        }
+        val size = this.size
+        var elements = this.elements
+        if (size == elements.size) {
+            elements = elements.copyOf(size * 2)
+            this.elements = elements
+        }
+        elements[size] = value
+        table[slot] = size + 1
+        this.size = size + 1
+        if ((size + 1) * 2 > table.size) {
+            rehash(table.size * 2)
+        }
+        return true
+    }
+
+    /**
+     * Iterates over elements added before the call, without copying.
+     */
+    override fun iterator(): Iterator<T> {
+        val size = this.size
+        val elements = this.elements
+        return object : Iterator<T> {
+            private var index = 0
+
+            override fun hasNext(): Boolean = index < size
+
+            @Suppress("UNCHECKED_CAST")
+            override fun next(): T {
+                if (index >= size) {
+                    throw NoSuchElementException()
+                }
+                return elements[index++] as T
+            }
+        }
+    }
+
+    private fun find(value: T): Int {
+        var slot = hash(value) and mask
+        while (true) {
+            val pos = table[slot]
+            if (pos == 0) {
+                return -1
+            }
+            if (elements[pos - 1] == value) {
+                return pos - 1
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    private fun rehash(tableSize: Int) {
+        val table = IntArray(tableSize)
+        val mask = tableSize - 1
+        val elements = this.elements
+        for (i in 0 until size) {
+            var slot = hash(elements[i]!!) and mask
+            while (table[slot] != 0) {
+                slot = (slot + 1) and mask
+            }
+            table[slot] = i + 1
+        }
+        this.table = table
+        this.mask = mask
+    }
+
+    private companion object {
+        fun hash(value: Any): Int {
+            val h = value.hashCode() * -0x61c88647
+            return h xor (h ushr 16)
+        }
+
+        fun tableSizeFor(capacity: Int): Int {
+            var size = 2
+            while (size < capacity * 2) {
+                size = size shl 1
+            }
+            return size
+        }
+    }
+}
@@ -31,8 +31,22 @@ class JsonMessage : Message {
         this.json = json
     }
 
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is JsonMessage) return false
+        return json == other.json
+    }
+
+    override fun hashCode(): Int {
+        return json.hashCode()
+    }
+
+    override fun toString(): String {
+        return json.toString()
+    }
+
     companion object {
-        private val mapper = JsonService.mapper
+        private val mapper = JsonService.treeMapper
         val codec: Codec<JsonMessage> = object : Codec<JsonMessage> {
             override fun read(stream: DataInput): JsonMessage {
                 val parser = mapper.factory.createParser(stream)
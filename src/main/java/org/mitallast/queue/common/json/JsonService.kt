@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonAutoDetect
 import com.fasterxml.jackson.annotation.PropertyAccessor
 import com.fasterxml.jackson.core.JsonGenerator
 import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
 import com.fasterxml.jackson.core.TreeNode
 import com.fasterxml.jackson.core.type.TypeReference
 import com.fasterxml.jackson.databind.*
@@ -15,6 +16,7 @@ import com.typesafe.config.ConfigRenderOptions
 import io.netty.buffer.ByteBuf
 import io.netty.buffer.ByteBufInputStream
 import io.netty.buffer.ByteBufOutputStream
+import io.vavr.collection.Vector
 import io.vavr.jackson.datatype.VavrModule
 import org.mitallast.queue.common.codec.UnsafeByteBufInputStream
 import java.io.InputStream
@@ -34,6 +36,14 @@ class JsonService {
         mapper.writeValue(out, json)
     }
 
+    fun serialize(generator: JsonGenerator, json: Any) {
+        mapper.writeValue(generator, json)
+    }
+
+    fun generator(out: OutputStream): JsonGenerator {
+        return mapper.factory.createGenerator(out)
+    }
+
     fun <T> deserialize(data: String, type: Class<T>): T {
         return mapper.readValue(data, type)
     }
@@ -58,6 +68,30 @@ class JsonService {
         return mapper.readValue(input, type)
     }
 
+    /**
+     * Reads stream of root level values, or elements of root level array, one by one.
+     */
+    fun <T> deserializeAll(buf: ByteBuf, type: Class<T>): Vector<T> {
+        val values = ArrayList<T>()
+        UnsafeByteBufInputStream(buf).use { input ->
+            mapper.factory.createParser(input as InputStream).use { parser ->
+                var token = parser.nextToken()
+                if (token == JsonToken.START_ARRAY) {
+                    token = parser.nextToken()
+                }
+                while (token != null && token != JsonToken.END_ARRAY) {
+                    if (JsonNode::class.java.isAssignableFrom(type)) {
+                        values.add(type.cast(treeMapper.readTree<JsonNode>(parser)))
+                    } else {
+                        values.add(mapper.readValue(parser, type))
+                    }
+                    token = parser.nextToken()
+                }
+            }
+        }
+        return Vector.ofAll(values)
+    }
+
     private class ConfigSerializer : JsonSerializer<Config>() {
         override fun serialize(value: Config, gen: JsonGenerator, serializers: SerializerProvider) {
             val render = value.root().render(ConfigRenderOptions.concise())
@@ -74,19 +108,23 @@ class JsonService {
 
     private class JsonMessageSerializer : JsonSerializer<JsonMessage>() {
         override fun serialize(value: JsonMessage, gen: JsonGenerator, serializers: SerializerProvider) {
-            gen.writeTree(value.json)
+            treeMapper.writeTree(gen, value.json)
         }
     }
 
     private class JsonMessageDeserializer : JsonDeserializer<JsonMessage>() {
         override fun deserialize(p: JsonParser, ctx: DeserializationContext): JsonMessage {
-            val treeNode = p.readValueAsTree<JsonNode>()
+            val treeNode = treeMapper.readTree<JsonNode>(p)
             return JsonMessage(treeNode)
         }
     }
 
     companion object {
         val mapper: ObjectMapper
+        /**
+         * Reads and writes trees, type of [JsonNode] is not resolved by mapper with vavr module.
+         */
+        val treeMapper = ObjectMapper()
 
         init {
             val module = SimpleModule()
@@ -0,0 +1,183 @@
+package org.mitallast.queue.common.path
+
+import java.util.*
+
+/**
+ * Trie flattened into arrays for request routing. Segments of path are compared in place,
+ * and values of named wildcards are kept as offsets in a reusable [RouteMatch], so matching
+ * does not allocate. Router is immutable, insert compiles a new one.
+ */
+class CompiledRouter<T> private constructor(
+    private val trie: RootTrieNode<T>,
+    private val values: Array<Any?>,
+    private val nodeValue: IntArray,
+    private val nodeTokenStart: IntArray,
+    private val nodeTokenEnd: IntArray,
+    private val nodeWildcardStart: IntArray,
+    private val nodeWildcardEnd: IntArray,
+    private val tokens: Array<String>,
+    private val tokenNode: IntArray,
+    private val wildcardNames: Array<String>,
+    private val wildcardNode: IntArray
+) {
+
+    companion object {
+        fun <T> router(): CompiledRouter<T> = compile(TrieNode.node())
+
+        fun <T> compile(trie: RootTrieNode<T>): CompiledRouter<T> {
+            val builder = Builder<T>()
+            trie.compile(builder)
+            return builder.build(trie)
+        }
+    }
+
+    fun insert(path: String, value: T): CompiledRouter<T> = compile(trie.insert(path, value))
+
+    fun match(path: String, match: RouteMatch): T? = match(path, 0, path.length, match)
+
+    /**
+     * Matches path in range of [start, end), values of wildcards are written to match.
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun match(path: String, start: Int, end: Int, match: RouteMatch): T? {
+        match.reset(path)
+        if (end - start == 0 || end - start == 1 && path[start] == '/') {
+            return value(0)
+        }
+        var index = start
+        if (path[index] == '/') {
+            index++
+        }
+        val node = match(0, path, index, end, match)
+        return if (node < 0) null else values[node] as T
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun value(node: Int): T? {
+        val value = nodeValue[node]
+        return if (value < 0) null else values[value] as T
+    }
+
+    /**
+     * @return index of value or -1
+     */
+    private fun match(node: Int, path: String, start: Int, len: Int, match: RouteMatch): Int {
+        if (start >= len) {
+            return -1
+        }
+        var end = start
+        while (end < len && path[end] != '/') {
+            end++
+        }
+        val isEnd = end == len
+        for (t in nodeTokenStart[node] until nodeTokenEnd[node]) {
+            val child = tokenNode[t]
+            if (isEnd && nodeValue[child] < 0) {
+                continue
+            }
+            if (!isEnd && isLeaf(child)) {
+                continue
+            }
+            val token = tokens[t]
+            if (end - start == token.length && token.regionMatches(0, path, start, token.length)) {
+                if (isEnd) {
+                    return nodeValue[child]
+                }
+                val res = match(child, path, end + 1, len, match)
+                if (res >= 0) {
+                    return res
+                }
+                break
+            }
+        }
+        for (w in nodeWildcardStart[node] until nodeWildcardEnd[node]) {
+            val child = wildcardNode[w]
+            val size = match.size()
+            match.add(wildcardNames[w], start, end)
+            if (isEnd) {
+                if (nodeValue[child] >= 0) {
+                    return nodeValue[child]
+                }
+            } else {
+                val res = match(child, path, end + 1, len, match)
+                if (res >= 0) {
+                    return res
+                }
+            }
+            match.truncate(size)
+        }
+        return -1
+    }
+
+    private fun isLeaf(node: Int): Boolean {
+        return nodeTokenStart[node] == nodeTokenEnd[node] && nodeWildcardStart[node] == nodeWildcardEnd[node]
+    }
+
+    /**
+     * Nodes are added in depth-first order, children of a node are reserved as a contiguous range
+     * before compiling them, so node has start and end of its tokens and wildcards.
+     */
+    class Builder<T> internal constructor() {
+        private val values = ArrayList<Any?>()
+        private val nodeValue = ArrayList<Int>()
+        private val nodeTokenStart = ArrayList<Int>()
+        private val nodeTokenEnd = ArrayList<Int>()
+        private val nodeWildcardStart = ArrayList<Int>()
+        private val nodeWildcardEnd = ArrayList<Int>()
+        private val tokens = ArrayList<String>()
+        private val tokenNode = ArrayList<Int>()
+        private val wildcardNames = ArrayList<String>()
+        private val wildcardNode = ArrayList<Int>()
+
+        internal fun node(value: T?, hasValue: Boolean, tokenCount: Int, wildcardCount: Int): Int {
+            val node = nodeValue.size
+            if (hasValue) {
+                nodeValue.add(values.size)
+                values.add(value)
+            } else {
+                nodeValue.add(-1)
+            }
+            nodeTokenStart.add(tokens.size)
+            for (i in 0 until tokenCount) {
+                tokens.add("")
+                tokenNode.add(-1)
+            }
+            nodeTokenEnd.add(tokens.size)
+            nodeWildcardStart.add(wildcardNames.size)
+            for (i in 0 until wildcardCount) {
+                wildcardNames.add("")
+                wildcardNode.add(-1)
+            }
+            nodeWildcardEnd.add(wildcardNames.size)
+            return node
+        }
+
+        internal fun token(node: Int, index: Int, token: String, child: Int) {
+            val t = nodeTokenStart[node] + index
+            tokens[t] = token
+            tokenNode[t] = child
+        }
+
+        internal fun wildcard(node: Int, index: Int, name: String, child: Int) {
+            val w = nodeWildcardStart[node] + index
+            wildcardNames[w] = name
+            wildcardNode[w] = child
+        }
+
+        internal fun build(trie: RootTrieNode<T>): CompiledRouter<T> {
+            return CompiledRouter(
+                trie,
+                values.toTypedArray(),
+                nodeValue.toIntArray(),
+                nodeTokenStart.toIntArray(),
+                nodeTokenEnd.toIntArray(),
+                nodeWildcardStart.toIntArray(),
+                nodeWildcardEnd.toIntArray(),
+                tokens.toTypedArray(),
+                tokenNode.toIntArray(),
+                wildcardNames.toTypedArray(),
+                wildcardNode.toIntArray()
+            )
+        }
+    }
+}
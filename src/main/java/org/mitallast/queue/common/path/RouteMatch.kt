@@ -0,0 +1,58 @@
+package org.mitallast.queue.common.path
+
+import io.vavr.collection.HashMap
+import io.vavr.collection.Map
+import org.mitallast.queue.common.strings.QueryStringDecoder
+import java.util.*
+
+/**
+ * Reusable holder of named wildcards matched by [CompiledRouter], values are kept as offsets
+ * in path and decoded on access.
+ */
+class RouteMatch {
+    private var path: String = ""
+    private var size = 0
+    private var names = arrayOfNulls<String>(4)
+    private var starts = IntArray(4)
+    private var ends = IntArray(4)
+
+    fun size(): Int = size
+
+    fun name(index: Int): String = names[index]!!
+
+    fun value(index: Int): String = QueryStringDecoder.decodeComponent(path.subSequence(starts[index], ends[index]))
+
+    /**
+     * Values of wildcards put over given params.
+     */
+    fun params(params: Map<String, String>): Map<String, String> {
+        var map = params
+        for (i in 0 until size) {
+            map = map.put(name(i), value(i))
+        }
+        return map
+    }
+
+    fun params(): Map<String, String> = params(HashMap.empty())
+
+    internal fun reset(path: String) {
+        this.path = path
+        this.size = 0
+    }
+
+    internal fun add(name: String, start: Int, end: Int) {
+        if (size == names.size) {
+            names = Arrays.copyOf(names, size * 2)
+            starts = Arrays.copyOf(starts, size * 2)
+            ends = Arrays.copyOf(ends, size * 2)
+        }
+        names[size] = name
+        starts[size] = start
+        ends[size] = end
+        size++
+    }
+
+    internal fun truncate(size: Int) {
+        this.size = size
+    }
+}
@@ -142,6 +142,17 @@ abstract class TrieNode<T, N : TrieNode<T, N>> {
         return Pair(Option.none(), HashMap.empty())
     }
 
+    internal fun compile(builder: CompiledRouter.Builder<T>): Int {
+        val node = builder.node(value.orNull, value.isDefined, children.size, wildcard.size)
+        for ((i, child) in children.withIndex()) {
+            builder.token(node, i, child.key, child.compile(builder))
+        }
+        for ((i, child) in wildcard.withIndex()) {
+            builder.wildcard(node, i, child.key.substring(1, child.key.length - 1), child.compile(builder))
+        }
+        return node
+    }
+
     fun prettyPrint() = prettyPrint(0, "", true)
 
     protected fun prettyPrint(level: Int, prefix: String, last: Boolean) {
@@ -6,5 +6,25 @@ interface Crdt {
 
     fun update(event: Message)
 
+    /**
+     * Applies events in order as one update, implementations fold events which supersede each other.
+     */
+    fun updateAll(events: List<Message>) {
+        for (event in events) {
+            update(event)
+        }
+    }
+
     fun shouldCompact(event: Message): Boolean
+
+    /**
+     * Returns state as downstream updates, and local updates not replicated yet as source updates.
+     * Applying both with [update] to empty instance restores the state.
+     */
+    fun snapshot(): CrdtSnapshot
+
+    /**
+     * Hash of snapshot state, equal at replicas which observed the same updates.
+     */
+    fun digest(): Long = CrdtDigest.of(snapshot().state)
 }
@@ -0,0 +1,52 @@
+package org.mitallast.queue.crdt
+
+import net.jpountz.xxhash.XXHashFactory
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+
+/**
+ * 64-bit hashes of CRDT state. State digest is a sum of element hashes,
+ * so it does not depend on the order updates were applied in.
+ */
+object CrdtDigest {
+    private val hash64 = XXHashFactory.fastestInstance().hash64()
+    private const val seed = 0x9747b28cL
+
+    fun of(message: Message): Long {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { Codec.anyCodec<Message>().write(it, message) }
+        val array = bytes.toByteArray()
+        return hash64.hash(array, 0, array.size, seed)
+    }
+
+    fun of(messages: Iterable<Message>): Long {
+        var digest = 0L
+        for (message in messages) {
+            digest += of(message)
+        }
+        return digest
+    }
+
+    fun of(a: Long, b: Long): Long {
+        return mix(mix(a) * 31 + b)
+    }
+
+    fun of(a: Long, b: Long, c: Long): Long {
+        return mix(of(a, b) * 31 + c)
+    }
+
+    /**
+     * Finalizer of murmur3 64-bit hash.
+     */
+    fun mix(value: Long): Long {
+        var h = value
+        h = h xor (h ushr 33)
+        h *= -0xae502812aa7333L
+        h = h xor (h ushr 33)
+        h *= -0x3b314601e57a13adL
+        h = h xor (h ushr 33)
+        return h
+    }
+}
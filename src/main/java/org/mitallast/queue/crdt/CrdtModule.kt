@@ -4,31 +4,63 @@ import com.google.inject.AbstractModule
 import com.google.inject.assistedinject.FactoryModuleBuilder
 import org.mitallast.queue.common.codec.Codec
 import org.mitallast.queue.crdt.bucket.Bucket
+import org.mitallast.queue.crdt.bucket.BucketExecutors
 import org.mitallast.queue.crdt.bucket.BucketFactory
+import org.mitallast.queue.crdt.bucket.BucketSnapshot
 import org.mitallast.queue.crdt.bucket.DefaultBucket
+import org.mitallast.queue.crdt.bucket.ResourceSnapshot
 import org.mitallast.queue.crdt.commutative.GCounter
 import org.mitallast.queue.crdt.commutative.GSet
+import org.mitallast.queue.crdt.commutative.LWWMap
 import org.mitallast.queue.crdt.commutative.LWWRegister
+import org.mitallast.queue.crdt.commutative.ORSet
 import org.mitallast.queue.crdt.commutative.OrderedGSet
+import org.mitallast.queue.crdt.commutative.PNCounter
 import org.mitallast.queue.crdt.log.FileReplicatedLog
 import org.mitallast.queue.crdt.log.ReplicatedLog
 import org.mitallast.queue.crdt.log.ReplicatedLogFactory
+import org.mitallast.queue.crdt.protocol.AntiEntropyDigests
+import org.mitallast.queue.crdt.protocol.AntiEntropyRepair
+import org.mitallast.queue.crdt.protocol.AntiEntropyRequest
 import org.mitallast.queue.crdt.protocol.AppendEntries
 import org.mitallast.queue.crdt.protocol.AppendRejected
 import org.mitallast.queue.crdt.protocol.AppendSuccessful
+import org.mitallast.queue.crdt.protocol.BucketNotAllocated
+import org.mitallast.queue.crdt.protocol.ConsumeRequest
+import org.mitallast.queue.crdt.protocol.ConsumeResponse
+import org.mitallast.queue.crdt.protocol.CounterRequest
+import org.mitallast.queue.crdt.protocol.CounterResponse
+import org.mitallast.queue.crdt.protocol.InstallSnapshot
+import org.mitallast.queue.crdt.protocol.InstallSnapshotAck
+import org.mitallast.queue.crdt.protocol.MigrateRequest
+import org.mitallast.queue.crdt.protocol.MigrateResponse
+import org.mitallast.queue.crdt.protocol.OrderedGSetPageRequest
+import org.mitallast.queue.crdt.protocol.OrderedGSetPageResponse
+import org.mitallast.queue.crdt.protocol.ProduceRequest
+import org.mitallast.queue.crdt.protocol.RegisterRequest
+import org.mitallast.queue.crdt.protocol.RoutingTableRequest
+import org.mitallast.queue.crdt.protocol.SetRequest
+import org.mitallast.queue.crdt.protocol.ValuesResponse
+import org.mitallast.queue.crdt.feed.CrdtFeed
 import org.mitallast.queue.crdt.registry.CrdtRegistry
 import org.mitallast.queue.crdt.registry.CrdtRegistryFactory
 import org.mitallast.queue.crdt.registry.DefaultCrdtRegistry
+import org.mitallast.queue.crdt.replication.AntiEntropy
+import org.mitallast.queue.crdt.replication.AntiEntropyFactory
+import org.mitallast.queue.crdt.replication.DefaultAntiEntropy
 import org.mitallast.queue.crdt.replication.DefaultReplicator
 import org.mitallast.queue.crdt.replication.Replicator
 import org.mitallast.queue.crdt.replication.ReplicatorFactory
-import org.mitallast.queue.crdt.replication.state.FileReplicaState
+import org.mitallast.queue.crdt.replication.state.MappedReplicaState
 import org.mitallast.queue.crdt.replication.state.ReplicaState
 import org.mitallast.queue.crdt.replication.state.ReplicaStateFactory
 import org.mitallast.queue.crdt.routing.Resource
 import org.mitallast.queue.crdt.routing.RoutingTable
 import org.mitallast.queue.crdt.routing.allocation.AllocationStrategy
-import org.mitallast.queue.crdt.routing.allocation.DefaultAllocationStrategy
+import org.mitallast.queue.crdt.routing.allocation.BucketLoad
+import org.mitallast.queue.crdt.routing.allocation.BucketLoadReport
+import org.mitallast.queue.crdt.routing.allocation.BucketLoads
+import org.mitallast.queue.crdt.routing.allocation.LoadAwareAllocationStrategy
 import org.mitallast.queue.crdt.routing.fsm.*
 
 class CrdtModule : AbstractModule() {
@@ -36,24 +68,32 @@ class CrdtModule : AbstractModule() {
     override fun configure() {
         bind(DefaultCrdtService::class.java).asEagerSingleton()
         bind(CrdtService::class.java).to(DefaultCrdtService::class.java)
+        bind(CrdtRequestHandler::class.java).asEagerSingleton()
 
         // routing
 
         bind(RoutingTableFSM::class.java).asEagerSingleton()
 
+        // feed
+
+        bind(CrdtFeed::class.java).asEagerSingleton()
+
         // allocation
 
-        bind(DefaultAllocationStrategy::class.java).asEagerSingleton()
-        bind(AllocationStrategy::class.java).to(DefaultAllocationStrategy::class.java)
+        bind(BucketLoads::class.java).asEagerSingleton()
+        bind(LoadAwareAllocationStrategy::class.java).asEagerSingleton()
+        bind(AllocationStrategy::class.java).to(LoadAwareAllocationStrategy::class.java)
 
         // bucket
 
+        bind(BucketExecutors::class.java).asEagerSingleton()
+
         install(FactoryModuleBuilder()
             .implement(ReplicatedLog::class.java, FileReplicatedLog::class.java)
             .build(ReplicatedLogFactory::class.java))
 
         install(FactoryModuleBuilder()
-            .implement(ReplicaState::class.java, FileReplicaState::class.java)
+            .implement(ReplicaState::class.java, MappedReplicaState::class.java)
             .build(ReplicaStateFactory::class.java))
 
         install(FactoryModuleBuilder()
@@ -69,6 +109,10 @@ class CrdtModule : AbstractModule() {
         install(FactoryModuleBuilder()
             .implement(Replicator::class.java, DefaultReplicator::class.java)
             .build(ReplicatorFactory::class.java))
+
+        install(FactoryModuleBuilder()
+            .implement(AntiEntropy::class.java, DefaultAntiEntropy::class.java)
+            .build(AntiEntropyFactory::class.java))
     }
 
     companion object {
@@ -94,6 +138,48 @@ class CrdtModule : AbstractModule() {
             Codec.register(318, AddReplica::class.java, AddReplica.codec)
             Codec.register(319, CloseReplica::class.java, CloseReplica.codec)
             Codec.register(320, RemoveReplica::class.java, RemoveReplica.codec)
+            Codec.register(321, GSet.DownstreamAddAll::class.java, GSet.DownstreamAddAll.codec)
+            Codec.register(322, PNCounter.SourceAdd::class.java, PNCounter.SourceAdd.codec)
+            Codec.register(323, PNCounter.DownstreamAssign::class.java, PNCounter.DownstreamAssign.codec)
+            Codec.register(324, ORSet.SourceAdd::class.java, ORSet.SourceAdd.codec)
+            Codec.register(325, ORSet.SourceRemove::class.java, ORSet.SourceRemove.codec)
+            Codec.register(326, ORSet.DownstreamAdd::class.java, ORSet.DownstreamAdd.codec)
+            Codec.register(327, ORSet.DownstreamRemove::class.java, ORSet.DownstreamRemove.codec)
+            Codec.register(328, LWWMap.SourceLongAssign::class.java, LWWMap.SourceLongAssign.codec)
+            Codec.register(329, LWWMap.SourceStringAssign::class.java, LWWMap.SourceStringAssign.codec)
+            Codec.register(330, LWWMap.DownstreamLongAssign::class.java, LWWMap.DownstreamLongAssign.codec)
+            Codec.register(331, LWWMap.DownstreamStringAssign::class.java, LWWMap.DownstreamStringAssign.codec)
+            Codec.register(332, OrderedGSetPageRequest::class.java, OrderedGSetPageRequest.codec)
+            Codec.register(333, OrderedGSetPageResponse::class.java, OrderedGSetPageResponse.codec)
+            Codec.register(334, ORSet.DownstreamState::class.java, ORSet.DownstreamState.codec)
+            Codec.register(335, BucketSnapshot::class.java, BucketSnapshot.codec)
+            Codec.register(336, ResourceSnapshot::class.java, ResourceSnapshot.codec)
+            Codec.register(337, InstallSnapshot::class.java, InstallSnapshot.codec)
+            Codec.register(338, AntiEntropyRequest::class.java, AntiEntropyRequest.codec)
+            Codec.register(339, AntiEntropyDigests::class.java, AntiEntropyDigests.codec)
+            Codec.register(340, AntiEntropyRepair::class.java, AntiEntropyRepair.codec)
+            Codec.register(341, SplitBucket::class.java, SplitBucket.codec)
+            Codec.register(342, SplitBucketResponse::class.java, SplitBucketResponse.codec)
+            Codec.register(343, CompleteSplit::class.java, CompleteSplit.codec)
+            Codec.register(344, MigrateRequest::class.java, MigrateRequest.codec)
+            Codec.register(345, MigrateResponse::class.java, MigrateResponse.codec)
+            Codec.register(346, BucketLoad::class.java, BucketLoad.codec)
+            Codec.register(347, BucketLoadReport::class.java, BucketLoadReport.codec)
+            Codec.register(348, AddResources::class.java, AddResources.codec)
+            Codec.register(349, AddResourcesResponse::class.java, AddResourcesResponse.codec)
+            Codec.register(350, RemoveResources::class.java, RemoveResources.codec)
+            Codec.register(351, RemoveResourcesResponse::class.java, RemoveResourcesResponse.codec)
+            Codec.register(355, RoutingTableRequest::class.java, RoutingTableRequest.codec)
+            Codec.register(356, CounterRequest::class.java, CounterRequest.codec)
+            Codec.register(357, CounterResponse::class.java, CounterResponse.codec)
+            Codec.register(358, RegisterRequest::class.java, RegisterRequest.codec)
+            Codec.register(359, SetRequest::class.java, SetRequest.codec)
+            Codec.register(360, ValuesResponse::class.java, ValuesResponse.codec)
+            Codec.register(361, ProduceRequest::class.java, ProduceRequest.codec)
+            Codec.register(362, ConsumeRequest::class.java, ConsumeRequest.codec)
+            Codec.register(363, ConsumeResponse::class.java, ConsumeResponse.codec)
+            Codec.register(364, InstallSnapshotAck::class.java, InstallSnapshotAck.codec)
+            Codec.register(365, BucketNotAllocated::class.java, BucketNotAllocated.codec)
         }
     }
 }
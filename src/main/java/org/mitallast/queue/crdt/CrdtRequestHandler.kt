@@ -0,0 +1,132 @@
+package org.mitallast.queue.crdt
+
+import com.google.inject.Inject
+import io.vavr.CheckedFunction0
+import io.vavr.collection.Vector
+import io.vavr.concurrent.Future
+import io.vavr.control.Option
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.bucket.Bucket
+import org.mitallast.queue.crdt.commutative.GCounter
+import org.mitallast.queue.crdt.commutative.GSet
+import org.mitallast.queue.crdt.commutative.LWWRegister
+import org.mitallast.queue.crdt.commutative.ORSet
+import org.mitallast.queue.crdt.commutative.OrderedGSet
+import org.mitallast.queue.crdt.commutative.PNCounter
+import org.mitallast.queue.crdt.protocol.BucketNotAllocated
+import org.mitallast.queue.crdt.protocol.ConsumeRequest
+import org.mitallast.queue.crdt.protocol.ConsumeResponse
+import org.mitallast.queue.crdt.protocol.CounterRequest
+import org.mitallast.queue.crdt.protocol.CounterResponse
+import org.mitallast.queue.crdt.protocol.ProduceRequest
+import org.mitallast.queue.crdt.protocol.RegisterRequest
+import org.mitallast.queue.crdt.protocol.RoutingTableRequest
+import org.mitallast.queue.crdt.protocol.SetRequest
+import org.mitallast.queue.crdt.protocol.ValuesResponse
+import org.mitallast.queue.crdt.routing.ResourceType
+import org.mitallast.queue.crdt.routing.fsm.AddResources
+import org.mitallast.queue.crdt.routing.fsm.AddResourcesResponse
+import org.mitallast.queue.crdt.routing.fsm.RemoveResources
+import org.mitallast.queue.crdt.routing.fsm.RemoveResourcesResponse
+import org.mitallast.queue.transport.TransportController
+
+/**
+ * Requests of clients connected to transport. Resource operations are executed by executor of
+ * bucket, request to node which has no replica of bucket is answered by [BucketNotAllocated],
+ * so client refreshes routing.
+ */
+class CrdtRequestHandler @Inject constructor(
+    transportController: TransportController,
+    private val crdtService: CrdtService
+) {
+    init {
+        transportController.registerRequestHandler(RoutingTableRequest::class.java) {
+            Future.successful(crdtService.routingTable())
+        }
+        transportController.registerRequestHandler(AddResources::class.java) { message ->
+            crdtService.addResources(message.resources).map { AddResourcesResponse(it) }
+        }
+        transportController.registerRequestHandler(RemoveResources::class.java) { message ->
+            crdtService.removeResources(message.ids).map { RemoveResourcesResponse(it) }
+        }
+        transportController.registerRequestHandler(CounterRequest::class.java) { message ->
+            execute(message.id) { bucket -> counter(bucket, message) }
+        }
+        transportController.registerRequestHandler(RegisterRequest::class.java) { message ->
+            execute(message.id) { bucket -> register(bucket, message) }
+        }
+        transportController.registerRequestHandler(SetRequest::class.java) { message ->
+            execute(message.id) { bucket -> set(bucket, message) }
+        }
+        transportController.registerRequestHandler(ProduceRequest::class.java) { message ->
+            execute(message.id) { bucket ->
+                val set = bucket.registry().crdtOpt(message.id, OrderedGSet::class.java)
+                set.forEach { it.add(message.value, message.timestamp) }
+                ValuesResponse(message.id, set.isDefined, Vector.empty())
+            }
+        }
+        transportController.registerRequestHandler(ConsumeRequest::class.java) { message ->
+            execute(message.id) { bucket ->
+                val set = bucket.registry().crdtOpt(message.id, OrderedGSet::class.java)
+                ConsumeResponse(message.id, set.map { it.page(message.query) })
+            }
+        }
+    }
+
+    private fun execute(id: Long, task: (Bucket) -> Message): Future<Message> {
+        val bucket = crdtService.bucket(id)
+            ?: return Future.successful(BucketNotAllocated(crdtService.routingTable().bucket(id).index))
+        return Future.of(bucket.executor(), CheckedFunction0 { task(bucket) })
+    }
+
+    private fun counter(bucket: Bucket, message: CounterRequest): CounterResponse {
+        val registry = bucket.registry()
+        val value: Option<Long> = when (message.type) {
+            ResourceType.GCounter -> registry.crdtOpt(message.id, GCounter::class.java).map {
+                if (message.delta == 0L) it.value() else it.add(message.delta)
+            }
+            ResourceType.PNCounter -> registry.crdtOpt(message.id, PNCounter::class.java).map {
+                if (message.delta == 0L) it.value() else it.add(message.delta)
+            }
+            else -> throw IllegalArgumentException("${message.type} is not a counter")
+        }
+        return CounterResponse(message.id, value)
+    }
+
+    private fun register(bucket: Bucket, message: RegisterRequest): ValuesResponse {
+        val register = bucket.registry().crdtOpt(message.id, LWWRegister::class.java)
+        if (register.isEmpty) {
+            return ValuesResponse(message.id, false, Vector.empty())
+        }
+        return if (message.value.isDefined) {
+            register.get().assign(message.value.get(), message.timestamp)
+            ValuesResponse(message.id, true, Vector.empty())
+        } else {
+            ValuesResponse(message.id, true, register.get().value().toVector())
+        }
+    }
+
+    private fun set(bucket: Bucket, message: SetRequest): ValuesResponse {
+        val registry = bucket.registry()
+        val read = message.add.isEmpty && message.remove.isEmpty
+        return when (message.type) {
+            ResourceType.GSet -> {
+                if (message.remove.nonEmpty()) {
+                    throw IllegalArgumentException("g-set does not support remove")
+                }
+                val set = registry.crdtOpt(message.id, GSet::class.java)
+                set.forEach { s -> message.add.forEach { s.add(it) } }
+                ValuesResponse(message.id, set.isDefined, if (read) set.map { it.values() }.getOrElse(Vector.empty()) else Vector.empty())
+            }
+            ResourceType.ORSet -> {
+                val set = registry.crdtOpt(message.id, ORSet::class.java)
+                set.forEach { s ->
+                    message.add.forEach { s.add(it) }
+                    message.remove.forEach { s.remove(it) }
+                }
+                ValuesResponse(message.id, set.isDefined, if (read) set.map { it.values() }.getOrElse(Vector.empty()) else Vector.empty())
+            }
+            else -> throw IllegalArgumentException("${message.type} is not a set")
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package org.mitallast.queue.crdt
 
+import io.vavr.collection.Seq
+import io.vavr.collection.Vector
 import io.vavr.concurrent.Future
 import org.mitallast.queue.crdt.bucket.Bucket
+import org.mitallast.queue.crdt.routing.Resource
 import org.mitallast.queue.crdt.routing.ResourceType
 import org.mitallast.queue.crdt.routing.RoutingTable
 
@@ -9,9 +12,27 @@ interface CrdtService {
 
     fun addResource(id: Long, resourceType: ResourceType): Future<Boolean>
 
+    /**
+     * Adds resources in batches of one raft command each, result of each resource in order.
+     */
+    fun addResources(resources: Seq<Resource>): Future<Vector<Boolean>>
+
+    fun removeResources(ids: Seq<Long>): Future<Vector<Boolean>>
+
+    /**
+     * Splits bucket range in two, resources of upper half are migrated to new bucket.
+     */
+    fun splitBucket(index: Int): Future<Boolean>
+
     fun routingTable(): RoutingTable
 
     fun bucket(index: Int): Bucket?
 
     fun bucket(resourceId: Long): Bucket?
+
+    /**
+     * Executes task on executor of bucket of resource, local writes of bucket are made by it only.
+     * Returns default if bucket is not allocated at this node.
+     */
+    fun <T> execute(resourceId: Long, default: T, task: (Bucket) -> T): Future<T>
 }
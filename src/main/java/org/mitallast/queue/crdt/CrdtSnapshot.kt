@@ -0,0 +1,14 @@
+package org.mitallast.queue.crdt
+
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.codec.Message
+
+data class CrdtSnapshot(val state: Vector<Message>, val pending: Vector<Message>) {
+    companion object {
+        private val empty = CrdtSnapshot(Vector.empty(), Vector.empty())
+
+        fun empty(): CrdtSnapshot = empty
+
+        fun of(state: Vector<Message>): CrdtSnapshot = CrdtSnapshot(state, Vector.empty())
+    }
+}
@@ -1,21 +1,47 @@
 package org.mitallast.queue.crdt
 
+import com.typesafe.config.Config
+import gnu.trove.map.hash.TLongLongHashMap
+import gnu.trove.map.hash.TLongObjectHashMap
+import gnu.trove.set.hash.TLongHashSet
+import io.vavr.CheckedFunction0
 import io.vavr.collection.HashMap
 import io.vavr.collection.Map
+import io.vavr.collection.Seq
+import io.vavr.collection.Vector
 import io.vavr.concurrent.Future
+import io.vavr.control.Option
+import org.mitallast.queue.common.codec.Message
 import org.mitallast.queue.common.events.EventBus
 import org.mitallast.queue.common.logging.LoggingService
 import org.mitallast.queue.crdt.bucket.Bucket
 import org.mitallast.queue.crdt.bucket.BucketFactory
+import org.mitallast.queue.crdt.commutative.OrderedGSet
 import org.mitallast.queue.crdt.event.ClosedLogSynced
+import org.mitallast.queue.crdt.feed.CrdtFeed
+import org.mitallast.queue.crdt.log.LogEntry
+import org.mitallast.queue.crdt.protocol.AntiEntropyDigests
+import org.mitallast.queue.crdt.protocol.AntiEntropyRepair
+import org.mitallast.queue.crdt.protocol.AntiEntropyRequest
 import org.mitallast.queue.crdt.protocol.AppendEntries
 import org.mitallast.queue.crdt.protocol.AppendRejected
 import org.mitallast.queue.crdt.protocol.AppendSuccessful
+import org.mitallast.queue.crdt.protocol.InstallSnapshot
+import org.mitallast.queue.crdt.protocol.InstallSnapshotAck
+import org.mitallast.queue.crdt.protocol.MigrateRequest
+import org.mitallast.queue.crdt.protocol.MigrateResponse
+import org.mitallast.queue.crdt.protocol.OrderedGSetPageRequest
+import org.mitallast.queue.crdt.protocol.OrderedGSetPageResponse
+import org.mitallast.queue.crdt.routing.Resource
 import org.mitallast.queue.crdt.routing.ResourceType
 import org.mitallast.queue.crdt.routing.RoutingBucket
 import org.mitallast.queue.crdt.routing.RoutingReplica
 import org.mitallast.queue.crdt.routing.RoutingTable
 import org.mitallast.queue.crdt.routing.allocation.AllocationStrategy
+import org.mitallast.queue.crdt.routing.allocation.BucketLoad
+import org.mitallast.queue.crdt.routing.allocation.BucketLoadReport
+import org.mitallast.queue.crdt.routing.allocation.BucketLoads
+import org.mitallast.queue.crdt.routing.event.RoutingDelta
 import org.mitallast.queue.crdt.routing.event.RoutingTableChanged
 import org.mitallast.queue.crdt.routing.fsm.*
 import org.mitallast.queue.raft.Raft
@@ -25,109 +51,374 @@ import org.mitallast.queue.raft.event.MembersChanged
 import org.mitallast.queue.raft.protocol.ClientMessage
 import org.mitallast.queue.transport.TransportController
 import org.mitallast.queue.transport.TransportService
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executors
-import java.util.concurrent.locks.ReentrantLock
+import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 
 class DefaultCrdtService @Inject constructor(
+    config: Config,
     logging: LoggingService,
     private val raft: Raft,
     private val routingTableFSM: RoutingTableFSM,
     private val allocationStrategy: AllocationStrategy,
+    private val bucketLoads: BucketLoads,
     private val discovery: ClusterDiscovery,
     private val bucketFactory: BucketFactory,
+    private val feed: CrdtFeed,
     private val transportService: TransportService,
     transportController: TransportController,
     eventBus: EventBus
 ) : CrdtService {
     private val logger = logging.logger()
+    private val ackDelay = config.getDuration("crdt.replication.ack-delay", TimeUnit.MILLISECONDS)
+    private val acks = ConcurrentHashMap<Int, PendingAcks>()
+    // replicas of source bucket which sent moved resources, by index of split bucket
+    private val migrated = ConcurrentHashMap<Int, TLongHashSet>()
+    private val batchSize = config.getInt("crdt.resources.batch-size")
+    private val allocationInterval = config.getDuration("crdt.allocation.interval", TimeUnit.MILLISECONDS)
+    // log index of local replicas at previous load report, accessed from routing executor
+    private val reported = TLongLongHashMap(7, 0.5f, 0, 0)
+    private var reportedAt = System.currentTimeMillis()
 
-    private val lock = ReentrantLock()
     @Volatile private var lastApplied: Long = 0
     @Volatile private var buckets: Map<Int, Bucket> = HashMap.empty()
 
     init {
-
-        val executor = Executors.newSingleThreadExecutor()
+        // routing events are processed sequentially on single thread, bucket work is passed to bucket executor
+        val executor = Executors.newSingleThreadScheduledExecutor()
         eventBus.subscribe(MembersChanged::class.java, this::handle, executor)
         eventBus.subscribe(RoutingTableChanged::class.java, this::handle, executor)
         eventBus.subscribe(ClosedLogSynced::class.java, this::handle, executor)
+        // routing restored from disk is not replayed as events
+        executor.execute {
+            val index = routingTableFSM.lastApplied()
+            val routingTable = routingTableFSM.get()
+            handle(RoutingTableChanged(index, routingTable, RoutingDelta.all(routingTable)))
+        }
+        // loads change without routing changes, so leader also rebalances periodically
+        executor.scheduleWithFixedDelay({
+            try {
+                report()
+                processAsLeader(routingTable())
+            } catch (e: Exception) {
+                logger.error("error report bucket loads", e)
+            }
+        }, allocationInterval, allocationInterval, TimeUnit.MILLISECONDS)
 
-        transportController.registerMessageHandler(AppendEntries::class.java) { message: AppendEntries -> this.append(message) }
-        transportController.registerMessageHandler(AppendSuccessful::class.java) { message: AppendSuccessful -> this.successful(message) }
-        transportController.registerMessageHandler(AppendRejected::class.java) { message: AppendRejected -> this.rejected(message) }
+        transportController.registerMessageHandler(AppendEntries::class.java) { message: AppendEntries ->
+            execute(message.bucket) { append(it, message) }
+        }
+        transportController.registerMessageHandler(AppendSuccessful::class.java) { message: AppendSuccessful ->
+            execute(message.bucket) { it.replicator().successful(message) }
+        }
+        transportController.registerMessageHandler(AppendRejected::class.java) { message: AppendRejected ->
+            execute(message.bucket) { it.replicator().rejected(message) }
+        }
+        transportController.registerMessageHandler(InstallSnapshot::class.java) { message: InstallSnapshot ->
+            execute(message.bucket) { install(it, message) }
+        }
+        transportController.registerMessageHandler(InstallSnapshotAck::class.java) { message: InstallSnapshotAck ->
+            execute(message.bucket) { it.replicator().snapshotAck(message) }
+        }
+        transportController.registerMessageHandler(AntiEntropyRequest::class.java) { message: AntiEntropyRequest ->
+            execute(message.bucket) { it.antiEntropy().request(message) }
+        }
+        transportController.registerMessageHandler(AntiEntropyDigests::class.java) { message: AntiEntropyDigests ->
+            execute(message.bucket) { it.antiEntropy().digests(message) }
+        }
+        transportController.registerMessageHandler(AntiEntropyRepair::class.java) { message: AntiEntropyRepair ->
+            execute(message.bucket) { it.antiEntropy().repair(message) }
+        }
+        transportController.registerMessageHandler(MigrateRequest::class.java) { message: MigrateRequest ->
+            execute(message.bucket) { migrate(it, message) }
+        }
+        transportController.registerMessageHandler(MigrateResponse::class.java) { message: MigrateResponse ->
+            execute(message.bucket) { migrate(it, message) }
+        }
+        transportController.registerMessageHandler(BucketLoadReport::class.java) { message: BucketLoadReport -> bucketLoads.update(message) }
+        transportController.registerMessageHandler(OrderedGSetPageRequest::class.java) { message: OrderedGSetPageRequest -> this.page(message) }
     }
 
-    private fun append(message: AppendEntries) {
-        val bucket = bucket(message.bucket)
+    /**
+     * Runs task on executor which owns bucket, transport threads never wait for bucket.
+     */
+    private fun execute(index: Int, task: (Bucket) -> Unit) {
+        val bucket = bucket(index)
         if (bucket == null) {
-            logger.warn("unexpected bucket {}, ignore", message.bucket)
-        } else {
-            bucket.lock().lock()
+            logger.warn("unexpected bucket {}, ignore", index)
+            return
+        }
+        bucket.executor().execute {
             try {
-                val routingBucket = routingTable().bucket(message.bucket.toLong())
-                val replica = routingBucket.replicas.getOrElse(message.replica, null)
-                if (replica == null) {
-                    logger.warn("unexpected replica {}, ignore", message.replica)
-                } else {
-                    var localIndex = bucket.state()[message.replica]
-                    if (localIndex == message.prevIndex) {
-                        for (logEntry in message.entries) {
-                            bucket.registry().crdt(logEntry.id).update(logEntry.event)
-                            localIndex = Math.max(localIndex, logEntry.index)
-                        }
-                        bucket.state().put(message.replica, localIndex)
-                        if (logger.isDebugEnabled) {
-                            logger.debug("[replica={}:{}] append success to={}:{} prev={} new={}",
-                                bucket.index(), bucket.replica(),
-                                message.bucket, message.replica, message.prevIndex, localIndex)
+                task(bucket)
+            } catch (e: Exception) {
+                logger.error("error in bucket {}", index, e)
+            }
+        }
+    }
+
+    /**
+     * Pending acknowledgements of applied entries, accessed from bucket executor only.
+     */
+    private class PendingAcks(val bucket: Bucket) {
+        val indexes = TLongLongHashMap(7, 0.5f, 0, 0)
+        var scheduled = false
+
+        fun index(replica: Long): Long {
+            return if (indexes.containsKey(replica)) indexes.get(replica) else bucket.state()[replica]
+        }
+    }
+
+    /**
+     * Entries of batch are grouped by resource and each group is applied at once. Replica index
+     * is written and acknowledged after ack-delay, joined with batches received meanwhile.
+     */
+    private fun append(bucket: Bucket, message: AppendEntries) {
+        val routingBucket = routingTable().bucket(message.bucket)
+        val replica = routingBucket.replicas.getOrElse(message.replica, null)
+        if (replica == null) {
+            logger.warn("unexpected replica {}, ignore", message.replica)
+        } else {
+            val acks = acks(bucket)
+            val localIndex = acks.index(message.replica)
+            if (localIndex == message.prevIndex) {
+                val index = apply(bucket, message.entries, localIndex)
+                acks.indexes.put(message.replica, index)
+                if (logger.isDebugEnabled) {
+                    logger.debug("[replica={}:{}] append success to={}:{} prev={} new={}",
+                        bucket.index(), bucket.replica(),
+                        message.bucket, message.replica, message.prevIndex, index)
+                }
+                if (!acks.scheduled) {
+                    acks.scheduled = true
+                    bucket.executor().schedule({
+                        try {
+                            flush(acks)
+                        } catch (e: Exception) {
+                            logger.error("error in bucket {}", bucket.index(), e)
                         }
-                        transportService.send(
-                            replica.member,
-                            AppendSuccessful(message.bucket, bucket.replica(), localIndex)
-                        )
-                    } else {
-                        logger.warn("[replica={}:{}] append reject to={}:{} prev={} index={}",
-                            bucket.index(), bucket.replica(),
-                            message.bucket, message.replica, message.prevIndex, localIndex)
-                        transportService.send(
-                            replica.member,
-                            AppendRejected(message.bucket, bucket.replica(), localIndex)
-                        )
-                    }
+                    }, ackDelay, TimeUnit.MILLISECONDS)
                 }
-            } finally {
-                bucket.lock().unlock()
+            } else {
+                logger.warn("[replica={}:{}] append reject to={}:{} prev={} index={}",
+                    bucket.index(), bucket.replica(),
+                    message.bucket, message.replica, message.prevIndex, localIndex)
+                transportService.send(
+                    replica.member,
+                    AppendRejected(message.bucket, bucket.replica(), localIndex)
+                )
             }
         }
     }
 
-    private fun successful(message: AppendSuccessful) {
-        val bucket = bucket(message.bucket)
-        bucket?.replicator()?.successful(message)
+    private fun apply(bucket: Bucket, entries: Vector<LogEntry>, prevIndex: Long): Long {
+        var index = prevIndex
+        if (entries.size() == 1) {
+            val logEntry = entries.head()
+            bucket.registry().crdt(logEntry.id).update(logEntry.event)
+            bucket.modified()
+            feed.publish(bucket.index(), logEntry.id, logEntry.event)
+            return Math.max(index, logEntry.index)
+        }
+        val groups = TLongObjectHashMap<ArrayList<Message>>()
+        for (logEntry in entries) {
+            var group = groups.get(logEntry.id)
+            if (group == null) {
+                group = ArrayList()
+                groups.put(logEntry.id, group)
+            }
+            group.add(logEntry.event)
+            index = Math.max(index, logEntry.index)
+        }
+        groups.forEachEntry { id, events ->
+            bucket.registry().crdt(id).updateAll(events)
+            for (event in events) {
+                feed.publish(bucket.index(), id, event)
+            }
+            true
+        }
+        bucket.modified()
+        return index
     }
 
-    private fun rejected(message: AppendRejected) {
-        val bucket = bucket(message.bucket)
-        bucket?.replicator()?.rejected(message)
+    private fun acks(bucket: Bucket): PendingAcks {
+        val acks = this.acks[bucket.index()]
+        if (acks != null && acks.bucket === bucket) {
+            return acks
+        }
+        val created = PendingAcks(bucket)
+        this.acks[bucket.index()] = created
+        return created
     }
 
-    private fun handle(message: ClosedLogSynced) {
-        lock.lock()
-        try {
-            val routingTable = routingTableFSM.get()
-            val replica = routingTable.bucket(message.bucket.toLong()).replicas.get(message.replica)
-            if (replica.isDefined && replica.get().isClosed) {
-                logger.info("RemoveReplica bucket {} {}", message.bucket, message.replica)
-                val request = RemoveReplica(message.bucket, message.replica)
-                raft.apply(ClientMessage(request, 0))
-            } else {
-                logger.warn("open closed replicator bucket {}", message.bucket)
-                val bucket = bucket(message.bucket)
-                bucket?.replicator()?.open()
+    /**
+     * Writes pending replica indexes at once and acknowledges them, dropped if bucket was deleted.
+     */
+    private fun flush(acks: PendingAcks) {
+        acks.scheduled = false
+        if (acks.indexes.isEmpty || bucket(acks.bucket.index()) !== acks.bucket) {
+            acks.indexes.clear()
+            return
+        }
+        val bucket = acks.bucket
+        val indexes = LongArray(acks.indexes.size() * 2)
+        var i = 0
+        acks.indexes.forEachEntry { replica, index ->
+            indexes[i++] = replica
+            indexes[i++] = index
+            true
+        }
+        acks.indexes.clear()
+        bucket.state().putAll(indexes)
+
+        val routingBucket = routingTable().bucket(bucket.index())
+        i = 0
+        while (i < indexes.size) {
+            val replica = routingBucket.replicas.getOrElse(indexes[i], null)
+            if (replica != null) {
+                transportService.send(
+                    replica.member,
+                    AppendSuccessful(bucket.index(), bucket.replica(), indexes[i + 1])
+                )
+            }
+            i += 2
+        }
+    }
+
+    /**
+     * Snapshot is received in chunks, each is acknowledged to request the next one. Snapshot covers
+     * sender log up to its index, and logs of other replicas up to indexes applied at sender.
+     */
+    private fun install(bucket: Bucket, message: InstallSnapshot) {
+        val routingBucket = routingTable().bucket(message.bucket)
+        val replica = routingBucket.replicas.getOrElse(message.replica, null)
+        if (replica == null) {
+            logger.warn("unexpected replica {}, ignore", message.replica)
+        } else if (!bucket.receiveSnapshot(message.replica, message.offset, message.data)) {
+            logger.warn("[replica={}:{}] unexpected snapshot chunk from={}:{} offset={}, ignore",
+                bucket.index(), bucket.replica(),
+                message.bucket, message.replica, message.offset)
+        } else if (!message.done) {
+            transportService.send(
+                replica.member,
+                InstallSnapshotAck(message.bucket, bucket.replica(), message.index, message.offset + message.data.size)
+            )
+        } else {
+            val snapshot = bucket.receivedSnapshot(message.replica)
+            logger.info("[replica={}:{}] install snapshot from={}:{} index={}",
+                bucket.index(), bucket.replica(),
+                message.bucket, message.replica, snapshot.index)
+            flush(acks(bucket))
+            for (resource in snapshot.resources) {
+                bucket.registry().restore(resource, false)
+            }
+            bucket.modified()
+            val replicas = snapshot.replicas
+            var i = 0
+            while (i < replicas.size) {
+                if (replicas[i] != bucket.replica() && bucket.state()[replicas[i]] < replicas[i + 1]) {
+                    bucket.state().put(replicas[i], replicas[i + 1])
+                }
+                i += 2
+            }
+            if (bucket.state()[message.replica] < snapshot.index) {
+                bucket.state().put(message.replica, snapshot.index)
+            }
+            transportService.send(
+                replica.member,
+                AppendSuccessful(message.bucket, bucket.replica(), bucket.state()[message.replica])
+            )
+        }
+    }
+
+    /**
+     * Requests moved resources from every replica of source bucket, repeated on each routing
+     * change until split is completed. State is joined, so repeated migration is idempotent.
+     */
+    private fun migrate(bucket: Bucket, routingBucket: RoutingBucket) {
+        val source = routingTable().bucket(routingBucket.splitFrom)
+        logger.info("[replica={}:{}] migrate resources from bucket {}",
+            bucket.index(), bucket.replica(), source.index)
+        for (replica in source.replicas.values()) {
+            if (replica.isOpened) {
+                transportService.send(replica.member, MigrateRequest(source.index, bucket.index(), bucket.replica()))
+            }
+        }
+    }
+
+    private fun migrate(bucket: Bucket, message: MigrateRequest) {
+        val routingTable = routingTable()
+        if (message.target >= routingTable.buckets.size()) {
+            logger.warn("unexpected bucket {}, ignore", message.target)
+            return
+        }
+        val target = routingTable.bucket(message.target)
+        val replica = target.replicas.getOrElse(message.replica, null)
+        if (replica == null) {
+            logger.warn("unexpected replica {}, ignore", message.replica)
+            return
+        }
+        val resources = Vector.ofAll(target.resources.keySet()).flatMap { bucket.registry().snapshot(it) }
+        transportService.send(replica.member, MigrateResponse(message.target, bucket.replica(), resources))
+    }
+
+    private fun migrate(bucket: Bucket, message: MigrateResponse) {
+        val routingTable = routingTable()
+        val routingBucket = routingTable.bucket(bucket.index())
+        if (!routingBucket.isSplitting) {
+            return
+        }
+        for (resource in message.resources) {
+            if (routingBucket.hasResource(resource.id)) {
+                bucket.registry().restore(resource, false)
             }
-        } finally {
-            lock.unlock()
+        }
+        bucket.modified()
+        val done = migrated.computeIfAbsent(bucket.index()) { TLongHashSet() }
+        done.add(message.source)
+        val source = routingTable.bucket(routingBucket.splitFrom)
+        if (source.replicas.values().filter { it.isOpened }.forAll { done.contains(it.id) }) {
+            logger.info("[replica={}:{}] migrated {} resources from bucket {}",
+                bucket.index(), bucket.replica(), routingBucket.resources.size(), source.index)
+            migrated.remove(bucket.index())
+            raft.apply(ClientMessage(CompleteSplit(bucket.index()), 0))
+        }
+    }
+
+    /**
+     * Removes resources moved to split bucket or removed from routing.
+     */
+    private fun dropRemoved(bucket: Bucket, routingBucket: RoutingBucket) {
+        for (id in bucket.registry().ids()) {
+            if (!routingBucket.hasResource(id)) {
+                logger.info("remove resource {} from bucket {}", id, bucket.index())
+                bucket.registry().remove(id)
+                bucket.modified()
+            }
+        }
+    }
+
+    private fun page(message: OrderedGSetPageRequest) {
+        val bucket = bucket(message.id)
+        val page = if (bucket == null) {
+            Option.none()
+        } else {
+            bucket.registry().crdtOpt(message.id, OrderedGSet::class.java).map { it.page(message.query) }
+        }
+        transportService.send(message.node, OrderedGSetPageResponse(message.session, message.id, page))
+    }
+
+    private fun handle(message: ClosedLogSynced) {
+        val routingTable = routingTableFSM.get()
+        val replica = routingTable.bucket(message.bucket).replicas.get(message.replica)
+        if (replica.isDefined && replica.get().isClosed) {
+            logger.info("RemoveReplica bucket {} {}", message.bucket, message.replica)
+            val request = RemoveReplica(message.bucket, message.replica)
+            raft.apply(ClientMessage(request, 0))
+        } else {
+            logger.warn("open closed replicator bucket {}", message.bucket)
+            execute(message.bucket) { it.replicator().open() }
         }
     }
 
@@ -148,12 +439,39 @@ class DefaultCrdtService @Inject constructor(
         return bucket(index)
     }
 
+    override fun <T> execute(resourceId: Long, default: T, task: (Bucket) -> T): Future<T> {
+        val bucket = bucket(resourceId) ?: return Future.successful(default)
+        return Future.of(bucket.executor(), CheckedFunction0 { task(bucket) })
+    }
+
     override fun addResource(id: Long, resourceType: ResourceType): Future<Boolean> {
         return raft.command(AddResource(id, resourceType))
             .filter { m -> m is AddResourceResponse }
             .map { m -> (m as AddResourceResponse).isCreated }
     }
 
+    override fun addResources(resources: Seq<Resource>): Future<Vector<Boolean>> {
+        return Future.sequence(resources.grouped(batchSize).map { batch ->
+            raft.command(AddResources(batch.toVector()))
+                .filter { m -> m is AddResourcesResponse }
+                .map { m -> (m as AddResourcesResponse).created }
+        }.toVector()).map { results -> results.toVector().flatMap { it } }
+    }
+
+    override fun removeResources(ids: Seq<Long>): Future<Vector<Boolean>> {
+        return Future.sequence(ids.grouped(batchSize).map { batch ->
+            raft.command(RemoveResources(batch.toVector()))
+                .filter { m -> m is RemoveResourcesResponse }
+                .map { m -> (m as RemoveResourcesResponse).removed }
+        }.toVector()).map { results -> results.toVector().flatMap { it } }
+    }
+
+    override fun splitBucket(index: Int): Future<Boolean> {
+        return raft.command(SplitBucket(index))
+            .filter { m -> m is SplitBucketResponse }
+            .map { m -> (m as SplitBucketResponse).isSplit }
+    }
+
     private fun handle(event: MembersChanged) {
         if (raft.currentState() === Leader) {
             logger.info("members changed")
@@ -162,18 +480,15 @@ class DefaultCrdtService @Inject constructor(
     }
 
     private fun handle(changed: RoutingTableChanged) {
-        lock.lock()
-        try {
-            if (changed.index <= lastApplied) {
-                return
-            }
-            lastApplied = changed.index
-            logger.info("routing table changed: {}", changed.routingTable)
-            processAsLeader(changed.routingTable)
-            processBuckets(changed.routingTable)
-        } finally {
-            lock.unlock()
+        if (changed.index <= lastApplied) {
+            return
         }
+        lastApplied = changed.index
+        if (logger.isDebugEnabled) {
+            logger.debug("routing table changed at {}: {}", changed.index, changed.delta)
+        }
+        processAsLeader(changed.routingTable)
+        processBuckets(changed.routingTable, changed.delta)
     }
 
     private fun processAsLeader(routingTable: RoutingTable) {
@@ -183,44 +498,112 @@ class DefaultCrdtService @Inject constructor(
         }
     }
 
-    private fun processBuckets(routingTable: RoutingTable) {
-        for (routingBucket in routingTable.buckets) {
+    /**
+     * Reports load of local replicas to leader, ops is rate of entries appended to replica log.
+     */
+    private fun report() {
+        val now = System.currentTimeMillis()
+        val elapsed = Math.max(1, now - reportedAt)
+        reportedAt = now
+        val indexes = TLongLongHashMap(7, 0.5f, 0, 0)
+        var loads = Vector.empty<BucketLoad>()
+        for (bucket in buckets.values()) {
+            val index = bucket.log().index()
+            val prev = if (reported.containsKey(bucket.replica())) reported.get(bucket.replica()) else index
+            indexes.put(bucket.replica(), index)
+            val stats = bucket.log().stats()
+            loads = loads.append(BucketLoad(bucket.index(), bucket.replica(), (index - prev) * 1000 / elapsed, stats.liveBytes, stats.fileBytes))
+        }
+        reported.clear()
+        reported.putAll(indexes)
+        if (loads.isEmpty) {
+            return
+        }
+        val report = BucketLoadReport(loads)
+        if (raft.currentState() === Leader) {
+            bucketLoads.update(report)
+        } else {
+            raft.recentLeader().forEach { transportService.send(it, report) }
+        }
+    }
+
+    /**
+     * Processes only buckets changed by delta, and only changed resources if bucket replicas are unchanged.
+     */
+    private fun processBuckets(routingTable: RoutingTable, delta: RoutingDelta) {
+        for (index in delta.buckets) {
+            val routingBucket = routingTable.bucket(index)
             val replicaOpt = routingBucket.replicas.values()
                 .find { r -> r.member == discovery.self }
-            if (replicaOpt.isDefined) {
-                processReplica(routingBucket, replicaOpt.get())
-            } else {
+            if (replicaOpt.isEmpty) {
                 deleteIfExists(routingBucket.index)
+            } else if (delta.isResourceChange && contains(index)) {
+                if (replicaOpt.get().isOpened) {
+                    execute(index) { processResources(it, routingTable, delta) }
+                }
+            } else {
+                processReplica(routingBucket, replicaOpt.get())
             }
         }
     }
 
+    private fun processResources(bucket: Bucket, routingTable: RoutingTable, delta: RoutingDelta) {
+        for (resource in delta.added) {
+            if (routingTable.bucket(resource.id).index == bucket.index()) {
+                allocate(bucket, resource)
+            }
+        }
+        // source bucket of split keeps resources until they are migrated
+        if (!routingTable.buckets.exists { it.splitFrom == bucket.index() }) {
+            for (id in delta.removed) {
+                if (routingTable.bucket(id).index == bucket.index()) {
+                    logger.info("remove resource {} from bucket {}", id, bucket.index())
+                    bucket.registry().remove(id)
+                    bucket.modified()
+                }
+            }
+        }
+    }
+
+    private fun allocate(bucket: Bucket, resource: Resource) {
+        if (bucket.registry().crdtOpt(resource.id).isEmpty) {
+            logger.info("allocate resource {}:{}", resource.id, resource.type)
+            when (resource.type) {
+                ResourceType.LWWRegister -> bucket.registry().createLWWRegister(resource.id)
+                ResourceType.GCounter -> bucket.registry().createGCounter(resource.id)
+                ResourceType.GSet -> bucket.registry().createGSet(resource.id)
+                ResourceType.OrderedGSet -> bucket.registry().createOrderedGSet(resource.id)
+                ResourceType.PNCounter -> bucket.registry().createPNCounter(resource.id)
+                ResourceType.ORSet -> bucket.registry().createORSet(resource.id)
+                ResourceType.LWWMap -> bucket.registry().createLWWMap(resource.id)
+            }
+            bucket.modified()
+        }
+    }
+
     private fun processReplica(routingBucket: RoutingBucket, replica: RoutingReplica) {
         var bucket = bucket(routingBucket.index)
         if (bucket == null) {
             bucket = bucketFactory.create(routingBucket.index, replica.id)
             buckets = buckets.put(routingBucket.index, bucket)
         }
-        bucket.lock().lock()
-        try {
-            if (replica.isClosed) {
-                bucket.replicator().closeAndSync()
-            } else {
-                bucket.replicator().open()
-                for (resource in routingBucket.resources.values()) {
-                    if (bucket.registry().crdtOpt(resource.id).isEmpty) {
-                        logger.info("allocate resource {}:{}", resource.id, resource.type)
-                        when (resource.type) {
-                            ResourceType.LWWRegister -> bucket.registry().createLWWRegister(resource.id)
-                            ResourceType.GCounter -> bucket.registry().createGCounter(resource.id)
-                            ResourceType.GSet -> bucket.registry().createGSet(resource.id)
-                            ResourceType.OrderedGSet -> bucket.registry().createOrderedGSet(resource.id)
-                        }
-                    }
-                }
+        execute(routingBucket.index) { processReplica(it, routingBucket, replica) }
+    }
+
+    private fun processReplica(bucket: Bucket, routingBucket: RoutingBucket, replica: RoutingReplica) {
+        if (replica.isClosed) {
+            bucket.replicator().closeAndSync()
+        } else {
+            bucket.replicator().open()
+            for (resource in routingBucket.resources.values()) {
+                allocate(bucket, resource)
+            }
+            bucket.recover()
+            if (routingBucket.isSplitting) {
+                migrate(bucket, routingBucket)
+            } else if (!routingTable().buckets.exists { it.splitFrom == routingBucket.index }) {
+                dropRemoved(bucket, routingBucket)
             }
-        } finally {
-            bucket.lock().unlock()
         }
     }
 
@@ -228,13 +611,12 @@ class DefaultCrdtService @Inject constructor(
         val bucket = bucket(index)
         if (bucket != null) {
             logger.info("delete bucket {}", index)
-            bucket.lock().lock()
-            try {
-                buckets = buckets.remove(index)
+            buckets = buckets.remove(index)
+            acks.remove(index)
+            migrated.remove(index)
+            bucket.executor().execute {
                 bucket.close()
                 bucket.delete()
-            } finally {
-                bucket.lock().unlock()
             }
         }
     }
@@ -1,20 +1,27 @@
 package org.mitallast.queue.crdt.bucket
 
+import io.vavr.control.Option
 import org.mitallast.queue.crdt.log.ReplicatedLog
 import org.mitallast.queue.crdt.registry.CrdtRegistry
+import org.mitallast.queue.crdt.replication.AntiEntropy
 import org.mitallast.queue.crdt.replication.Replicator
 import org.mitallast.queue.crdt.replication.state.ReplicaState
 
 import java.io.Closeable
-import java.util.concurrent.locks.ReentrantLock
+import java.io.File
+import java.util.concurrent.ScheduledExecutorService
 
+/**
+ * Replica of bucket, owned by one executor of [BucketExecutors].
+ * Accessors are thread safe, [snapshot], [recover], [close] and [delete] should be called from bucket executor.
+ */
 interface Bucket : Closeable {
 
     fun index(): Int
 
     fun replica(): Long
 
-    fun lock(): ReentrantLock
+    fun executor(): ScheduledExecutorService
 
     fun registry(): CrdtRegistry
 
@@ -22,8 +29,52 @@ interface Bucket : Closeable {
 
     fun replicator(): Replicator
 
+    fun antiEntropy(): AntiEntropy
+
     fun state(): ReplicaState
 
+    /**
+     * Version of resources state, incremented after every local or replicated update. Starts at
+     * random value, so versions of previous instance of bucket are not reused.
+     */
+    fun version(): Long
+
+    fun modified()
+
+    /**
+     * Own log index covered by last saved snapshot, or 0 if none.
+     */
+    fun snapshotIndex(): Long
+
+    fun lastSnapshot(): Option<BucketSnapshot>
+
+    /**
+     * File of last saved snapshot, null if none. Next snapshot replaces the file, so opened file
+     * is not changed.
+     */
+    fun snapshotFile(): File?
+
+    /**
+     * Appends chunk of snapshot streamed from replica, chunk at offset 0 starts it again.
+     * Returns false if offset is not the received length.
+     */
+    fun receiveSnapshot(replica: Long, offset: Long, data: ByteArray): Boolean
+
+    /**
+     * Reads snapshot received from replica and deletes its file.
+     */
+    fun receivedSnapshot(replica: Long): BucketSnapshot
+
+    /**
+     * Takes snapshot of registry state and saves it.
+     */
+    fun snapshot(): BucketSnapshot
+
+    /**
+     * Replays own log entries not covered by snapshot, should be called once after resources are allocated.
+     */
+    fun recover()
+
     fun delete()
 
     override fun close()
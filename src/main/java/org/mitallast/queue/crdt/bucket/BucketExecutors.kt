@@ -0,0 +1,45 @@
+package org.mitallast.queue.crdt.bucket
+
+import com.typesafe.config.Config
+import io.netty.util.concurrent.DefaultThreadFactory
+import org.mitallast.queue.common.component.AbstractLifecycleComponent
+import org.mitallast.queue.common.logging.LoggingService
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import javax.inject.Inject
+
+/**
+ * Fixed pool of single thread executors shared by all buckets.
+ * Bucket is pinned to one executor by index, so its writes, replication and compaction
+ * run sequentially without locks, and thread count does not depend on bucket count.
+ */
+class BucketExecutors @Inject constructor(
+    config: Config,
+    logging: LoggingService
+) : AbstractLifecycleComponent(logging) {
+    private val executors: Array<ScheduledExecutorService>
+
+    init {
+        val threads = config.getInt("crdt.executor.threads")
+        val threadFactory = DefaultThreadFactory("crdt", true, Thread.NORM_PRIORITY, ThreadGroup("crdt"))
+        executors = Array(threads) {
+            val executor = ScheduledThreadPoolExecutor(1, threadFactory)
+            executor.removeOnCancelPolicy = true
+            executor
+        }
+    }
+
+    fun executor(index: Int): ScheduledExecutorService {
+        return executors[Math.floorMod(index, executors.size)]
+    }
+
+    override fun doStart() {}
+
+    override fun doStop() {}
+
+    override fun doClose() {
+        for (executor in executors) {
+            executor.shutdownNow()
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.mitallast.queue.crdt.bucket
+
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * State of bucket registry, which includes own log entries up to [index],
+ * and entries of other replicas up to indexes stored in [replicas] as flat array of long pairs.
+ */
+class BucketSnapshot(val index: Long, val replicas: LongArray, val resources: Vector<ResourceSnapshot>) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::BucketSnapshot,
+            BucketSnapshot::index,
+            BucketSnapshot::replicas,
+            BucketSnapshot::resources,
+            Codec.longCodec(),
+            Codec.longArrayCodec(),
+            Codec.vectorCodec(ResourceSnapshot.codec)
+        )
+    }
+}
@@ -1,37 +1,68 @@
 package org.mitallast.queue.crdt.bucket
 
 import com.google.inject.assistedinject.Assisted
+import com.typesafe.config.Config
+import io.vavr.control.Option
 import org.apache.logging.log4j.LogManager
+import org.mitallast.queue.common.file.FileService
 import org.mitallast.queue.crdt.log.DefaultCompactionFilter
 import org.mitallast.queue.crdt.log.ReplicatedLog
 import org.mitallast.queue.crdt.log.ReplicatedLogFactory
 import org.mitallast.queue.crdt.registry.CrdtRegistry
 import org.mitallast.queue.crdt.registry.CrdtRegistryFactory
+import org.mitallast.queue.crdt.replication.AntiEntropy
+import org.mitallast.queue.crdt.replication.AntiEntropyFactory
 import org.mitallast.queue.crdt.replication.Replicator
 import org.mitallast.queue.crdt.replication.ReplicatorFactory
 import org.mitallast.queue.crdt.replication.state.ReplicaState
 import org.mitallast.queue.crdt.replication.state.ReplicaStateFactory
-import java.util.concurrent.locks.ReentrantLock
+import java.io.File
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 import javax.inject.Inject
 
 class DefaultBucket @Inject
 constructor(
     @param:Assisted private val index: Int,
     @param:Assisted private val replica: Long,
+    config: Config,
+    private val fileService: FileService,
+    executors: BucketExecutors,
     crdtRegistryFactory: CrdtRegistryFactory,
     logFactory: ReplicatedLogFactory,
     stateFactory: ReplicaStateFactory,
-    replicatorFactory: ReplicatorFactory
+    replicatorFactory: ReplicatorFactory,
+    antiEntropyFactory: AntiEntropyFactory
 ) : Bucket {
     private val logger = LogManager.getLogger("replicator[$index]")
-    private val lock = ReentrantLock()
+    private val executor = executors.executor(index)
+    private val snapshotService = String.format("crdt/%d/snapshot/%d", index, replica)
+    private val snapshotInterval = config.getDuration("crdt.snapshot.interval", TimeUnit.MILLISECONDS)
     private val replicaState = stateFactory.create(index, replica)
     private val replicator = replicatorFactory.create(this)
     private val registry = crdtRegistryFactory.create(index, replica, replicator)
-    private val log = logFactory.create(index, replica, DefaultCompactionFilter(registry))
+    private val log = logFactory.create(index, replica, DefaultCompactionFilter(registry, replicator))
+    private val antiEntropy = antiEntropyFactory.create(this)
+
+    @Volatile private var snapshotIndex: Long = 0
+    private val snapshotTask: ScheduledFuture<*>
+    @Volatile private var recovered = false
+    private val version = AtomicLong(ThreadLocalRandom.current().nextLong())
 
     init {
+        restore()
         replicator.start()
+        antiEntropy.start()
+        snapshotTask = executor.scheduleWithFixedDelay({
+            try {
+                snapshot()
+            } catch (e: Exception) {
+                logger.error("error save snapshot", e)
+            }
+        }, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS)
     }
 
     override fun index(): Int {
@@ -42,8 +73,8 @@ constructor(
         return replica
     }
 
-    override fun lock(): ReentrantLock {
-        return lock
+    override fun executor(): ScheduledExecutorService {
+        return executor
     }
 
     override fun registry(): CrdtRegistry {
@@ -58,13 +89,114 @@ constructor(
         return replicator
     }
 
+    override fun antiEntropy(): AntiEntropy {
+        return antiEntropy
+    }
+
     override fun state(): ReplicaState {
         return replicaState
     }
 
+    override fun version(): Long {
+        return version.get()
+    }
+
+    override fun modified() {
+        version.incrementAndGet()
+    }
+
+    override fun snapshotIndex(): Long {
+        return snapshotIndex
+    }
+
+    override fun lastSnapshot(): Option<BucketSnapshot> {
+        val file = fileService.resource(snapshotService, "snapshot.bin")
+        if (file.length() == 0L) {
+            return Option.none()
+        }
+        return fileService.input(file).use { Option.some(BucketSnapshot.codec.read(it)) }
+    }
+
+    override fun snapshotFile(): File? {
+        val file = fileService.resource(snapshotService, "snapshot.bin")
+        return if (file.length() == 0L) null else file
+    }
+
+    override fun receiveSnapshot(replica: Long, offset: Long, data: ByteArray): Boolean {
+        val file = fileService.resource(snapshotService, "install-$replica.bin")
+        if (offset != 0L && file.length() != offset) {
+            return false
+        }
+        fileService.output(file, offset != 0L).use { it.write(data) }
+        return true
+    }
+
+    override fun receivedSnapshot(replica: Long): BucketSnapshot {
+        val file = fileService.resource(snapshotService, "install-$replica.bin")
+        try {
+            return fileService.input(file).use { BucketSnapshot.codec.read(it) }
+        } finally {
+            fileService.delete(file)
+        }
+    }
+
+    /**
+     * Replica indexes and own log index are read before registry state: every entry they cover
+     * is already applied, and entries applied after that are replayed again, which is idempotent.
+     */
+    override fun snapshot(): BucketSnapshot {
+        val replicas = replicaState.indexes()
+        val index = log.index()
+        val snapshot = BucketSnapshot(index, replicas, registry.snapshot())
+
+        val file = fileService.resource(snapshotService, "snapshot.bin")
+        val tmp = fileService.temporary(snapshotService, "snapshot", "bin")
+        fileService.output(tmp).use { BucketSnapshot.codec.write(it, snapshot) }
+        fileService.move(tmp, file)
+        snapshotIndex = index
+        logger.debug("saved snapshot at {}, {} resources", index, snapshot.resources.size())
+        return snapshot
+    }
+
+    override fun recover() {
+        if (recovered) {
+            return
+        }
+        recovered = true
+        var replayed = 0
+        for (logEntry in log.entriesFrom(snapshotIndex)) {
+            val crdt = registry.crdtOpt(logEntry.id)
+            if (crdt.isDefined) {
+                crdt.get().update(logEntry.event)
+                replayed++
+            }
+        }
+        modified()
+        logger.info("recovered from snapshot {}, replayed {} entries", snapshotIndex, replayed)
+    }
+
+    /**
+     * Other replicas resend their entries not covered by snapshot.
+     */
+    private fun restore() {
+        val snapshot = lastSnapshot()
+        if (snapshot.isDefined) {
+            for (resource in snapshot.get().resources) {
+                registry.restore(resource, true)
+            }
+            replicaState.reset(snapshot.get().replicas)
+            snapshotIndex = snapshot.get().index
+        } else {
+            replicaState.reset(LongArray(0))
+        }
+    }
+
     override fun close() {
         logger.info("close")
+        snapshotTask.cancel(false)
+        antiEntropy.stop()
         replicator.stop()
+        snapshot()
         log.close()
         replicaState.close()
     }
@@ -73,5 +205,6 @@ constructor(
         logger.info("delete")
         log.delete()
         replicaState.delete()
+        fileService.delete(snapshotService)
     }
 }
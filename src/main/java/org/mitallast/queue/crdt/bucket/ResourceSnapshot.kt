@@ -0,0 +1,27 @@
+package org.mitallast.queue.crdt.bucket
+
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.routing.ResourceType
+
+data class ResourceSnapshot(
+    val id: Long,
+    val type: ResourceType,
+    val state: Vector<Message>,
+    val pending: Vector<Message>) : Message {
+
+    companion object {
+        val codec = Codec.of(
+            ::ResourceSnapshot,
+            ResourceSnapshot::id,
+            ResourceSnapshot::type,
+            ResourceSnapshot::state,
+            ResourceSnapshot::pending,
+            Codec.longCodec(),
+            Codec.enumCodec(ResourceType::class.java),
+            Codec.vectorCodec(Codec.anyCodec<Message>()),
+            Codec.vectorCodec(Codec.anyCodec<Message>())
+        )
+    }
+}
@@ -0,0 +1,21 @@
+package org.mitallast.queue.crdt.commutative
+
+import io.vavr.control.Option
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Delta-state CRDT: local updates are not replicated one by one, but joined into
+ * a single delta which replicator periodically drains and appends to the log.
+ */
+interface DeltaCRDT : CmRDT {
+
+    /**
+     * Returns join of all local deltas since previous call, and resets accumulator.
+     */
+    fun drainDelta(): Option<CmRDT.DownstreamUpdate>
+
+    /**
+     * Returns true if delta is fully covered by a newer delta of the same replica.
+     */
+    fun isSuperseded(delta: Message): Boolean
+}
@@ -4,14 +4,18 @@ import com.google.common.base.Preconditions
 import gnu.trove.impl.sync.TSynchronizedLongLongMap
 import gnu.trove.map.hash.TLongLongHashMap
 import gnu.trove.procedure.TLongProcedure
+import io.vavr.collection.Vector
+import io.vavr.control.Option
 import org.mitallast.queue.common.codec.Codec
 import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.CrdtSnapshot
 import org.mitallast.queue.crdt.replication.Replicator
 
 /**
- * Using counter vector allows to implement garbage collection
+ * Using counter vector allows to implement garbage collection.
+ * Local increments are joined into one delta per replication interval.
  */
-class GCounter(private val id: Long, private val replica: Long, private val replicator: Replicator) : CmRDT {
+class GCounter(private val id: Long, private val replica: Long, private val replicator: Replicator) : DeltaCRDT {
 
     data class SourceAssign(val value: Long) : CmRDT.SourceUpdate {
         companion object {
@@ -36,6 +40,7 @@ class GCounter(private val id: Long, private val replica: Long, private val repl
     }
 
     private val counterMap = TSynchronizedLongLongMap(TLongLongHashMap())
+    @Volatile private var drained: Long = 0
 
     override fun update(event: Message) {
         when (event) {
@@ -44,8 +49,66 @@ class GCounter(private val id: Long, private val replica: Long, private val repl
         }
     }
 
+    /**
+     * Assigns of the same replica are folded to the greatest one.
+     */
+    @Synchronized
+    override fun updateAll(events: List<Message>) {
+        val folded = TLongLongHashMap()
+        for (event in events) {
+            if (event is DownstreamAssign) {
+                if (folded.get(event.replica) < event.value) {
+                    folded.put(event.replica, event.value)
+                }
+            } else {
+                update(event)
+            }
+        }
+        folded.forEachEntry { replica, value ->
+            assign(replica, value)
+            true
+        }
+    }
+
     override fun shouldCompact(event: Message): Boolean {
-        return event is DownstreamAssign && event.value < counterMap.get(replica)
+        return isSuperseded(event)
+    }
+
+    /**
+     * Log holds only assigns of own replica, an assign is superseded by the last drained one,
+     * which is already appended. Live value may contain increments not drained yet.
+     */
+    override fun isSuperseded(delta: Message): Boolean {
+        return delta is DownstreamAssign && delta.replica == replica && delta.value < drained
+    }
+
+    @Synchronized override fun drainDelta(): Option<CmRDT.DownstreamUpdate> {
+        val value = counterMap.get(replica)
+        if (value == drained) {
+            return Option.none()
+        }
+        drained = value
+        return Option.some(DownstreamAssign(replica, value))
+    }
+
+    @Synchronized
+    override fun snapshot(): CrdtSnapshot {
+        val state = ArrayList<Message>()
+        var pending = Vector.empty<Message>()
+        for (replica in counterMap.keys()) {
+            val value = counterMap.get(replica)
+            if (replica == this.replica) {
+                if (drained > 0) {
+                    state.add(DownstreamAssign(replica, drained))
+                }
+                if (value > drained) {
+                    pending = pending.append(SourceAssign(value - drained))
+                }
+            } else {
+                state.add(DownstreamAssign(replica, value))
+            }
+        }
+        return CrdtSnapshot(Vector.ofAll(state), pending)
     }
 
     override fun sourceUpdate(update: CmRDT.SourceUpdate) {
@@ -56,12 +119,19 @@ class GCounter(private val id: Long, private val replica: Long, private val repl
 
     @Synchronized override fun downstreamUpdate(update: CmRDT.DownstreamUpdate) {
         when (update) {
-            is DownstreamAssign -> {
-                val current = counterMap.get(update.replica)
-                if (current < update.value) {
-                    counterMap.put(update.replica, update.value)
-                }
-            }
+            is DownstreamAssign -> assign(update.replica, update.value)
+        }
+    }
+
+    /**
+     * Own assign is read from log or snapshot on recovery, so it is already drained.
+     */
+    private fun assign(replica: Long, value: Long) {
+        if (counterMap.get(replica) < value) {
+            counterMap.put(replica, value)
+        }
+        if (replica == this.replica && drained < value) {
+            drained = value
         }
     }
 
@@ -70,7 +140,7 @@ class GCounter(private val id: Long, private val replica: Long, private val repl
     fun add(value: Long): Long {
         Preconditions.checkArgument(value >= 0, "must be positive")
         val updated = counterMap.adjustOrPutValue(replica, value, value)
-        replicator.append(id, DownstreamAssign(replica, updated))
+        replicator.delta(id)
         return updated
     }
 
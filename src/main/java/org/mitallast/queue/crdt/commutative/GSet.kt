@@ -1,12 +1,18 @@
 package org.mitallast.queue.crdt.commutative
 
-import io.vavr.collection.LinkedHashSet
-import io.vavr.collection.Set
+import io.vavr.collection.Vector
+import io.vavr.control.Option
 import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.collection.AppendOnlyHashSet
+import org.mitallast.queue.crdt.CrdtDigest
+import org.mitallast.queue.crdt.CrdtSnapshot
 import org.mitallast.queue.common.codec.Message
 import org.mitallast.queue.crdt.replication.Replicator
 
-class GSet(private val id: Long, private val replicator: Replicator) : CmRDT {
+/**
+ * Grow-only set, iterated in insertion order.
+ */
+class GSet(private val id: Long, private val replicator: Replicator) : DeltaCRDT {
 
     data class SourceAdd(val value: Message) : CmRDT.SourceUpdate {
         companion object {
@@ -28,7 +34,18 @@ class GSet(private val id: Long, private val replicator: Replicator) : CmRDT {
         }
     }
 
-    @Volatile private var values: Set<Message> = LinkedHashSet.empty()
+    data class DownstreamAddAll(val values: Vector<Message>) : CmRDT.DownstreamUpdate {
+        companion object {
+            val codec = Codec.of(
+                ::DownstreamAddAll,
+                DownstreamAddAll::values,
+                Codec.vectorCodec(Codec.anyCodec<Message>())
+            )
+        }
+    }
+
+    private val values = AppendOnlyHashSet<Message>()
+    private val delta = ArrayList<Message>()
 
     override fun update(event: Message) {
         when (event) {
@@ -37,10 +54,50 @@ class GSet(private val id: Long, private val replicator: Replicator) : CmRDT {
         }
     }
 
+    @Synchronized
+    override fun updateAll(events: List<Message>) {
+        for (event in events) {
+            update(event)
+        }
+    }
+
     override fun shouldCompact(event: Message): Boolean {
         return false
     }
 
+    override fun isSuperseded(delta: Message): Boolean {
+        return false
+    }
+
+    @Synchronized
+    override fun drainDelta(): Option<CmRDT.DownstreamUpdate> {
+        if (delta.isEmpty()) {
+            return Option.none()
+        }
+        val drained = DownstreamAddAll(Vector.ofAll(delta))
+        delta.clear()
+        return Option.some(drained)
+    }
+
+    @Synchronized
+    override fun snapshot(): CrdtSnapshot {
+        val pending = HashSet(delta)
+        val state = if (pending.isEmpty()) {
+            Vector.ofAll(values)
+        } else {
+            Vector.ofAll(values.filter { !pending.contains(it) })
+        }
+        return CrdtSnapshot(
+            if (state.isEmpty) Vector.empty() else Vector.of<Message>(DownstreamAddAll(state)),
+            Vector.ofAll(delta.map { SourceAdd(it) })
+        )
+    }
+
+    /**
+     * Values are hashed one by one, snapshot keeps them in insertion order.
+     */
+    override fun digest(): Long = CrdtDigest.of(values)
+
     override fun sourceUpdate(update: CmRDT.SourceUpdate) {
         when (update) {
             is SourceAdd -> add(update.value)
@@ -50,19 +107,25 @@ class GSet(private val id: Long, private val replicator: Replicator) : CmRDT {
     @Synchronized
     override fun downstreamUpdate(update: CmRDT.DownstreamUpdate) {
         when (update) {
-            is DownstreamAdd -> if (!values.contains(update.value)) {
-                values = values.add(update.value)
-            }
+            is DownstreamAdd -> values.add(update.value)
+            is DownstreamAddAll -> update.values.forEach { values.add(it) }
         }
     }
 
     @Synchronized
     fun add(value: Message) {
-        if (!values.contains(value)) {
-            values = values.add(value)
-            replicator.append(id, DownstreamAdd(value))
+        if (values.add(value)) {
+            delta.add(value)
+            replicator.delta(id)
         }
     }
 
-    fun values(): Set<Message> = values
+    fun size(): Int = values.size()
+
+    /**
+     * Lock-free iteration over values added before the call.
+     */
+    fun iterator(): Iterator<Message> = values.iterator()
+
+    fun values(): Vector<Message> = Vector.ofAll(values)
 }
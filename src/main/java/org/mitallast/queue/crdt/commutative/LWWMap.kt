@@ -0,0 +1,199 @@
+package org.mitallast.queue.crdt.commutative
+
+import gnu.trove.map.hash.THashMap
+import gnu.trove.map.hash.TLongObjectHashMap
+import io.vavr.collection.Vector
+import io.vavr.control.Option
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.CrdtSnapshot
+import org.mitallast.queue.crdt.replication.Replicator
+
+/**
+ * Map of LWW registers, keyed by long or by string.
+ * Remove is an assign of empty value, so it wins over older assigns like any other update.
+ * If two replicas assign with equal timestamp, value of greater replica id wins.
+ */
+class LWWMap(private val id: Long, private val replica: Long, private val replicator: Replicator) : CmRDT {
+
+    data class SourceLongAssign(val key: Long, val value: Option<Message>, val timestamp: Long) : CmRDT.SourceUpdate {
+        companion object {
+            val codec = Codec.of(
+                ::SourceLongAssign,
+                SourceLongAssign::key,
+                SourceLongAssign::value,
+                SourceLongAssign::timestamp,
+                Codec.longCodec(),
+                Codec.optionCodec(Codec.anyCodec<Message>()),
+                Codec.longCodec()
+            )
+        }
+    }
+
+    data class SourceStringAssign(val key: String, val value: Option<Message>, val timestamp: Long) : CmRDT.SourceUpdate {
+        companion object {
+            val codec = Codec.of(
+                ::SourceStringAssign,
+                SourceStringAssign::key,
+                SourceStringAssign::value,
+                SourceStringAssign::timestamp,
+                Codec.stringCodec(),
+                Codec.optionCodec(Codec.anyCodec<Message>()),
+                Codec.longCodec()
+            )
+        }
+    }
+
+    data class DownstreamLongAssign(val key: Long, val value: Option<Message>, val timestamp: Long, val replica: Long) : CmRDT.DownstreamUpdate {
+        companion object {
+            val codec = Codec.of(
+                ::DownstreamLongAssign,
+                DownstreamLongAssign::key,
+                DownstreamLongAssign::value,
+                DownstreamLongAssign::timestamp,
+                DownstreamLongAssign::replica,
+                Codec.longCodec(),
+                Codec.optionCodec(Codec.anyCodec<Message>()),
+                Codec.longCodec(),
+                Codec.longCodec()
+            )
+        }
+    }
+
+    data class DownstreamStringAssign(val key: String, val value: Option<Message>, val timestamp: Long, val replica: Long) : CmRDT.DownstreamUpdate {
+        companion object {
+            val codec = Codec.of(
+                ::DownstreamStringAssign,
+                DownstreamStringAssign::key,
+                DownstreamStringAssign::value,
+                DownstreamStringAssign::timestamp,
+                DownstreamStringAssign::replica,
+                Codec.stringCodec(),
+                Codec.optionCodec(Codec.anyCodec<Message>()),
+                Codec.longCodec(),
+                Codec.longCodec()
+            )
+        }
+    }
+
+    private class Entry(val value: Option<Message>, val timestamp: Long, val replica: Long) {
+        fun isBefore(timestamp: Long, replica: Long): Boolean {
+            return this.timestamp < timestamp || this.timestamp == timestamp && this.replica < replica
+        }
+
+        fun isAfter(timestamp: Long, replica: Long): Boolean {
+            return this.timestamp > timestamp || this.timestamp == timestamp && this.replica > replica
+        }
+    }
+
+    private val longMap = TLongObjectHashMap<Entry>()
+    private val stringMap = THashMap<String, Entry>()
+
+    override fun update(event: Message) {
+        when (event) {
+            is CmRDT.SourceUpdate -> sourceUpdate(event)
+            is CmRDT.DownstreamUpdate -> downstreamUpdate(event)
+        }
+    }
+
+    @Synchronized
+    override fun updateAll(events: List<Message>) {
+        for (event in events) {
+            update(event)
+        }
+    }
+
+    @Synchronized
+    override fun shouldCompact(event: Message): Boolean {
+        return when (event) {
+            is DownstreamLongAssign -> {
+                val entry = longMap.get(event.key)
+                entry != null && entry.isAfter(event.timestamp, event.replica)
+            }
+            is DownstreamStringAssign -> {
+                val entry = stringMap[event.key]
+                entry != null && entry.isAfter(event.timestamp, event.replica)
+            }
+            else -> false
+        }
+    }
+
+    @Synchronized
+    override fun snapshot(): CrdtSnapshot {
+        val state = ArrayList<Message>(longMap.size() + stringMap.size)
+        longMap.forEachEntry { key, entry ->
+            state.add(DownstreamLongAssign(key, entry.value, entry.timestamp, entry.replica))
+        }
+        for ((key, entry) in stringMap) {
+            state.add(DownstreamStringAssign(key, entry.value, entry.timestamp, entry.replica))
+        }
+        return CrdtSnapshot.of(Vector.ofAll(state))
+    }
+
+    override fun sourceUpdate(update: CmRDT.SourceUpdate) {
+        when (update) {
+            is SourceLongAssign -> assign(update.key, update.value, update.timestamp)
+            is SourceStringAssign -> assign(update.key, update.value, update.timestamp)
+        }
+    }
+
+    @Synchronized
+    override fun downstreamUpdate(update: CmRDT.DownstreamUpdate) {
+        when (update) {
+            is DownstreamLongAssign -> {
+                val entry = longMap.get(update.key)
+                if (entry == null || entry.isBefore(update.timestamp, update.replica)) {
+                    longMap.put(update.key, Entry(update.value, update.timestamp, update.replica))
+                }
+            }
+            is DownstreamStringAssign -> {
+                val entry = stringMap[update.key]
+                if (entry == null || entry.isBefore(update.timestamp, update.replica)) {
+                    stringMap[update.key] = Entry(update.value, update.timestamp, update.replica)
+                }
+            }
+        }
+    }
+
+    @Synchronized
+    fun assign(key: Long, value: Option<Message>, timestamp: Long): Boolean {
+        val entry = longMap.get(key)
+        if (entry == null || entry.isBefore(timestamp, replica)) {
+            longMap.put(key, Entry(value, timestamp, replica))
+            replicator.append(id, DownstreamLongAssign(key, value, timestamp, replica))
+            return true
+        }
+        return false
+    }
+
+    @Synchronized
+    fun assign(key: String, value: Option<Message>, timestamp: Long): Boolean {
+        val entry = stringMap[key]
+        if (entry == null || entry.isBefore(timestamp, replica)) {
+            stringMap[key] = Entry(value, timestamp, replica)
+            replicator.append(id, DownstreamStringAssign(key, value, timestamp, replica))
+            return true
+        }
+        return false
+    }
+
+    fun put(key: Long, value: Message, timestamp: Long): Boolean = assign(key, Option.some(value), timestamp)
+
+    fun put(key: String, value: Message, timestamp: Long): Boolean = assign(key, Option.some(value), timestamp)
+
+    fun remove(key: Long, timestamp: Long): Boolean = assign(key, Option.none(), timestamp)
+
+    fun remove(key: String, timestamp: Long): Boolean = assign(key, Option.none(), timestamp)
+
+    @Synchronized
+    fun get(key: Long): Option<Message> {
+        val entry = longMap.get(key) ?: return Option.none()
+        return entry.value
+    }
+
+    @Synchronized
+    fun get(key: String): Option<Message> {
+        val entry = stringMap[key] ?: return Option.none()
+        return entry.value
+    }
+}
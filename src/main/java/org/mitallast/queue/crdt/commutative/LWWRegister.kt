@@ -1,8 +1,10 @@
 package org.mitallast.queue.crdt.commutative
 
+import io.vavr.collection.Vector
 import io.vavr.control.Option
 import org.mitallast.queue.common.codec.Codec
 import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.CrdtSnapshot
 import org.mitallast.queue.crdt.replication.Replicator
 
 class LWWRegister(private val id: Long, private val replicator: Replicator) : CmRDT {
@@ -41,10 +43,40 @@ class LWWRegister(private val id: Long, private val replicator: Replicator) : Cm
         }
     }
 
+    /**
+     * Only the latest assign of batch is applied.
+     */
+    @Synchronized
+    override fun updateAll(events: List<Message>) {
+        var latest: DownstreamAssign? = null
+        for (event in events) {
+            if (event is DownstreamAssign) {
+                if (latest == null || latest.timestamp < event.timestamp) {
+                    latest = event
+                }
+            } else {
+                update(event)
+            }
+        }
+        if (latest != null) {
+            downstreamUpdate(latest)
+        }
+    }
+
     override fun shouldCompact(event: Message): Boolean {
         return event is DownstreamAssign && event.timestamp < timestamp
     }
 
+    @Synchronized
+    override fun snapshot(): CrdtSnapshot {
+        val value = this.value
+        return if (value.isDefined) {
+            CrdtSnapshot.of(Vector.of(DownstreamAssign(value.get(), timestamp)))
+        } else {
+            CrdtSnapshot.empty()
+        }
+    }
+
     override fun sourceUpdate(update: CmRDT.SourceUpdate) {
         when (update) {
             is SourceAssign -> assign(update.value, update.timestamp)
@@ -0,0 +1,404 @@
+package org.mitallast.queue.crdt.commutative
+
+import gnu.trove.list.array.TLongArrayList
+import gnu.trove.map.hash.THashMap
+import gnu.trove.map.hash.TLongLongHashMap
+import gnu.trove.map.hash.TLongObjectHashMap
+import gnu.trove.set.hash.TLongHashSet
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.CrdtDigest
+import org.mitallast.queue.crdt.CrdtSnapshot
+import org.mitallast.queue.crdt.replication.Replicator
+
+/**
+ * Observed-remove set.
+ *
+ * Every add is tagged with unique dot (replica, sequence). Dots of an element are stored
+ * as flat array of long pairs, and remove carries the dots observed at source replica.
+ * Replica log is delivered in order, so sequence clock per replica allows to drop
+ * tombstones of dots which add was compacted before reaching this replica.
+ * Applied add and remove entries are compacted only after every replica acknowledged them,
+ * see [org.mitallast.queue.crdt.log.DefaultCompactionFilter].
+ */
+class ORSet(private val id: Long, private val replica: Long, private val replicator: Replicator) : CmRDT {
+
+    data class SourceAdd(val value: Message) : CmRDT.SourceUpdate {
+        companion object {
+            val codec = Codec.of(
+                ::SourceAdd,
+                SourceAdd::value,
+                Codec.anyCodec()
+            )
+        }
+    }
+
+    data class SourceRemove(val value: Message) : CmRDT.SourceUpdate {
+        companion object {
+            val codec = Codec.of(
+                ::SourceRemove,
+                SourceRemove::value,
+                Codec.anyCodec()
+            )
+        }
+    }
+
+    data class DownstreamAdd(val value: Message, val replica: Long, val sequence: Long) : CmRDT.DownstreamUpdate {
+        companion object {
+            val codec = Codec.of(
+                ::DownstreamAdd,
+                DownstreamAdd::value,
+                DownstreamAdd::replica,
+                DownstreamAdd::sequence,
+                Codec.anyCodec(),
+                Codec.longCodec(),
+                Codec.longCodec()
+            )
+        }
+    }
+
+    class DownstreamRemove(val value: Message, val dots: LongArray) : CmRDT.DownstreamUpdate {
+        companion object {
+            val codec = Codec.of(
+                ::DownstreamRemove,
+                DownstreamRemove::value,
+                DownstreamRemove::dots,
+                Codec.anyCodec(),
+                Codec.longArrayCodec()
+            )
+        }
+    }
+
+    /**
+     * Full state as flat arrays of long pairs, used in snapshots and anti-entropy repairs.
+     * Joined as state: dot below local clock which is not present was already removed here,
+     * and local dot below remote clock which is not present there was removed at remote.
+     */
+    class DownstreamState(
+        val clock: LongArray,
+        val tombstones: LongArray,
+        val values: Vector<Message>,
+        val dots: Vector<LongArray>) : CmRDT.DownstreamUpdate {
+
+        companion object {
+            val codec = Codec.of(
+                ::DownstreamState,
+                DownstreamState::clock,
+                DownstreamState::tombstones,
+                DownstreamState::values,
+                DownstreamState::dots,
+                Codec.longArrayCodec(),
+                Codec.longArrayCodec(),
+                Codec.vectorCodec(Codec.anyCodec<Message>()),
+                Codec.vectorCodec(Codec.longArrayCodec())
+            )
+        }
+    }
+
+    private val elements = THashMap<Message, TLongArrayList>()
+    private val clock = TLongLongHashMap(7, 0.5f, 0, 0)
+    private val tombstones = TLongObjectHashMap<TLongHashSet>()
+
+    override fun update(event: Message) {
+        when (event) {
+            is CmRDT.SourceUpdate -> sourceUpdate(event)
+            is CmRDT.DownstreamUpdate -> downstreamUpdate(event)
+        }
+    }
+
+    /**
+     * Events are applied in order under one lock, remove depends on adds before it.
+     */
+    @Synchronized
+    override fun updateAll(events: List<Message>) {
+        for (event in events) {
+            update(event)
+        }
+    }
+
+    @Synchronized
+    override fun shouldCompact(event: Message): Boolean {
+        return when (event) {
+            is DownstreamAdd -> !hasDot(event.value, event.replica, event.sequence)
+            is DownstreamRemove -> !elements.containsKey(event.value) && !hasTombstones(event.dots)
+            else -> false
+        }
+    }
+
+    @Synchronized
+    override fun snapshot(): CrdtSnapshot {
+        val clock = TLongArrayList(this.clock.size() * 2)
+        this.clock.forEachEntry { replica, sequence ->
+            clock.add(replica)
+            clock.add(sequence)
+            true
+        }
+        val tombstones = TLongArrayList()
+        this.tombstones.forEachEntry { replica, removed ->
+            removed.forEach { sequence ->
+                tombstones.add(replica)
+                tombstones.add(sequence)
+                true
+            }
+            true
+        }
+        val values = ArrayList<Message>(elements.size)
+        val dots = ArrayList<LongArray>(elements.size)
+        for ((value, valueDots) in elements) {
+            values.add(value)
+            dots.add(valueDots.toArray())
+        }
+        return CrdtSnapshot.of(Vector.of<Message>(
+            DownstreamState(clock.toArray(), tombstones.toArray(), Vector.ofAll(values), Vector.ofAll(dots))
+        ))
+    }
+
+    /**
+     * Snapshot arrays depend on hash map iteration order, so digest sums hashes of every dot and clock entry.
+     */
+    @Synchronized
+    override fun digest(): Long {
+        var digest = 0L
+        clock.forEachEntry { replica, sequence ->
+            digest += CrdtDigest.of(CLOCK, replica, sequence)
+            true
+        }
+        tombstones.forEachEntry { replica, removed ->
+            removed.forEach { sequence ->
+                digest += CrdtDigest.of(TOMBSTONE, replica, sequence)
+                true
+            }
+            true
+        }
+        for ((value, dots) in elements) {
+            val hash = CrdtDigest.of(value)
+            var i = 0
+            while (i < dots.size()) {
+                digest += CrdtDigest.of(hash, dots[i], dots[i + 1])
+                i += 2
+            }
+        }
+        return digest
+    }
+
+    override fun sourceUpdate(update: CmRDT.SourceUpdate) {
+        when (update) {
+            is SourceAdd -> add(update.value)
+            is SourceRemove -> remove(update.value)
+        }
+    }
+
+    @Synchronized
+    override fun downstreamUpdate(update: CmRDT.DownstreamUpdate) {
+        when (update) {
+            is DownstreamAdd -> {
+                // dot below clock is already observed, either present or removed
+                if (clock.get(update.replica) < update.sequence) {
+                    clock.put(update.replica, update.sequence)
+                    if (!removeTombstone(update.replica, update.sequence)) {
+                        addDot(update.value, update.replica, update.sequence)
+                    }
+                    purgeTombstones(update.replica)
+                }
+            }
+            is DownstreamState -> join(update)
+            is DownstreamRemove -> {
+                val dots = update.dots
+                var i = 0
+                while (i < dots.size) {
+                    if (dots[i + 1] <= clock.get(dots[i])) {
+                        removeDot(update.value, dots[i], dots[i + 1])
+                    } else {
+                        var removed = tombstones.get(dots[i])
+                        if (removed == null) {
+                            removed = TLongHashSet()
+                            tombstones.put(dots[i], removed)
+                        }
+                        removed.add(dots[i + 1])
+                    }
+                    i += 2
+                }
+            }
+        }
+    }
+
+    @Synchronized
+    fun add(value: Message) {
+        val sequence = clock.adjustOrPutValue(replica, 1, 1)
+        addDot(value, replica, sequence)
+        replicator.append(id, DownstreamAdd(value, replica, sequence))
+    }
+
+    @Synchronized
+    fun remove(value: Message): Boolean {
+        val dots = elements.remove(value) ?: return false
+        replicator.append(id, DownstreamRemove(value, dots.toArray()))
+        return true
+    }
+
+    @Synchronized
+    fun contains(value: Message): Boolean = elements.containsKey(value)
+
+    @Synchronized
+    fun size(): Int = elements.size
+
+    @Synchronized
+    fun values(): Vector<Message> = Vector.ofAll(elements.keys)
+
+    private fun addDot(value: Message, replica: Long, sequence: Long) {
+        if (hasDot(value, replica, sequence)) {
+            return
+        }
+        var dots = elements[value]
+        if (dots == null) {
+            dots = TLongArrayList(2)
+            elements[value] = dots
+        }
+        dots.add(replica)
+        dots.add(sequence)
+    }
+
+    private fun removeDot(value: Message, replica: Long, sequence: Long) {
+        val dots = elements[value] ?: return
+        var i = 0
+        while (i < dots.size()) {
+            if (dots[i] == replica && dots[i + 1] == sequence) {
+                dots.remove(i, 2)
+                break
+            }
+            i += 2
+        }
+        if (dots.isEmpty) {
+            elements.remove(value)
+        }
+    }
+
+    private fun join(state: DownstreamState) {
+        val remoteClock = TLongLongHashMap(7, 0.5f, 0, 0)
+        var i = 0
+        while (i < state.clock.size) {
+            remoteClock.put(state.clock[i], state.clock[i + 1])
+            i += 2
+        }
+
+        val remoteDots = THashMap<Message, LongArray>()
+        for (index in 0 until state.values.size()) {
+            val value = state.values[index]
+            val dots = state.dots[index]
+            remoteDots[value] = dots
+            i = 0
+            while (i < dots.size) {
+                if (dots[i + 1] > clock.get(dots[i]) && !removeTombstone(dots[i], dots[i + 1])) {
+                    addDot(value, dots[i], dots[i + 1])
+                }
+                i += 2
+            }
+        }
+
+        val iterator = elements.entries.iterator()
+        while (iterator.hasNext()) {
+            val (value, dots) = iterator.next()
+            val remote = remoteDots[value]
+            i = 0
+            while (i < dots.size()) {
+                if (dots[i + 1] <= remoteClock.get(dots[i]) && !containsDot(remote, dots[i], dots[i + 1])) {
+                    dots.remove(i, 2)
+                } else {
+                    i += 2
+                }
+            }
+            if (dots.isEmpty) {
+                iterator.remove()
+            }
+        }
+
+        remoteClock.forEachEntry { replica, sequence ->
+            if (clock.get(replica) < sequence) {
+                clock.put(replica, sequence)
+            }
+            true
+        }
+        i = 0
+        while (i < state.tombstones.size) {
+            if (state.tombstones[i + 1] > clock.get(state.tombstones[i])) {
+                var removed = tombstones.get(state.tombstones[i])
+                if (removed == null) {
+                    removed = TLongHashSet()
+                    tombstones.put(state.tombstones[i], removed)
+                }
+                removed.add(state.tombstones[i + 1])
+            }
+            i += 2
+        }
+        remoteClock.forEachKey { replica ->
+            purgeTombstones(replica)
+            true
+        }
+    }
+
+    private fun containsDot(dots: LongArray?, replica: Long, sequence: Long): Boolean {
+        if (dots == null) {
+            return false
+        }
+        var i = 0
+        while (i < dots.size) {
+            if (dots[i] == replica && dots[i + 1] == sequence) {
+                return true
+            }
+            i += 2
+        }
+        return false
+    }
+
+    private fun hasDot(value: Message, replica: Long, sequence: Long): Boolean {
+        val dots = elements[value] ?: return false
+        var i = 0
+        while (i < dots.size()) {
+            if (dots[i] == replica && dots[i + 1] == sequence) {
+                return true
+            }
+            i += 2
+        }
+        return false
+    }
+
+    private fun hasTombstones(dots: LongArray): Boolean {
+        var i = 0
+        while (i < dots.size) {
+            val removed = tombstones.get(dots[i])
+            if (removed != null && removed.contains(dots[i + 1])) {
+                return true
+            }
+            i += 2
+        }
+        return false
+    }
+
+    private fun removeTombstone(replica: Long, sequence: Long): Boolean {
+        val removed = tombstones.get(replica) ?: return false
+        return removed.remove(sequence)
+    }
+
+    /**
+     * Add for a dot below replica clock will never be delivered, it was compacted at source.
+     */
+    private fun purgeTombstones(replica: Long) {
+        val removed = tombstones.get(replica) ?: return
+        val last = clock.get(replica)
+        val iterator = removed.iterator()
+        while (iterator.hasNext()) {
+            if (iterator.next() <= last) {
+                iterator.remove()
+            }
+        }
+        if (removed.isEmpty) {
+            tombstones.remove(replica)
+        }
+    }
+
+    private companion object {
+        const val CLOCK = 1L
+        const val TOMBSTONE = 2L
+    }
+}
@@ -1,17 +1,20 @@
 package org.mitallast.queue.crdt.commutative
 
-import io.vavr.collection.Set
-import io.vavr.collection.TreeSet
 import io.vavr.collection.Vector
+import io.vavr.control.Option
 import org.mitallast.queue.common.codec.Codec
 import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.CrdtSnapshot
 import org.mitallast.queue.crdt.commutative.OrderedGSet.DownstreamAdd
 import org.mitallast.queue.crdt.commutative.OrderedGSet.SourceAdd
 import org.mitallast.queue.crdt.replication.Replicator
+import java.util.concurrent.ConcurrentSkipListSet
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * Like a G-Set, but require unique timestamp per replica.
  * If two replicas contains equal timestamp, entries will be sorted by replica id for stable sorting.
+ * Entries are stored in skip list, so insert does not copy and reads iterate without lock.
  */
 class OrderedGSet(private val id: Long, private val replica: Long, private val replicator: Replicator) : CmRDT {
 
@@ -41,17 +44,65 @@ class OrderedGSet(private val id: Long, private val replica: Long, private val r
         }
     }
 
-    private data class Entry(val value: Message, val timestamp: Long, val replica: Long)
+    /**
+     * Position of entry in set, page continues strictly after it.
+     */
+    data class Cursor(val timestamp: Long, val replica: Long) {
+        companion object {
+            val codec = Codec.of(
+                ::Cursor,
+                Cursor::timestamp,
+                Cursor::replica,
+                Codec.longCodec(),
+                Codec.longCodec()
+            )
+        }
+    }
+
+    /**
+     * Range of timestamps, from inclusive and to exclusive.
+     */
+    data class Query(val from: Long, val to: Long, val limit: Int, val after: Option<Cursor>) {
+        companion object {
+            val codec = Codec.of(
+                ::Query,
+                Query::from,
+                Query::to,
+                Query::limit,
+                Query::after,
+                Codec.longCodec(),
+                Codec.longCodec(),
+                Codec.intCodec(),
+                Codec.optionCodec(Cursor.codec)
+            )
+        }
+    }
+
+    data class Page(val values: Vector<Message>, val next: Option<Cursor>) {
+        companion object {
+            val codec = Codec.of(
+                ::Page,
+                Page::values,
+                Page::next,
+                Codec.vectorCodec(Codec.anyCodec<Message>()),
+                Codec.optionCodec(Cursor.codec)
+            )
+        }
+    }
 
-    @Volatile
-    private var values: Set<Entry> = TreeSet.empty { o1, o2 ->
-        var c = java.lang.Long.compare(o1.timestamp, o2.timestamp)
-        if (c == 0) {
-            c = java.lang.Long.compare(o1.replica, o2.replica)
+    private class Entry(val value: Message, val timestamp: Long, val replica: Long) : Comparable<Entry> {
+        override fun compareTo(other: Entry): Int {
+            var c = java.lang.Long.compare(timestamp, other.timestamp)
+            if (c == 0) {
+                c = java.lang.Long.compare(replica, other.replica)
+            }
+            return c
         }
-        c
     }
 
+    private val values = ConcurrentSkipListSet<Entry>()
+    private val size = AtomicInteger()
+
     override fun update(event: Message) {
         when (event) {
             is CmRDT.SourceUpdate -> sourceUpdate(event)
@@ -61,35 +112,86 @@ class OrderedGSet(private val id: Long, private val replica: Long, private val r
 
     override fun shouldCompact(event: Message): Boolean = false
 
+    override fun snapshot(): CrdtSnapshot {
+        return CrdtSnapshot.of(Vector.ofAll(values.map { DownstreamAdd(it.value, it.timestamp, it.replica) }))
+    }
+
     override fun sourceUpdate(update: CmRDT.SourceUpdate) {
         when (update) {
             is SourceAdd -> add(update.value, update.timestamp)
         }
     }
 
-    @Synchronized
     override fun downstreamUpdate(update: CmRDT.DownstreamUpdate) {
         when (update) {
-            is DownstreamAdd -> {
-                val entry = Entry(update.value, update.timestamp, update.replica)
-                if (!values.contains(entry)) {
-                    values = values.add(entry)
-                }
+            is DownstreamAdd -> if (values.add(Entry(update.value, update.timestamp, update.replica))) {
+                size.incrementAndGet()
             }
         }
     }
 
-    @Synchronized
     fun add(value: Message, timestamp: Long) {
-        val entry = Entry(value, timestamp, replica)
-        if (!values.contains(entry)) {
-            values = values.add(entry)
+        if (values.add(Entry(value, timestamp, replica))) {
+            size.incrementAndGet()
             replicator.append(id, DownstreamAdd(value, timestamp, replica))
         }
     }
 
+    fun size(): Int = size.get()
+
+    /**
+     * Weakly consistent iteration in timestamp order, without copy.
+     */
+    fun iterator(): Iterator<Message> {
+        val iterator = values.iterator()
+        return object : Iterator<Message> {
+            override fun hasNext(): Boolean = iterator.hasNext()
+
+            override fun next(): Message = iterator.next().value
+        }
+    }
+
     fun values(): Vector<Message> {
-        return values.toVector().map { it.value }
+        return Vector.ofAll(Iterable { iterator() })
     }
+
+    fun values(from: Long, to: Long, limit: Int): Vector<Message> {
+        return page(Query(from, to, limit, Option.none())).values
+    }
+
+    /**
+     * Walks skip list from lower bound, without touching entries out of range.
+     */
+    fun page(query: Query): Page {
+        if (query.limit <= 0 || query.from >= query.to) {
+            return Page(Vector.empty(), Option.none())
+        }
+        val from = Entry(Bound, query.from, Long.MIN_VALUE)
+        val to = Entry(Bound, query.to, Long.MIN_VALUE)
+        val after = query.after.map { Entry(Bound, it.timestamp, it.replica) }.filter { it >= from }
+        if (after.isDefined && after.get() >= to) {
+            return Page(Vector.empty(), Option.none())
+        }
+        val range = if (after.isDefined) {
+            values.subSet(after.get(), false, to, false)
+        } else {
+            values.subSet(from, true, to, false)
+        }
+        val page = ArrayList<Message>(Math.min(query.limit, 64))
+        val iterator = range.iterator()
+        var last: Entry? = null
+        while (page.size < query.limit && iterator.hasNext()) {
+            last = iterator.next()
+            page.add(last.value)
+        }
+        val next = if (last != null && iterator.hasNext()) {
+            Option.some(Cursor(last.timestamp, last.replica))
+        } else {
+            Option.none()
+        }
+        return Page(Vector.ofAll(page), next)
+    }
+
+    private object Bound : Message
 }
 
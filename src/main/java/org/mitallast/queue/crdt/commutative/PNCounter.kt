@@ -0,0 +1,197 @@
+package org.mitallast.queue.crdt.commutative
+
+import gnu.trove.impl.sync.TSynchronizedLongLongMap
+import gnu.trove.map.hash.TLongLongHashMap
+import gnu.trove.procedure.TLongProcedure
+import gnu.trove.set.hash.TLongHashSet
+import io.vavr.collection.Vector
+import io.vavr.control.Option
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.CrdtSnapshot
+import org.mitallast.queue.crdt.replication.Replicator
+
+/**
+ * Pair of increment and decrement counter vectors.
+ * Local updates are joined into one delta per replication interval.
+ */
+class PNCounter(private val id: Long, private val replica: Long, private val replicator: Replicator) : DeltaCRDT {
+
+    data class SourceAdd(val value: Long) : CmRDT.SourceUpdate {
+        companion object {
+            val codec = Codec.of(
+                ::SourceAdd,
+                SourceAdd::value,
+                Codec.longCodec()
+            )
+        }
+    }
+
+    data class DownstreamAssign(val replica: Long, val increments: Long, val decrements: Long) : CmRDT.DownstreamUpdate {
+        companion object {
+            val codec = Codec.of(
+                ::DownstreamAssign,
+                DownstreamAssign::replica,
+                DownstreamAssign::increments,
+                DownstreamAssign::decrements,
+                Codec.longCodec(),
+                Codec.longCodec(),
+                Codec.longCodec()
+            )
+        }
+    }
+
+    private val increments = TSynchronizedLongLongMap(TLongLongHashMap())
+    private val decrements = TSynchronizedLongLongMap(TLongLongHashMap())
+    @Volatile private var drainedIncrements: Long = 0
+    @Volatile private var drainedDecrements: Long = 0
+
+    override fun update(event: Message) {
+        when (event) {
+            is CmRDT.SourceUpdate -> sourceUpdate(event)
+            is CmRDT.DownstreamUpdate -> downstreamUpdate(event)
+        }
+    }
+
+    /**
+     * Assigns of the same replica are folded to the greatest increments and decrements.
+     */
+    @Synchronized
+    override fun updateAll(events: List<Message>) {
+        val foldedIncrements = TLongLongHashMap()
+        val foldedDecrements = TLongLongHashMap()
+        for (event in events) {
+            if (event is DownstreamAssign) {
+                if (foldedIncrements.get(event.replica) < event.increments) {
+                    foldedIncrements.put(event.replica, event.increments)
+                }
+                if (foldedDecrements.get(event.replica) < event.decrements) {
+                    foldedDecrements.put(event.replica, event.decrements)
+                }
+            } else {
+                update(event)
+            }
+        }
+        foldedIncrements.forEachEntry { replica, value ->
+            assign(replica, value, foldedDecrements.get(replica))
+            true
+        }
+        foldedDecrements.forEachEntry { replica, value ->
+            assign(replica, 0, value)
+            true
+        }
+    }
+
+    override fun shouldCompact(event: Message): Boolean {
+        return isSuperseded(event)
+    }
+
+    /**
+     * Log holds only assigns of own replica, an assign is superseded by the last drained one,
+     * which is already appended. Live counts may contain updates not drained yet.
+     */
+    override fun isSuperseded(delta: Message): Boolean {
+        if (delta !is DownstreamAssign || delta.replica != replica) {
+            return false
+        }
+        val inc = drainedIncrements
+        val dec = drainedDecrements
+        return delta.increments <= inc && delta.decrements <= dec && (delta.increments < inc || delta.decrements < dec)
+    }
+
+    @Synchronized override fun drainDelta(): Option<CmRDT.DownstreamUpdate> {
+        val inc = increments.get(replica)
+        val dec = decrements.get(replica)
+        if (inc == drainedIncrements && dec == drainedDecrements) {
+            return Option.none()
+        }
+        drainedIncrements = inc
+        drainedDecrements = dec
+        return Option.some(DownstreamAssign(replica, inc, dec))
+    }
+
+    @Synchronized
+    override fun snapshot(): CrdtSnapshot {
+        val replicas = TLongHashSet(increments.keys())
+        replicas.addAll(decrements.keys())
+        val state = ArrayList<Message>()
+        var pending = Vector.empty<Message>()
+        for (replica in replicas.toArray()) {
+            val inc = increments.get(replica)
+            val dec = decrements.get(replica)
+            if (replica == this.replica) {
+                if (drainedIncrements > 0 || drainedDecrements > 0) {
+                    state.add(DownstreamAssign(replica, drainedIncrements, drainedDecrements))
+                }
+                if (inc > drainedIncrements) {
+                    pending = pending.append(SourceAdd(inc - drainedIncrements))
+                }
+                if (dec > drainedDecrements) {
+                    pending = pending.append(SourceAdd(drainedDecrements - dec))
+                }
+            } else {
+                state.add(DownstreamAssign(replica, inc, dec))
+            }
+        }
+        return CrdtSnapshot(Vector.ofAll(state), pending)
+    }
+
+    override fun sourceUpdate(update: CmRDT.SourceUpdate) {
+        when (update) {
+            is SourceAdd -> add(update.value)
+        }
+    }
+
+    @Synchronized override fun downstreamUpdate(update: CmRDT.DownstreamUpdate) {
+        when (update) {
+            is DownstreamAssign -> assign(update.replica, update.increments, update.decrements)
+        }
+    }
+
+    /**
+     * Own assign is read from log or snapshot on recovery, so it is already drained.
+     */
+    private fun assign(replica: Long, inc: Long, dec: Long) {
+        if (increments.get(replica) < inc) {
+            increments.put(replica, inc)
+        }
+        if (decrements.get(replica) < dec) {
+            decrements.put(replica, dec)
+        }
+        if (replica == this.replica) {
+            drainedIncrements = Math.max(drainedIncrements, inc)
+            drainedDecrements = Math.max(drainedDecrements, dec)
+        }
+    }
+
+    fun increment(): Long = add(1)
+
+    fun decrement(): Long = add(-1)
+
+    fun add(value: Long): Long {
+        if (value >= 0) {
+            increments.adjustOrPutValue(replica, value, value)
+        } else {
+            decrements.adjustOrPutValue(replica, -value, -value)
+        }
+        replicator.delta(id)
+        return value()
+    }
+
+    fun value(): Long {
+        val inc = SumProcedure()
+        increments.forEachValue(inc)
+        val dec = SumProcedure()
+        decrements.forEachValue(dec)
+        return inc.value - dec.value
+    }
+
+    private class SumProcedure : TLongProcedure {
+        internal var value: Long = 0
+
+        override fun execute(value: Long): Boolean {
+            this.value += value
+            return true
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.mitallast.queue.crdt.feed
+
+import com.google.inject.Inject
+import io.netty.buffer.PooledByteBufAllocator
+import io.vavr.collection.HashMap
+import io.vavr.collection.HashSet
+import io.vavr.collection.Map
+import io.vavr.collection.Set
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.common.json.JsonService
+import org.mitallast.queue.common.logging.LoggingService
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Feed of downstream updates applied to resources. Update is serialized once, and every
+ * subscriber of resource writes a retained duplicate of it. Subscriptions are read without
+ * locks, updates of resources without subscribers are not serialized.
+ */
+class CrdtFeed @Inject constructor(
+    logging: LoggingService,
+    private val jsonService: JsonService
+) {
+    private val logger = logging.logger()
+    private val published = LongAdder()
+    private val dropped = LongAdder()
+
+    @Volatile private var subscriptions: Map<Long, Set<FeedSubscriber>> = HashMap.empty()
+
+    @Synchronized
+    fun subscribe(id: Long, subscriber: FeedSubscriber) {
+        subscriptions = subscriptions.put(id, subscriptions.get(id).getOrElse(HashSet.empty()).add(subscriber))
+        subscriber.ids = subscriber.ids.add(id)
+    }
+
+    @Synchronized
+    fun unsubscribe(id: Long, subscriber: FeedSubscriber) {
+        val subscribers = subscriptions.get(id)
+        if (subscribers.isDefined) {
+            val updated = subscribers.get().remove(subscriber)
+            subscriptions = if (updated.isEmpty) subscriptions.remove(id) else subscriptions.put(id, updated)
+        }
+        subscriber.ids = subscriber.ids.remove(id)
+    }
+
+    /**
+     * Removes subscriber from resources it's subscribed to, not scanning all subscriptions.
+     */
+    @Synchronized
+    fun unsubscribe(subscriber: FeedSubscriber) {
+        for (id in subscriber.ids) {
+            unsubscribe(id, subscriber)
+        }
+    }
+
+    fun publish(bucket: Int, id: Long, event: Message) {
+        val subscribers = subscriptions.get(id)
+        if (subscribers.isEmpty) {
+            return
+        }
+        val buf = PooledByteBufAllocator.DEFAULT.buffer()
+        try {
+            jsonService.serialize(buf, CrdtUpdate(id, bucket, type(event), event))
+            published.increment()
+            for (subscriber in subscribers.get()) {
+                if (!subscriber.send(buf)) {
+                    dropped.increment()
+                }
+            }
+        } catch (e: Exception) {
+            logger.warn("error publish update of resource {}", id, e)
+        } finally {
+            buf.release()
+        }
+    }
+
+    fun stats(): CrdtFeedStats {
+        val subscriptions = this.subscriptions
+        return CrdtFeedStats(
+            subscriptions.size(),
+            subscriptions.values().map { it.size() }.sum().toInt(),
+            published.sum(),
+            dropped.sum()
+        )
+    }
+
+    private fun type(event: Message): String {
+        return event.javaClass.name.substringAfterLast('.').replace('$', '.')
+    }
+}
@@ -0,0 +1,8 @@
+package org.mitallast.queue.crdt.feed
+
+data class CrdtFeedStats(
+    val resources: Int,
+    val subscriptions: Int,
+    val published: Long,
+    val dropped: Long
+)
@@ -0,0 +1,5 @@
+package org.mitallast.queue.crdt.feed
+
+import org.mitallast.queue.common.codec.Message
+
+data class CrdtUpdate(val id: Long, val bucket: Int, val type: String, val event: Message)
@@ -0,0 +1,27 @@
+package org.mitallast.queue.crdt.feed
+
+import io.netty.buffer.ByteBuf
+import io.netty.channel.Channel
+import io.vavr.collection.HashSet
+import io.vavr.collection.Set
+
+/**
+ * Channel subscribed to updates, encode wraps serialized update into a message of channel
+ * protocol. Updates are dropped while channel is not writable, so slow consumer does not
+ * buffer updates without limit.
+ */
+class FeedSubscriber(private val channel: Channel, private val encode: (ByteBuf) -> Any) {
+
+    /**
+     * Subscribed resources, updated by feed under its lock.
+     */
+    internal var ids: Set<Long> = HashSet.empty()
+
+    fun send(update: ByteBuf): Boolean {
+        if (!channel.isWritable) {
+            return false
+        }
+        channel.writeAndFlush(encode(update.retainedDuplicate()), channel.voidPromise())
+        return true
+    }
+}
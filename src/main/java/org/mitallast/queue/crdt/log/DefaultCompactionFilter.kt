@@ -1,14 +1,31 @@
 package org.mitallast.queue.crdt.log
 
+import org.mitallast.queue.crdt.commutative.DeltaCRDT
+import org.mitallast.queue.crdt.commutative.ORSet
 import org.mitallast.queue.crdt.registry.CrdtRegistry
+import org.mitallast.queue.crdt.replication.Replicator
 import java.util.function.Predicate
 import javax.inject.Inject
 
-class DefaultCompactionFilter @Inject constructor(private val crdtRegistry: CrdtRegistry) : Predicate<LogEntry> {
+/**
+ * Compaction runs on bucket executor, so replicator is asked for replicated index from the same thread.
+ */
+class DefaultCompactionFilter @Inject constructor(
+    private val crdtRegistry: CrdtRegistry,
+    private val replicator: Replicator
+) : Predicate<LogEntry> {
 
     override fun test(logEntry: LogEntry): Boolean {
         return crdtRegistry.crdtOpt(logEntry.id)
-            .map { crdt -> crdt.shouldCompact(logEntry.event) }
+            .map { crdt ->
+                when (crdt) {
+                    // delta joined into a newer delta of the same replica is not needed anymore
+                    is DeltaCRDT -> crdt.isSuperseded(logEntry.event)
+                    // remove is not superseded by later entry, replica which has add but not remove needs it
+                    is ORSet -> crdt.shouldCompact(logEntry.event) && logEntry.index <= replicator.replicatedIndex()
+                    else -> crdt.shouldCompact(logEntry.event)
+                }
+            }
             .getOrElse(true)
     }
 }
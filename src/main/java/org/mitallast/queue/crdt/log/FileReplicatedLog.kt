@@ -3,51 +3,79 @@ package org.mitallast.queue.crdt.log
 import com.google.inject.Inject
 import com.google.inject.assistedinject.Assisted
 import com.typesafe.config.Config
+import gnu.trove.list.array.TIntArrayList
 import io.vavr.collection.Vector
 import org.mitallast.queue.common.codec.Message
 import org.mitallast.queue.common.file.FileService
 import org.mitallast.queue.common.logging.LoggingService
+import org.mitallast.queue.crdt.bucket.BucketExecutors
+import java.io.DataOutputStream
+import java.io.File
 import java.util.*
-import java.util.concurrent.Executors
-import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.locks.ReentrantLock
 import java.util.function.Predicate
 
+/**
+ * Log of segment files, only the last segment is appended. Full segments are compacted in background:
+ * garbage entries are dropped from memory, and consecutive sparse segments are copied forward
+ * into one dense segment file which replaces them.
+ */
 class FileReplicatedLog @Inject constructor(
     logging: LoggingService,
     config: Config,
     private val fileService: FileService,
+    executors: BucketExecutors,
     @param:Assisted private val compactionFilter: Predicate<LogEntry>,
     @Assisted index: Int,
     @Assisted replica: Long
 ) : ReplicatedLog {
     private val logger = logging.logger()
     private val segmentSize = config.getInt("crdt.segment.size")
+    private val liveRatio = config.getDouble("crdt.compaction.live-ratio")
+    private val compactionRate = config.getBytes("crdt.compaction.rate")
     private val serviceName = String.format("crdt/%d/log/%d", index, replica)
 
-    private val compaction = Executors.newSingleThreadExecutor()
+    // compaction runs on bucket executor, as other background work of bucket
+    private val compaction = executors.executor(index)
+    private val compacting = AtomicBoolean()
     private val segmentsLock = ReentrantLock()
     @Volatile private var segments = Vector.empty<Segment>()
     @Volatile private var lastSegment: Segment
+    @Volatile private var closed = false
 
     private val index = AtomicLong(0)
 
     init {
-        val offsets = fileService.resources(serviceName, "regex:event.[0-9]+.log")
+        // leftover of copy interrupted by stop, its segments are intact until swap
+        fileService.resources(serviceName, "regex:compact\\.[0-9]+\\.tmp")
+            .map { File(fileService.service(serviceName), it.toString()) }
+            .forEach { fileService.delete(it) }
+
+        val offsets = fileService.resources(serviceName, "regex:event\\.[0-9]+\\.log")
             .map { it.fileName.toString() }
             .map { it.substring(6, it.length - 4) }
             .mapToLong { it.toLong() }
             .sorted()
             .toArray()
 
-        for (i in offsets.indices) {
-            segments = segments.append(Segment(i.toLong()))
+        var last = 0L
+        for (offset in offsets) {
+            val segment = Segment(offset)
+            segment.load(last)
+            if (!segment.entries.isEmpty()) {
+                last = segment.entries[segment.entries.size - 1].index
+            }
+            segments = segments.append(segment)
         }
         if (segments.isEmpty) {
             segments = segments.append(Segment(this.index.get()))
         }
         lastSegment = segments.get(segments.size() - 1)
+        lastSegment.open()
+        startGC()
     }
 
     override fun index(): Long {
@@ -65,6 +93,7 @@ class FileReplicatedLog @Inject constructor(
             try {
                 if (lastSegment.isFull) {
                     lastSegment = Segment(index.get())
+                    lastSegment.open()
                     segments = segments.append(lastSegment)
                     logger.debug("created segment {}", lastSegment.offset)
                     append = lastSegment.append(id, event)
@@ -98,10 +127,33 @@ class FileReplicatedLog @Inject constructor(
         return builder.reverse()
     }
 
+    override fun entriesFrom(index: Long, maxEntries: Int, maxBytes: Long): LogBatch {
+        val builder = BatchBuilder(maxEntries, maxBytes)
+        for (segment in segments) {
+            if (!segment.collect(index, builder)) {
+                break
+            }
+        }
+        return LogBatch(Vector.ofAll(builder.entries), builder.bytes)
+    }
+
+    override fun stats(): LogStats {
+        val segments = this.segments
+        var entries = 0L
+        var liveBytes = 0L
+        var fileBytes = 0L
+        for (segment in segments) {
+            entries += segment.entries.size
+            liveBytes += segment.liveBytes
+            fileBytes += segment.fileBytes
+        }
+        return LogStats(segments.size(), entries, liveBytes, fileBytes)
+    }
+
     override fun close() {
         segmentsLock.lock()
         try {
-            compaction.shutdownNow()
+            closed = true
             for (segment in segments) {
                 synchronized(segment.entries) {
                     segment.close()
@@ -117,78 +169,305 @@ class FileReplicatedLog @Inject constructor(
         fileService.delete(serviceName)
     }
 
+    /**
+     * Starts compaction pass if not running, pass repeats while it finds segments to copy.
+     */
     private fun startGC() {
+        if (!compacting.compareAndSet(false, true)) {
+            return
+        }
         compaction.execute {
-            logger.debug("start full GC")
-            for (segment in segments) {
-                if (segment === lastSegment) {
-                    continue
-                }
-                if (segment.isFull) {
-                    logger.debug("compact segment {}", segment.offset)
-                    segment.compact()
-                    if (segment.isGarbage) {
-                        logger.debug("remove segment {}", segment.offset)
-                        segment.close()
-                        fileService.delete(segment.logFile)
+            try {
+                if (!closed && compact()) {
+                    return@execute
+                }
+            } catch (e: Exception) {
+                logger.error("error compact log", e)
+            }
+            compacting.set(false)
+        }
+    }
+
+    /**
+     * Returns true if copy forward is started, it resets compacting flag itself.
+     */
+    private fun compact(): Boolean {
+        logger.debug("start full GC")
+        for (segment in segments) {
+            if (segment !== lastSegment && segment.isFull) {
+                segment.compact()
+                if (segment.isGarbage) {
+                    logger.debug("remove segment {}", segment.offset)
+                    segment.close()
+                    fileService.delete(segment.logFile)
+                }
+            }
+        }
+        segmentsLock.lock()
+        try {
+            segments = segments.filter { segment -> !segment.isGarbage }
+        } finally {
+            segmentsLock.unlock()
+        }
+        logger.debug("end full GC")
+
+        // consecutive sparse segments which live entries fit into one segment
+        val group = ArrayList<Segment>()
+        var live = 0
+        for (segment in segments) {
+            if (segment === lastSegment || !segment.isFull) {
+                break
+            }
+            if (segment.isSparse()) {
+                if (group.isNotEmpty() && live + segment.entries.size > segmentSize) {
+                    break
+                }
+                group.add(segment)
+                live += segment.entries.size
+            } else if (group.isNotEmpty()) {
+                break
+            }
+        }
+        if (group.isEmpty()) {
+            return false
+        }
+        CopyForward(group).step()
+        return true
+    }
+
+    private class BatchBuilder(private val maxEntries: Int, private val maxBytes: Long) {
+        val entries = ArrayList<LogEntry>()
+        var bytes = 0L
+
+        fun add(entry: LogEntry, size: Int): Boolean {
+            if (entries.size == maxEntries || entries.isNotEmpty() && bytes + size > maxBytes) {
+                return false
+            }
+            entries.add(entry)
+            bytes += size
+            return true
+        }
+    }
+
+    /**
+     * Copies live entries of group into temporary file, not matched as segment on load, in steps of compaction.rate / 10 bytes
+     * every 100ms so bucket executor is not blocked. Entries of full segments are changed only
+     * by compaction, so they are stable while copy is running. Copy replaces file of the first
+     * segment and deletes the others; if node stops between, entries of the others are skipped
+     * on load as already present.
+     */
+    private inner class CopyForward(private val group: List<Segment>) {
+        private val tmp = fileService.resource(serviceName, "compact.${group[0].offset}.tmp")
+        private val output = fileService.output(tmp)
+        private val merged = Segment(group[0].offset)
+        private var segment = 0
+        private var position = 0
+
+        fun step() {
+            try {
+                if (closed) {
+                    abort()
+                    return
+                }
+                val limit = Math.max(1, compactionRate / 10)
+                var written = 0L
+                while (segment < group.size && written < limit) {
+                    val source = group[segment]
+                    if (position == source.entries.size) {
+                        segment++
+                        position = 0
+                        continue
                     }
+                    val logEntry = source.entries[position++]
+                    val start = output.size()
+                    LogEntry.codec.write(output, logEntry)
+                    val size = output.size() - start
+                    merged.add(logEntry, size)
+                    written += size
                 }
+                if (segment < group.size) {
+                    compaction.schedule({ step() }, 100, TimeUnit.MILLISECONDS)
+                } else {
+                    swap()
+                }
+            } catch (e: Exception) {
+                logger.error("error copy segments", e)
+                abort()
             }
+        }
+
+        private fun swap() {
+            output.close()
+            val fileBytes = tmp.length()
             segmentsLock.lock()
             try {
-                segments = segments.filter { segment -> !segment.isGarbage }
+                if (closed) {
+                    fileService.delete(tmp)
+                    compacting.set(false)
+                    return
+                }
+                fileService.move(tmp, merged.logFile)
+                for (i in 1 until group.size) {
+                    fileService.delete(group[i].logFile)
+                }
+                merged.loaded(fileBytes)
+                segments = segments
+                    .filter { s -> s === group[0] || !group.contains(s) }
+                    .map { s -> if (s === group[0]) merged else s }
             } finally {
                 segmentsLock.unlock()
             }
-            logger.debug("end full GC")
+            logger.info("copied {} segments to {}, {} entries, {} bytes",
+                group.size, merged.offset, merged.entries.size, merged.fileBytes)
+            compacting.set(false)
+            startGC()
+        }
+
+        private fun abort() {
+            output.close()
+            fileService.delete(tmp)
+            compacting.set(false)
         }
     }
 
     private inner class Segment constructor(val offset: Long) {
         val entries = ArrayList<LogEntry>()
+        // encoded size of entry at the same position
+        private val sizes = TIntArrayList()
         val logFile = fileService.resource(serviceName, "event.$offset.log")
-        private val logOutput = fileService.output(logFile, true)
-        private val added = AtomicInteger(0)
+        private var logOutput: DataOutputStream? = null
+
+        /**
+         * Segment is full if it has segment size entries or it is not the last segment.
+         */
+        @Volatile var isFull: Boolean = true
+            private set
+
+        @Volatile var liveBytes: Long = 0
+            private set
+
+        @Volatile var fileBytes: Long = 0
+            private set
 
-        init {
+        val isGarbage: Boolean get() = isFull && entries.isEmpty()
+
+        /**
+         * Reads entries after index from file.
+         */
+        fun load(after: Long) {
             if (logFile.length() > 0) {
                 fileService.input(logFile).use { stream ->
-                    if (stream.available() > 0) {
-                        while (stream.available() > 0) {
-                            entries.add(LogEntry.codec.read(stream))
+                    while (stream.available() > 0) {
+                        val available = stream.available()
+                        val logEntry = LogEntry.codec.read(stream)
+                        if (logEntry.index > after) {
+                            add(logEntry, available - stream.available())
                         }
                     }
                     if (!entries.isEmpty()) {
                         index.set(entries[entries.size - 1].index + 1)
                     }
-                    added.set(entries.size)
                 }
             }
+            fileBytes = logFile.length()
+        }
+
+        fun loaded(fileBytes: Long) {
+            this.fileBytes = fileBytes
+        }
+
+        fun add(logEntry: LogEntry, size: Int) {
+            entries.add(logEntry)
+            sizes.add(size)
+            liveBytes += size
+        }
+
+        /**
+         * Opens segment for append.
+         */
+        fun open() {
+            if (entries.size < segmentSize) {
+                logOutput = fileService.output(logFile, true)
+                isFull = false
+            }
         }
 
         fun append(id: Long, event: Message): LogEntry? {
             synchronized(entries) {
-                if (isFull) {
+                val output = logOutput
+                if (isFull || output == null) {
                     return null
                 }
                 val logEntry = LogEntry(index.incrementAndGet(), id, event)
-                LogEntry.codec.write(logOutput, logEntry)
-                entries.add(logEntry)
-                added.incrementAndGet()
+                val written = output.size()
+                LogEntry.codec.write(output, logEntry)
+                val size = output.size() - written
+                add(logEntry, size)
+                fileBytes += size
+                if (entries.size >= segmentSize) {
+                    isFull = true
+                    output.close()
+                    logOutput = null
+                }
                 return logEntry
             }
         }
 
-        val isFull: Boolean = added.get() == segmentSize
+        fun isSparse(): Boolean = fileBytes > 0 && liveBytes < fileBytes * liveRatio
+
+        /**
+         * Adds entries after index to batch, returns false if batch is full.
+         */
+        fun collect(index: Long, builder: BatchBuilder): Boolean {
+            synchronized(entries) {
+                var i = search(index)
+                while (i < entries.size) {
+                    if (!builder.add(entries[i], sizes[i])) {
+                        return false
+                    }
+                    i++
+                }
+                return true
+            }
+        }
 
-        val isGarbage: Boolean = isFull && entries.isEmpty()
+        /**
+         * Position of first entry after index, entries are sorted by index.
+         */
+        private fun search(index: Long): Int {
+            var low = 0
+            var high = entries.size
+            while (low < high) {
+                val mid = (low + high) ushr 1
+                if (entries[mid].index <= index) {
+                    low = mid + 1
+                } else {
+                    high = mid
+                }
+            }
+            return low
+        }
 
         fun compact() {
             synchronized(entries) {
-                entries.removeIf(compactionFilter)
+                var j = 0
+                for (i in entries.indices) {
+                    if (!compactionFilter.test(entries[i])) {
+                        entries[j] = entries[i]
+                        sizes[j] = sizes[i]
+                        j++
+                    } else {
+                        liveBytes -= sizes[i]
+                    }
+                }
+                entries.subList(j, entries.size).clear()
+                sizes.remove(j, sizes.size() - j)
             }
         }
 
-        fun close() = logOutput.close()
+        fun close() {
+            logOutput?.close()
+            logOutput = null
+        }
     }
 }
@@ -0,0 +1,11 @@
+package org.mitallast.queue.crdt.log
+
+import io.vavr.collection.Vector
+
+/**
+ * Consecutive log entries with total size of their encoded form.
+ */
+data class LogBatch(val entries: Vector<LogEntry>, val bytes: Long) {
+
+    fun isEmpty(): Boolean = entries.isEmpty
+}
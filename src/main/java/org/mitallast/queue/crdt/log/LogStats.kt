@@ -0,0 +1,11 @@
+package org.mitallast.queue.crdt.log
+
+/**
+ * Live bytes are encoded entries not compacted yet, garbage is the rest of segment files.
+ */
+data class LogStats(val segments: Int, val entries: Long, val liveBytes: Long, val fileBytes: Long) {
+
+    val garbageBytes: Long get() = fileBytes - liveBytes
+
+    val liveRatio: Double get() = if (fileBytes == 0L) 1.0 else liveBytes.toDouble() / fileBytes
+}
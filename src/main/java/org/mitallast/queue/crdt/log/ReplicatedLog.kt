@@ -13,6 +13,13 @@ interface ReplicatedLog : Closeable {
 
     fun entriesFrom(index: Long): Vector<LogEntry>
 
+    /**
+     * Entries after index, limited by count and by encoded size, but at least one entry if log has any.
+     */
+    fun entriesFrom(index: Long, maxEntries: Int, maxBytes: Long): LogBatch
+
+    fun stats(): LogStats
+
     fun delete()
 
     override fun close()
@@ -0,0 +1,28 @@
+package org.mitallast.queue.crdt.protocol
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Range hashes of sender, and (id, digest) pairs of its resources in ranges which differ from request.
+ */
+class AntiEntropyDigests(
+    val bucket: Int,
+    val replica: Long,
+    val ranges: LongArray,
+    val digests: LongArray) : Message {
+
+    companion object {
+        val codec = Codec.of(
+            ::AntiEntropyDigests,
+            AntiEntropyDigests::bucket,
+            AntiEntropyDigests::replica,
+            AntiEntropyDigests::ranges,
+            AntiEntropyDigests::digests,
+            Codec.intCodec(),
+            Codec.longCodec(),
+            Codec.longArrayCodec(),
+            Codec.longArrayCodec()
+        )
+    }
+}
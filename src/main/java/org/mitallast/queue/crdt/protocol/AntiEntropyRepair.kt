@@ -0,0 +1,30 @@
+package org.mitallast.queue.crdt.protocol
+
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.bucket.ResourceSnapshot
+
+/**
+ * State of divergent resources to join at receiver, and ids of resources which state receiver should send back.
+ */
+class AntiEntropyRepair(
+    val bucket: Int,
+    val replica: Long,
+    val resources: Vector<ResourceSnapshot>,
+    val request: LongArray) : Message {
+
+    companion object {
+        val codec = Codec.of(
+            ::AntiEntropyRepair,
+            AntiEntropyRepair::bucket,
+            AntiEntropyRepair::replica,
+            AntiEntropyRepair::resources,
+            AntiEntropyRepair::request,
+            Codec.intCodec(),
+            Codec.longCodec(),
+            Codec.vectorCodec(ResourceSnapshot.codec),
+            Codec.longArrayCodec()
+        )
+    }
+}
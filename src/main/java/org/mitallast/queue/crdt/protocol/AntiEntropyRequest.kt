@@ -0,0 +1,25 @@
+package org.mitallast.queue.crdt.protocol
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Range hashes of sender resource state, see [org.mitallast.queue.crdt.replication.MerkleTree].
+ */
+class AntiEntropyRequest(
+    val bucket: Int,
+    val replica: Long,
+    val ranges: LongArray) : Message {
+
+    companion object {
+        val codec = Codec.of(
+            ::AntiEntropyRequest,
+            AntiEntropyRequest::bucket,
+            AntiEntropyRequest::replica,
+            AntiEntropyRequest::ranges,
+            Codec.intCodec(),
+            Codec.longCodec(),
+            Codec.longArrayCodec()
+        )
+    }
+}
@@ -0,0 +1,17 @@
+package org.mitallast.queue.crdt.protocol
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Answer to request of resource whose bucket has no replica at node, request is not applied.
+ */
+data class BucketNotAllocated(val bucket: Int) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::BucketNotAllocated,
+            BucketNotAllocated::bucket,
+            Codec.intCodec()
+        )
+    }
+}
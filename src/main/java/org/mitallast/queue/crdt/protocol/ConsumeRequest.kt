@@ -0,0 +1,20 @@
+package org.mitallast.queue.crdt.protocol
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.commutative.OrderedGSet
+
+/**
+ * Reads page of ordered-g-set. Response is [ConsumeResponse].
+ */
+data class ConsumeRequest(val id: Long, val query: OrderedGSet.Query) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::ConsumeRequest,
+            ConsumeRequest::id,
+            ConsumeRequest::query,
+            Codec.longCodec(),
+            OrderedGSet.Query.codec
+        )
+    }
+}
@@ -0,0 +1,21 @@
+package org.mitallast.queue.crdt.protocol
+
+import io.vavr.control.Option
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.commutative.OrderedGSet
+
+/**
+ * Empty page means resource is not found.
+ */
+data class ConsumeResponse(val id: Long, val page: Option<OrderedGSet.Page>) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::ConsumeResponse,
+            ConsumeResponse::id,
+            ConsumeResponse::page,
+            Codec.longCodec(),
+            Codec.optionCodec(OrderedGSet.Page.codec)
+        )
+    }
+}
@@ -0,0 +1,22 @@
+package org.mitallast.queue.crdt.protocol
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.routing.ResourceType
+
+/**
+ * Adds delta to g-counter or pn-counter, zero delta reads value. Response is [CounterResponse].
+ */
+data class CounterRequest(val id: Long, val type: ResourceType, val delta: Long) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::CounterRequest,
+            CounterRequest::id,
+            CounterRequest::type,
+            CounterRequest::delta,
+            Codec.longCodec(),
+            Codec.enumCodec(ResourceType::class.java),
+            Codec.longCodec()
+        )
+    }
+}
@@ -0,0 +1,20 @@
+package org.mitallast.queue.crdt.protocol
+
+import io.vavr.control.Option
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Value of counter after update, empty if resource is not found.
+ */
+data class CounterResponse(val id: Long, val value: Option<Long>) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::CounterResponse,
+            CounterResponse::id,
+            CounterResponse::value,
+            Codec.longCodec(),
+            Codec.optionCodec(Codec.longCodec())
+        )
+    }
+}
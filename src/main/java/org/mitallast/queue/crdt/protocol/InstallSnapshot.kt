@@ -0,0 +1,34 @@
+package org.mitallast.queue.crdt.protocol
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Chunk of saved snapshot file of sender replica, which covers its log up to index.
+ */
+class InstallSnapshot(
+    val bucket: Int,
+    val replica: Long,
+    val index: Long,
+    val offset: Long,
+    val data: ByteArray,
+    val done: Boolean) : Message {
+
+    companion object {
+        val codec = Codec.of(
+            ::InstallSnapshot,
+            InstallSnapshot::bucket,
+            InstallSnapshot::replica,
+            InstallSnapshot::index,
+            InstallSnapshot::offset,
+            InstallSnapshot::data,
+            InstallSnapshot::done,
+            Codec.intCodec(),
+            Codec.longCodec(),
+            Codec.longCodec(),
+            Codec.longCodec(),
+            Codec.bytesCodec(),
+            Codec.booleanCodec()
+        )
+    }
+}
@@ -0,0 +1,28 @@
+package org.mitallast.queue.crdt.protocol
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Acknowledges chunks of snapshot received by replica, offset is the received length.
+ */
+data class InstallSnapshotAck(
+    val bucket: Int,
+    val replica: Long,
+    val index: Long,
+    val offset: Long) : Message {
+
+    companion object {
+        val codec = Codec.of(
+            ::InstallSnapshotAck,
+            InstallSnapshotAck::bucket,
+            InstallSnapshotAck::replica,
+            InstallSnapshotAck::index,
+            InstallSnapshotAck::offset,
+            Codec.intCodec(),
+            Codec.longCodec(),
+            Codec.longCodec(),
+            Codec.longCodec()
+        )
+    }
+}
@@ -0,0 +1,25 @@
+package org.mitallast.queue.crdt.protocol
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Request from replica of split bucket to replica of source bucket for state of moved resources.
+ */
+data class MigrateRequest(
+    val bucket: Int,
+    val target: Int,
+    val replica: Long) : Message {
+
+    companion object {
+        val codec = Codec.of(
+            ::MigrateRequest,
+            MigrateRequest::bucket,
+            MigrateRequest::target,
+            MigrateRequest::replica,
+            Codec.intCodec(),
+            Codec.intCodec(),
+            Codec.longCodec()
+        )
+    }
+}
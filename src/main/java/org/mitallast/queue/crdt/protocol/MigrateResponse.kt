@@ -0,0 +1,27 @@
+package org.mitallast.queue.crdt.protocol
+
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.bucket.ResourceSnapshot
+
+/**
+ * State of moved resources at replica of source bucket.
+ */
+class MigrateResponse(
+    val bucket: Int,
+    val source: Long,
+    val resources: Vector<ResourceSnapshot>) : Message {
+
+    companion object {
+        val codec = Codec.of(
+            ::MigrateResponse,
+            MigrateResponse::bucket,
+            MigrateResponse::source,
+            MigrateResponse::resources,
+            Codec.intCodec(),
+            Codec.longCodec(),
+            Codec.vectorCodec(ResourceSnapshot.codec)
+        )
+    }
+}
@@ -0,0 +1,27 @@
+package org.mitallast.queue.crdt.protocol
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.commutative.OrderedGSet
+import org.mitallast.queue.transport.DiscoveryNode
+
+data class OrderedGSetPageRequest(
+    val session: Long,
+    val node: DiscoveryNode,
+    val id: Long,
+    val query: OrderedGSet.Query) : Message {
+
+    companion object {
+        val codec = Codec.of(
+            ::OrderedGSetPageRequest,
+            OrderedGSetPageRequest::session,
+            OrderedGSetPageRequest::node,
+            OrderedGSetPageRequest::id,
+            OrderedGSetPageRequest::query,
+            Codec.longCodec(),
+            DiscoveryNode.codec,
+            Codec.longCodec(),
+            OrderedGSet.Query.codec
+        )
+    }
+}
@@ -0,0 +1,27 @@
+package org.mitallast.queue.crdt.protocol
+
+import io.vavr.control.Option
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.commutative.OrderedGSet
+
+/**
+ * Empty page means resource is not allocated at the node.
+ */
+data class OrderedGSetPageResponse(
+    val session: Long,
+    val id: Long,
+    val page: Option<OrderedGSet.Page>) : Message {
+
+    companion object {
+        val codec = Codec.of(
+            ::OrderedGSetPageResponse,
+            OrderedGSetPageResponse::session,
+            OrderedGSetPageResponse::id,
+            OrderedGSetPageResponse::page,
+            Codec.longCodec(),
+            Codec.longCodec(),
+            Codec.optionCodec(OrderedGSet.Page.codec)
+        )
+    }
+}
@@ -0,0 +1,21 @@
+package org.mitallast.queue.crdt.protocol
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Appends value to ordered-g-set. Response is [ValuesResponse].
+ */
+data class ProduceRequest(val id: Long, val value: Message, val timestamp: Long) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::ProduceRequest,
+            ProduceRequest::id,
+            ProduceRequest::value,
+            ProduceRequest::timestamp,
+            Codec.longCodec(),
+            Codec.anyCodec(),
+            Codec.longCodec()
+        )
+    }
+}
@@ -0,0 +1,22 @@
+package org.mitallast.queue.crdt.protocol
+
+import io.vavr.control.Option
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Assigns lww-register if value is defined, else reads it. Response is [ValuesResponse].
+ */
+data class RegisterRequest(val id: Long, val value: Option<Message>, val timestamp: Long) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::RegisterRequest,
+            RegisterRequest::id,
+            RegisterRequest::value,
+            RegisterRequest::timestamp,
+            Codec.longCodec(),
+            Codec.optionCodec(Codec.anyCodec()),
+            Codec.longCodec()
+        )
+    }
+}
@@ -0,0 +1,14 @@
+package org.mitallast.queue.crdt.protocol
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Request of client for current routing table.
+ */
+class RoutingTableRequest private constructor() : Message {
+    companion object {
+        val INSTANCE = RoutingTableRequest()
+        val codec = Codec.of(INSTANCE)
+    }
+}
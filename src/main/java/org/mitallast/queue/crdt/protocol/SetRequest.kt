@@ -0,0 +1,31 @@
+package org.mitallast.queue.crdt.protocol
+
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.routing.ResourceType
+
+/**
+ * Adds and removes values of g-set or or-set, request without values reads the set.
+ * Response is [ValuesResponse].
+ */
+data class SetRequest(
+    val id: Long,
+    val type: ResourceType,
+    val add: Vector<Message>,
+    val remove: Vector<Message>) : Message {
+
+    companion object {
+        val codec = Codec.of(
+            ::SetRequest,
+            SetRequest::id,
+            SetRequest::type,
+            SetRequest::add,
+            SetRequest::remove,
+            Codec.longCodec(),
+            Codec.enumCodec(ResourceType::class.java),
+            Codec.vectorCodec(Codec.anyCodec<Message>()),
+            Codec.vectorCodec(Codec.anyCodec<Message>())
+        )
+    }
+}
@@ -0,0 +1,22 @@
+package org.mitallast.queue.crdt.protocol
+
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Values read by request, empty for updates.
+ */
+data class ValuesResponse(val id: Long, val found: Boolean, val values: Vector<Message>) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::ValuesResponse,
+            ValuesResponse::id,
+            ValuesResponse::found,
+            ValuesResponse::values,
+            Codec.longCodec(),
+            Codec.booleanCodec(),
+            Codec.vectorCodec(Codec.anyCodec<Message>())
+        )
+    }
+}
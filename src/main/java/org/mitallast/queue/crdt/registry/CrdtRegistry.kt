@@ -1,7 +1,10 @@
 package org.mitallast.queue.crdt.registry
 
+import io.vavr.collection.Vector
 import io.vavr.control.Option
 import org.mitallast.queue.crdt.Crdt
+import org.mitallast.queue.crdt.bucket.ResourceSnapshot
+import org.mitallast.queue.crdt.routing.ResourceType
 
 interface CrdtRegistry {
 
@@ -15,6 +18,37 @@ interface CrdtRegistry {
 
     fun createOrderedGSet(id: Long): Boolean
 
+    fun createPNCounter(id: Long): Boolean
+
+    fun createORSet(id: Long): Boolean
+
+    fun createLWWMap(id: Long): Boolean
+
+    fun create(id: Long, type: ResourceType): Boolean
+
+    /**
+     * Snapshot of every registered resource, each one taken independently.
+     */
+    fun snapshot(): Vector<ResourceSnapshot>
+
+    /**
+     * Snapshot of resource state only, pending local updates are not included.
+     */
+    fun snapshot(id: Long): Option<ResourceSnapshot>
+
+    fun ids(): LongArray
+
+    /**
+     * Digests of every registered resource as flat array of (id, digest) pairs.
+     */
+    fun digests(): LongArray
+
+    /**
+     * Creates resource if not exists, and joins snapshot state into it.
+     * Pending local updates are applied only if snapshot was taken at this replica.
+     */
+    fun restore(snapshot: ResourceSnapshot, local: Boolean)
+
     fun remove(id: Long): Boolean
 
     fun crdt(id: Long): Crdt
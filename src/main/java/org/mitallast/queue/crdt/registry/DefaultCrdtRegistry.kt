@@ -2,14 +2,21 @@ package org.mitallast.queue.crdt.registry
 
 import com.google.inject.Inject
 import com.google.inject.assistedinject.Assisted
+import gnu.trove.list.array.TLongArrayList
 import gnu.trove.map.hash.TLongObjectHashMap
+import io.vavr.collection.Vector
 import io.vavr.control.Option
 import org.mitallast.queue.crdt.Crdt
 import org.mitallast.queue.crdt.commutative.GCounter
 import org.mitallast.queue.crdt.commutative.GSet
+import org.mitallast.queue.crdt.commutative.LWWMap
 import org.mitallast.queue.crdt.commutative.LWWRegister
+import org.mitallast.queue.crdt.commutative.ORSet
 import org.mitallast.queue.crdt.commutative.OrderedGSet
+import org.mitallast.queue.crdt.commutative.PNCounter
+import org.mitallast.queue.crdt.bucket.ResourceSnapshot
 import org.mitallast.queue.crdt.replication.Replicator
+import org.mitallast.queue.crdt.routing.ResourceType
 import java.util.concurrent.locks.ReentrantLock
 
 @Suppress("UNCHECKED_CAST")
@@ -20,68 +27,124 @@ class DefaultCrdtRegistry @Inject constructor(
 ) : CrdtRegistry {
     private val lock = ReentrantLock()
     private val crdtMap = TLongObjectHashMap<Crdt>()
+    private val typeMap = TLongObjectHashMap<ResourceType>()
 
     override fun index(): Int = index
 
     override fun createLWWRegister(id: Long): Boolean {
+        return create(id, ResourceType.LWWRegister)
+    }
+
+    override fun createGCounter(id: Long): Boolean {
+        return create(id, ResourceType.GCounter)
+    }
+
+    override fun createGSet(id: Long): Boolean {
+        return create(id, ResourceType.GSet)
+    }
+
+    override fun createOrderedGSet(id: Long): Boolean {
+        return create(id, ResourceType.OrderedGSet)
+    }
+
+    override fun createPNCounter(id: Long): Boolean {
+        return create(id, ResourceType.PNCounter)
+    }
+
+    override fun createORSet(id: Long): Boolean {
+        return create(id, ResourceType.ORSet)
+    }
+
+    override fun createLWWMap(id: Long): Boolean {
+        return create(id, ResourceType.LWWMap)
+    }
+
+    override fun create(id: Long, type: ResourceType): Boolean {
         lock.lock()
         try {
             if (crdtMap.containsKey(id)) {
                 return false
             }
-            crdtMap.put(id, LWWRegister(id, replicator))
+            val crdt = when (type) {
+                ResourceType.LWWRegister -> LWWRegister(id, replicator)
+                ResourceType.GCounter -> GCounter(id, replica, replicator)
+                ResourceType.GSet -> GSet(id, replicator)
+                ResourceType.OrderedGSet -> OrderedGSet(id, replica, replicator)
+                ResourceType.PNCounter -> PNCounter(id, replica, replicator)
+                ResourceType.ORSet -> ORSet(id, replica, replicator)
+                ResourceType.LWWMap -> LWWMap(id, replica, replicator)
+            }
+            crdtMap.put(id, crdt)
+            typeMap.put(id, type)
             return true
         } finally {
             lock.unlock()
         }
     }
 
-    override fun createGCounter(id: Long): Boolean {
+    override fun snapshot(): Vector<ResourceSnapshot> {
+        val resources = ArrayList<Pair<Long, ResourceType>>()
         lock.lock()
         try {
-            if (crdtMap.containsKey(id)) {
-                return false
-            }
-            crdtMap.put(id, GCounter(id, replica, replicator))
-            return true
+            typeMap.forEachEntry { id, type -> resources.add(Pair(id, type)) }
         } finally {
             lock.unlock()
         }
+        return Vector.ofAll(resources.map { (id, type) ->
+            val snapshot = crdt(id).snapshot()
+            ResourceSnapshot(id, type, snapshot.state, snapshot.pending)
+        })
     }
 
-    override fun createGSet(id: Long): Boolean {
+    override fun snapshot(id: Long): Option<ResourceSnapshot> {
+        val crdt = crdtMap.get(id) ?: return Option.none()
+        val type = typeMap.get(id) ?: return Option.none()
+        return Option.some(ResourceSnapshot(id, type, crdt.snapshot().state, Vector.empty()))
+    }
+
+    override fun ids(): LongArray {
         lock.lock()
         try {
-            if (crdtMap.containsKey(id)) {
-                return false
-            }
-            crdtMap.put(id, GSet(id, replicator))
-            return true
+            return crdtMap.keys()
         } finally {
             lock.unlock()
         }
     }
 
-    override fun createOrderedGSet(id: Long): Boolean {
+    override fun digests(): LongArray {
+        val ids: LongArray
         lock.lock()
         try {
-            if (crdtMap.containsKey(id)) {
-                return false
-            }
-            crdtMap.put(id, OrderedGSet(id, replica, replicator))
-            return true
+            ids = crdtMap.keys()
         } finally {
             lock.unlock()
         }
+        val digests = TLongArrayList(ids.size * 2)
+        for (id in ids) {
+            val crdt = crdtMap.get(id) ?: continue
+            digests.add(id)
+            digests.add(crdt.digest())
+        }
+        return digests.toArray()
+    }
+
+    override fun restore(snapshot: ResourceSnapshot, local: Boolean) {
+        create(snapshot.id, snapshot.type)
+        val crdt = crdt(snapshot.id)
+        snapshot.state.forEach { crdt.update(it) }
+        if (local) {
+            snapshot.pending.forEach { crdt.update(it) }
+        }
     }
 
     override fun remove(id: Long): Boolean {
         lock.lock()
         try {
-            if (crdtMap.containsKey(id)) {
+            if (!crdtMap.containsKey(id)) {
                 return false
             }
             crdtMap.remove(id)
+            typeMap.remove(id)
             return true
         } finally {
             lock.unlock()
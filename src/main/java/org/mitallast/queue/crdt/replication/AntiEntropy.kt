@@ -0,0 +1,19 @@
+package org.mitallast.queue.crdt.replication
+
+import org.mitallast.queue.common.component.LifecycleComponent
+import org.mitallast.queue.crdt.protocol.AntiEntropyDigests
+import org.mitallast.queue.crdt.protocol.AntiEntropyRepair
+import org.mitallast.queue.crdt.protocol.AntiEntropyRequest
+
+/**
+ * Background repair of resource state between bucket replicas, independent of replicated log.
+ * Methods should be called from bucket executor.
+ */
+interface AntiEntropy : LifecycleComponent {
+
+    fun request(message: AntiEntropyRequest)
+
+    fun digests(message: AntiEntropyDigests)
+
+    fun repair(message: AntiEntropyRepair)
+}
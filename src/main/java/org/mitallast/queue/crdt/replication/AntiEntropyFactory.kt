@@ -0,0 +1,7 @@
+package org.mitallast.queue.crdt.replication
+
+import org.mitallast.queue.crdt.bucket.Bucket
+
+interface AntiEntropyFactory {
+    fun create(bucket: Bucket): AntiEntropy
+}
@@ -0,0 +1,188 @@
+package org.mitallast.queue.crdt.replication
+
+import com.google.inject.Inject
+import com.google.inject.assistedinject.Assisted
+import com.typesafe.config.Config
+import gnu.trove.list.array.TLongArrayList
+import gnu.trove.map.hash.TLongLongHashMap
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.component.AbstractLifecycleComponent
+import org.mitallast.queue.common.logging.LoggingService
+import org.mitallast.queue.crdt.bucket.Bucket
+import org.mitallast.queue.crdt.bucket.ResourceSnapshot
+import org.mitallast.queue.crdt.protocol.AntiEntropyDigests
+import org.mitallast.queue.crdt.protocol.AntiEntropyRepair
+import org.mitallast.queue.crdt.protocol.AntiEntropyRequest
+import org.mitallast.queue.crdt.routing.RoutingBucket
+import org.mitallast.queue.crdt.routing.fsm.RoutingTableFSM
+import org.mitallast.queue.transport.TransportService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Once per interval exchanges range hashes with next replica of bucket in round-robin order.
+ * Initiator compares digests of resources in divergent ranges, sends own state of divergent
+ * resources and requests state of remote ones, so after exchange both replicas joined both states.
+ *
+ * Repairs are rate-limited: one exchange in progress at a time and at most max-resources resources
+ * per exchange. Exchange runs on bucket executor, and messages are handled there too.
+ */
+class DefaultAntiEntropy @Inject constructor(
+    config: Config,
+    logging: LoggingService,
+    private val fsm: RoutingTableFSM,
+    private val transportService: TransportService,
+    @param:Assisted private val bucket: Bucket
+) : AbstractLifecycleComponent(logging), AntiEntropy {
+
+    private val timeout = config.getDuration("crdt.timeout", TimeUnit.MILLISECONDS)
+    private val interval = config.getDuration("crdt.anti-entropy.interval", TimeUnit.MILLISECONDS)
+    private val ranges = config.getInt("crdt.anti-entropy.ranges")
+    private val maxResources = config.getInt("crdt.anti-entropy.max-resources")
+
+    private var task: ScheduledFuture<*>? = null
+    private var round = 0
+    private var exchangeTimeout = 0L
+    private var digests = LongArray(0)
+    private var tree = MerkleTree(LongArray(0))
+
+    private fun exchange() {
+        if (exchangeTimeout > System.currentTimeMillis()) {
+            return
+        }
+        val replicas = routingBucket().replicas.remove(bucket.replica()).values()
+            .filter { !it.isClosed }
+            .sortBy { it.id }
+        if (replicas.isEmpty) {
+            return
+        }
+        val replica = replicas.get(Math.floorMod(round++, replicas.size()))
+
+        digests = bucket.registry().digests()
+        tree = MerkleTree.build(digests, ranges)
+        exchangeTimeout = System.currentTimeMillis() + timeout
+        if (logger.isDebugEnabled) {
+            logger.debug("[replica={}:{}] anti-entropy request to={}:{} root={}",
+                bucket.index(), bucket.replica(),
+                bucket.index(), replica.id, tree.root())
+        }
+        transportService.send(replica.member, AntiEntropyRequest(bucket.index(), bucket.replica(), tree.ranges))
+    }
+
+    override fun request(message: AntiEntropyRequest) {
+        val replica = routingBucket().replicas.getOrElse(message.replica, null)
+        if (replica == null) {
+            logger.warn("unexpected replica {}, ignore", message.replica)
+            return
+        }
+        val digests = bucket.registry().digests()
+        val tree = MerkleTree.build(digests, ranges)
+        val diff = tree.diff(message.ranges)
+        val divergent = MerkleTree.filter(digests, diff, ranges)
+        transportService.send(replica.member, AntiEntropyDigests(bucket.index(), bucket.replica(), tree.ranges, divergent))
+    }
+
+    override fun digests(message: AntiEntropyDigests) {
+        val routingBucket = routingBucket()
+        val replica = routingBucket.replicas.getOrElse(message.replica, null)
+        if (replica == null) {
+            logger.warn("unexpected replica {}, ignore", message.replica)
+            return
+        }
+        val diff = tree.diff(message.ranges)
+        if (diff.isEmpty()) {
+            logger.debug("[replica={}:{}] in sync with {}:{}",
+                bucket.index(), bucket.replica(),
+                bucket.index(), message.replica)
+            exchangeTimeout = 0
+            return
+        }
+
+        val local = toMap(MerkleTree.filter(digests, diff, ranges))
+        val remote = toMap(message.digests)
+        val send = TLongArrayList()
+        val request = TLongArrayList()
+        local.forEachEntry { id, digest ->
+            if (send.size() + request.size() < maxResources && routingBucket.hasResource(id)) {
+                if (!remote.containsKey(id) || remote.get(id) != digest) {
+                    send.add(id)
+                }
+            }
+            true
+        }
+        remote.forEachEntry { id, digest ->
+            if (send.size() + request.size() < maxResources && routingBucket.hasResource(id)) {
+                if (!local.containsKey(id) || local.get(id) != digest) {
+                    request.add(id)
+                }
+            }
+            true
+        }
+        if (send.isEmpty && request.isEmpty) {
+            exchangeTimeout = 0
+            return
+        }
+        logger.info("[replica={}:{}] anti-entropy repair with={}:{} send={} request={}",
+            bucket.index(), bucket.replica(),
+            bucket.index(), message.replica, send.size(), request.size())
+        if (request.isEmpty) {
+            exchangeTimeout = 0
+        }
+        transportService.send(replica.member, AntiEntropyRepair(bucket.index(), bucket.replica(), snapshots(send.toArray()), request.toArray()))
+    }
+
+    override fun repair(message: AntiEntropyRepair) {
+        val routingBucket = routingBucket()
+        val replica = routingBucket.replicas.getOrElse(message.replica, null)
+        if (replica == null) {
+            logger.warn("unexpected replica {}, ignore", message.replica)
+            return
+        }
+        for (resource in message.resources) {
+            if (routingBucket.hasResource(resource.id)) {
+                bucket.registry().restore(resource, false)
+            }
+        }
+        bucket.modified()
+        if (message.request.isEmpty()) {
+            exchangeTimeout = 0
+        } else {
+            val request = message.request.take(maxResources).toLongArray()
+            transportService.send(replica.member, AntiEntropyRepair(bucket.index(), bucket.replica(), snapshots(request), LongArray(0)))
+        }
+    }
+
+    private fun snapshots(ids: LongArray): Vector<ResourceSnapshot> {
+        return Vector.ofAll(ids.asIterable()).flatMap { bucket.registry().snapshot(it) }
+    }
+
+    private fun routingBucket(): RoutingBucket {
+        return fsm.get().buckets.get(bucket.index())
+    }
+
+    private fun toMap(digests: LongArray): TLongLongHashMap {
+        val map = TLongLongHashMap(digests.size)
+        var i = 0
+        while (i < digests.size) {
+            map.put(digests[i], digests[i + 1])
+            i += 2
+        }
+        return map
+    }
+
+    override fun doStart() {
+        task = bucket.executor().scheduleWithFixedDelay({
+            try {
+                exchange()
+            } catch (e: Exception) {
+                logger.error("error anti-entropy exchange", e)
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS)
+    }
+
+    override fun doStop() {
+        task?.cancel(false)
+    }
+
+    override fun doClose() {}
+}
@@ -3,24 +3,29 @@ package org.mitallast.queue.crdt.replication
 import com.google.inject.Inject
 import com.google.inject.assistedinject.Assisted
 import com.typesafe.config.Config
-import gnu.trove.impl.sync.TSynchronizedLongLongMap
-import gnu.trove.map.hash.TLongLongHashMap
+import gnu.trove.map.hash.TLongObjectHashMap
+import gnu.trove.set.hash.TLongHashSet
 import io.vavr.collection.Vector
 import org.mitallast.queue.common.codec.Message
 import org.mitallast.queue.common.component.AbstractLifecycleComponent
 import org.mitallast.queue.common.events.EventBus
 import org.mitallast.queue.common.logging.LoggingService
 import org.mitallast.queue.crdt.bucket.Bucket
+import org.mitallast.queue.crdt.commutative.DeltaCRDT
 import org.mitallast.queue.crdt.event.ClosedLogSynced
+import org.mitallast.queue.crdt.feed.CrdtFeed
 import org.mitallast.queue.crdt.protocol.AppendEntries
 import org.mitallast.queue.crdt.protocol.AppendRejected
 import org.mitallast.queue.crdt.protocol.AppendSuccessful
+import org.mitallast.queue.crdt.protocol.InstallSnapshot
+import org.mitallast.queue.crdt.protocol.InstallSnapshotAck
 import org.mitallast.queue.crdt.routing.RoutingReplica
 import org.mitallast.queue.crdt.routing.fsm.RoutingTableFSM
 import org.mitallast.queue.transport.TransportService
-import java.util.concurrent.Executors
+import java.io.RandomAccessFile
+import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
-import java.util.concurrent.locks.ReentrantLock
+import java.util.concurrent.atomic.AtomicBoolean
 
 class DefaultReplicator @Inject constructor(
     config: Config,
@@ -28,15 +33,25 @@ class DefaultReplicator @Inject constructor(
     private val fsm: RoutingTableFSM,
     private val eventBus: EventBus,
     private val transportService: TransportService,
+    private val feed: CrdtFeed,
     @param:Assisted private val bucket: Bucket
 ) : AbstractLifecycleComponent(logging), Replicator {
 
-    private val lock = ReentrantLock()
-    private val scheduler = Executors.newSingleThreadScheduledExecutor()
-    private val replicationIndex = TSynchronizedLongLongMap(TLongLongHashMap(32, 0.5f, 0, 0))
-    private val replicationTimeout = TSynchronizedLongLongMap(TLongLongHashMap(32, 0.5f, 0, 0))
+    private val flows = TLongObjectHashMap<ReplicationFlow>()
+    private val transfers = TLongObjectHashMap<SnapshotTransfer>()
+    private val deltaResources = TLongHashSet()
 
     private val timeout = config.getDuration("crdt.timeout", TimeUnit.MILLISECONDS)
+    private val deltaInterval = config.getDuration("crdt.delta.interval", TimeUnit.MILLISECONDS)
+    private val window = config.getInt("crdt.replication.window")
+    private val maxEntries = config.getInt("crdt.replication.max-entries")
+    private val minBatch = config.getBytes("crdt.replication.min-batch")
+    private val maxBatch = config.getBytes("crdt.replication.max-batch")
+    private val targetLatency = config.getDuration("crdt.replication.target-latency", TimeUnit.MILLISECONDS)
+    private val chunkSize = config.getBytes("crdt.snapshot.chunk-size")
+
+    private val sendScheduled = AtomicBoolean()
+    private val tasks = ArrayList<ScheduledFuture<*>>()
 
     @Volatile private var open = true
 
@@ -46,86 +61,121 @@ class DefaultReplicator @Inject constructor(
         val replicas = routingBucket.replicas.remove(bucket.replica()).values()
 
         for (replica in replicas) {
-            replicationTimeout.put(replica.id, System.currentTimeMillis() + timeout)
+            flow(replica.id).sent(0, 0, 0, System.currentTimeMillis())
             val appendEntries = AppendEntries(bucket.index(), bucket.replica(), 0, Vector.empty())
             transportService.send(replica.member, appendEntries)
         }
-        scheduler.scheduleWithFixedDelay({
-            lock.lock()
+        tasks.add(bucket.executor().scheduleWithFixedDelay({
             try {
                 maybeSendEntries()
-            } finally {
-                lock.unlock()
+            } catch (e: Exception) {
+                logger.error("error send entries", e)
+            }
+        }, timeout, timeout, TimeUnit.MILLISECONDS))
+        tasks.add(bucket.executor().scheduleWithFixedDelay({
+            try {
+                if (flushDeltas()) {
+                    maybeSendEntries()
+                }
+            } catch (e: Exception) {
+                logger.error("error flush deltas", e)
             }
-        }, timeout, timeout, TimeUnit.MILLISECONDS)
+        }, deltaInterval, deltaInterval, TimeUnit.MILLISECONDS))
     }
 
+    /**
+     * Log is safe for concurrent appends, sending is scheduled on bucket executor
+     * once for all entries appended before it runs.
+     */
     override fun append(id: Long, event: Message) {
-        lock.lock()
-        try {
-            if (!open) {
-                throw IllegalStateException("closed")
+        if (!open) {
+            throw IllegalStateException("closed")
+        }
+        bucket.modified()
+        bucket.log().append(id, event)
+        feed.publish(bucket.index(), id, event)
+        if (sendScheduled.compareAndSet(false, true)) {
+            bucket.executor().execute {
+                sendScheduled.set(false)
+                try {
+                    maybeSendEntries()
+                } catch (e: Exception) {
+                    logger.error("error send entries", e)
+                }
             }
-            bucket.log().append(id, event)
-            maybeSendEntries()
-        } finally {
-            lock.unlock()
         }
     }
 
-    override fun successful(message: AppendSuccessful) {
-        lock.lock()
-        try {
-            if (logger.isDebugEnabled) {
-                logger.debug("[replica={}:{}] append successful from={}:{} last={}",
-                    bucket.index(), bucket.replica(),
-                    message.bucket, message.replica, message.index)
+    override fun delta(id: Long) {
+        if (!open) {
+            throw IllegalStateException("closed")
+        }
+        bucket.modified()
+        synchronized(deltaResources) {
+            deltaResources.add(id)
+        }
+    }
+
+    /**
+     * Appends one joined delta per modified resource.
+     */
+    private fun flushDeltas(): Boolean {
+        val ids = synchronized(deltaResources) {
+            if (deltaResources.isEmpty) {
+                return false
             }
-            if (replicationIndex.get(message.replica) < message.index) {
-                replicationIndex.put(message.replica, message.index)
+            val ids = deltaResources.toArray()
+            deltaResources.clear()
+            ids
+        }
+        var appended = false
+        for (id in ids) {
+            val crdt = bucket.registry().crdtOpt(id, DeltaCRDT::class.java)
+            if (crdt.isDefined) {
+                val delta = crdt.get().drainDelta()
+                if (delta.isDefined) {
+                    bucket.log().append(id, delta.get())
+                    feed.publish(bucket.index(), id, delta.get())
+                    appended = true
+                }
             }
-            replicationTimeout.put(message.replica, 0)
-            maybeSendEntries(message.replica)
-            maybeSync()
-        } finally {
-            lock.unlock()
         }
+        return appended
+    }
+
+    override fun successful(message: AppendSuccessful) {
+        if (logger.isDebugEnabled) {
+            logger.debug("[replica={}:{}] append successful from={}:{} last={}",
+                bucket.index(), bucket.replica(),
+                message.bucket, message.replica, message.index)
+        }
+        flow(message.replica).acknowledged(message.index, System.currentTimeMillis())
+        maybeSendEntries(message.replica)
+        maybeSync()
     }
 
     override fun rejected(message: AppendRejected) {
-        lock.lock()
-        try {
-            logger.warn("[replica={}:{}] append rejected from={}:{} last={}",
+        if (!flow(message.replica).rejected(message.index)) {
+            logger.debug("[replica={}:{}] ignore reject of batch sent before restart from={}:{} last={}",
                 bucket.index(), bucket.replica(),
                 message.bucket, message.replica, message.index)
-            if (replicationIndex.get(message.replica) < message.index) {
-                replicationIndex.put(message.replica, message.index)
-            }
-            replicationTimeout.put(message.replica, 0)
-            maybeSendEntries(message.replica)
-            maybeSync()
-        } finally {
-            lock.unlock()
+            return
         }
+        logger.warn("[replica={}:{}] append rejected from={}:{} last={}",
+            bucket.index(), bucket.replica(),
+            message.bucket, message.replica, message.index)
+        maybeSendEntries(message.replica)
+        maybeSync()
     }
 
     override fun open() {
-        lock.lock()
-        try {
-            open = true
-        } finally {
-            lock.unlock()
-        }
+        open = true
     }
 
     override fun closeAndSync() {
-        lock.lock()
-        try {
-            open = false
-            maybeSync()
-        } finally {
-            lock.unlock()
-        }
+        flushDeltas()
+        open = false
+        maybeSync()
     }
 
     private fun maybeSendEntries() {
@@ -145,47 +195,98 @@ class DefaultReplicator @Inject constructor(
         if (replica.id == bucket.replica()) { // do not send to self
             return
         }
-        val timeout = replicationTimeout.get(replica.id)
-        if (timeout == 0L) {
-            if (logger.isTraceEnabled) {
-                logger.trace("[replica={}:{}] no request in progress at {}:{}",
-                    bucket.index(), bucket.replica(),
-                    bucket.index(), replica.id)
-            }
-            sendEntries(replica)
-        } else if (timeout < System.currentTimeMillis()) {
+        val flow = flow(replica.id)
+        val now = System.currentTimeMillis()
+        if (flow.isTimedOut(now, timeout)) {
             logger.warn("[replica={}:{}] request timeout at {}:{}",
                 bucket.index(), bucket.replica(),
                 bucket.index(), replica.id)
-            sendEntries(replica)
-        } else {
-            if (logger.isTraceEnabled) {
-                logger.trace("[replica={}:{}] request in progress to {}:{}",
-                    bucket.index(), bucket.replica(),
-                    bucket.index(), replica.id)
+            flow.timeout()
+        }
+        if (flow.sentIndex < bucket.snapshotIndex()) {
+            if (flow.isIdle()) {
+                sendSnapshot(replica, flow, now)
             }
+            return
         }
+        sendEntries(replica, flow, now)
     }
 
-    private fun sendEntries(replica: RoutingReplica) {
-        val prev = replicationIndex.get(replica.id)
+    private fun sendSnapshot(replica: RoutingReplica, flow: ReplicationFlow, now: Long) {
+        var transfer = transfers.get(replica.id)
+        if (transfer != null) {
+            if (now - transfer.sent < timeout) {
+                return
+            }
+            logger.warn("[replica={}:{}] snapshot timeout at {}:{} offset={}",
+                bucket.index(), bucket.replica(),
+                bucket.index(), replica.id, transfer.offset)
+            transfers.remove(replica.id)
+            transfer.close()
+        }
+        val file = bucket.snapshotFile() ?: return
+        transfer = SnapshotTransfer(replica, RandomAccessFile(file, "r"))
+        logger.info("[replica={}:{}] send snapshot to={}:{} prev={} index={} bytes={}",
+            bucket.index(), bucket.replica(),
+            bucket.index(), replica.id, flow.sentIndex, transfer.index, transfer.length)
+        transfers.put(replica.id, transfer)
+        transfer.send(flow, now)
+    }
+
+    override fun snapshotAck(message: InstallSnapshotAck) {
+        val transfer = transfers.get(message.replica)
+        if (transfer == null || transfer.index != message.index || transfer.offset != message.offset) {
+            logger.debug("[replica={}:{}] ignore snapshot ack from={}:{} offset={}",
+                bucket.index(), bucket.replica(),
+                message.bucket, message.replica, message.offset)
+            return
+        }
+        transfer.send(flow(message.replica), System.currentTimeMillis())
+    }
+
+    /**
+     * Sends batches while window has space, see [ReplicationFlow.shouldSend].
+     */
+    private fun sendEntries(replica: RoutingReplica, flow: ReplicationFlow, now: Long) {
         val log = bucket.log()
-        val append = log.entriesFrom(prev).take(10000)
-        if (append.nonEmpty()) {
+        while (flow.shouldSend(log.index() - flow.sentIndex, maxEntries)) {
+            val batch = log.entriesFrom(flow.sentIndex, maxEntries, flow.batchBytes)
+            if (batch.isEmpty()) {
+                if (logger.isTraceEnabled) {
+                    logger.trace("no new entries")
+                }
+                return
+            }
+            val prev = flow.sentIndex
             if (logger.isDebugEnabled) {
-                logger.debug("[replica={}:{}] send append to={}:{} prev={} entries: {}",
+                logger.debug("[replica={}:{}] send append to={}:{} prev={} entries={} bytes={} in-flight={}",
                     bucket.index(), bucket.replica(),
-                    bucket.index(), replica.id, prev, append)
-            }
-            replicationTimeout.put(replica.id, System.currentTimeMillis() + timeout)
-            transportService.send(replica.member, AppendEntries(bucket.index(), bucket.replica(), prev, append))
-        } else {
-            if (logger.isTraceEnabled) {
-                logger.trace("no new entries")
+                    bucket.index(), replica.id, prev, batch.entries.size(), batch.bytes, flow.inFlight())
             }
+            flow.sent(batch.entries.last().index, batch.entries.size(), batch.bytes, now)
+            transportService.send(replica.member, AppendEntries(bucket.index(), bucket.replica(), prev, batch.entries))
         }
     }
 
+    override fun replicatedIndex(): Long {
+        val routingBucket = fsm.get().buckets.get(bucket.index())
+        var index = bucket.log().index()
+        for (replica in routingBucket.replicas.remove(bucket.replica()).values()) {
+            val flow = flows.get(replica.id)
+            index = Math.min(index, flow?.ackIndex ?: 0)
+        }
+        return index
+    }
+
+    private fun flow(replica: Long): ReplicationFlow {
+        var flow = flows.get(replica)
+        if (flow == null) {
+            flow = ReplicationFlow(window, minBatch, maxBatch, targetLatency)
+            flows.put(replica, flow)
+        }
+        return flow
+    }
+
     private fun maybeSync() {
         if (!open) {
             val last = bucket.log().index()
@@ -197,7 +298,7 @@ class DefaultReplicator @Inject constructor(
                 return
             }
             for (replica in replicas) {
-                if (replicationIndex.get(replica.id) != last) {
+                if (flow(replica.id).ackIndex != last) {
                     return  // not synced
                 }
             }
@@ -206,15 +307,52 @@ class DefaultReplicator @Inject constructor(
     }
 
     override fun doStart() {
-        lock.lock()
-        try {
-            initialize()
-        } finally {
-            lock.unlock()
-        }
+        bucket.executor().execute { initialize() }
     }
 
-    override fun doStop() {}
+    override fun doStop() {
+        tasks.forEach { it.cancel(false) }
+        tasks.clear()
+        bucket.executor().execute {
+            transfers.forEachValue { it.close(); true }
+            transfers.clear()
+        }
+    }
 
     override fun doClose() {}
+
+    /**
+     * Streams saved snapshot file in chunks, the next chunk is sent when the previous one is
+     * acknowledged. File is opened once, so a newer snapshot saved meanwhile doesn't change it.
+     * The last chunk is acknowledged by AppendSuccessful after install.
+     */
+    private inner class SnapshotTransfer(private val replica: RoutingReplica, private val file: RandomAccessFile) {
+        // index is the first field of snapshot
+        val index = file.readLong()
+        val length = file.length()
+        var offset = 0L
+            private set
+        var sent = 0L
+            private set
+
+        fun send(flow: ReplicationFlow, now: Long) {
+            val data = ByteArray(Math.min(chunkSize, length - offset).toInt())
+            file.seek(offset)
+            file.readFully(data)
+            val done = offset + data.size == length
+            transportService.send(replica.member,
+                InstallSnapshot(bucket.index(), bucket.replica(), index, offset, data, done))
+            offset += data.size
+            sent = now
+            if (done) {
+                flow.sent(index, 0, 0, now)
+                transfers.remove(replica.id)
+                close()
+            }
+        }
+
+        fun close() {
+            file.close()
+        }
+    }
 }
@@ -0,0 +1,82 @@
+package org.mitallast.queue.crdt.replication
+
+import gnu.trove.list.array.TIntArrayList
+import org.mitallast.queue.crdt.CrdtDigest
+
+/**
+ * Two level hash tree over bucket resources: resources are split into fixed number of ranges
+ * by hash of id, range hash is a sum of (id, digest) hashes, and root is a hash of range hashes.
+ * Range hashes are order independent, so tree does not depend on resource iteration order.
+ */
+class MerkleTree(val ranges: LongArray) {
+
+    fun root(): Long {
+        var root = 0L
+        for (range in ranges) {
+            root = CrdtDigest.of(root, range)
+        }
+        return root
+    }
+
+    /**
+     * Indexes of ranges which differ from other tree, or every range if trees have different size.
+     */
+    fun diff(other: LongArray): IntArray {
+        val diff = TIntArrayList()
+        for (i in ranges.indices) {
+            if (ranges.size != other.size || ranges[i] != other[i]) {
+                diff.add(i)
+            }
+        }
+        return diff.toArray()
+    }
+
+    companion object {
+
+        fun range(id: Long, size: Int): Int {
+            return Math.floorMod(CrdtDigest.mix(id), size.toLong()).toInt()
+        }
+
+        /**
+         * @param digests flat array of (id, digest) pairs
+         */
+        fun build(digests: LongArray, size: Int): MerkleTree {
+            val ranges = LongArray(size)
+            var i = 0
+            while (i < digests.size) {
+                ranges[range(digests[i], size)] += CrdtDigest.of(digests[i], digests[i + 1])
+                i += 2
+            }
+            return MerkleTree(ranges)
+        }
+
+        /**
+         * Filters (id, digest) pairs to resources in given ranges.
+         */
+        fun filter(digests: LongArray, ranges: IntArray, size: Int): LongArray {
+            val selected = BooleanArray(size)
+            for (range in ranges) {
+                selected[range] = true
+            }
+            var count = 0
+            var i = 0
+            while (i < digests.size) {
+                if (selected[range(digests[i], size)]) {
+                    count++
+                }
+                i += 2
+            }
+            val filtered = LongArray(count * 2)
+            var j = 0
+            i = 0
+            while (i < digests.size) {
+                if (selected[range(digests[i], size)]) {
+                    filtered[j++] = digests[i]
+                    filtered[j++] = digests[i + 1]
+                }
+                i += 2
+            }
+            return filtered
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.mitallast.queue.crdt.replication
+
+import java.util.*
+
+/**
+ * Sliding window of in-flight AppendEntries to one replica.
+ *
+ * Batch size follows peer acknowledgement rate: it is scaled to the bytes peer acknowledges
+ * within target latency, changing at most twice per acknowledged batch. Reject and timeout
+ * halve the batch and restart sending from the last acknowledged index.
+ *
+ * Not thread safe, used from bucket executor.
+ */
+class ReplicationFlow(
+    private val window: Int,
+    private val minBytes: Long,
+    private val maxBytes: Long,
+    private val targetLatency: Long
+) {
+    private class Batch(val prev: Long, val last: Long, val entries: Int, val bytes: Long, val sent: Long)
+
+    private val inFlight = ArrayDeque<Batch>()
+
+    /**
+     * Last index acknowledged by replica.
+     */
+    var ackIndex: Long = 0
+        private set
+
+    /**
+     * Last index sent to replica, previous index of the next batch.
+     */
+    var sentIndex: Long = 0
+        private set
+
+    var batchBytes: Long = minBytes
+        private set
+
+    /**
+     * Smoothed round trip time in milliseconds, 0 if not measured yet.
+     */
+    var rtt: Long = 0
+        private set
+
+    /**
+     * Smoothed acknowledged bytes per millisecond.
+     */
+    var ackRate: Double = 0.0
+        private set
+
+    private var entryBytes: Double = 0.0
+
+    fun inFlight(): Int = inFlight.size
+
+    fun isIdle(): Boolean = inFlight.isEmpty()
+
+    fun isFull(): Boolean = inFlight.size >= window
+
+    /**
+     * Idle replica gets any pending entries, otherwise partial batch waits for acknowledgement
+     * to be joined with entries appended meanwhile.
+     */
+    fun shouldSend(pendingEntries: Long, maxEntries: Int): Boolean {
+        if (pendingEntries <= 0 || isFull()) {
+            return false
+        }
+        if (isIdle()) {
+            return true
+        }
+        return pendingEntries >= maxEntries || pendingEntries * entryBytes >= batchBytes
+    }
+
+    fun sent(last: Long, entries: Int, bytes: Long, now: Long) {
+        inFlight.addLast(Batch(sentIndex, last, entries, bytes, now))
+        sentIndex = last
+        if (entries > 0) {
+            val average = bytes.toDouble() / entries
+            entryBytes = if (entryBytes == 0.0) average else entryBytes + (average - entryBytes) / 8
+        }
+    }
+
+    fun acknowledged(index: Long, now: Long) {
+        if (ackIndex < index) {
+            ackIndex = index
+        }
+        while (!inFlight.isEmpty() && inFlight.peekFirst().last <= index) {
+            val batch = inFlight.pollFirst()
+            if (batch.bytes > 0) {
+                sample(batch.bytes, Math.max(1, now - batch.sent))
+            }
+        }
+        if (sentIndex < ackIndex) {
+            sentIndex = ackIndex
+        }
+    }
+
+    /**
+     * Returns false if reject is for a batch sent before previous restart: first batch
+     * sent after restart starts exactly from the index replica reported.
+     */
+    fun rejected(index: Long): Boolean {
+        if (!inFlight.isEmpty() && inFlight.peekFirst().prev == index) {
+            return false
+        }
+        ackIndex = index
+        restart()
+        return true
+    }
+
+    fun isTimedOut(now: Long, timeout: Long): Boolean {
+        return !inFlight.isEmpty() && inFlight.peekFirst().sent + timeout < now
+    }
+
+    fun timeout() {
+        restart()
+    }
+
+    private fun restart() {
+        inFlight.clear()
+        sentIndex = ackIndex
+        batchBytes = Math.max(minBytes, batchBytes / 2)
+    }
+
+    private fun sample(bytes: Long, rtt: Long) {
+        this.rtt = if (this.rtt == 0L) rtt else this.rtt + (rtt - this.rtt) / 8
+        val rate = bytes.toDouble() / rtt
+        ackRate = if (ackRate == 0.0) rate else ackRate + (rate - ackRate) / 8
+        val target = (ackRate * targetLatency).toLong()
+        batchBytes = Math.max(minBytes, Math.min(maxBytes, Math.max(batchBytes / 2, Math.min(batchBytes * 2, target))))
+    }
+}
@@ -4,15 +4,29 @@ import org.mitallast.queue.common.codec.Message
 import org.mitallast.queue.common.component.LifecycleComponent
 import org.mitallast.queue.crdt.protocol.AppendRejected
 import org.mitallast.queue.crdt.protocol.AppendSuccessful
+import org.mitallast.queue.crdt.protocol.InstallSnapshotAck
 
+/**
+ * Except [append] and [delta], which are called by resources from any thread,
+ * methods should be called from bucket executor.
+ */
 interface Replicator : LifecycleComponent {
 
     fun append(id: Long, event: Message)
 
+    fun delta(id: Long)
+
     fun successful(message: AppendSuccessful)
 
     fun rejected(message: AppendRejected)
 
+    fun snapshotAck(message: InstallSnapshotAck)
+
+    /**
+     * Last log index acknowledged by every other replica of bucket.
+     */
+    fun replicatedIndex(): Long
+
     fun open()
 
     fun closeAndSync()
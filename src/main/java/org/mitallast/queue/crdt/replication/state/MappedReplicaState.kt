@@ -0,0 +1,202 @@
+package org.mitallast.queue.crdt.replication.state
+
+import com.google.inject.Inject
+import com.google.inject.assistedinject.Assisted
+import com.typesafe.config.Config
+import gnu.trove.impl.sync.TSynchronizedLongLongMap
+import gnu.trove.map.TLongLongMap
+import gnu.trove.map.hash.TLongIntHashMap
+import gnu.trove.map.hash.TLongLongHashMap
+import org.mitallast.queue.common.file.FileService
+import java.io.File
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.locks.ReentrantLock
+
+/**
+ * Replica indexes in memory mapped file of fixed slots, one (replica, index) slot per replica
+ * updated in place. File header holds count of used slots, so open reads only used slots.
+ *
+ * Writes go to page cache and survive process crash, with crdt.state.fsync every write
+ * is forced to disk before return.
+ */
+class MappedReplicaState @Inject
+constructor(
+    config: Config,
+    private val fileService: FileService,
+    @Assisted index: Int,
+    @Assisted replicaId: Long
+) : ReplicaState {
+    private val fsync = config.getBoolean("crdt.state.fsync")
+    private val serviceName = String.format("crdt/%d/replica/%d", index, replicaId)
+    private val indexMap: TLongLongMap = TSynchronizedLongLongMap(TLongLongHashMap(7, 0.5f, 0, 0))
+    private val slots = TLongIntHashMap(7, 0.5f, 0, -1)
+    private val writeLock = ReentrantLock()
+    private val channel: FileChannel
+    private var buffer: MappedByteBuffer
+    private var count: Int
+
+    init {
+        val file = fileService.resource(serviceName, "state.bin")
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+        buffer = map(Math.max(capacity(channel.size()), INITIAL_SLOTS))
+        count = buffer.getInt(0)
+        for (slot in 0 until count) {
+            val replica = buffer.getLong(offset(slot))
+            slots.put(replica, slot)
+            indexMap.put(replica, buffer.getLong(offset(slot) + 8))
+        }
+
+        migrate(File(fileService.service(serviceName), "state.log"))
+    }
+
+    /**
+     * Copies (replica, index) pairs of append log of previous versions into slots, the last pair
+     * of replica wins. Log is deleted after slots are forced, so it's migrated again if node
+     * stops between.
+     */
+    private fun migrate(legacy: File) {
+        if (!legacy.exists()) {
+            return
+        }
+        if (legacy.length() > 0) {
+            val indexes = TLongLongHashMap(7, 0.5f, 0, 0)
+            fileService.input(legacy).use { stream ->
+                // trailing pair may be partially written
+                while (stream.available() >= SLOT) {
+                    indexes.put(stream.readLong(), stream.readLong())
+                }
+            }
+            val iterator = indexes.iterator()
+            while (iterator.hasNext()) {
+                iterator.advance()
+                write(iterator.key(), Math.max(indexMap.get(iterator.key()), iterator.value()))
+            }
+            buffer.force()
+        }
+        legacy.delete()
+    }
+
+    override fun put(replica: Long, logIndex: Long) {
+        writeLock.lock()
+        try {
+            write(replica, logIndex)
+            force()
+        } finally {
+            writeLock.unlock()
+        }
+    }
+
+    override fun putAll(indexes: LongArray) {
+        writeLock.lock()
+        try {
+            var i = 0
+            while (i < indexes.size) {
+                write(indexes[i], indexes[i + 1])
+                i += 2
+            }
+            force()
+        } finally {
+            writeLock.unlock()
+        }
+    }
+
+    override fun get(replica: Long): Long {
+        return indexMap.get(replica)
+    }
+
+    override fun indexes(): LongArray {
+        writeLock.lock()
+        try {
+            val indexes = LongArray(indexMap.size() * 2)
+            var i = 0
+            val iterator = indexMap.iterator()
+            while (iterator.hasNext()) {
+                iterator.advance()
+                indexes[i++] = iterator.key()
+                indexes[i++] = iterator.value()
+            }
+            return indexes
+        } finally {
+            writeLock.unlock()
+        }
+    }
+
+    override fun reset(indexes: LongArray) {
+        writeLock.lock()
+        try {
+            indexMap.clear()
+            slots.clear()
+            count = 0
+            buffer.putInt(0, 0)
+            var i = 0
+            while (i < indexes.size) {
+                write(indexes[i], indexes[i + 1])
+                i += 2
+            }
+            force()
+        } finally {
+            writeLock.unlock()
+        }
+    }
+
+    /**
+     * New slot is filled before count is incremented, so partially written slot is not read on open.
+     */
+    private fun write(replica: Long, logIndex: Long) {
+        assert(indexMap.get(replica) <= logIndex)
+        indexMap.put(replica, logIndex)
+        var slot = slots.get(replica)
+        if (slot < 0) {
+            slot = count
+            if (offset(slot + 1) > buffer.capacity()) {
+                buffer = map(capacity(buffer.capacity().toLong()) * 2)
+            }
+            buffer.putLong(offset(slot), replica)
+            buffer.putLong(offset(slot) + 8, logIndex)
+            slots.put(replica, slot)
+            count++
+            buffer.putInt(0, count)
+        } else {
+            buffer.putLong(offset(slot) + 8, logIndex)
+        }
+    }
+
+    private fun force() {
+        if (fsync) {
+            buffer.force()
+        }
+    }
+
+    private fun map(slots: Int): MappedByteBuffer {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, offset(slots).toLong())
+    }
+
+    override fun close() {
+        writeLock.lock()
+        try {
+            if (channel.isOpen) {
+                buffer.force()
+                channel.close()
+            }
+        } finally {
+            writeLock.unlock()
+        }
+    }
+
+    override fun delete() {
+        close()
+        fileService.delete(serviceName)
+    }
+
+    private companion object {
+        const val HEADER = 8
+        const val SLOT = 16
+        const val INITIAL_SLOTS = 64
+
+        fun offset(slot: Int): Int = HEADER + slot * SLOT
+
+        fun capacity(size: Long): Int = Math.max(0L, (size - HEADER) / SLOT).toInt()
+    }
+}
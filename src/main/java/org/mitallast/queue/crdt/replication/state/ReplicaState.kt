@@ -6,8 +6,23 @@ interface ReplicaState : Closeable {
 
     fun put(replica: Long, logIndex: Long)
 
+    /**
+     * Puts flat array of replica and log index pairs as one write.
+     */
+    fun putAll(indexes: LongArray)
+
     operator fun get(replica: Long): Long
 
+    /**
+     * Returns flat array of replica and log index pairs.
+     */
+    fun indexes(): LongArray
+
+    /**
+     * Replaces all indexes, values may go backward.
+     */
+    fun reset(indexes: LongArray)
+
     fun delete()
 
     override fun close()
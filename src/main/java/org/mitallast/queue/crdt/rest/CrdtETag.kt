@@ -0,0 +1,17 @@
+package org.mitallast.queue.crdt.rest
+
+import org.mitallast.queue.crdt.CrdtService
+import org.mitallast.queue.rest.RestRequest
+
+/**
+ * Weak etag of resource {id} by version of its bucket replica, so it is changed by update of any
+ * resource of bucket. Null if id is not a number or bucket is not allocated at this node.
+ */
+class CrdtETag(private val crdtService: CrdtService) : (RestRequest) -> String? {
+
+    override fun invoke(request: RestRequest): String? {
+        val id = request.param("id").toLongOrNull() ?: return null
+        val bucket = crdtService.bucket(id) ?: return null
+        return "W/\"${bucket.index()}-${bucket.replica()}-${java.lang.Long.toHexString(bucket.version())}\""
+    }
+}
@@ -0,0 +1,195 @@
+package org.mitallast.queue.crdt.rest
+
+import com.fasterxml.jackson.core.JsonProcessingException
+import com.fasterxml.jackson.databind.JsonNode
+import com.google.inject.Inject
+import io.netty.handler.codec.http.HttpMethod
+import io.netty.handler.codec.http.HttpResponseStatus
+import io.vavr.CheckedFunction0
+import io.vavr.Tuple2
+import io.vavr.collection.Vector
+import io.vavr.concurrent.Future
+import io.vavr.control.Option
+import org.mitallast.queue.common.json.JsonMessage
+import org.mitallast.queue.common.json.JsonService
+import org.mitallast.queue.crdt.CrdtService
+import org.mitallast.queue.crdt.bucket.Bucket
+import org.mitallast.queue.crdt.commutative.GCounter
+import org.mitallast.queue.crdt.commutative.GSet
+import org.mitallast.queue.crdt.commutative.LWWMap
+import org.mitallast.queue.crdt.commutative.LWWRegister
+import org.mitallast.queue.crdt.commutative.ORSet
+import org.mitallast.queue.crdt.commutative.OrderedGSet
+import org.mitallast.queue.crdt.commutative.PNCounter
+import org.mitallast.queue.rest.RestController
+import org.mitallast.queue.rest.RestRequest
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Operations over many resources in one request: body is a stream of json operations, one per line,
+ * {"id": 1, "type": "g-counter", "op": "add", "value": 10}. Type and op are named as in resource
+ * paths. Operations are grouped by bucket, and every group is executed by one task of bucket
+ * executor in request order. Response is a stream of results, one per line, results of group
+ * are written when it's executed and carry line of their operation. Operation without integral id
+ * is not executed, its result with status 400 is written first.
+ */
+class RestCrdtBulk @Inject constructor(
+    controller: RestController,
+    private val jsonService: JsonService,
+    private val crdtService: CrdtService
+) {
+    init {
+        controller.register(HttpMethod.POST, "_bulk", this::bulk)
+        controller.register(HttpMethod.PUT, "_bulk", this::bulk)
+    }
+
+    private fun bulk(request: RestRequest) {
+        val operations = try {
+            jsonService.deserializeAll(request.content, JsonNode::class.java)
+        } catch (e: JsonProcessingException) {
+            request.response()
+                .status(HttpResponseStatus.BAD_REQUEST)
+                .text("invalid json: " + e.originalMessage)
+            return
+        }
+        val routingTable = crdtService.routingTable()
+        val partition = operations.zipWithIndex().partition { isValidId(it._1.get("id")) }
+        val invalid = partition._2
+        val groups = partition._1
+            .groupBy { routingTable.bucket(it._1.path("id").asLong()).index }
+            .toVector()
+        val lines = request.response().jsonLines()
+        if (!invalid.isEmpty) {
+            lines.write(invalid.map { op ->
+                val id = op._1.get("id")
+                BulkResult(op._2, null, BAD_REQUEST, if (id == null) "id is required" else "invalid id: $id")
+            })
+        }
+        if (groups.isEmpty) {
+            lines.end()
+            return
+        }
+        val pending = AtomicInteger(groups.size())
+        for (group in groups) {
+            val ops = group._2.toVector()
+            execute(group._1, ops).onComplete { executed ->
+                if (executed.isSuccess) {
+                    lines.write(executed.get())
+                } else {
+                    lines.write(ops.map { BulkResult(it._2, it._1.path("id").asLong(), ERROR, executed.cause.toString()) })
+                }
+                if (pending.decrementAndGet() == 0) {
+                    lines.end()
+                }
+            }
+        }
+    }
+
+    private fun execute(index: Int, operations: Vector<Tuple2<JsonNode, Int>>): Future<Vector<BulkResult>> {
+        val bucket = crdtService.bucket(index)
+            ?: return Future.successful(operations.map { op ->
+                BulkResult(op._2, op._1.path("id").asLong(), NOT_FOUND, "bucket is not allocated at this node")
+            })
+        return Future.of(bucket.executor(), CheckedFunction0 {
+            operations.map { op -> execute(bucket, op._1, op._2) }
+        })
+    }
+
+    private fun execute(bucket: Bucket, op: JsonNode, line: Int): BulkResult {
+        val id = op.path("id").asLong()
+        val name = op.path("op").asText()
+        val registry = bucket.registry()
+        return try {
+            when (op.path("type").asText()) {
+                "g-counter" -> execute(line, id, registry.crdtOpt(id, GCounter::class.java)) { counter ->
+                    when (name) {
+                        "value" -> counter.value()
+                        "increment" -> counter.increment()
+                        "add" -> counter.add(op.path("value").asLong())
+                        else -> unknown(op)
+                    }
+                }
+                "pn-counter" -> execute(line, id, registry.crdtOpt(id, PNCounter::class.java)) { counter ->
+                    when (name) {
+                        "value" -> counter.value()
+                        "increment" -> counter.increment()
+                        "decrement" -> counter.decrement()
+                        "add" -> counter.add(op.path("value").asLong())
+                        else -> unknown(op)
+                    }
+                }
+                "lww-register" -> execute(line, id, registry.crdtOpt(id, LWWRegister::class.java)) { register ->
+                    when (name) {
+                        "value" -> register.value().orNull
+                        "assign" -> register.assign(value(op), System.currentTimeMillis())
+                        else -> unknown(op)
+                    }
+                }
+                "g-set" -> execute(line, id, registry.crdtOpt(id, GSet::class.java)) { set ->
+                    when (name) {
+                        "values" -> set.values()
+                        "add" -> set.add(value(op))
+                        else -> unknown(op)
+                    }
+                }
+                "ordered-g-set" -> execute(line, id, registry.crdtOpt(id, OrderedGSet::class.java)) { set ->
+                    when (name) {
+                        "values" -> set.values()
+                        "add" -> set.add(value(op), op.path("timestamp").asLong(System.currentTimeMillis()))
+                        else -> unknown(op)
+                    }
+                }
+                "or-set" -> execute(line, id, registry.crdtOpt(id, ORSet::class.java)) { set ->
+                    when (name) {
+                        "values" -> set.values()
+                        "add" -> set.add(value(op))
+                        "remove" -> set.remove(value(op))
+                        else -> unknown(op)
+                    }
+                }
+                "lww-map" -> execute(line, id, registry.crdtOpt(id, LWWMap::class.java)) { map ->
+                    val key = op.path("key").asText()
+                    when (name) {
+                        "get" -> map.get(key).orNull
+                        "put" -> map.put(key, value(op), System.currentTimeMillis())
+                        "remove" -> map.remove(key, System.currentTimeMillis())
+                        else -> unknown(op)
+                    }
+                }
+                else -> unknown(op)
+            }
+        } catch (e: IllegalArgumentException) {
+            BulkResult(line, id, BAD_REQUEST, e.message)
+        }
+    }
+
+    private fun <T> execute(line: Int, id: Long, crdt: Option<T>, operation: (T) -> Any?): BulkResult {
+        if (crdt.isEmpty) {
+            return BulkResult(line, id, NOT_FOUND, null)
+        }
+        val result = operation.invoke(crdt.get())
+        return BulkResult(line, id, OK, if (result is Unit) null else result)
+    }
+
+    private fun isValidId(id: JsonNode?): Boolean {
+        return id != null && id.isIntegralNumber && id.canConvertToLong()
+    }
+
+    private fun value(op: JsonNode): JsonMessage {
+        val value = op.get("value") ?: throw IllegalArgumentException("value is required")
+        return JsonMessage(value)
+    }
+
+    private fun unknown(op: JsonNode): Nothing {
+        throw IllegalArgumentException("unknown operation ${op.path("type").asText()} ${op.path("op").asText()}")
+    }
+
+    class BulkResult(val line: Int, val id: Long?, val status: Int, val result: Any?)
+
+    companion object {
+        private const val OK = 200
+        private const val BAD_REQUEST = 400
+        private const val NOT_FOUND = 404
+        private const val ERROR = 500
+    }
+}
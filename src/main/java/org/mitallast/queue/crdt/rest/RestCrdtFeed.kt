@@ -0,0 +1,103 @@
+package org.mitallast.queue.crdt.rest
+
+import com.fasterxml.jackson.databind.JsonNode
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.Unpooled
+import io.netty.channel.Channel
+import io.netty.handler.codec.http.DefaultHttpContent
+import io.netty.handler.codec.http.HttpMethod
+import io.netty.handler.codec.http.HttpResponseStatus
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame
+import io.netty.util.AttributeKey
+import io.netty.util.CharsetUtil
+import org.mitallast.queue.crdt.feed.CrdtFeed
+import org.mitallast.queue.crdt.feed.FeedSubscriber
+import org.mitallast.queue.rest.RestController
+import org.mitallast.queue.rest.RestRequest
+import org.mitallast.queue.rest.netty.WebSocketFrameHandler
+import javax.inject.Inject
+
+/**
+ * Subscriptions to updates of resources: server-sent events stream of GET _crdt/subscribe?ids=1,2,
+ * or websocket requests {"action": "subscribe", "ids": [1, 2]} and "unsubscribe".
+ */
+class RestCrdtFeed @Inject constructor(
+    controller: RestController,
+    webSocket: WebSocketFrameHandler,
+    private val feed: CrdtFeed
+) {
+    init {
+        controller.register(HttpMethod.GET, "_crdt/subscribe", this::subscribe)
+
+        controller.handle(
+            feed::stats,
+            controller.response().json()
+        ).handle(HttpMethod.GET, "_crdt/feed")
+
+        webSocket.register("subscribe", this::subscribe)
+        webSocket.register("unsubscribe", this::unsubscribe)
+    }
+
+    private fun subscribe(request: RestRequest) {
+        val values = if (request.hasParam("ids")) {
+            request.param("ids").split(',').map { it.trim() }.filter { it.isNotEmpty() }
+        } else {
+            emptyList()
+        }
+        if (values.isEmpty()) {
+            request.response()
+                .status(HttpResponseStatus.BAD_REQUEST)
+                .text("ids are required")
+            return
+        }
+        val invalid = values.find { it.toLongOrNull() == null }
+        if (invalid != null) {
+            request.response()
+                .status(HttpResponseStatus.BAD_REQUEST)
+                .text("invalid id: $invalid")
+            return
+        }
+        val ids = values.map { it.toLong() }
+        val channel = request.response().eventStream()
+        val subscriber = FeedSubscriber(channel) { update ->
+            DefaultHttpContent(Unpooled.wrappedBuffer(SSE_DATA.duplicate(), update, SSE_END.duplicate()))
+        }
+        channel.closeFuture().addListener { feed.unsubscribe(subscriber) }
+        for (id in ids) {
+            feed.subscribe(id, subscriber)
+        }
+    }
+
+    private fun subscribe(channel: Channel, request: JsonNode) {
+        val subscriber = subscriber(channel)
+        for (id in request.path("ids")) {
+            feed.subscribe(id.asLong(), subscriber)
+        }
+    }
+
+    private fun unsubscribe(channel: Channel, request: JsonNode) {
+        val subscriber = channel.attr(SUBSCRIBER).get() ?: return
+        for (id in request.path("ids")) {
+            feed.unsubscribe(id.asLong(), subscriber)
+        }
+    }
+
+    /**
+     * One subscriber per websocket, actions of socket are handled sequentially at its event loop.
+     */
+    private fun subscriber(channel: Channel): FeedSubscriber {
+        var subscriber = channel.attr(SUBSCRIBER).get()
+        if (subscriber == null) {
+            subscriber = FeedSubscriber(channel) { update: ByteBuf -> TextWebSocketFrame(update) }
+            channel.attr(SUBSCRIBER).set(subscriber)
+            channel.closeFuture().addListener { feed.unsubscribe(subscriber) }
+        }
+        return subscriber
+    }
+
+    companion object {
+        private val SUBSCRIBER = AttributeKey.valueOf<FeedSubscriber>("crdt-feed-subscriber")
+        private val SSE_DATA = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer("data: ", CharsetUtil.UTF_8))
+        private val SSE_END = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer("\n\n", CharsetUtil.UTF_8))
+    }
+}
@@ -5,8 +5,15 @@ import com.google.inject.AbstractModule
 class RestCrdtModule : AbstractModule() {
     override fun configure() {
         bind(RestCrdtRouting::class.java).asEagerSingleton()
+        bind(RestCrdtResources::class.java).asEagerSingleton()
+        bind(RestCrdtBulk::class.java).asEagerSingleton()
+        bind(RestCrdtFeed::class.java).asEagerSingleton()
         bind(RestLWWRegister::class.java).asEagerSingleton()
         bind(RestGCounter::class.java).asEagerSingleton()
         bind(RestGSet::class.java).asEagerSingleton()
+        bind(RestOrderedGSet::class.java).asEagerSingleton()
+        bind(RestPNCounter::class.java).asEagerSingleton()
+        bind(RestORSet::class.java).asEagerSingleton()
+        bind(RestLWWMap::class.java).asEagerSingleton()
     }
 }
@@ -0,0 +1,81 @@
+package org.mitallast.queue.crdt.rest
+
+import com.fasterxml.jackson.core.JsonProcessingException
+import com.fasterxml.jackson.databind.JsonNode
+import com.google.inject.Inject
+import io.netty.handler.codec.http.HttpMethod
+import io.netty.handler.codec.http.HttpResponseStatus
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.json.JsonService
+import org.mitallast.queue.crdt.CrdtService
+import org.mitallast.queue.crdt.routing.Resource
+import org.mitallast.queue.crdt.routing.ResourceType
+import org.mitallast.queue.rest.RestController
+import org.mitallast.queue.rest.RestRequest
+
+/**
+ * Bulk resource definitions: body is a stream of json values or a json array,
+ * {"id": 1, "type": "GCounter"} to add and ids to remove. Invalid item is answered with 400
+ * naming its position, and no item of request is applied.
+ */
+class RestCrdtResources @Inject constructor(
+    controller: RestController,
+    private val jsonService: JsonService,
+    private val crdtService: CrdtService
+) {
+    private val results = controller.response().futureJson<Vector<ResourceResult>>()
+
+    init {
+        controller.register(HttpMethod.POST, "_crdt/resources", this::add)
+        controller.register(HttpMethod.PUT, "_crdt/resources", this::add)
+        controller.register(HttpMethod.DELETE, "_crdt/resources", this::remove)
+    }
+
+    private fun add(request: RestRequest) {
+        val nodes = nodes(request) ?: return
+        var resources = Vector.empty<Resource>()
+        for ((i, node) in nodes.withIndex()) {
+            val type = ResourceType.values().find { it.name == node.path("type").textValue() }
+            if (!isId(node.path("id")) || type == null) {
+                return badRequest(request, "invalid resource at $i: $node")
+            }
+            resources = resources.append(Resource(node.path("id").longValue(), type))
+        }
+        results.invoke(request, crdtService.addResources(resources).map { applied ->
+            resources.zipWith(applied) { resource, created -> ResourceResult(resource.id, created) }
+        })
+    }
+
+    private fun remove(request: RestRequest) {
+        val nodes = nodes(request) ?: return
+        var ids = Vector.empty<Long>()
+        for ((i, node) in nodes.withIndex()) {
+            if (!isId(node)) {
+                return badRequest(request, "invalid id at $i: $node")
+            }
+            ids = ids.append(node.longValue())
+        }
+        results.invoke(request, crdtService.removeResources(ids).map { applied ->
+            ids.zipWith(applied) { id, removed -> ResourceResult(id, removed) }
+        })
+    }
+
+    private fun nodes(request: RestRequest): Vector<JsonNode>? {
+        return try {
+            jsonService.deserializeAll(request.content, JsonNode::class.java)
+        } catch (e: JsonProcessingException) {
+            badRequest(request, "invalid json: " + e.originalMessage)
+            null
+        }
+    }
+
+    private fun isId(node: JsonNode): Boolean = node.isIntegralNumber && node.canConvertToLong()
+
+    private fun badRequest(request: RestRequest, message: String) {
+        request.response()
+            .status(HttpResponseStatus.BAD_REQUEST)
+            .text(message)
+    }
+
+    class ResourceResult(val id: Long, val applied: Boolean)
+}
@@ -1,16 +1,48 @@
 package org.mitallast.queue.crdt.rest
 
 import io.netty.handler.codec.http.HttpMethod
+import io.vavr.collection.LinkedHashMap
+import io.vavr.collection.Map
 import org.mitallast.queue.crdt.CrdtService
+import org.mitallast.queue.crdt.log.LogStats
+import org.mitallast.queue.rest.ExecutionPolicy
 import org.mitallast.queue.rest.RestController
 
 import javax.inject.Inject
 
-class RestCrdtRouting @Inject constructor(controller: RestController, crdtService: CrdtService) {
+class RestCrdtRouting @Inject constructor(controller: RestController, private val crdtService: CrdtService) {
     init {
         controller.handle(
             crdtService::routingTable,
             controller.response().json()
         ).handle(HttpMethod.GET, "_crdt/routing")
+
+        controller.handle(
+            this::logStats,
+            controller.response().json()
+        ).handle(HttpMethod.GET, "_crdt/log", ExecutionPolicy.WORKER)
+
+        controller.handle(
+            crdtService::splitBucket,
+            controller.param().toInt("index"),
+            controller.response().futureEither(
+                controller.response().created(),
+                controller.response().badRequest()
+            )
+        ).handle(HttpMethod.POST, "_crdt/bucket/{index}/split", ExecutionPolicy.ASYNC)
+    }
+
+    /**
+     * Log stats of buckets allocated at this node.
+     */
+    private fun logStats(): Map<Int, LogStats> {
+        var stats = LinkedHashMap.empty<Int, LogStats>()
+        for (routingBucket in crdtService.routingTable().buckets) {
+            val bucket = crdtService.bucket(routingBucket.index)
+            if (bucket != null) {
+                stats = stats.put(routingBucket.index, bucket.log().stats())
+            }
+        }
+        return stats
     }
 }
@@ -7,6 +7,7 @@ import io.vavr.control.Option
 import org.mitallast.queue.crdt.CrdtService
 import org.mitallast.queue.crdt.commutative.GCounter
 import org.mitallast.queue.crdt.routing.ResourceType
+import org.mitallast.queue.rest.ExecutionPolicy
 import org.mitallast.queue.rest.RestController
 
 class RestGCounter @Inject constructor(controller: RestController, private val crdtService: CrdtService) {
@@ -19,7 +20,7 @@ class RestGCounter @Inject constructor(controller: RestController, private val c
                 controller.response().created(),
                 controller.response().badRequest()
             )
-        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/g-counter")
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/g-counter", ExecutionPolicy.ASYNC)
 
         controller.handle(
             { id: Long -> this.value(id) },
@@ -27,24 +28,28 @@ class RestGCounter @Inject constructor(controller: RestController, private val c
             controller.response().optional(
                 controller.response().text()
             )
-        ).handle(HttpMethod.GET, "_crdt/{id}/g-counter/value")
+        ).etag(CrdtETag(crdtService)).handle(HttpMethod.GET, "_crdt/{id}/g-counter/value")
 
         controller.handle(
             { id: Long -> this.increment(id) },
             controller.param().toLong("id"),
-            controller.response().optional(
-                controller.response().text()
+            controller.response().future(
+                controller.response().optional(
+                    controller.response().text()
+                )
             )
-        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/g-counter/increment")
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/g-counter/increment", ExecutionPolicy.ASYNC)
 
         controller.handle(
             { id: Long, value: Long -> this.add(id, value) },
             controller.param().toLong("id"),
             controller.param().toLong("value"),
-            controller.response().optional(
-                controller.response().text()
+            controller.response().future(
+                controller.response().optional(
+                    controller.response().text()
+                )
             )
-        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/g-counter/add")
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/g-counter/add", ExecutionPolicy.ASYNC)
     }
 
     private fun create(id: Long): Future<Boolean> {
@@ -60,20 +65,14 @@ class RestGCounter @Inject constructor(controller: RestController, private val c
         }
     }
 
-    private fun increment(id: Long): Option<Long> {
-        val bucket = crdtService.bucket(id)
-        return if (bucket == null) {
-            Option.none()
-        } else {
+    private fun increment(id: Long): Future<Option<Long>> {
+        return crdtService.execute(id, Option.none()) { bucket ->
             bucket.registry().crdtOpt(id, GCounter::class.java).map { it.increment() }
         }
     }
 
-    private fun add(id: Long, value: Long): Option<Long> {
-        val bucket = crdtService.bucket(id)
-        return if (bucket == null) {
-            Option.none()
-        } else {
+    private fun add(id: Long, value: Long): Future<Option<Long>> {
+        return crdtService.execute(id, Option.none()) { bucket ->
             bucket.registry().crdtOpt(id, GCounter::class.java).map { c -> c.add(value) }
         }
     }
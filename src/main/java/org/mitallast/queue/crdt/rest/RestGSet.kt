@@ -2,7 +2,6 @@ package org.mitallast.queue.crdt.rest
 
 import com.google.inject.Inject
 import io.netty.handler.codec.http.HttpMethod
-import io.vavr.collection.Set
 import io.vavr.concurrent.Future
 import io.vavr.control.Option
 import org.mitallast.queue.common.codec.Message
@@ -10,6 +9,7 @@ import org.mitallast.queue.common.json.JsonMessage
 import org.mitallast.queue.crdt.CrdtService
 import org.mitallast.queue.crdt.commutative.GSet
 import org.mitallast.queue.crdt.routing.ResourceType
+import org.mitallast.queue.rest.ExecutionPolicy
 import org.mitallast.queue.rest.RestController
 
 class RestGSet @Inject constructor(controller: RestController, private val crdtService: CrdtService) {
@@ -22,44 +22,45 @@ class RestGSet @Inject constructor(controller: RestController, private val crdtS
                 controller.response().created(),
                 controller.response().badRequest()
             )
-        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/g-set")
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/g-set", ExecutionPolicy.ASYNC)
 
         controller.handle(
             { id: Long -> this.values(id) },
             controller.param().toLong("id"),
-            controller.response().optionalJson()
-        ).handle(HttpMethod.GET, "_crdt/{id}/g-set/values")
+            controller.response().optionalJsonStream()
+        ).etag(CrdtETag(crdtService)).handle(HttpMethod.GET, "_crdt/{id}/g-set/values")
 
         controller.handle(
             { id: Long, value: JsonMessage -> this.add(id, value) },
             controller.param().toLong("id"),
             controller.param().json(JsonMessage::class.java),
-            controller.response().either(
+            controller.response().futureEither(
                 controller.response().ok(),
                 controller.response().badRequest()
             )
-        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/g-set/add")
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/g-set/add", ExecutionPolicy.ASYNC)
     }
 
     private fun create(id: Long): Future<Boolean> {
         return crdtService.addResource(id, ResourceType.GSet)
     }
 
-    private fun values(id: Long): Option<Set<Message>> {
+    private fun values(id: Long): Option<Iterator<Message>> {
         val bucket = crdtService.bucket(id)
         return if (bucket == null) {
             Option.none()
         } else {
-            bucket.registry().crdtOpt(id, GSet::class.java).map { it.values() }
+            bucket.registry().crdtOpt(id, GSet::class.java).map { it.iterator() }
         }
     }
 
-    private fun add(id: Long, value: JsonMessage): Boolean {
-        val bucket = crdtService.bucket(id) ?: return false
-        val set = bucket.registry().crdtOpt(id, GSet::class.java)
-        if (set.isDefined) {
-            set.get().add(value)
+    private fun add(id: Long, value: JsonMessage): Future<Boolean> {
+        return crdtService.execute(id, false) { bucket ->
+            val set = bucket.registry().crdtOpt(id, GSet::class.java)
+            if (set.isDefined) {
+                set.get().add(value)
+            }
+            true
         }
-        return true
     }
 }
@@ -0,0 +1,88 @@
+package org.mitallast.queue.crdt.rest
+
+import com.google.inject.Inject
+import io.netty.handler.codec.http.HttpMethod
+import io.vavr.concurrent.Future
+import io.vavr.control.Option
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.common.json.JsonMessage
+import org.mitallast.queue.crdt.CrdtService
+import org.mitallast.queue.crdt.commutative.LWWMap
+import org.mitallast.queue.crdt.routing.ResourceType
+import org.mitallast.queue.rest.ExecutionPolicy
+import org.mitallast.queue.rest.RestController
+
+class RestLWWMap @Inject constructor(controller: RestController, private val crdtService: CrdtService) {
+
+    init {
+        controller.handle(
+            { id: Long -> this.create(id) },
+            controller.param().toLong("id"),
+            controller.response().futureEither(
+                controller.response().created(),
+                controller.response().badRequest()
+            )
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/lww-map", ExecutionPolicy.ASYNC)
+
+        controller.handle(
+            { id: Long, key: String -> this.get(id, key) },
+            controller.param().toLong("id"),
+            controller.param().string("key"),
+            controller.response().optionalJson()
+        ).etag(CrdtETag(crdtService)).handle(HttpMethod.GET, "_crdt/{id}/lww-map/{key}")
+
+        controller.handle(
+            { id: Long, key: String, value: JsonMessage -> this.put(id, key, value) },
+            controller.param().toLong("id"),
+            controller.param().string("key"),
+            controller.param().json(JsonMessage::class.java),
+            controller.response().futureEither(
+                controller.response().ok(),
+                controller.response().badRequest()
+            )
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/lww-map/{key}", ExecutionPolicy.ASYNC)
+
+        controller.handle(
+            { id: Long, key: String -> this.remove(id, key) },
+            controller.param().toLong("id"),
+            controller.param().string("key"),
+            controller.response().futureEither(
+                controller.response().ok(),
+                controller.response().badRequest()
+            )
+        ).handle(HttpMethod.DELETE, "_crdt/{id}/lww-map/{key}", ExecutionPolicy.ASYNC)
+    }
+
+    fun create(id: Long): Future<Boolean> {
+        return crdtService.addResource(id, ResourceType.LWWMap)
+    }
+
+    fun get(id: Long, key: String): Option<Message> {
+        val bucket = crdtService.bucket(id)
+        return if (bucket == null) {
+            Option.none()
+        } else {
+            bucket.registry().crdtOpt(id, LWWMap::class.java).flatMap { it.get(key) }
+        }
+    }
+
+    fun put(id: Long, key: String, value: JsonMessage): Future<Boolean> {
+        return crdtService.execute(id, false) { bucket ->
+            val map = bucket.registry().crdtOpt(id, LWWMap::class.java)
+            if (map.isDefined) {
+                map.get().put(key, value, System.currentTimeMillis())
+            }
+            true
+        }
+    }
+
+    fun remove(id: Long, key: String): Future<Boolean> {
+        return crdtService.execute(id, false) { bucket ->
+            val map = bucket.registry().crdtOpt(id, LWWMap::class.java)
+            if (map.isDefined) {
+                map.get().remove(key, System.currentTimeMillis())
+            }
+            true
+        }
+    }
+}
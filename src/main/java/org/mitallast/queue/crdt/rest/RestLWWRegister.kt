@@ -9,6 +9,7 @@ import org.mitallast.queue.common.json.JsonMessage
 import org.mitallast.queue.crdt.CrdtService
 import org.mitallast.queue.crdt.commutative.LWWRegister
 import org.mitallast.queue.crdt.routing.ResourceType
+import org.mitallast.queue.rest.ExecutionPolicy
 import org.mitallast.queue.rest.RestController
 
 class RestLWWRegister @Inject constructor(controller: RestController, private val crdtService: CrdtService) {
@@ -21,23 +22,23 @@ class RestLWWRegister @Inject constructor(controller: RestController, private va
                 controller.response().created(),
                 controller.response().badRequest()
             )
-        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/lww-register")
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/lww-register", ExecutionPolicy.ASYNC)
 
         controller.handle(
             { id: Long -> this.value(id) },
             controller.param().toLong("id"),
             controller.response().optionalJson()
-        ).handle(HttpMethod.GET, "_crdt/{id}/lww-register/value")
+        ).etag(CrdtETag(crdtService)).handle(HttpMethod.GET, "_crdt/{id}/lww-register/value")
 
         controller.handle(
             { id: Long, value: JsonMessage -> this.assign(id, value) },
             controller.param().toLong("id"),
             controller.param().json(JsonMessage::class.java),
-            controller.response().either(
+            controller.response().futureEither(
                 controller.response().ok(),
                 controller.response().badRequest()
             )
-        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/lww-register/value")
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/lww-register/value", ExecutionPolicy.ASYNC)
     }
 
     fun create(id: Long): Future<Boolean> {
@@ -53,12 +54,13 @@ class RestLWWRegister @Inject constructor(controller: RestController, private va
         }
     }
 
-    fun assign(id: Long, value: JsonMessage): Boolean {
-        val bucket = crdtService.bucket(id) ?: return false
-        val lwwRegisterOpt = bucket.registry().crdtOpt(id, LWWRegister::class.java)
-        if (lwwRegisterOpt.isDefined) {
-            lwwRegisterOpt.get().assign(value, System.currentTimeMillis())
+    fun assign(id: Long, value: JsonMessage): Future<Boolean> {
+        return crdtService.execute(id, false) { bucket ->
+            val lwwRegisterOpt = bucket.registry().crdtOpt(id, LWWRegister::class.java)
+            if (lwwRegisterOpt.isDefined) {
+                lwwRegisterOpt.get().assign(value, System.currentTimeMillis())
+            }
+            true
         }
-        return true
     }
 }
@@ -0,0 +1,84 @@
+package org.mitallast.queue.crdt.rest
+
+import com.google.inject.Inject
+import io.netty.handler.codec.http.HttpMethod
+import io.vavr.collection.Vector
+import io.vavr.concurrent.Future
+import io.vavr.control.Option
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.common.json.JsonMessage
+import org.mitallast.queue.crdt.CrdtService
+import org.mitallast.queue.crdt.commutative.ORSet
+import org.mitallast.queue.crdt.routing.ResourceType
+import org.mitallast.queue.rest.ExecutionPolicy
+import org.mitallast.queue.rest.RestController
+
+class RestORSet @Inject constructor(controller: RestController, private val crdtService: CrdtService) {
+
+    init {
+        controller.handle(
+            { id: Long -> this.create(id) },
+            controller.param().toLong("id"),
+            controller.response().futureEither(
+                controller.response().created(),
+                controller.response().badRequest()
+            )
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/or-set", ExecutionPolicy.ASYNC)
+
+        controller.handle(
+            { id: Long -> this.values(id) },
+            controller.param().toLong("id"),
+            controller.response().optionalJson()
+        ).etag(CrdtETag(crdtService)).handle(HttpMethod.GET, "_crdt/{id}/or-set/values")
+
+        controller.handle(
+            { id: Long, value: JsonMessage -> this.add(id, value) },
+            controller.param().toLong("id"),
+            controller.param().json(JsonMessage::class.java),
+            controller.response().futureEither(
+                controller.response().ok(),
+                controller.response().badRequest()
+            )
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/or-set/add", ExecutionPolicy.ASYNC)
+
+        controller.handle(
+            { id: Long, value: JsonMessage -> this.remove(id, value) },
+            controller.param().toLong("id"),
+            controller.param().json(JsonMessage::class.java),
+            controller.response().futureEither(
+                controller.response().ok(),
+                controller.response().notFound()
+            )
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/or-set/remove", ExecutionPolicy.ASYNC)
+    }
+
+    private fun create(id: Long): Future<Boolean> {
+        return crdtService.addResource(id, ResourceType.ORSet)
+    }
+
+    private fun values(id: Long): Option<Vector<Message>> {
+        val bucket = crdtService.bucket(id)
+        return if (bucket == null) {
+            Option.none()
+        } else {
+            bucket.registry().crdtOpt(id, ORSet::class.java).map { it.values() }
+        }
+    }
+
+    private fun add(id: Long, value: JsonMessage): Future<Boolean> {
+        return crdtService.execute(id, false) { bucket ->
+            val set = bucket.registry().crdtOpt(id, ORSet::class.java)
+            if (set.isDefined) {
+                set.get().add(value)
+            }
+            true
+        }
+    }
+
+    private fun remove(id: Long, value: JsonMessage): Future<Boolean> {
+        return crdtService.execute(id, false) { bucket ->
+            val set = bucket.registry().crdtOpt(id, ORSet::class.java)
+            set.isDefined && set.get().remove(value)
+        }
+    }
+}
@@ -2,7 +2,6 @@ package org.mitallast.queue.crdt.rest
 
 import com.google.inject.Inject
 import io.netty.handler.codec.http.HttpMethod
-import io.vavr.collection.Vector
 import io.vavr.concurrent.Future
 import io.vavr.control.Option
 import org.mitallast.queue.common.codec.Message
@@ -10,7 +9,9 @@ import org.mitallast.queue.common.json.JsonMessage
 import org.mitallast.queue.crdt.CrdtService
 import org.mitallast.queue.crdt.commutative.OrderedGSet
 import org.mitallast.queue.crdt.routing.ResourceType
+import org.mitallast.queue.rest.ExecutionPolicy
 import org.mitallast.queue.rest.RestController
+import org.mitallast.queue.rest.RestRequest
 
 class RestOrderedGSet @Inject constructor(controller: RestController, private val crdtService: CrdtService) {
 
@@ -22,45 +23,83 @@ class RestOrderedGSet @Inject constructor(controller: RestController, private va
                 controller.response().created(),
                 controller.response().badRequest()
             )
-        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/ordered-g-set")
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/ordered-g-set", ExecutionPolicy.ASYNC)
 
         controller.handle(
             { id: Long -> this.values(id) },
             controller.param().toLong("id"),
+            controller.response().optionalJsonStream()
+        ).etag(CrdtETag(crdtService)).handle(HttpMethod.GET, "_crdt/{id}/ordered-g-set/values")
+
+        controller.handle(
+            { id: Long, query: OrderedGSet.Query -> this.page(id, query) },
+            controller.param().toLong("id"),
+            this::query,
             controller.response().optionalJson()
-        ).handle(HttpMethod.GET, "_crdt/{id}/ordered-g-set/values")
+        ).etag(CrdtETag(crdtService)).handle(HttpMethod.GET, "_crdt/{id}/ordered-g-set/page")
 
         controller.handle(
             { id: Long, timestamp: Long, value: JsonMessage -> this.add(id, timestamp, value) },
             controller.param().toLong("id"),
             controller.param().toLong("timestamp"),
             controller.param().json(JsonMessage::class.java),
-            controller.response().either(
+            controller.response().futureEither(
                 controller.response().ok(),
                 controller.response().badRequest()
             )
-        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/ordered-g-set/add")
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/ordered-g-set/add", ExecutionPolicy.ASYNC)
     }
 
     private fun create(id: Long): Future<Boolean> {
         return crdtService.addResource(id, ResourceType.OrderedGSet)
     }
 
-    private fun values(id: Long): Option<Vector<Message>> {
+    private fun values(id: Long): Option<Iterator<Message>> {
+        val bucket = crdtService.bucket(id)
+        return if (bucket == null) {
+            Option.none()
+        } else {
+            bucket.registry().crdtOpt(id, OrderedGSet::class.java).map { it.iterator() }
+        }
+    }
+
+    private fun page(id: Long, query: OrderedGSet.Query): Option<OrderedGSet.Page> {
         val bucket = crdtService.bucket(id)
         return if (bucket == null) {
             Option.none()
         } else {
-            bucket.registry().crdtOpt(id, OrderedGSet::class.java).map { it.values() }
+            bucket.registry().crdtOpt(id, OrderedGSet::class.java).map { it.page(query) }
         }
     }
 
-    private fun add(id: Long, timestamp: Long, value: JsonMessage): Boolean {
-        val bucket = crdtService.bucket(id) ?: return false
-        val set = bucket.registry().crdtOpt(id, OrderedGSet::class.java)
-        if (set.isDefined) {
-            set.get().add(value, timestamp)
+    /**
+     * Query from `from`, `to`, `limit` params, next page is requested by `timestamp` and `replica` of cursor.
+     */
+    private fun query(request: RestRequest): OrderedGSet.Query {
+        val after = if (request.hasParam("timestamp") && request.hasParam("replica")) {
+            Option.some(OrderedGSet.Cursor(request.param("timestamp").toLong(), request.param("replica").toLong()))
+        } else {
+            Option.none()
         }
-        return true
+        return OrderedGSet.Query(
+            if (request.hasParam("from")) request.param("from").toLong() else Long.MIN_VALUE,
+            if (request.hasParam("to")) request.param("to").toLong() else Long.MAX_VALUE,
+            if (request.hasParam("limit")) request.param("limit").toInt() else DEFAULT_LIMIT,
+            after
+        )
+    }
+
+    private fun add(id: Long, timestamp: Long, value: JsonMessage): Future<Boolean> {
+        return crdtService.execute(id, false) { bucket ->
+            val set = bucket.registry().crdtOpt(id, OrderedGSet::class.java)
+            if (set.isDefined) {
+                set.get().add(value, timestamp)
+            }
+            true
+        }
+    }
+
+    companion object {
+        private const val DEFAULT_LIMIT = 100
     }
 }
@@ -0,0 +1,83 @@
+package org.mitallast.queue.crdt.rest
+
+import com.google.inject.Inject
+import io.netty.handler.codec.http.HttpMethod
+import io.vavr.concurrent.Future
+import io.vavr.control.Option
+import org.mitallast.queue.crdt.CrdtService
+import org.mitallast.queue.crdt.commutative.PNCounter
+import org.mitallast.queue.crdt.routing.ResourceType
+import org.mitallast.queue.rest.ExecutionPolicy
+import org.mitallast.queue.rest.RestController
+
+class RestPNCounter @Inject constructor(controller: RestController, private val crdtService: CrdtService) {
+
+    init {
+        controller.handle(
+            { id: Long -> this.create(id) },
+            controller.param().toLong("id"),
+            controller.response().futureEither(
+                controller.response().created(),
+                controller.response().badRequest()
+            )
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/pn-counter", ExecutionPolicy.ASYNC)
+
+        controller.handle(
+            { id: Long -> this.value(id) },
+            controller.param().toLong("id"),
+            controller.response().optional(
+                controller.response().text()
+            )
+        ).etag(CrdtETag(crdtService)).handle(HttpMethod.GET, "_crdt/{id}/pn-counter/value")
+
+        controller.handle(
+            { id: Long -> this.add(id, 1) },
+            controller.param().toLong("id"),
+            controller.response().future(
+                controller.response().optional(
+                    controller.response().text()
+                )
+            )
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/pn-counter/increment", ExecutionPolicy.ASYNC)
+
+        controller.handle(
+            { id: Long -> this.add(id, -1) },
+            controller.param().toLong("id"),
+            controller.response().future(
+                controller.response().optional(
+                    controller.response().text()
+                )
+            )
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/pn-counter/decrement", ExecutionPolicy.ASYNC)
+
+        controller.handle(
+            { id: Long, value: Long -> this.add(id, value) },
+            controller.param().toLong("id"),
+            controller.param().toLong("value"),
+            controller.response().future(
+                controller.response().optional(
+                    controller.response().text()
+                )
+            )
+        ).handle(HttpMethod.POST, HttpMethod.PUT, "_crdt/{id}/pn-counter/add", ExecutionPolicy.ASYNC)
+    }
+
+    private fun create(id: Long): Future<Boolean> {
+        return crdtService.addResource(id, ResourceType.PNCounter)
+    }
+
+    private fun value(id: Long): Option<Long> {
+        val bucket = crdtService.bucket(id)
+        return if (bucket == null) {
+            Option.none()
+        } else {
+            bucket.registry().crdtOpt(id, PNCounter::class.java).map { it.value() }
+        }
+    }
+
+    private fun add(id: Long, value: Long): Future<Option<Long>> {
+        return crdtService.execute(id, Option.none()) { bucket ->
+            bucket.registry().crdtOpt(id, PNCounter::class.java).map { c -> c.add(value) }
+        }
+    }
+}
@@ -4,7 +4,7 @@ import org.mitallast.queue.common.codec.Codec
 import org.mitallast.queue.common.codec.Message
 
 enum class ResourceType {
-    LWWRegister, GCounter, GSet, OrderedGSet
+    LWWRegister, GCounter, GSet, OrderedGSet, PNCounter, ORSet, LWWMap
 }
 
 class Resource(val id: Long, val type: ResourceType) : Message {
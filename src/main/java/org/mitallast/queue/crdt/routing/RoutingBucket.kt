@@ -9,21 +9,50 @@ import org.mitallast.queue.common.codec.Codec
 import org.mitallast.queue.common.codec.Message
 import org.mitallast.queue.transport.DiscoveryNode
 
+/**
+ * Bucket owns resources which id hash is in range from [start] to [end], both inclusive.
+ */
 class RoutingBucket : Message {
     val index: Int
     val replicas: Map<Long, RoutingReplica>
     val resources: Map<Long, Resource>
-
-    constructor(index: Int, replicas: Seq<RoutingReplica>, resources: Seq<Resource>) {
+    val start: Long
+    val end: Long
+    /**
+     * Index of bucket this bucket was split from, while resources are migrated from it, or -1.
+     */
+    val splitFrom: Int
+
+    constructor(index: Int, replicas: Seq<RoutingReplica>, resources: Seq<Resource>, start: Long, end: Long, splitFrom: Int) {
         this.index = index
         this.replicas = replicas.toMap({ it.id }) { it }
         this.resources = resources.toMap({ it.id }) { it }
+        this.start = start
+        this.end = end
+        this.splitFrom = splitFrom
     }
 
-    @JvmOverloads constructor(index: Int, replicas: Map<Long, RoutingReplica> = HashMap.empty(), resources: Map<Long, Resource> = HashMap.empty()) {
+    @JvmOverloads constructor(
+        index: Int,
+        start: Long,
+        end: Long,
+        replicas: Map<Long, RoutingReplica> = HashMap.empty(),
+        resources: Map<Long, Resource> = HashMap.empty(),
+        splitFrom: Int = -1
+    ) {
         this.index = index
         this.replicas = replicas
         this.resources = resources
+        this.start = start
+        this.end = end
+        this.splitFrom = splitFrom
+    }
+
+    val isSplitting: Boolean
+        get() = splitFrom >= 0
+
+    fun contains(hash: Long): Boolean {
+        return hash in start..end
     }
 
     fun replicaSeq(): Seq<RoutingReplica> {
@@ -43,19 +72,19 @@ class RoutingBucket : Message {
     }
 
     fun withResource(resource: Resource): RoutingBucket {
-        return RoutingBucket(
-            index,
-            replicas,
-            resources.put(resource.id, resource)
-        )
+        return RoutingBucket(index, start, end, replicas, resources.put(resource.id, resource), splitFrom)
     }
 
     fun withoutResource(resource: Long): RoutingBucket {
-        return RoutingBucket(
-            index,
-            replicas,
-            resources.remove(resource)
-        )
+        return RoutingBucket(index, start, end, replicas, resources.remove(resource), splitFrom)
+    }
+
+    fun withResources(resources: Seq<Resource>): RoutingBucket {
+        return RoutingBucket(index, start, end, replicas, this.resources.merge(resources.toMap({ it.id }) { it }), splitFrom)
+    }
+
+    fun withoutResources(resources: Seq<Long>): RoutingBucket {
+        return RoutingBucket(index, start, end, replicas, this.resources.removeAll(resources), splitFrom)
     }
 
     fun hasResource(id: Long): Boolean {
@@ -67,32 +96,44 @@ class RoutingBucket : Message {
     }
 
     fun withReplica(member: RoutingReplica): RoutingBucket {
-        return RoutingBucket(
-            index,
-            replicas.put(member.id, member),
-            resources
-        )
+        return RoutingBucket(index, start, end, replicas.put(member.id, member), resources, splitFrom)
     }
 
     fun filterReplicas(members: Set<DiscoveryNode>): RoutingBucket {
-        return RoutingBucket(
-            index,
-            replicas.filterValues { replica -> members.contains(replica.member) },
-            resources
-        )
+        return RoutingBucket(index, start, end, replicas.filterValues { replica -> members.contains(replica.member) }, resources, splitFrom)
     }
 
     fun withoutReplica(replica: Long): RoutingBucket {
-        return RoutingBucket(
-            index,
-            replicas.remove(replica),
-            resources
+        return RoutingBucket(index, start, end, replicas.remove(replica), resources, splitFrom)
+    }
+
+    fun withSplitCompleted(): RoutingBucket {
+        return RoutingBucket(index, start, end, replicas, resources, -1)
+    }
+
+    fun canSplit(): Boolean {
+        return start < end
+    }
+
+    /**
+     * Lower half of range stays in this bucket, upper half with its resources goes to new bucket
+     * without replicas, which migrates resources from this one.
+     */
+    fun split(newIndex: Int): Pair<RoutingBucket, RoutingBucket> {
+        val mid = start + ((end - start) ushr 1) + 1
+        val moved = resources.filterKeys { id -> RoutingTable.hash(id) >= mid }
+        return Pair(
+            RoutingBucket(index, start, mid - 1, replicas, resources.removeAll(moved.keySet()), splitFrom),
+            RoutingBucket(newIndex, mid, end, HashMap.empty(), moved, index)
         )
     }
 
     override fun toString(): String {
         return "RoutingBucket{" +
             "index=" + index +
+            ", start=" + start +
+            ", end=" + end +
+            ", splitFrom=" + splitFrom +
             ", members=" + replicas +
             ", resources=" + resources +
             '}'
@@ -104,9 +145,15 @@ class RoutingBucket : Message {
             RoutingBucket::index,
             RoutingBucket::replicaSeq,
             RoutingBucket::resourceSeq,
+            RoutingBucket::start,
+            RoutingBucket::end,
+            RoutingBucket::splitFrom,
             Codec.intCodec(),
             Codec.seqCodec(RoutingReplica.codec),
-            Codec.seqCodec(Resource.codec)
+            Codec.seqCodec(Resource.codec),
+            Codec.longCodec(),
+            Codec.longCodec(),
+            Codec.intCodec()
         )
     }
 }
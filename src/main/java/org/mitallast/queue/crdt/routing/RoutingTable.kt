@@ -1,12 +1,21 @@
 package org.mitallast.queue.crdt.routing
 
 import io.vavr.collection.HashSet
+import io.vavr.collection.Seq
 import io.vavr.collection.Set
 import io.vavr.collection.Vector
 import org.mitallast.queue.common.codec.Codec
 import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.CrdtDigest
 import org.mitallast.queue.transport.DiscoveryNode
 
+/**
+ * Resources are routed by hash of id to bucket which range contains it. Ranges of buckets
+ * cover whole hash space, and a bucket can be split into two halves to add capacity.
+ *
+ * Tables written before ranges placed resources by id modulo buckets, which is not compatible:
+ * a legacy table is migrated on load only if it has no resources, see [org.mitallast.queue.crdt.routing.fsm.LegacyRoutingTable].
+ */
 data class RoutingTable(
     val replicas: Int,
     val members: Set<DiscoveryNode>,
@@ -14,15 +23,33 @@ data class RoutingTable(
     val nextReplica: Long) : Message {
 
     constructor(replicas: Int, buckets: Int) :
-        this(replicas, HashSet.empty(), Vector.range(0, buckets).map { RoutingBucket(it) }, 0)
+        this(replicas, HashSet.empty(), ranges(buckets), 0)
+
+    // bucket indexes sorted by range start, for lookup by hash
+    private val order: IntArray = buckets.sortBy { it.start }.map { it.index }.toJavaStream().mapToInt { it }.toArray()
+    private val starts: LongArray = LongArray(order.size) { buckets.get(order[it]).start }
 
     fun bucketsCount(node: DiscoveryNode): Int {
         return buckets.count { bucket -> bucket.replicas.values().exists { replica -> replica.member == node } }
     }
 
+    fun bucket(index: Int): RoutingBucket {
+        return buckets.get(index)
+    }
+
     fun bucket(resourceId: Long): RoutingBucket {
-        val bucket = java.lang.Long.hashCode(resourceId) % buckets.size()
-        return buckets.get(bucket)
+        val hash = hash(resourceId)
+        var low = 0
+        var high = starts.size - 1
+        while (low < high) {
+            val mid = (low + high + 1) ushr 1
+            if (starts[mid] <= hash) {
+                low = mid
+            } else {
+                high = mid - 1
+            }
+        }
+        return buckets.get(order[low])
     }
 
     fun resource(id: Long): Resource {
@@ -53,6 +80,25 @@ data class RoutingTable(
         )
     }
 
+    /**
+     * Adds resources with one update of each bucket.
+     */
+    fun withResources(resources: Seq<Resource>): RoutingTable {
+        var updated = buckets
+        for (group in resources.groupBy { bucket(it.id).index }) {
+            updated = updated.update(group._1, updated.get(group._1).withResources(group._2))
+        }
+        return RoutingTable(replicas, members, updated, nextReplica)
+    }
+
+    fun withoutResources(ids: Seq<Long>): RoutingTable {
+        var updated = buckets
+        for (group in ids.groupBy { bucket(it).index }) {
+            updated = updated.update(group._1, updated.get(group._1).withoutResources(group._2))
+        }
+        return RoutingTable(replicas, members, updated, nextReplica)
+    }
+
     fun withReplica(bucket: Int, member: DiscoveryNode): RoutingTable {
         val updated = buckets.get(bucket).withReplica(RoutingReplica(nextReplica, member))
         return RoutingTable(
@@ -82,6 +128,28 @@ data class RoutingTable(
         )
     }
 
+    /**
+     * Splits bucket range in two halves, upper half goes to new bucket with the last index.
+     */
+    fun split(bucket: Int): RoutingTable {
+        val (left, right) = buckets.get(bucket).split(buckets.size())
+        return RoutingTable(
+            replicas,
+            members,
+            buckets.update(bucket, left).append(right),
+            nextReplica
+        )
+    }
+
+    fun withSplitCompleted(bucket: Int): RoutingTable {
+        return RoutingTable(
+            replicas,
+            members,
+            buckets.update(bucket, buckets.get(bucket).withSplitCompleted()),
+            nextReplica
+        )
+    }
+
     fun withoutReplica(bucket: Int, replica: Long): RoutingTable {
         val updated = buckets.get(bucket).withoutReplica(replica)
         return RoutingTable(
@@ -93,6 +161,23 @@ data class RoutingTable(
     }
 
     companion object {
+
+        fun hash(resourceId: Long): Long {
+            return CrdtDigest.mix(resourceId)
+        }
+
+        /**
+         * Splits hash space into equal ranges.
+         */
+        fun ranges(buckets: Int): Vector<RoutingBucket> {
+            val step = java.lang.Long.divideUnsigned(-1L, buckets.toLong())
+            return Vector.range(0, buckets).map { index ->
+                val start = Long.MIN_VALUE + index * step
+                val end = if (index == buckets - 1) Long.MAX_VALUE else start + step - 1
+                RoutingBucket(index, start, end)
+            }
+        }
+
         val codec = Codec.of(
             ::RoutingTable,
             RoutingTable::replicas,
@@ -0,0 +1,50 @@
+package org.mitallast.queue.crdt.routing.allocation
+
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Load of bucket replica: entries appended per second, live bytes and file bytes of its log.
+ */
+data class BucketLoad(
+    val bucket: Int,
+    val replica: Long,
+    val ops: Long,
+    val bytes: Long,
+    val logSize: Long
+) : Message {
+
+    operator fun plus(other: BucketLoad): BucketLoad {
+        return BucketLoad(bucket, -1, ops + other.ops, bytes + other.bytes, logSize + other.logSize)
+    }
+
+    companion object {
+        val codec = Codec.of(
+            ::BucketLoad,
+            BucketLoad::bucket,
+            BucketLoad::replica,
+            BucketLoad::ops,
+            BucketLoad::bytes,
+            BucketLoad::logSize,
+            Codec.intCodec(),
+            Codec.longCodec(),
+            Codec.longCodec(),
+            Codec.longCodec(),
+            Codec.longCodec()
+        )
+    }
+}
+
+/**
+ * Periodic report of replicas allocated at node, sent to raft leader.
+ */
+data class BucketLoadReport(val loads: Vector<BucketLoad>) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::BucketLoadReport,
+            BucketLoadReport::loads,
+            Codec.vectorCodec(BucketLoad.codec)
+        )
+    }
+}
@@ -0,0 +1,44 @@
+package org.mitallast.queue.crdt.routing.allocation
+
+import com.typesafe.config.Config
+import io.vavr.collection.HashMap
+import io.vavr.collection.Map
+import org.mitallast.queue.crdt.routing.RoutingTable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+
+/**
+ * Latest loads reported by bucket replicas. Reports older than three report intervals are
+ * dropped, so replicas located at failed nodes do not count.
+ */
+class BucketLoads @Inject constructor(config: Config) {
+    private val expire = config.getDuration("crdt.allocation.interval", TimeUnit.MILLISECONDS) * 3
+    private val reports = ConcurrentHashMap<Long, Reported>()
+
+    private class Reported(val load: BucketLoad, val timestamp: Long)
+
+    fun update(report: BucketLoadReport) {
+        val timestamp = System.currentTimeMillis()
+        for (load in report.loads) {
+            reports[load.replica] = Reported(load, timestamp)
+        }
+    }
+
+    /**
+     * Sum of loads of replicas by bucket index, replicas removed from routing table do not count.
+     */
+    fun buckets(routingTable: RoutingTable): Map<Int, BucketLoad> {
+        val expired = System.currentTimeMillis() - expire
+        reports.values.removeIf { it.timestamp < expired }
+        var buckets = HashMap.empty<Int, BucketLoad>()
+        for (reported in reports.values) {
+            val load = reported.load
+            if (load.bucket >= routingTable.buckets.size() || !routingTable.bucket(load.bucket).replicas.containsKey(load.replica)) {
+                continue
+            }
+            buckets = buckets.put(load.bucket, buckets.get(load.bucket).map { it + load }.getOrElse(load))
+        }
+        return buckets
+    }
+}
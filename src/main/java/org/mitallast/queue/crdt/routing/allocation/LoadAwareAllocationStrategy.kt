@@ -0,0 +1,245 @@
+package org.mitallast.queue.crdt.routing.allocation
+
+import com.typesafe.config.Config
+import io.vavr.collection.Map
+import io.vavr.collection.Vector
+import io.vavr.control.Option
+import org.apache.logging.log4j.LogManager
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.routing.RoutingBucket
+import org.mitallast.queue.crdt.routing.RoutingTable
+import org.mitallast.queue.crdt.routing.fsm.AddReplica
+import org.mitallast.queue.crdt.routing.fsm.CloseReplica
+import org.mitallast.queue.transport.DiscoveryNode
+import javax.inject.Inject
+
+/**
+ * Balances nodes by weight of allocated replicas instead of replica count. Weight of bucket is
+ * 1 plus its ops and bytes relative to average bucket, so without reported loads buckets are
+ * balanced by count.
+ *
+ * Rebalance is planned as a list of moves, each move adds replica at the less loaded node and
+ * closes replica at the more loaded one after that. Moves run one step per routing change,
+ * no more than concurrent-moves at once, and only one hot bucket is moved at a time.
+ */
+class LoadAwareAllocationStrategy @Inject constructor(
+    config: Config,
+    private val loads: BucketLoads
+) : AllocationStrategy {
+    private val threshold = config.getDouble("crdt.allocation.threshold")
+    private val maxMoves = config.getInt("crdt.allocation.max-moves")
+    private val concurrentMoves = config.getInt("crdt.allocation.concurrent-moves")
+    private val hotRatio = config.getDouble("crdt.allocation.hot-ratio")
+
+    private var plan = Vector.empty<Move>()
+
+    data class Move(val bucket: Int, val from: DiscoveryNode, val to: DiscoveryNode, val hot: Boolean)
+
+    @Synchronized
+    override fun update(routingTable: RoutingTable): Option<Message> {
+        val weights = weights(routingTable)
+        plan = plan.filter { valid(routingTable, it) }
+
+        val allocate = allocate(routingTable, weights)
+        if (allocate.isDefined) {
+            return allocate
+        }
+        val step = step(routingTable)
+        if (step.isDefined) {
+            return step
+        }
+        val close = closeExcess(routingTable, weights)
+        if (close.isDefined) {
+            return close
+        }
+        if (plan.isEmpty && !routingTable.buckets.exists { b -> b.replicas.values().exists { it.isClosed } }) {
+            plan = plan(routingTable, weights)
+            if (plan.nonEmpty()) {
+                logger.info("rebalance plan {}", plan)
+                return step(routingTable)
+            }
+        }
+        return Option.none()
+    }
+
+    fun plan(): Vector<Move> {
+        return plan
+    }
+
+    /**
+     * Weight of buckets by index.
+     */
+    fun weights(routingTable: RoutingTable): Map<Int, Double> {
+        val loads = this.loads.buckets(routingTable)
+        val count = routingTable.buckets.size().toDouble()
+        val meanOps = loads.values().map { it.ops }.sum().toDouble() / count
+        val meanBytes = loads.values().map { it.bytes }.sum().toDouble() / count
+        return routingTable.buckets.toMap({ it.index }) { bucket ->
+            var weight = 1.0
+            val load = loads.get(bucket.index)
+            if (load.isDefined) {
+                if (meanOps > 0) weight += load.get().ops / meanOps
+                if (meanBytes > 0) weight += load.get().bytes / meanBytes
+            }
+            weight
+        }
+    }
+
+    /**
+     * Weight of open replicas by member.
+     */
+    fun nodeLoads(routingTable: RoutingTable, weights: Map<Int, Double>): Map<DiscoveryNode, Double> {
+        var nodes = routingTable.members.toMap({ it }) { 0.0 }
+        for (bucket in routingTable.buckets) {
+            for (replica in bucket.replicas.values()) {
+                if (replica.isOpened && nodes.containsKey(replica.member)) {
+                    nodes = nodes.put(replica.member, nodes.get(replica.member).get() + weights.get(bucket.index).get())
+                }
+            }
+        }
+        return nodes
+    }
+
+    private fun open(bucket: RoutingBucket): Int {
+        return bucket.replicas.values().count { it.isOpened }
+    }
+
+    private fun valid(routingTable: RoutingTable, move: Move): Boolean {
+        if (move.bucket >= routingTable.buckets.size()) {
+            return false
+        }
+        if (!routingTable.members.contains(move.from) || !routingTable.members.contains(move.to)) {
+            return false
+        }
+        val bucket = routingTable.bucket(move.bucket)
+        // done when replica at source node is removed after replica at target node is added
+        return bucket.exists(move.from)
+    }
+
+    private fun allocate(routingTable: RoutingTable, weights: Map<Int, Double>): Option<Message> {
+        val nodes = nodeLoads(routingTable, weights)
+        for (bucket in routingTable.buckets) {
+            val open = open(bucket)
+            if (open < routingTable.replicas) {
+                logger.info("bucket {} has open {} < {} replicas", bucket.index, open, routingTable.replicas)
+                val available = routingTable.members
+                    .filter { !bucket.exists(it) }
+                    .minBy { a, b -> compare(routingTable, nodes, a, b) }
+                if (available.isDefined) {
+                    logger.info("add replica bucket {} {}", bucket.index, available.get())
+                    return Option.some(AddReplica(bucket.index, available.get()))
+                } else {
+                    logger.warn("no available nodes")
+                }
+            }
+        }
+        return Option.none()
+    }
+
+    private fun compare(routingTable: RoutingTable, nodes: Map<DiscoveryNode, Double>, a: DiscoveryNode, b: DiscoveryNode): Int {
+        val compare = java.lang.Double.compare(nodes.get(a).getOrElse(0.0), nodes.get(b).getOrElse(0.0))
+        return if (compare != 0) compare else Integer.compare(routingTable.bucketsCount(a), routingTable.bucketsCount(b))
+    }
+
+    /**
+     * Next step of planned moves. Move is active from adding replica at target node until
+     * replica at source node is removed.
+     */
+    private fun step(routingTable: RoutingTable): Option<Message> {
+        var active = 0
+        var activeHot = 0
+        for (move in plan) {
+            if (routingTable.bucket(move.bucket).exists(move.to)) {
+                active++
+                if (move.hot) activeHot++
+            }
+        }
+        for (move in plan) {
+            val bucket = routingTable.bucket(move.bucket)
+            val source = bucket.replica(move.from).get()
+            val target = bucket.replica(move.to)
+            if (target.isEmpty) {
+                if (active < concurrentMoves && !(move.hot && activeHot > 0)) {
+                    logger.info("move bucket {} from {} to {}: add replica", move.bucket, move.from, move.to)
+                    return Option.some(AddReplica(move.bucket, move.to))
+                }
+            } else if (target.get().isOpened && source.isOpened) {
+                logger.info("move bucket {} from {} to {}: close replica {}", move.bucket, move.from, move.to, source.id)
+                return Option.some(CloseReplica(move.bucket, source.id))
+            }
+        }
+        return Option.none()
+    }
+
+    /**
+     * Bucket can have excess replicas if leader has changed during a move, close replica at the
+     * most loaded node.
+     */
+    private fun closeExcess(routingTable: RoutingTable, weights: Map<Int, Double>): Option<Message> {
+        val nodes = nodeLoads(routingTable, weights)
+        for (bucket in routingTable.buckets) {
+            if (open(bucket) > routingTable.replicas && !plan.exists { it.bucket == bucket.index }) {
+                val replica = bucket.replicas.values()
+                    .filter { it.isOpened }
+                    .maxBy { a, b -> compare(routingTable, nodes, a.member, b.member) }
+                    .get()
+                logger.info("close excess replica bucket {} {}", bucket.index, replica.id)
+                return Option.some(CloseReplica(bucket.index, replica.id))
+            }
+        }
+        return Option.none()
+    }
+
+    /**
+     * Greedy plan: moves a bucket from the most loaded node to the least loaded one, picking bucket
+     * which weight is closest to half of the difference, while difference is above threshold of
+     * average node load. A plan contains at most one hot bucket.
+     */
+    private fun plan(routingTable: RoutingTable, weights: Map<Int, Double>): Vector<Move> {
+        if (routingTable.members.size() < 2) {
+            return Vector.empty()
+        }
+        val loads = this.loads.buckets(routingTable)
+        val meanWeight = weights.values().sum().toDouble() / weights.size()
+        var nodes = nodeLoads(routingTable, weights)
+        var moves = Vector.empty<Move>()
+        var hotPlanned = false
+        while (moves.size() < maxMoves) {
+            val mean = nodes.values().sum().toDouble() / nodes.size()
+            val hot = nodes.maxBy { a, b -> java.lang.Double.compare(a._2, b._2) }.get()
+            val cold = nodes.minBy { a, b -> java.lang.Double.compare(a._2, b._2) }.get()
+            val diff = hot._2 - cold._2
+            if (diff <= threshold * mean) {
+                break
+            }
+            val candidate = routingTable.buckets
+                .filter { bucket -> !bucket.isSplitting && open(bucket) == routingTable.replicas }
+                .filter { bucket -> !moves.exists { it.bucket == bucket.index } }
+                .filter { bucket -> bucket.replica(hot._1).exists { it.isOpened } && !bucket.exists(cold._1) }
+                .filter { bucket -> weights.get(bucket.index).get() < diff }
+                .filter { bucket -> !hotPlanned || weights.get(bucket.index).get() < meanWeight * hotRatio }
+                .minBy { a, b ->
+                    val wa = Math.abs(diff / 2 - weights.get(a.index).get())
+                    val wb = Math.abs(diff / 2 - weights.get(b.index).get())
+                    val compare = java.lang.Double.compare(wa, wb)
+                    if (compare != 0) compare else java.lang.Long.compare(
+                        loads.get(a.index).map { it.logSize }.getOrElse(0L),
+                        loads.get(b.index).map { it.logSize }.getOrElse(0L))
+                }
+            if (candidate.isEmpty) {
+                break
+            }
+            val bucket = candidate.get()
+            val weight = weights.get(bucket.index).get()
+            val isHot = weight >= meanWeight * hotRatio
+            hotPlanned = hotPlanned || isHot
+            moves = moves.append(Move(bucket.index, hot._1, cold._1, isHot))
+            nodes = nodes.put(hot._1, hot._2 - weight).put(cold._1, cold._2 + weight)
+        }
+        return moves
+    }
+
+    companion object {
+        private val logger = LogManager.getLogger(AllocationStrategy::class.java)
+    }
+}
@@ -0,0 +1,38 @@
+package org.mitallast.queue.crdt.routing.event
+
+import io.vavr.collection.HashSet
+import io.vavr.collection.Set
+import io.vavr.collection.Vector
+import org.mitallast.queue.crdt.routing.Resource
+import org.mitallast.queue.crdt.routing.RoutingTable
+
+/**
+ * Buckets changed by routing change. If only resources are added or removed, they are listed
+ * and the rest of bucket is unchanged, otherwise changed buckets are processed in full.
+ */
+data class RoutingDelta(
+    val buckets: Set<Int>,
+    val added: Vector<Resource> = Vector.empty(),
+    val removed: Vector<Long> = Vector.empty()
+) {
+    val isResourceChange: Boolean
+        get() = added.nonEmpty() || removed.nonEmpty()
+
+    companion object {
+        fun all(routingTable: RoutingTable): RoutingDelta {
+            return RoutingDelta(routingTable.buckets.map { it.index }.toSet())
+        }
+
+        fun buckets(vararg buckets: Int): RoutingDelta {
+            return RoutingDelta(HashSet.ofAll(*buckets))
+        }
+
+        fun added(bucket: Int, resource: Resource): RoutingDelta {
+            return RoutingDelta(HashSet.of(bucket), Vector.of(resource))
+        }
+
+        fun removed(bucket: Int, resource: Long): RoutingDelta {
+            return RoutingDelta(HashSet.of(bucket), Vector.empty(), Vector.of(resource))
+        }
+    }
+}
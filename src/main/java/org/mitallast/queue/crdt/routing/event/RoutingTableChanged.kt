@@ -2,4 +2,7 @@ package org.mitallast.queue.crdt.routing.event
 
 import org.mitallast.queue.crdt.routing.RoutingTable
 
-data class RoutingTableChanged(val index: Long, val routingTable: RoutingTable)
+/**
+ * Routing table after change applied at index, with delta of the change.
+ */
+data class RoutingTableChanged(val index: Long, val routingTable: RoutingTable, val delta: RoutingDelta)
@@ -0,0 +1,19 @@
+package org.mitallast.queue.crdt.routing.fsm
+
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.routing.Resource
+
+/**
+ * Adds batch of resources in one routing change.
+ */
+data class AddResources(val resources: Vector<Resource>) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::AddResources,
+            AddResources::resources,
+            Codec.vectorCodec(Resource.codec)
+        )
+    }
+}
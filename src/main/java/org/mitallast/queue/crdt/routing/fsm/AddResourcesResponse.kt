@@ -0,0 +1,18 @@
+package org.mitallast.queue.crdt.routing.fsm
+
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Result of each resource of batch in request order, false if resource already exists.
+ */
+data class AddResourcesResponse(val created: Vector<Boolean>) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::AddResourcesResponse,
+            AddResourcesResponse::created,
+            Codec.vectorCodec(Codec.booleanCodec())
+        )
+    }
+}
@@ -0,0 +1,17 @@
+package org.mitallast.queue.crdt.routing.fsm
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Sent by replica of split bucket when resources are migrated from every replica of source bucket.
+ */
+data class CompleteSplit(val bucket: Int) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::CompleteSplit,
+            CompleteSplit::bucket,
+            Codec.intCodec()
+        )
+    }
+}
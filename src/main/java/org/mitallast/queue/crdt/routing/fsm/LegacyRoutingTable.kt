@@ -0,0 +1,68 @@
+package org.mitallast.queue.crdt.routing.fsm
+
+import io.vavr.collection.Seq
+import io.vavr.collection.Set
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.crdt.routing.Resource
+import org.mitallast.queue.crdt.routing.RoutingBucket
+import org.mitallast.queue.crdt.routing.RoutingReplica
+import org.mitallast.queue.crdt.routing.RoutingTable
+import org.mitallast.queue.transport.DiscoveryNode
+
+/**
+ * Layout of routing.bin written before buckets had hash ranges, when resource was placed
+ * in bucket id.hashCode() % buckets.
+ */
+class LegacyRoutingTable(
+    val replicas: Int,
+    val members: Set<DiscoveryNode>,
+    val buckets: Vector<Bucket>,
+    val nextReplica: Long) : Message {
+
+    class Bucket(val index: Int, val replicas: Seq<RoutingReplica>, val resources: Seq<Resource>) : Message {
+        companion object {
+            val codec = Codec.of(
+                ::Bucket,
+                Bucket::index,
+                Bucket::replicas,
+                Bucket::resources,
+                Codec.intCodec(),
+                Codec.seqCodec(RoutingReplica.codec),
+                Codec.seqCodec(Resource.codec)
+            )
+        }
+    }
+
+    /**
+     * Buckets get equal hash ranges and keep their replicas. Resources placed by modulo would be
+     * routed by hash to buckets which have no state of them, so table with resources is not migrated.
+     */
+    fun migrate(): RoutingTable {
+        val resources = buckets.map { it.resources.size() }.fold(0) { a, b -> a + b }
+        if (resources > 0) {
+            throw IllegalStateException("legacy routing table has $resources resources placed by id modulo, " +
+                "they are routed by hash range since this version and can not be migrated")
+        }
+        val ranges = RoutingTable.ranges(buckets.size())
+        return RoutingTable(replicas, members, buckets.map { bucket ->
+            val range = ranges[bucket.index]
+            RoutingBucket(bucket.index, bucket.replicas, Vector.empty(), range.start, range.end, -1)
+        }, nextReplica)
+    }
+
+    companion object {
+        val codec = Codec.of(
+            ::LegacyRoutingTable,
+            LegacyRoutingTable::replicas,
+            LegacyRoutingTable::members,
+            LegacyRoutingTable::buckets,
+            LegacyRoutingTable::nextReplica,
+            Codec.intCodec(),
+            Codec.setCodec(DiscoveryNode.codec),
+            Codec.vectorCodec(Bucket.codec),
+            Codec.longCodec()
+        )
+    }
+}
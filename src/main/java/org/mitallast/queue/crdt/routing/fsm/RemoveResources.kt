@@ -0,0 +1,18 @@
+package org.mitallast.queue.crdt.routing.fsm
+
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Removes batch of resources in one routing change.
+ */
+data class RemoveResources(val ids: Vector<Long>) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::RemoveResources,
+            RemoveResources::ids,
+            Codec.vectorCodec(Codec.longCodec())
+        )
+    }
+}
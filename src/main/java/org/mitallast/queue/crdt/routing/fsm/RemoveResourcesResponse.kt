@@ -0,0 +1,18 @@
+package org.mitallast.queue.crdt.routing.fsm
+
+import io.vavr.collection.Vector
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Result of each id of batch in request order, false if resource does not exist.
+ */
+data class RemoveResourcesResponse(val removed: Vector<Boolean>) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::RemoveResourcesResponse,
+            RemoveResourcesResponse::removed,
+            Codec.vectorCodec(Codec.booleanCodec())
+        )
+    }
+}
@@ -2,22 +2,32 @@ package org.mitallast.queue.crdt.routing.fsm
 
 import com.google.common.base.Preconditions
 import com.typesafe.config.Config
+import gnu.trove.set.hash.TLongHashSet
+import io.vavr.collection.Vector
 import io.vavr.control.Option
+import org.mitallast.queue.common.codec.Codec
 import org.mitallast.queue.common.codec.Message
 import org.mitallast.queue.common.events.EventBus
 import org.mitallast.queue.common.file.FileService
 import org.mitallast.queue.common.logging.LoggingService
 import org.mitallast.queue.crdt.routing.Resource
 import org.mitallast.queue.crdt.routing.RoutingTable
+import org.mitallast.queue.crdt.routing.event.RoutingDelta
 import org.mitallast.queue.crdt.routing.event.RoutingTableChanged
 import org.mitallast.queue.raft.protocol.RaftSnapshotMetadata
 import org.mitallast.queue.raft.resource.ResourceFSM
 import org.mitallast.queue.raft.resource.ResourceRegistry
+import java.io.DataOutputStream
 import java.io.File
 import java.io.IOError
 import java.io.IOException
 import javax.inject.Inject
 
+/**
+ * Applied commands are appended to routing log, and full table is written to checkpoint every
+ * checkpoint entries, after which log is truncated. On start checkpoint is loaded and log is
+ * replayed, so commands already applied are skipped when raft replays them.
+ */
 class RoutingTableFSM @Inject constructor(
     config: Config,
     logging: LoggingService,
@@ -26,9 +36,16 @@ class RoutingTableFSM @Inject constructor(
     private val fileService: FileService
 ) : ResourceFSM {
     private val logger = logging.logger()
-    private val file: File = fileService.resource("crdt", "routing.bin")
+    private val legacyFile: File = fileService.resource("crdt", "routing.bin")
+    private val checkpointFile: File = fileService.resource("crdt", "routing.checkpoint")
+    private val logFile: File = fileService.resource("crdt", "routing.log")
+    private val checkpointEntries = config.getInt("crdt.routing.checkpoint")
+    private val codec = Codec.anyCodec<Message>()
 
     @Volatile private var lastApplied: Long = 0
+    private var replaying = false
+    private var logEntries = 0
+    private lateinit var logOutput: DataOutputStream
     @Volatile private var routingTable: RoutingTable = RoutingTable(
         config.getInt("crdt.replicas"),
         config.getInt("crdt.buckets")
@@ -40,11 +57,15 @@ class RoutingTableFSM @Inject constructor(
         registry.register(this)
         registry.register(AddResource::class.java, this::handle)
         registry.register(RemoveResource::class.java, this::handle)
+        registry.register(AddResources::class.java, this::handle)
+        registry.register(RemoveResources::class.java, this::handle)
         registry.register(UpdateMembers::class.java, this::handle)
 
         registry.register(AddReplica::class.java, this::handle)
         registry.register(CloseReplica::class.java, this::handle)
         registry.register(RemoveReplica::class.java, this::handle)
+        registry.register(SplitBucket::class.java, this::handle)
+        registry.register(CompleteSplit::class.java, this::handle)
 
         registry.register(RoutingTable::class.java, this::handle)
     }
@@ -53,37 +74,110 @@ class RoutingTableFSM @Inject constructor(
         return routingTable
     }
 
+    fun lastApplied(): Long {
+        return lastApplied
+    }
+
     private fun restore() {
-        if (file.length() > 0) {
-            try {
-                fileService.input(file).use { stream -> routingTable = RoutingTable.codec.read(stream) }
-            } catch (e: IOException) {
-                throw IOError(e)
+        try {
+            if (checkpointFile.length() > 0) {
+                fileService.input(checkpointFile).use { stream ->
+                    lastApplied = stream.readLong()
+                    routingTable = RoutingTable.codec.read(stream)
+                }
+            } else if (legacyFile.length() > 0) {
+                // fails without deleting legacy file if its resources can not be routed by hash
+                fileService.input(legacyFile).use { stream -> routingTable = LegacyRoutingTable.codec.read(stream).migrate() }
             }
+            var replayed = 0
+            if (logFile.length() > 0) {
+                replaying = true
+                fileService.input(logFile).use { stream ->
+                    try {
+                        while (stream.available() > 0) {
+                            val index = stream.readLong()
+                            val command = codec.read(stream)
+                            apply(index, command)
+                            replayed++
+                        }
+                    } catch (e: IOException) {
+                        logger.warn("routing log is truncated after {} entries", replayed)
+                    }
+                }
+                replaying = false
+            }
+            logger.info("restored routing at {}, replayed {} entries", lastApplied, replayed)
+            // log tail can be partially written, so it is replaced with checkpoint
+            checkpoint()
+            fileService.delete(legacyFile)
+        } catch (e: IOException) {
+            throw IOError(e)
+        }
+    }
 
+    private fun apply(index: Long, command: Message) {
+        when (command) {
+            is AddResource -> handle(index, command)
+            is RemoveResource -> handle(index, command)
+            is AddResources -> handle(index, command)
+            is RemoveResources -> handle(index, command)
+            is UpdateMembers -> handle(index, command)
+            is AddReplica -> handle(index, command)
+            is CloseReplica -> handle(index, command)
+            is RemoveReplica -> handle(index, command)
+            is SplitBucket -> handle(index, command)
+            is CompleteSplit -> handle(index, command)
+            else -> logger.warn("unexpected routing command {}", command)
         }
     }
 
-    private fun persist(index: Long, routingTable: RoutingTable) {
+    /**
+     * Writes table to checkpoint file and truncates routing log.
+     */
+    private fun checkpoint() {
+        val tmp = fileService.temporary("crdt", "routing", "checkpoint")
+        fileService.output(tmp).use { stream ->
+            stream.writeLong(lastApplied)
+            RoutingTable.codec.write(stream, routingTable)
+        }
+        fileService.move(tmp, checkpointFile)
+        if (::logOutput.isInitialized) {
+            logOutput.close()
+        }
+        logOutput = fileService.output(logFile)
+        logEntries = 0
+    }
+
+    private fun persist(index: Long, command: Message, routingTable: RoutingTable, delta: RoutingDelta) {
         Preconditions.checkArgument(index > lastApplied)
         this.lastApplied = index
-        logger.info("before: {}", this.routingTable)
         this.routingTable = routingTable
-        logger.info("after: {}", this.routingTable)
+        if (replaying) {
+            return
+        }
+        if (logger.isDebugEnabled) {
+            logger.debug("apply {} at {}: {}", command, index, delta)
+        }
         try {
-            fileService.output(file).use { stream -> RoutingTable.codec.write(stream, routingTable) }
+            if (command is RoutingTable || ++logEntries >= checkpointEntries) {
+                checkpoint()
+            } else {
+                logOutput.writeLong(index)
+                codec.write(logOutput, command)
+                logOutput.flush()
+            }
         } catch (e: IOException) {
             throw IOError(e)
         }
 
-        eventBus.trigger(RoutingTableChanged(index, routingTable))
+        eventBus.trigger(RoutingTableChanged(index, routingTable, delta))
     }
 
     private fun handle(index: Long, routingTable: RoutingTable): Option<Message> {
         if (index <= lastApplied) {
             return Option.none()
         }
-        persist(index, routingTable)
+        persist(index, routingTable, routingTable, RoutingDelta.all(routingTable))
         return Option.none()
     }
 
@@ -98,7 +192,7 @@ class RoutingTableFSM @Inject constructor(
             request.id,
             request.type
         )
-        persist(index, routingTable.withResource(resource))
+        persist(index, request, routingTable.withResource(resource), RoutingDelta.added(routingTable.bucket(request.id).index, resource))
         return Option.some(AddResourceResponse(request.type, request.id, true))
     }
 
@@ -107,17 +201,49 @@ class RoutingTableFSM @Inject constructor(
             return Option.none()
         }
         if (routingTable.hasResource(request.id)) {
-            persist(index, routingTable.withoutResource(request.id))
+            persist(index, request, routingTable.withoutResource(request.id), RoutingDelta.removed(routingTable.bucket(request.id).index, request.id))
             return Option.some(RemoveResourceResponse(request.type, request.id, true))
         }
         return Option.some(RemoveResourceResponse(request.type, request.id, false))
     }
 
+    /**
+     * Resources of batch are added in one routing change, duplicates in batch are not created.
+     */
+    private fun handle(index: Long, request: AddResources): Option<Message> {
+        if (index <= lastApplied) {
+            return Option.none()
+        }
+        val ids = TLongHashSet()
+        val created = request.resources.map { !routingTable.hasResource(it.id) && ids.add(it.id) }
+        val added = request.resources.zip(created).filter { it._2 }.map { it._1 }
+        if (added.nonEmpty()) {
+            val buckets = added.map { routingTable.bucket(it.id).index }.toSet()
+            persist(index, request, routingTable.withResources(added), RoutingDelta(buckets, added))
+        }
+        return Option.some(AddResourcesResponse(created))
+    }
+
+    private fun handle(index: Long, request: RemoveResources): Option<Message> {
+        if (index <= lastApplied) {
+            return Option.none()
+        }
+        val ids = TLongHashSet()
+        val removed = request.ids.map { routingTable.hasResource(it) && ids.add(it) }
+        val existing = request.ids.zip(removed).filter { it._2 }.map { it._1 }
+        if (existing.nonEmpty()) {
+            val buckets = existing.map { routingTable.bucket(it).index }.toSet()
+            persist(index, request, routingTable.withoutResources(existing), RoutingDelta(buckets, Vector.empty(), existing))
+        }
+        return Option.some(RemoveResourcesResponse(removed))
+    }
+
     private fun handle(index: Long, updateMembers: UpdateMembers): Option<Message> {
         if (index <= lastApplied) {
             return Option.none()
         }
-        persist(index, routingTable.withMembers(updateMembers.members))
+        val updated = routingTable.withMembers(updateMembers.members)
+        persist(index, updateMembers, updated, RoutingDelta.all(updated))
         return Option.none()
     }
 
@@ -125,9 +251,9 @@ class RoutingTableFSM @Inject constructor(
         if (index <= lastApplied) {
             return Option.none()
         }
-        val routingBucket = routingTable.bucket(request.bucket.toLong())
+        val routingBucket = routingTable.bucket(request.bucket)
         if (!routingBucket.exists(request.member)) {
-            persist(index, routingTable.withReplica(request.bucket, request.member))
+            persist(index, request, routingTable.withReplica(request.bucket, request.member), RoutingDelta.buckets(request.bucket))
         } else {
             logger.warn("node {} already allocated in bucket {}", request.member, request.bucket)
         }
@@ -138,10 +264,10 @@ class RoutingTableFSM @Inject constructor(
         if (index <= lastApplied) {
             return Option.none()
         }
-        val routingBucket = routingTable.bucket(request.bucket.toLong())
+        val routingBucket = routingTable.bucket(request.bucket)
         val replica = routingBucket.replicas.get(request.replica)
         if (replica.exists { it.isOpened }) {
-            persist(index, routingTable.withReplica(request.bucket, replica.get().close()))
+            persist(index, request, routingTable.withReplica(request.bucket, replica.get().close()), RoutingDelta.buckets(request.bucket))
         }
         return Option.none()
     }
@@ -150,10 +276,43 @@ class RoutingTableFSM @Inject constructor(
         if (index <= lastApplied) {
             return Option.none()
         }
-        val routingBucket = routingTable.bucket(request.bucket.toLong())
+        val routingBucket = routingTable.bucket(request.bucket)
         val replica = routingBucket.replicas.get(request.replica)
         if (replica.exists { it.isClosed }) {
-            persist(index, routingTable.withoutReplica(request.bucket, request.replica))
+            persist(index, request, routingTable.withoutReplica(request.bucket, request.replica), RoutingDelta.buckets(request.bucket))
+        }
+        return Option.none()
+    }
+
+    /**
+     * Bucket is not split while it or bucket split from it migrates resources.
+     */
+    private fun handle(index: Long, request: SplitBucket): Option<Message> {
+        if (index <= lastApplied) {
+            return Option.none()
+        }
+        if (request.bucket < 0 || request.bucket >= routingTable.buckets.size()) {
+            return Option.some(SplitBucketResponse(request.bucket, false))
+        }
+        val routingBucket = routingTable.bucket(request.bucket)
+        if (!routingBucket.canSplit() || routingBucket.isSplitting || routingTable.buckets.exists { it.splitFrom == request.bucket }) {
+            logger.warn("bucket {} can not be split", request.bucket)
+            return Option.some(SplitBucketResponse(request.bucket, false))
+        }
+        logger.info("split bucket {}", request.bucket)
+        persist(index, request, routingTable.split(request.bucket), RoutingDelta.buckets(request.bucket, routingTable.buckets.size()))
+        return Option.some(SplitBucketResponse(request.bucket, true))
+    }
+
+    private fun handle(index: Long, request: CompleteSplit): Option<Message> {
+        if (index <= lastApplied) {
+            return Option.none()
+        }
+        if (request.bucket < routingTable.buckets.size() && routingTable.bucket(request.bucket).isSplitting) {
+            logger.info("split of bucket {} completed", request.bucket)
+            // source bucket drops moved resources after split is completed
+            val source = routingTable.bucket(request.bucket).splitFrom
+            persist(index, request, routingTable.withSplitCompleted(request.bucket), RoutingDelta.buckets(request.bucket, source))
         }
         return Option.none()
     }
@@ -0,0 +1,14 @@
+package org.mitallast.queue.crdt.routing.fsm
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+data class SplitBucket(val bucket: Int) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::SplitBucket,
+            SplitBucket::bucket,
+            Codec.intCodec()
+        )
+    }
+}
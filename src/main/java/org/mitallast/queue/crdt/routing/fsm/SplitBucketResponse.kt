@@ -0,0 +1,16 @@
+package org.mitallast.queue.crdt.routing.fsm
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+data class SplitBucketResponse(val bucket: Int, val isSplit: Boolean) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::SplitBucketResponse,
+            SplitBucketResponse::bucket,
+            SplitBucketResponse::isSplit,
+            Codec.intCodec(),
+            Codec.booleanCodec()
+        )
+    }
+}
@@ -8,21 +8,23 @@ import org.mitallast.queue.raft.Raft
 import org.mitallast.queue.raft.RaftMetadata
 import org.mitallast.queue.raft.cluster.JointConsensusClusterConfiguration
 import org.mitallast.queue.rest.RestController
+import org.mitallast.queue.rest.RestRequest
 
 class RaftHandler @Inject constructor(controller: RestController, private val raft: Raft) {
 
     init {
-        controller
-            .handle(this::log, controller.response().json())
-            .handle(HttpMethod.GET, "_raft/log")
+        controller.register(HttpMethod.GET, "_raft/log", this::log)
         controller
             .handle(this::state, controller.response().json())
             .handle(HttpMethod.GET, "_raft/state")
     }
 
-    fun log(): Map<String, Any> {
+    /**
+     * Entries are streamed, log is not copied into response.
+     */
+    fun log(request: RestRequest) {
         val log = raft.replicatedLog()
-        val entries = log.entries().map { (term, index, session, command) ->
+        val entries = log.entries().iterator().map { (term, index, session, command) ->
             HashMap.of(
                 "term", term,
                 "index", index,
@@ -30,10 +32,7 @@ class RaftHandler @Inject constructor(controller: RestController, private val ra
                 "session", session
             )
         }
-        return HashMap.of(
-            "committedIndex", log.committedIndex(),
-            "entries", entries
-        )
+        request.response().jsonStream(HashMap.of("committedIndex", log.committedIndex()), "entries", entries)
     }
 
     fun state(): Map<String, Any> {
@@ -0,0 +1,36 @@
+package org.mitallast.queue.rest
+
+import com.google.inject.Inject
+import com.typesafe.config.Config
+import io.netty.channel.Channel
+import io.netty.handler.codec.http.HttpMethod
+import org.apache.logging.log4j.LogManager
+import java.util.concurrent.ThreadLocalRandom
+
+/**
+ * Access log of sampled requests. Sampling is decided at dispatch without locks, records are written
+ * to logger "access" which has own async appender in log4j2.xml, so event loop does not wait for disk
+ * and records are dropped if its queue is full.
+ */
+class AccessLog @Inject constructor(config: Config) {
+    private val logger = LogManager.getLogger("access")
+    private val sampleRate = config.getDouble("rest.access-log.sample-rate")
+
+    /**
+     * Start time of sampled request, or 0 if request is not sampled.
+     */
+    fun start(): Long {
+        if (sampleRate <= 0.0 || !logger.isInfoEnabled) {
+            return 0
+        }
+        if (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return 0
+        }
+        return Math.max(1, System.nanoTime())
+    }
+
+    fun log(channel: Channel, method: HttpMethod, uri: String, status: Int, start: Long) {
+        val micros = (System.nanoTime() - start) / 1000
+        logger.info("{} {} {} {} {}us", channel.remoteAddress(), method, uri, status, micros)
+    }
+}
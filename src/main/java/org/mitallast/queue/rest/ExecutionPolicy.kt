@@ -0,0 +1,23 @@
+package org.mitallast.queue.rest
+
+/**
+ * Where handler of route is executed, declared at registration of route.
+ */
+enum class ExecutionPolicy {
+    /**
+     * At event loop of connection, for handlers which only read memory.
+     */
+    EVENT_LOOP,
+
+    /**
+     * At bounded worker pool of [RestExecutor], for handlers which may block on disk, locks or futures.
+     * Request is rejected with 503 if queue of pool is full.
+     */
+    WORKER,
+
+    /**
+     * At event loop of connection, handler should not block: it starts work and returns future,
+     * response is sent when future is completed.
+     */
+    ASYNC
+}
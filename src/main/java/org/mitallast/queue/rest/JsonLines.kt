@@ -0,0 +1,15 @@
+package org.mitallast.queue.rest
+
+/**
+ * Chunked response of json values, one per line, written as they become available.
+ * Methods are safe to call from any thread.
+ */
+interface JsonLines {
+
+    fun write(values: Iterable<Any>)
+
+    /**
+     * Completes response after written values.
+     */
+    fun end()
+}
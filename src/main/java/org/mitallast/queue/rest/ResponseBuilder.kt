@@ -1,8 +1,10 @@
 package org.mitallast.queue.rest
 
 import io.netty.buffer.ByteBuf
+import io.netty.channel.Channel
 import io.netty.handler.codec.http.HttpResponseStatus
 import io.netty.util.AsciiString
+import io.vavr.collection.Map
 
 import java.io.File
 import java.net.URL
@@ -25,6 +27,28 @@ interface ResponseBuilder {
 
     fun json(json: Any)
 
+    /**
+     * Json array of values, written in chunks while iterating.
+     */
+    fun jsonStream(values: Iterator<Any>)
+
+    /**
+     * Json object of fields with array of values as the last field, written in chunks while iterating.
+     */
+    fun jsonStream(fields: Map<String, Any>, name: String, values: Iterator<Any>)
+
+    /**
+     * Starts chunked response of json values, one per line, values are written by returned
+     * [JsonLines] until it is ended.
+     */
+    fun jsonLines(): JsonLines
+
+    /**
+     * Starts server-sent events stream, events are written to returned channel as http content
+     * until it is closed.
+     */
+    fun eventStream(): Channel
+
     fun text(content: String)
 
     fun bytes(content: ByteArray)
@@ -36,4 +60,9 @@ interface ResponseBuilder {
     fun file(file: File)
 
     fun empty()
+
+    /**
+     * 304 response without content, with headers set to builder.
+     */
+    fun notModified()
 }
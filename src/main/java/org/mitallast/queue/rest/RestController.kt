@@ -5,110 +5,121 @@ import com.google.inject.Inject
 import io.netty.buffer.ByteBuf
 import io.netty.channel.ChannelHandlerContext
 import io.netty.handler.codec.http.FullHttpRequest
+import io.netty.handler.codec.http.HttpHeaderNames
 import io.netty.handler.codec.http.HttpMethod
 import io.netty.handler.codec.http.HttpResponseStatus
+import io.netty.util.concurrent.FastThreadLocal
+import io.vavr.collection.HashMap
+import io.vavr.collection.Map
 import io.vavr.concurrent.Future
 import io.vavr.control.Option
 import org.mitallast.queue.common.json.JsonService
 import org.mitallast.queue.common.logging.LoggingService
-import org.mitallast.queue.common.path.TrieNode
+import org.mitallast.queue.common.path.CompiledRouter
+import org.mitallast.queue.common.path.RouteMatch
 import org.mitallast.queue.rest.netty.HttpRequest
 import java.io.File
 import java.net.URL
+import java.util.concurrent.TimeUnit
 
 class RestController @Inject constructor(
-    private val logging: LoggingService,
-    private val jsonService: JsonService
+    logging: LoggingService,
+    private val jsonService: JsonService,
+    private val executor: RestExecutor,
+    private val accessLog: AccessLog,
+    private val limiter: RestLimiter
 ) {
     private val logger = logging.logger()
+    private val requestLogger = logging.logger(HttpRequest::class.java)
     @Volatile
-    private var getHandlers = TrieNode.node<(RestRequest) -> Unit>()
+    private var getHandlers = CompiledRouter.router<(RestRequest) -> Unit>()
     @Volatile
-    private var postHandlers = TrieNode.node<(RestRequest) -> Unit>()
+    private var postHandlers = CompiledRouter.router<(RestRequest) -> Unit>()
     @Volatile
-    private var putHandlers = TrieNode.node<(RestRequest) -> Unit>()
+    private var putHandlers = CompiledRouter.router<(RestRequest) -> Unit>()
     @Volatile
-    private var deleteHandlers = TrieNode.node<(RestRequest) -> Unit>()
+    private var deleteHandlers = CompiledRouter.router<(RestRequest) -> Unit>()
     @Volatile
-    private var headHandlers = TrieNode.node<(RestRequest) -> Unit>()
+    private var headHandlers = CompiledRouter.router<(RestRequest) -> Unit>()
     @Volatile
-    private var optionsHandlers = TrieNode.node<(RestRequest) -> Unit>()
+    private var optionsHandlers = CompiledRouter.router<(RestRequest) -> Unit>()
+
+    private val routeMatch = object : FastThreadLocal<RouteMatch>() {
+        override fun initialValue(): RouteMatch = RouteMatch()
+    }
 
     private val responseMappers = ResponseMappers()
     private val paramMappers = ParamMappers()
 
+    /**
+     * Request is created once and reused by error response, params are decoded by handler on access.
+     * Requests over rate of client are rejected with 429, over in-flight limit of route group with 503,
+     * before routing.
+     */
     fun dispatchRequest(ctx: ChannelHandlerContext, httpRequest: FullHttpRequest) {
-        logger.info("request ${httpRequest.method()} ${httpRequest.uri()}")
-        val (path, queryParams) = HttpRequest.decodeUri(httpRequest.uri())
+        var request: HttpRequest? = null
+        // slot acquired for request, released by its response
+        var acquired: RestLimiter.InFlight? = null
         try {
-            val method = httpRequest.method()
-            when(method) {
-                HttpMethod.GET -> {
-                    val (handler, pathParams) = getHandlers.retrieve(path)
-                    if (handler.isDefined) {
-                        val request = HttpRequest(logging, ctx, httpRequest, jsonService, pathParams.merge(queryParams), path)
-                        return handler.get().invoke(request)
-                    }
-                }
-                HttpMethod.POST -> {
-                    val (handler, pathParams) = postHandlers.retrieve(path)
-                    if (handler.isDefined) {
-                        val request = HttpRequest(logging, ctx, httpRequest, jsonService, pathParams.merge(queryParams), path)
-                        return handler.get().invoke(request)
-                    }
-                }
-                HttpMethod.PUT -> {
-                    val (handler, pathParams) = putHandlers.retrieve(path)
-                    if (handler.isDefined) {
-                        val request = HttpRequest(logging, ctx, httpRequest, jsonService, pathParams.merge(queryParams), path)
-                        return handler.get().invoke(request)
-                    }
-                }
-                HttpMethod.DELETE -> {
-                    val (handler, pathParams) = deleteHandlers.retrieve(path)
-                    if (handler.isDefined) {
-                        val request = HttpRequest(logging, ctx, httpRequest, jsonService, pathParams.merge(queryParams), path)
-                        return handler.get().invoke(request)
-                    }
-                }
-                HttpMethod.HEAD -> {
-                    val (handler, pathParams) = headHandlers.retrieve(path)
-                    if (handler.isDefined) {
-                        val request = HttpRequest(logging, ctx, httpRequest, jsonService, pathParams.merge(queryParams), path)
-                        return handler.get().invoke(request)
-                    }
-                }
-                HttpMethod.OPTIONS -> {
-                    val (handler, pathParams) = optionsHandlers.retrieve(path)
-                    return if (handler.isDefined) {
-                        val request = HttpRequest(logging, ctx, httpRequest, jsonService, pathParams.merge(queryParams), path)
-                        handler.get().invoke(request)
-                    } else {
-                        val request = HttpRequest(logging, ctx, httpRequest, jsonService, pathParams.merge(queryParams), path)
-                        request.response()
-                            .status(HttpResponseStatus.OK)
-                            .empty()
-                    }
-                }
+            val path = HttpRequest.decodePath(httpRequest.uri())
+            val wait = limiter.acquire(ctx, httpRequest)
+            if (wait > 0) {
+                request = HttpRequest(requestLogger, ctx, httpRequest, jsonService, accessLog, path, HashMap.empty())
+                return request.response()
+                    .status(HttpResponseStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaderNames.RETRY_AFTER, TimeUnit.NANOSECONDS.toSeconds(wait + 999_999_999).toString())
+                    .text("rate limit exceeded")
+            }
+            val inFlight = limiter.inFlight(path)
+            if (inFlight != null && !inFlight.tryAcquire()) {
+                request = HttpRequest(requestLogger, ctx, httpRequest, jsonService, accessLog, path, HashMap.empty())
+                return request.response()
+                    .status(HttpResponseStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaderNames.RETRY_AFTER, "1")
+                    .text("too many requests in flight to [" + inFlight.name + "]")
+            }
+            acquired = inFlight
+            val router = when (httpRequest.method()) {
+                HttpMethod.GET -> getHandlers
+                HttpMethod.POST -> postHandlers
+                HttpMethod.PUT -> putHandlers
+                HttpMethod.DELETE -> deleteHandlers
+                HttpMethod.HEAD -> headHandlers
+                HttpMethod.OPTIONS -> optionsHandlers
+                else -> null
+            }
+            val match = routeMatch.get()
+            val handler = router?.match(path, match)
+            val pathParams: Map<String, String> = if (handler != null && match.size() > 0) match.params() else HashMap.empty()
+            request = HttpRequest(requestLogger, ctx, httpRequest, jsonService, accessLog, path, pathParams, acquired)
+            if (handler != null) {
+                return handler.invoke(request)
+            }
+            if (httpRequest.method() == HttpMethod.OPTIONS) {
+                return request.response()
+                    .status(HttpResponseStatus.OK)
+                    .empty()
             }
-
-            val request = HttpRequest(logging, ctx, httpRequest, jsonService, queryParams, path)
             logger.warn("handler not found for {} {}", request.httpMethod, request.uri)
             return request.response()
                 .status(HttpResponseStatus.NOT_FOUND)
                 .text("No handler found for uri [" + request.uri + "] and method [" + request.httpMethod + "]")
 
-
         } catch (e: Throwable) {
-            val request = HttpRequest(logging, ctx, httpRequest, jsonService, queryParams, path)
-            logger.warn("error process request {} {}", request.httpMethod, request.uri)
-            logger.warn("unexpected exception", e)
+            logger.warn("error process request {} {}", httpRequest.method(), httpRequest.uri(), e)
+            var failed = request
             try {
-                request.response()
-                    .status(HttpResponseStatus.INTERNAL_SERVER_ERROR)
+                if (failed == null) {
+                    failed = HttpRequest(requestLogger, ctx, httpRequest, jsonService, accessLog,
+                        HttpRequest.decodePath(httpRequest.uri()), HashMap.empty(), acquired)
+                }
+                failed.response()
+                    .status(if (e is InvalidParamException) HttpResponseStatus.BAD_REQUEST else HttpResponseStatus.INTERNAL_SERVER_ERROR)
                     .error(e)
             } catch (ex: Throwable) {
-                logger.error("error send", e)
+                if (failed == null) {
+                    acquired?.release()
+                }
                 logger.error("Failed to send failure response for uri [" + httpRequest.uri() + "]", ex)
             }
 
@@ -247,6 +258,14 @@ class RestController @Inject constructor(
             return optional(json())
         }
 
+        fun <T : Any> jsonStream(): (RestRequest, Iterator<T>) -> Unit {
+            return { request, values -> request.response().jsonStream(values) }
+        }
+
+        fun <T : Any> optionalJsonStream(): (RestRequest, Option<Iterator<T>>) -> Unit {
+            return optional(jsonStream())
+        }
+
         fun url(): (RestRequest, URL) -> Unit {
             return { request, file -> request.response().file(file) }
         }
@@ -286,12 +305,18 @@ class RestController @Inject constructor(
         fun <T> future(mapper: (RestRequest, T) -> Unit): (RestRequest, Future<T>) -> Unit {
             return { request, future ->
                 future.onComplete({ result ->
-                    if (result.isSuccess) {
-                        mapper.invoke(request, result.get())
-                    } else {
+                    try {
+                        if (result.isSuccess) {
+                            mapper.invoke(request, result.get())
+                        } else {
+                            request.response()
+                                .status(HttpResponseStatus.INTERNAL_SERVER_ERROR)
+                                .error(result.cause)
+                        }
+                    } catch (e: Throwable) {
                         request.response()
                             .status(HttpResponseStatus.INTERNAL_SERVER_ERROR)
-                            .error(result.cause)
+                            .error(e)
                     }
                 })
             }
@@ -324,11 +349,11 @@ class RestController @Inject constructor(
         }
 
         fun toInt(name: String): (RestRequest) -> Int {
-            return { request -> request.param(name).toInt() }
+            return { request -> request.param(name).let { it.toIntOrNull() ?: throw InvalidParamException(name, it) } }
         }
 
         fun toLong(name: String): (RestRequest) -> Long {
-            return { request -> request.param(name).toLong() }
+            return { request -> request.param(name).let { it.toLongOrNull() ?: throw InvalidParamException(name, it) } }
         }
 
         fun toBoolean(name: String): (RestRequest) -> Boolean {
@@ -346,13 +371,61 @@ class RestController @Inject constructor(
 
     inner class FunctionHandlerBuilder(private val handler: (RestRequest) -> Unit) {
 
-        fun handle(method: HttpMethod, path: String) {
-            register(method, path, handler)
+        /**
+         * Response of handler carries weak etag computed before handler is invoked, request with
+         * matching If-None-Match is answered with 304 without invoking handler. Null etag disables it.
+         */
+        fun etag(tag: (RestRequest) -> String?): FunctionHandlerBuilder {
+            return FunctionHandlerBuilder { request ->
+                val etag = tag.invoke(request)
+                when {
+                    etag == null -> handler.invoke(request)
+                    matches(request.header(HttpHeaderNames.IF_NONE_MATCH), etag) ->
+                        request.response().header(HttpHeaderNames.ETAG, etag).notModified()
+                    else -> handler.invoke(ETaggedRequest(request, etag))
+                }
+            }
+        }
+
+        @JvmOverloads
+        fun handle(method: HttpMethod, path: String, policy: ExecutionPolicy = ExecutionPolicy.EVENT_LOOP) {
+            register(method, path, handler(policy))
+        }
+
+        @JvmOverloads
+        fun handle(method1: HttpMethod, method2: HttpMethod, path: String, policy: ExecutionPolicy = ExecutionPolicy.EVENT_LOOP) {
+            register(method1, path, handler(policy))
+            register(method2, path, handler(policy))
+        }
+
+        private fun handler(policy: ExecutionPolicy): (RestRequest) -> Unit {
+            return when (policy) {
+                ExecutionPolicy.EVENT_LOOP, ExecutionPolicy.ASYNC -> handler
+                ExecutionPolicy.WORKER -> { request -> executor.execute(request, handler) }
+            }
         }
+    }
 
-        fun handle(method1: HttpMethod, method2: HttpMethod, path: String) {
-            register(method1, path, handler)
-            register(method2, path, handler)
+    /**
+     * Path or query param is not a valid value of its type, answered with 400.
+     */
+    class InvalidParamException(name: String, value: String) : IllegalArgumentException("invalid param $name: $value")
+
+    private class ETaggedRequest(private val request: RestRequest, private val etag: String) : RestRequest by request {
+        override fun response(): ResponseBuilder = request.response().header(HttpHeaderNames.ETAG, etag)
+    }
+
+    /**
+     * Weak comparison of If-None-Match list with etag.
+     */
+    private fun matches(ifNoneMatch: String?, etag: String): Boolean {
+        if (ifNoneMatch == null) {
+            return false
+        }
+        if (ifNoneMatch.trim() == "*") {
+            return true
         }
+        val opaque = etag.removePrefix("W/")
+        return ifNoneMatch.split(',').any { it.trim().removePrefix("W/") == opaque }
     }
 }
@@ -0,0 +1,77 @@
+package org.mitallast.queue.rest
+
+import com.google.inject.Inject
+import com.typesafe.config.Config
+import io.netty.handler.codec.http.HttpResponseStatus
+import io.netty.util.concurrent.DefaultThreadFactory
+import org.mitallast.queue.common.component.AbstractLifecycleComponent
+import org.mitallast.queue.common.logging.LoggingService
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Bounded worker pool for handlers with [ExecutionPolicy.WORKER], so slow disk or lock does not
+ * stall other connections of event loop. If queue is full, request is rejected with 503.
+ */
+class RestExecutor @Inject constructor(
+    config: Config,
+    logging: LoggingService
+) : AbstractLifecycleComponent(logging) {
+    private val threads = config.getInt("rest.executor.threads")
+    private val executor = ThreadPoolExecutor(
+        threads, threads,
+        0L, TimeUnit.MILLISECONDS,
+        ArrayBlockingQueue(config.getInt("rest.executor.queue-size")),
+        DefaultThreadFactory("rest", true)
+    )
+    private val rejected = AtomicLong()
+
+    /**
+     * Request content is retained until handler is completed, as it's released after dispatch.
+     */
+    fun execute(request: RestRequest, handler: (RestRequest) -> Unit) {
+        request.content.retain()
+        try {
+            executor.execute {
+                try {
+                    handler.invoke(request)
+                } catch (e: Throwable) {
+                    logger.warn("error process request {} {}", request.httpMethod, request.uri, e)
+                    request.response()
+                        .status(if (e is RestController.InvalidParamException) HttpResponseStatus.BAD_REQUEST else HttpResponseStatus.INTERNAL_SERVER_ERROR)
+                        .error(e)
+                } finally {
+                    request.content.release()
+                }
+            }
+        } catch (e: RejectedExecutionException) {
+            request.content.release()
+            rejected.incrementAndGet()
+            logger.warn("rejected request {} {}, queue is full", request.httpMethod, request.uri)
+            request.response()
+                .status(HttpResponseStatus.SERVICE_UNAVAILABLE)
+                .text("Rest executor queue is full")
+        }
+    }
+
+    fun stats(): RestExecutorStats {
+        return RestExecutorStats(
+            threads,
+            executor.activeCount,
+            executor.queue.size,
+            executor.completedTaskCount,
+            rejected.get()
+        )
+    }
+
+    override fun doStart() {}
+
+    override fun doStop() {}
+
+    override fun doClose() {
+        executor.shutdownNow()
+    }
+}
@@ -0,0 +1,9 @@
+package org.mitallast.queue.rest
+
+data class RestExecutorStats(
+    val threads: Int,
+    val active: Int,
+    val queued: Int,
+    val completed: Long,
+    val rejected: Long
+)
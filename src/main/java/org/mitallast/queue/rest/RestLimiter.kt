@@ -0,0 +1,139 @@
+package org.mitallast.queue.rest
+
+import com.google.inject.Inject
+import com.typesafe.config.Config
+import io.netty.channel.ChannelHandlerContext
+import io.netty.handler.codec.http.FullHttpRequest
+import io.netty.util.AsciiString
+import io.vavr.collection.Vector
+import java.net.InetSocketAddress
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Admission control of requests at dispatch: token bucket per client, keyed by api key header or
+ * remote address, and limit of in-flight requests per route group, the first segment of path.
+ * Buckets are kept as theoretical arrival time of the next request in one atomic long, updated by
+ * CAS, and in-flight counters are atomic, so dispatch does not take locks.
+ */
+class RestLimiter @Inject constructor(config: Config) {
+    private val rate = config.getDouble("rest.limits.rate")
+    private val interval = if (rate > 0) (SECOND / rate).toLong() else 0L
+    private val tolerance = interval * config.getInt("rest.limits.burst")
+    private val apiKeyHeader = AsciiString(config.getString("rest.limits.api-key-header"))
+    private val maxClients = config.getInt("rest.limits.max-clients")
+    private val clients = ConcurrentHashMap<Any, AtomicLong>()
+    private val lastSweep = AtomicLong()
+    private val limited = LongAdder()
+
+    private val defaultGroup = InFlight("default", config.getInt("rest.limits.in-flight.default"))
+    private val groups = config.getConfig("rest.limits.in-flight.groups").root().keys
+        .map { name -> InFlight(name, config.getInt("rest.limits.in-flight.groups.\"$name\"")) }
+        .toTypedArray()
+
+    /**
+     * Returns 0 if client has a token, or nanos until it has one.
+     */
+    fun acquire(ctx: ChannelHandlerContext, request: FullHttpRequest): Long {
+        if (interval == 0L) {
+            return 0
+        }
+        val now = System.nanoTime()
+        val key = client(ctx, request)
+        var bucket = clients[key]
+        if (bucket == null) {
+            if (clients.size >= maxClients) {
+                sweep(now)
+            }
+            bucket = clients.computeIfAbsent(key) { AtomicLong(now) }
+        }
+        while (true) {
+            val tat = bucket.get()
+            val next = Math.max(tat, now) + interval
+            val wait = next - now - tolerance
+            if (wait > 0) {
+                limited.increment()
+                return wait
+            }
+            if (bucket.compareAndSet(tat, next)) {
+                return 0
+            }
+        }
+    }
+
+    /**
+     * In-flight limit of route group of path, null if it's not limited.
+     */
+    fun inFlight(path: String): InFlight? {
+        val start = if (path.startsWith('/')) 1 else 0
+        for (group in groups) {
+            val end = start + group.name.length
+            if (path.regionMatches(start, group.name, 0, group.name.length) && (path.length == end || path[end] == '/')) {
+                return group.limit()
+            }
+        }
+        return defaultGroup.limit()
+    }
+
+    fun stats(): RestLimiterStats {
+        return RestLimiterStats(
+            rate,
+            clients.size,
+            limited.sum(),
+            Vector.of(*groups).append(defaultGroup).map { it.stats() }
+        )
+    }
+
+    private fun client(ctx: ChannelHandlerContext, request: FullHttpRequest): Any {
+        val apiKey = request.headers().get(apiKeyHeader)
+        if (apiKey != null) {
+            return apiKey
+        }
+        val address = ctx.channel().remoteAddress()
+        return if (address is InetSocketAddress) address.address ?: address.hostString else address.toString()
+    }
+
+    /**
+     * Removes buckets which are full again, at most once per second.
+     */
+    private fun sweep(now: Long) {
+        val last = lastSweep.get()
+        if (now - last < SECOND || !lastSweep.compareAndSet(last, now)) {
+            return
+        }
+        clients.values.removeIf { it.get() <= now }
+    }
+
+    class InFlight(val name: String, private val max: Int) {
+        private val count = AtomicInteger()
+        private val rejected = LongAdder()
+
+        internal fun limit(): InFlight? = if (max > 0) this else null
+
+        fun tryAcquire(): Boolean {
+            while (true) {
+                val current = count.get()
+                if (current >= max) {
+                    rejected.increment()
+                    return false
+                }
+                if (count.compareAndSet(current, current + 1)) {
+                    return true
+                }
+            }
+        }
+
+        fun release() {
+            count.decrementAndGet()
+        }
+
+        internal fun stats() = InFlightStats(name, max, count.get(), rejected.sum())
+    }
+
+    companion object {
+        private val SECOND = TimeUnit.SECONDS.toNanos(1)
+    }
+}
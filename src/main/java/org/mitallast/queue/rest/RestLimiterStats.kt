@@ -0,0 +1,17 @@
+package org.mitallast.queue.rest
+
+import io.vavr.collection.Vector
+
+data class RestLimiterStats(
+    val rate: Double,
+    val clients: Int,
+    val limited: Long,
+    val inFlight: Vector<InFlightStats>
+)
+
+data class InFlightStats(
+    val group: String,
+    val max: Int,
+    val current: Int,
+    val rejected: Long
+)
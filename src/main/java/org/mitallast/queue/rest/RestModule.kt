@@ -2,17 +2,25 @@ package org.mitallast.queue.rest
 
 import com.google.inject.AbstractModule
 import org.mitallast.queue.rest.action.ResourceHandler
+import org.mitallast.queue.rest.action.RestExecutorAction
+import org.mitallast.queue.rest.action.RestLimiterAction
 import org.mitallast.queue.rest.action.SettingsAction
 import org.mitallast.queue.rest.netty.HttpServer
 import org.mitallast.queue.rest.netty.HttpServerHandler
+import org.mitallast.queue.rest.netty.WebSocketFrameHandler
 
 class RestModule : AbstractModule() {
     override fun configure() {
         bind(HttpServer::class.java).asEagerSingleton()
         bind(HttpServerHandler::class.java).asEagerSingleton()
+        bind(WebSocketFrameHandler::class.java).asEagerSingleton()
         bind(RestController::class.java).asEagerSingleton()
+        bind(RestExecutor::class.java).asEagerSingleton()
+        bind(RestLimiter::class.java).asEagerSingleton()
 
         bind(ResourceHandler::class.java).asEagerSingleton()
         bind(SettingsAction::class.java).asEagerSingleton()
+        bind(RestExecutorAction::class.java).asEagerSingleton()
+        bind(RestLimiterAction::class.java).asEagerSingleton()
     }
 }
@@ -19,5 +19,7 @@ interface RestRequest {
 
     fun hasParam(param: String): Boolean
 
+    fun header(name: CharSequence): String?
+
     fun response(): ResponseBuilder
 }
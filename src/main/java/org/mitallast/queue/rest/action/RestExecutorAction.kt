@@ -0,0 +1,16 @@
+package org.mitallast.queue.rest.action
+
+import com.google.inject.Inject
+import io.netty.handler.codec.http.HttpMethod
+import org.mitallast.queue.rest.RestController
+import org.mitallast.queue.rest.RestExecutor
+
+class RestExecutorAction @Inject constructor(controller: RestController, executor: RestExecutor) {
+
+    init {
+        controller.handle(
+            executor::stats,
+            controller.response().json()
+        ).handle(HttpMethod.GET, "_rest/executor")
+    }
+}
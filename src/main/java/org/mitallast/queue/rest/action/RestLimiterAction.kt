@@ -0,0 +1,16 @@
+package org.mitallast.queue.rest.action
+
+import com.google.inject.Inject
+import io.netty.handler.codec.http.HttpMethod
+import org.mitallast.queue.rest.RestController
+import org.mitallast.queue.rest.RestLimiter
+
+class RestLimiterAction @Inject constructor(controller: RestController, limiter: RestLimiter) {
+
+    init {
+        controller.handle(
+            limiter::stats,
+            controller.response().json()
+        ).handle(HttpMethod.GET, "_rest/limits")
+    }
+}
@@ -0,0 +1,29 @@
+package org.mitallast.queue.rest.netty
+
+import io.netty.handler.codec.http.HttpContentCompressor
+import io.netty.handler.codec.http.HttpHeaderNames
+import io.netty.handler.codec.http.HttpResponse
+import io.netty.handler.codec.http.HttpUtil
+
+/**
+ * Compresses responses by Accept-Encoding. Streamed responses with known length below threshold
+ * are not compressed, as full responses, and event streams are not compressed so events are not
+ * held in deflater buffer.
+ */
+class HttpCompressor(level: Int, private val threshold: Int) : HttpContentCompressor(level, 15, 8, threshold) {
+
+    override fun beginEncode(response: HttpResponse, acceptEncoding: String): Result? {
+        val contentType = response.headers().get(HttpHeaderNames.CONTENT_TYPE)
+        if (contentType != null && contentType.startsWith(TEXT_EVENT_STREAM)) {
+            return null
+        }
+        if (HttpUtil.getContentLength(response, -1L) in 0 until threshold) {
+            return null
+        }
+        return super.beginEncode(response, acceptEncoding)
+    }
+
+    companion object {
+        private const val TEXT_EVENT_STREAM = "text/event-stream"
+    }
+}
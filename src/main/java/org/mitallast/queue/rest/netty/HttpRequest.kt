@@ -4,43 +4,76 @@ import com.google.common.base.Preconditions
 import io.netty.buffer.ByteBuf
 import io.netty.buffer.ByteBufOutputStream
 import io.netty.buffer.Unpooled
+import io.netty.channel.Channel
+import io.netty.channel.ChannelFuture
 import io.netty.channel.ChannelFutureListener
 import io.netty.channel.ChannelHandlerContext
+import io.netty.channel.ChannelPromise
 import io.netty.handler.codec.http.*
 import io.netty.handler.codec.http.HttpResponseStatus.OK
 import io.netty.handler.codec.http.HttpVersion.HTTP_1_1
+import io.netty.handler.stream.ChunkedInput
 import io.netty.handler.stream.ChunkedNioFile
 import io.netty.handler.stream.ChunkedStream
+import io.netty.handler.stream.ChunkedWriteHandler
 import io.netty.util.AsciiString
 import io.netty.util.CharsetUtil
 import io.vavr.collection.HashMap
 import io.vavr.collection.Map
+import org.apache.logging.log4j.Logger
 import org.joda.time.format.DateTimeFormat
 import org.mitallast.queue.common.json.JsonService
-import org.mitallast.queue.common.logging.LoggingService
+import org.mitallast.queue.rest.AccessLog
+import org.mitallast.queue.rest.JsonLines
 import org.mitallast.queue.rest.ResponseBuilder
+import org.mitallast.queue.rest.RestLimiter
 import org.mitallast.queue.rest.RestRequest
 import java.io.*
 import java.net.URI
 import java.net.URISyntaxException
 import java.net.URL
 import java.util.*
+import java.util.concurrent.atomic.AtomicReference
 import java.util.zip.ZipFile
 import javax.activation.MimetypesFileTypeMap
 
+/**
+ * Request is created once per dispatch, query string is decoded on first access to params.
+ * In-flight slot of route group is released when full response is written, when the last chunk
+ * of streamed response is written or its write fails, and when event stream channel is closed.
+ */
 class HttpRequest(
-    logging: LoggingService,
+    private val logger: Logger,
     private val ctx: ChannelHandlerContext,
     private val httpRequest: FullHttpRequest,
     private val jsonService: JsonService,
-    override val paramMap: Map<String, String>,
-    override val queryPath: String
+    private val accessLog: AccessLog,
+    override val queryPath: String,
+    private val pathParams: Map<String, String>,
+    inFlight: RestLimiter.InFlight? = null
 ) : RestRequest {
-    private val logger = logging.logger()
+    private val inFlight = AtomicReference<RestLimiter.InFlight?>(inFlight)
+    private val start = accessLog.start()
+    private var params: Map<String, String>? = null
 
-    override val httpMethod: HttpMethod = httpRequest.method()
-    override val uri: String = httpRequest.uri()
-    override val content: ByteBuf = httpRequest.content()
+    override val httpMethod: HttpMethod
+        get() = httpRequest.method()
+
+    override val uri: String
+        get() = httpRequest.uri()
+
+    override val content: ByteBuf
+        get() = httpRequest.content()
+
+    override val paramMap: Map<String, String>
+        get() {
+            var params = this.params
+            if (params == null) {
+                params = decodeQuery(httpRequest.uri(), pathParams)
+                this.params = params
+            }
+            return params
+        }
 
     override fun param(param: String): String {
         return paramMap[param].getOrElseThrow { IllegalArgumentException("Param {$param} not found") }
@@ -50,14 +83,46 @@ class HttpRequest(
         return paramMap.containsKey(param)
     }
 
+    override fun header(name: CharSequence): String? {
+        return httpRequest.headers().get(name)
+    }
+
     override fun response(): ResponseBuilder {
         return HttpResponseBuilder()
     }
 
+    private fun release() {
+        inFlight.getAndSet(null)?.release()
+    }
+
+    private fun responded(status: HttpResponseStatus) {
+        if (start != 0L) {
+            accessLog.log(ctx.channel(), httpMethod, uri, status.code(), start)
+        }
+    }
+
     private inner class HttpResponseBuilder : ResponseBuilder {
         private var status = HttpResponseStatus.OK
         private val headers = DefaultHttpHeaders(false)
 
+        /**
+         * Response written at event loop is flushed at read complete, response written by worker
+         * or future callback is flushed at once.
+         */
+        private fun write(msg: Any, promise: ChannelPromise = ctx.newPromise()): ChannelFuture {
+            if (msg is HttpResponse) {
+                responded(msg.status())
+            }
+            if (msg is FullHttpResponse) {
+                release()
+            }
+            return if (ctx.executor().inEventLoop()) {
+                ctx.write(msg, promise)
+            } else {
+                ctx.writeAndFlush(msg, promise)
+            }
+        }
+
         override fun status(status: Int): ResponseBuilder {
             this.status = HttpResponseStatus.valueOf(status)
             return this
@@ -118,6 +183,59 @@ class HttpRequest(
             data(buf)
         }
 
+        override fun jsonStream(values: Iterator<Any>) {
+            Preconditions.checkNotNull(values)
+            header(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON)
+            chunked(JsonChunkedInput(jsonService, values))
+        }
+
+        override fun jsonStream(fields: Map<String, Any>, name: String, values: Iterator<Any>) {
+            Preconditions.checkNotNull(values)
+            header(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON)
+            chunked(JsonChunkedInput(jsonService, fields, name, values))
+        }
+
+        override fun jsonLines(): JsonLines {
+            val chunkedWriter = ctx.pipeline().get(ChunkedWriteHandler::class.java)
+            val input = JsonLinesChunkedInput(jsonService, { chunkedWriter.resumeTransfer() })
+            header(HttpHeaderNames.CONTENT_TYPE, APPLICATION_NDJSON)
+            chunked(input)
+            return input
+        }
+
+        private fun chunked(input: ChunkedInput<ByteBuf>) {
+            val response = DefaultHttpResponse(HTTP_1_1, status, headers)
+            HttpUtil.setTransferEncodingChunked(response, true)
+            if (HttpUtil.isKeepAlive(httpRequest)) {
+                HttpUtil.setKeepAlive(response, true)
+            }
+            write(response, ctx.voidPromise())
+            body(HttpChunkedInput(input))
+        }
+
+        /**
+         * Writes body of streamed response after its head. Write future is completed by the last chunk,
+         * or failed by close of channel, so in-flight slot is held while body is produced.
+         */
+        private fun body(input: HttpChunkedInput) {
+            val future = write(input)
+            future.addListener { release() }
+            if (!HttpUtil.isKeepAlive(httpRequest)) {
+                future.addListener(ChannelFutureListener.CLOSE)
+            }
+        }
+
+        override fun eventStream(): Channel {
+            header(HttpHeaderNames.CONTENT_TYPE, TEXT_EVENT_STREAM)
+            header(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE)
+            val response = DefaultHttpResponse(HTTP_1_1, status, headers)
+            HttpUtil.setTransferEncodingChunked(response, true)
+            responded(status)
+            ctx.channel().closeFuture().addListener { release() }
+            ctx.writeAndFlush(response, ctx.voidPromise())
+            return ctx.channel()
+        }
+
         override fun text(content: String) {
             Preconditions.checkNotNull(content)
             header(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.TEXT_PLAIN)
@@ -143,9 +261,9 @@ class HttpRequest(
                 HttpUtil.setKeepAlive(response, true)
             }
             if (!HttpUtil.isKeepAlive(httpRequest)) {
-                ctx.write(response).addListener(ChannelFutureListener.CLOSE)
+                write(response).addListener(ChannelFutureListener.CLOSE)
             } else {
-                ctx.write(response, ctx.voidPromise())
+                write(response, ctx.voidPromise())
             }
         }
 
@@ -168,7 +286,7 @@ class HttpRequest(
 
                     val lastModified = entry.time
                     if (isModifiedSince(lastModified)) {
-                        sendNotModified()
+                        notModified()
                     } else {
                         val stream = jar.getInputStream(entry)
                         val contentLength = entry.size
@@ -191,7 +309,7 @@ class HttpRequest(
 
                     if (isModifiedSince(lastModified)) {
                         stream.close()
-                        sendNotModified()
+                        notModified()
                     } else {
                         file(url.path, contentLength, lastModified, stream)
                     }
@@ -203,7 +321,7 @@ class HttpRequest(
         }
 
         private fun file(path: String, contentLength: Long, lastModified: Long, stream: InputStream) {
-            logger.info("path: {}", path)
+            logger.debug("path: {}", path)
 
             mimetype(path)
 
@@ -215,17 +333,14 @@ class HttpRequest(
             if (HttpUtil.isKeepAlive(httpRequest)) {
                 HttpUtil.setKeepAlive(response, true)
             }
-            if (!HttpUtil.isKeepAlive(httpRequest)) {
-                ctx.write(HttpChunkedInput(ChunkedStream(stream, 8192))).addListener(ChannelFutureListener.CLOSE)
-            } else {
-                ctx.write(HttpChunkedInput(ChunkedStream(stream, 8192)), ctx.voidPromise())
-            }
+            write(response, ctx.voidPromise())
+            body(HttpChunkedInput(ChunkedStream(stream, 8192)))
         }
 
         override fun file(file: File) {
             val lastModified = file.lastModified()
             if (isModifiedSince(lastModified)) {
-                sendNotModified()
+                notModified()
             } else {
                 mimetype(file.path)
                 lastModified(lastModified)
@@ -235,14 +350,10 @@ class HttpRequest(
                 if (HttpUtil.isKeepAlive(httpRequest)) {
                     HttpUtil.setKeepAlive(response, true)
                 }
-                ctx.write(response)
+                write(response)
 
                 try {
-                    if (!HttpUtil.isKeepAlive(httpRequest)) {
-                        ctx.write(HttpChunkedInput(ChunkedNioFile(file))).addListener(ChannelFutureListener.CLOSE)
-                    } else {
-                        ctx.write(HttpChunkedInput(ChunkedNioFile(file)), ctx.voidPromise())
-                    }
+                    body(HttpChunkedInput(ChunkedNioFile(file)))
                 } catch (e: IOException) {
                     throw RuntimeException(e)
                 }
@@ -275,9 +386,9 @@ class HttpRequest(
                 HttpUtil.setKeepAlive(response, true)
             }
             if (!HttpUtil.isKeepAlive(httpRequest)) {
-                ctx.write(response).addListener(ChannelFutureListener.CLOSE)
+                write(response).addListener(ChannelFutureListener.CLOSE)
             } else {
-                ctx.write(response, ctx.voidPromise())
+                write(response, ctx.voidPromise())
             }
         }
 
@@ -304,17 +415,23 @@ class HttpRequest(
             return false
         }
 
-        private fun sendNotModified() {
-            val response = DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.NOT_MODIFIED)
-            response.headers().set(HttpHeaderNames.DATE, dateFormat.print(System.currentTimeMillis()))
+        override fun notModified() {
+            headers.set(HttpHeaderNames.DATE, dateFormat.print(System.currentTimeMillis()))
+            val response = DefaultFullHttpResponse(
+                HTTP_1_1,
+                HttpResponseStatus.NOT_MODIFIED,
+                Unpooled.EMPTY_BUFFER,
+                headers,
+                EmptyHttpHeaders.INSTANCE
+            )
 
             if (HttpUtil.isKeepAlive(httpRequest)) {
                 HttpUtil.setKeepAlive(response, true)
             }
             if (!HttpUtil.isKeepAlive(httpRequest)) {
-                ctx.write(response).addListener(ChannelFutureListener.CLOSE)
+                write(response).addListener(ChannelFutureListener.CLOSE)
             } else {
-                ctx.write(response, ctx.voidPromise())
+                write(response, ctx.voidPromise())
             }
         }
     }
@@ -325,31 +442,37 @@ class HttpRequest(
         private val APPLICATION_JAVASCRIPT = AsciiString("application/javascript")
         private val TEXT_CSS = AsciiString("text/css")
         private val TEXT_HTML = AsciiString("text/html")
+        private val TEXT_EVENT_STREAM = AsciiString("text/event-stream")
+        private val APPLICATION_NDJSON = AsciiString("application/x-ndjson")
 
         private val dateFormat = DateTimeFormat
             .forPattern("EEE, dd MMM yyyy HH:mm:ss Z")
             .withLocale(Locale.US)
             .withZoneUTC()
 
-        fun decodeUri(uri: String): Pair<String, Map<String, String>> {
+        fun decodePath(uri: String): String {
             val pathEndPos = uri.indexOf('?')
-            return if (pathEndPos < 0) {
-                Pair(uri, HashMap.empty())
-            } else {
-                val decoder = QueryStringDecoder(uri)
-                val queryPath = uri.substring(0, pathEndPos)
-                val parameters = decoder.parameters()
-                val paramMap = if (parameters.isEmpty()) {
-                    HashMap.empty<String, String>()
-                } else {
-                    var map = HashMap.empty<String, String>()
-                    parameters.entries.stream()
-                        .filter { entry -> entry.value != null && !entry.value.isEmpty() }
-                        .forEach { entry -> map = map.put(entry.key, entry.value[0]) }
-                    map
+            return if (pathEndPos < 0) uri else uri.substring(0, pathEndPos)
+        }
+
+        /**
+         * Query params of uri with path params put over them.
+         */
+        fun decodeQuery(uri: String, pathParams: Map<String, String>): Map<String, String> {
+            if (uri.indexOf('?') < 0) {
+                return pathParams
+            }
+            val parameters = QueryStringDecoder(uri).parameters()
+            if (parameters.isEmpty()) {
+                return pathParams
+            }
+            var map = HashMap.empty<String, String>()
+            for ((key, values) in parameters) {
+                if (values != null && values.isNotEmpty()) {
+                    map = map.put(key, values[0])
                 }
-                Pair(queryPath, paramMap)
             }
+            return map.merge(pathParams) { _, path -> path }
         }
     }
 }
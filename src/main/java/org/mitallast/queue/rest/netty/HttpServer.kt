@@ -4,9 +4,16 @@ import com.google.inject.Inject
 import com.typesafe.config.Config
 import io.netty.channel.ChannelInitializer
 import io.netty.channel.socket.SocketChannel
+import io.netty.handler.codec.http2.Http2SecurityUtil
+import io.netty.handler.ssl.ApplicationProtocolConfig
+import io.netty.handler.ssl.ApplicationProtocolNames
+import io.netty.handler.ssl.SslContext
+import io.netty.handler.ssl.SslContextBuilder
+import io.netty.handler.ssl.SupportedCipherSuiteFilter
 import org.mitallast.queue.common.logging.LoggingService
 import org.mitallast.queue.common.netty.NettyProvider
 import org.mitallast.queue.common.netty.NettyServer
+import java.io.File
 
 class HttpServer @Inject constructor(
     config: Config,
@@ -16,7 +23,37 @@ class HttpServer @Inject constructor(
     private val webSocketFrameHandler: WebSocketFrameHandler
 ) : NettyServer(config, logging, provider, config.getString("rest.host"), config.getInt("rest.port")) {
 
+    private val http2 = config.getBoolean("rest.http2.enabled")
+    private val maxConcurrentStreams = config.getLong("rest.http2.max-concurrent-streams")
+    private val compressionLevel = config.getInt("rest.compression.level")
+    private val compressionThreshold = config.getBytes("rest.compression.threshold").toInt()
+    private val sslContext: SslContext? = if (config.getBoolean("rest.ssl.enabled")) {
+        val protocols = if (http2) {
+            arrayOf(ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1)
+        } else {
+            arrayOf(ApplicationProtocolNames.HTTP_1_1)
+        }
+        SslContextBuilder.forServer(File(config.getString("rest.ssl.cert")), File(config.getString("rest.ssl.key")))
+            .ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+            .applicationProtocolConfig(ApplicationProtocolConfig(
+                ApplicationProtocolConfig.Protocol.ALPN,
+                ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                *protocols))
+            .build()
+    } else {
+        null
+    }
+
     override fun channelInitializer(): ChannelInitializer<SocketChannel> {
-        return HttpServerInitializer(serverHandler, webSocketFrameHandler)
+        return HttpServerInitializer(
+            serverHandler,
+            webSocketFrameHandler,
+            http2,
+            maxConcurrentStreams,
+            sslContext,
+            compressionLevel,
+            compressionThreshold
+        )
     }
 }
@@ -27,16 +27,6 @@ class HttpServerHandler @Inject constructor(private val restController: RestCont
         return true
     }
 
-    override fun channelRegistered(ctx: ChannelHandlerContext) {
-        logger.info("channel registered: {}", ctx.channel())
-        super.channelActive(ctx)
-    }
-
-    override fun channelInactive(ctx: ChannelHandlerContext) {
-        logger.info("channel inactive: {}", ctx.channel())
-        super.channelInactive(ctx)
-    }
-
     override fun channelRead0(ctx: ChannelHandlerContext, httpRequest: FullHttpRequest) {
         if (!httpRequest.decoderResult().isSuccess) {
             logger.warn("bad request, decoder failure", httpRequest.decoderResult().cause())
@@ -63,6 +53,5 @@ class HttpServerHandler @Inject constructor(private val restController: RestCont
         response.headers().set(CONTENT_TYPE, "text/plain; charset=UTF-8")
         // Close the connection as soon as the error message is sent.
         ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE)
-        println(status.toString())
     }
 }
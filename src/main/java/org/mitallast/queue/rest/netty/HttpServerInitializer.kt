@@ -1,26 +1,142 @@
 package org.mitallast.queue.rest.netty
 
+import io.netty.channel.Channel
+import io.netty.channel.ChannelHandlerContext
 import io.netty.channel.ChannelInitializer
+import io.netty.channel.ChannelPipeline
+import io.netty.channel.SimpleChannelInboundHandler
 import io.netty.channel.socket.SocketChannel
+import io.netty.handler.codec.http.HttpMessage
 import io.netty.handler.codec.http.HttpObjectAggregator
 import io.netty.handler.codec.http.HttpServerCodec
+import io.netty.handler.codec.http.HttpServerUpgradeHandler
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler
 import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketServerCompressionHandler
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler
+import io.netty.handler.codec.http2.Http2CodecUtil
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder
+import io.netty.handler.codec.http2.Http2MultiplexHandler
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec
+import io.netty.handler.codec.http2.Http2Settings
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec
+import io.netty.handler.ssl.ApplicationProtocolNames
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler
+import io.netty.handler.ssl.SslContext
 import io.netty.handler.stream.ChunkedWriteHandler
+import io.netty.util.AsciiString
+import io.netty.util.ReferenceCountUtil
 
+/**
+ * HTTP/1.1 with websocket, and HTTP/2 if enabled: negotiated by ALPN over TLS, or cleartext
+ * by upgrade or prior knowledge. Every HTTP/2 stream is a child channel which converts frames
+ * to full HTTP/1 requests, so the same handler serves both protocols. Responses are compressed
+ * if enabled, compression level 0 disables it.
+ */
 class HttpServerInitializer(
     private val httpHandler: HttpServerHandler,
-    private val webSocketFrameHandler: WebSocketFrameHandler
+    private val webSocketFrameHandler: WebSocketFrameHandler,
+    private val http2: Boolean,
+    private val maxConcurrentStreams: Long,
+    private val sslContext: SslContext?,
+    private val compressionLevel: Int,
+    private val compressionThreshold: Int
 ) : ChannelInitializer<SocketChannel>() {
 
+    private val streamInitializer = object : ChannelInitializer<Channel>() {
+        override fun initChannel(ch: Channel) {
+            val pipeline = ch.pipeline()
+            pipeline.addLast(Http2StreamFrameToHttpObjectCodec(true))
+            pipeline.addLast(HttpObjectAggregator(MAX_CONTENT_LENGTH))
+            addCompressor(pipeline)
+            pipeline.addLast(ChunkedWriteHandler())
+            pipeline.addLast(httpHandler)
+        }
+    }
+
     override fun initChannel(ch: SocketChannel) {
         val pipeline = ch.pipeline()
-        pipeline.addLast(HttpServerCodec(4096, 8192, 8192, false))
-        pipeline.addLast(HttpObjectAggregator(65536))
+        when {
+            sslContext != null -> {
+                pipeline.addLast(sslContext.newHandler(ch.alloc()))
+                pipeline.addLast(object : ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
+                    override fun configurePipeline(ctx: ChannelHandlerContext, protocol: String) {
+                        if (protocol == ApplicationProtocolNames.HTTP_2) {
+                            configureHttp2(ctx.pipeline())
+                        } else {
+                            ctx.pipeline().addLast(HttpServerCodec(4096, 8192, 8192, false))
+                            configureHttp1(ctx.pipeline())
+                        }
+                    }
+                })
+            }
+            http2 -> configureCleartext(pipeline)
+            else -> {
+                pipeline.addLast(HttpServerCodec(4096, 8192, 8192, false))
+                configureHttp1(pipeline)
+            }
+        }
+    }
+
+    private fun configureHttp1(pipeline: ChannelPipeline) {
+        pipeline.addLast(HttpObjectAggregator(MAX_CONTENT_LENGTH))
+        addCompressor(pipeline)
         pipeline.addLast(ChunkedWriteHandler())
         pipeline.addLast(WebSocketServerCompressionHandler())
         pipeline.addLast(WebSocketServerProtocolHandler("/ws/", null, true))
         pipeline.addLast(webSocketFrameHandler)
         pipeline.addLast(httpHandler)
     }
-}
\ No newline at end of file
+
+    /**
+     * Compressor is before chunked writer to compress chunks, handshake of websocket removes it.
+     */
+    private fun addCompressor(pipeline: ChannelPipeline) {
+        if (compressionLevel > 0) {
+            pipeline.addLast(HttpCompressor(compressionLevel, compressionThreshold))
+        }
+    }
+
+    private fun configureHttp2(pipeline: ChannelPipeline) {
+        pipeline.addLast(frameCodec())
+        pipeline.addLast(Http2MultiplexHandler(streamInitializer))
+    }
+
+    private fun frameCodec() = Http2FrameCodecBuilder.forServer()
+        .initialSettings(Http2Settings.defaultSettings().maxConcurrentStreams(maxConcurrentStreams))
+        .build()
+
+    /**
+     * Connection starting with HTTP/2 preface is served as HTTP/2, HTTP/1 request with h2c upgrade
+     * is upgraded, other requests are served as HTTP/1.1.
+     */
+    private fun configureCleartext(pipeline: ChannelPipeline) {
+        val sourceCodec = HttpServerCodec(4096, 8192, 8192, false)
+        val upgradeHandler = HttpServerUpgradeHandler(sourceCodec, HttpServerUpgradeHandler.UpgradeCodecFactory { protocol ->
+            if (AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol)) {
+                Http2ServerUpgradeCodec(frameCodec(), Http2MultiplexHandler(streamInitializer))
+            } else {
+                null
+            }
+        }, MAX_CONTENT_LENGTH)
+        val priorKnowledge = object : ChannelInitializer<Channel>() {
+            override fun initChannel(ch: Channel) {
+                ch.pipeline().remove(HTTP1_FALLBACK)
+                configureHttp2(ch.pipeline())
+            }
+        }
+        pipeline.addLast(CleartextHttp2ServerUpgradeHandler(sourceCodec, upgradeHandler, priorKnowledge))
+        pipeline.addLast(HTTP1_FALLBACK, object : SimpleChannelInboundHandler<HttpMessage>() {
+            override fun channelRead0(ctx: ChannelHandlerContext, msg: HttpMessage) {
+                // not upgraded, add HTTP/1.1 handlers after source codec and pass request to them
+                configureHttp1(ctx.pipeline())
+                ctx.fireChannelRead(ReferenceCountUtil.retain(msg))
+                ctx.pipeline().remove(this)
+            }
+        })
+    }
+
+    companion object {
+        private const val MAX_CONTENT_LENGTH = 65536
+        private const val HTTP1_FALLBACK = "http1-fallback"
+    }
+}
@@ -0,0 +1,99 @@
+package org.mitallast.queue.rest.netty
+
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.ByteBufAllocator
+import io.netty.channel.ChannelHandlerContext
+import io.netty.handler.stream.ChunkedInput
+import io.vavr.collection.Map
+import org.mitallast.queue.common.json.JsonService
+import java.io.OutputStream
+
+/**
+ * Json array of values, or object of fields with array of values as the last field, serialized
+ * chunk by chunk. Chunk is read by [io.netty.handler.stream.ChunkedWriteHandler] only while
+ * channel is writable, so memory does not depend on count of values.
+ */
+@Suppress("OverridingDeprecatedMember")
+class JsonChunkedInput(
+    private val jsonService: JsonService,
+    private val fields: Map<String, Any>?,
+    private val name: String?,
+    private val values: Iterator<Any>,
+    private val chunkSize: Int = 8192
+) : ChunkedInput<ByteBuf> {
+    private val output = ChunkOutputStream()
+    private val generator = jsonService.generator(output)
+    private var started = false
+    private var ended = false
+    private var progress = 0L
+
+    constructor(jsonService: JsonService, values: Iterator<Any>) : this(jsonService, null, null, values)
+
+    override fun isEndOfInput(): Boolean = ended
+
+    override fun close() {
+        generator.close()
+    }
+
+    override fun readChunk(ctx: ChannelHandlerContext): ByteBuf? = readChunk(ctx.alloc())
+
+    override fun readChunk(allocator: ByteBufAllocator): ByteBuf? {
+        if (ended) {
+            return null
+        }
+        val buf = allocator.buffer(chunkSize)
+        output.buf = buf
+        try {
+            if (!started) {
+                started = true
+                start()
+            }
+            while (buf.readableBytes() < chunkSize && values.hasNext()) {
+                jsonService.serialize(generator, values.next())
+            }
+            if (!values.hasNext()) {
+                ended = true
+                generator.writeEndArray()
+                if (fields != null) {
+                    generator.writeEndObject()
+                }
+            }
+            generator.flush()
+        } catch (e: Throwable) {
+            buf.release()
+            throw e
+        } finally {
+            output.buf = null
+        }
+        progress += buf.readableBytes()
+        return buf
+    }
+
+    private fun start() {
+        if (fields != null) {
+            generator.writeStartObject()
+            for (field in fields) {
+                generator.writeFieldName(field._1)
+                jsonService.serialize(generator, field._2)
+            }
+            generator.writeFieldName(name)
+        }
+        generator.writeStartArray()
+    }
+
+    override fun length(): Long = -1
+
+    override fun progress(): Long = progress
+
+    private class ChunkOutputStream : OutputStream() {
+        var buf: ByteBuf? = null
+
+        override fun write(b: Int) {
+            buf!!.writeByte(b)
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            buf!!.writeBytes(b, off, len)
+        }
+    }
+}
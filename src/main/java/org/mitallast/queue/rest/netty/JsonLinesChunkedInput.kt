@@ -0,0 +1,67 @@
+package org.mitallast.queue.rest.netty
+
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.ByteBufAllocator
+import io.netty.channel.ChannelHandlerContext
+import io.netty.handler.stream.ChunkedInput
+import org.mitallast.queue.common.json.JsonService
+import org.mitallast.queue.rest.JsonLines
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Values written by producers are queued and serialized by [io.netty.handler.stream.ChunkedWriteHandler]
+ * while channel is writable. If queue is empty, chunk is not read and transfer is suspended until
+ * resume is called by the next write or end.
+ */
+@Suppress("OverridingDeprecatedMember")
+class JsonLinesChunkedInput(
+    private val jsonService: JsonService,
+    private val resume: () -> Unit,
+    private val chunkSize: Int = 8192
+) : ChunkedInput<ByteBuf>, JsonLines {
+    private val queue = ConcurrentLinkedQueue<Any>()
+    @Volatile private var ended = false
+    private var progress = 0L
+
+    override fun write(values: Iterable<Any>) {
+        queue.addAll(values)
+        resume.invoke()
+    }
+
+    override fun end() {
+        ended = true
+        resume.invoke()
+    }
+
+    // values are queued before end, so queue is drained if it's empty after end
+    override fun isEndOfInput(): Boolean = ended && queue.isEmpty()
+
+    override fun close() {
+        queue.clear()
+    }
+
+    override fun readChunk(ctx: ChannelHandlerContext): ByteBuf? = readChunk(ctx.alloc())
+
+    override fun readChunk(allocator: ByteBufAllocator): ByteBuf? {
+        if (queue.isEmpty()) {
+            return null
+        }
+        val buf = allocator.buffer(chunkSize)
+        try {
+            while (buf.readableBytes() < chunkSize) {
+                val value = queue.poll() ?: break
+                jsonService.serialize(buf, value)
+                buf.writeByte('\n'.toInt())
+            }
+        } catch (e: Throwable) {
+            buf.release()
+            throw e
+        }
+        progress += buf.readableBytes()
+        return buf
+    }
+
+    override fun length(): Long = -1
+
+    override fun progress(): Long = progress
+}
@@ -1,35 +1,61 @@
 package org.mitallast.queue.rest.netty
 
+import com.fasterxml.jackson.databind.JsonNode
+import com.google.inject.Inject
 import io.netty.buffer.Unpooled
 import io.netty.channel.*
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler
 import io.netty.handler.codec.http.websocketx.WebSocketFrame
 import io.vavr.collection.HashMap
 import io.vavr.collection.Map
+import org.mitallast.queue.common.json.JsonService
 import org.mitallast.queue.common.logging.LoggingService
 
+/**
+ * Binary frames are broadcast to other sockets. Text frames are json requests
+ * {"action": "subscribe", ...}, dispatched to handler registered for action.
+ */
 @ChannelHandler.Sharable
-class WebSocketFrameHandler(logging: LoggingService) : SimpleChannelInboundHandler<WebSocketFrame>() {
+class WebSocketFrameHandler @Inject constructor(
+    logging: LoggingService,
+    private val jsonService: JsonService
+) : SimpleChannelInboundHandler<WebSocketFrame>() {
     private val logger = logging.logger()
 
     @Volatile
     private var channels : Map<ChannelId, Channel> = HashMap.empty()
+    @Volatile
+    private var actions : Map<String, (Channel, JsonNode) -> Unit> = HashMap.empty()
+
+    @Synchronized
+    fun register(action: String, handler: (Channel, JsonNode) -> Unit) {
+        logger.debug("register action: {}", action)
+        actions = actions.put(action, handler)
+    }
 
+    /**
+     * Only channels upgraded to websocket receive broadcast, plain HTTP connections pass by.
+     */
     @Throws(Exception::class)
-    override fun channelRegistered(ctx: ChannelHandlerContext) {
-        logger.info("channel registered: {}", ctx.channel())
-        synchronized(this) {
-            channels = channels.put(ctx.channel().id(), ctx.channel())
+    override fun userEventTriggered(ctx: ChannelHandlerContext, evt: Any) {
+        if (evt is WebSocketServerProtocolHandler.HandshakeComplete) {
+            logger.debug("websocket connected: {}", ctx.channel())
+            synchronized(this) {
+                channels = channels.put(ctx.channel().id(), ctx.channel())
+            }
         }
-        super.channelActive(ctx)
+        super.userEventTriggered(ctx, evt)
     }
 
     @Throws(Exception::class)
     override fun channelInactive(ctx: ChannelHandlerContext) {
-        logger.info("channel inactive: {}", ctx.channel())
-        synchronized(this) {
-            channels = channels.remove(ctx.channel().id())
+        if (channels.containsKey(ctx.channel().id())) {
+            logger.debug("websocket disconnected: {}", ctx.channel())
+            synchronized(this) {
+                channels = channels.remove(ctx.channel().id())
+            }
         }
         super.channelInactive(ctx)
     }
@@ -39,7 +65,20 @@ class WebSocketFrameHandler(logging: LoggingService) : SimpleChannelInboundHandl
         when (frame) {
             is TextWebSocketFrame -> {
                 val json = frame.text()
-                logger.info("received {}", ctx.channel(), json)
+                logger.debug("received {} {}", ctx.channel(), json)
+                try {
+                    val request = JsonService.treeMapper.readTree(json)
+                    val action = request.path("action").asText()
+                    val handler = actions.get(action)
+                    if (handler.isDefined) {
+                        handler.get().invoke(ctx.channel(), request)
+                    } else {
+                        error(ctx, "unknown action [$action]")
+                    }
+                } catch (e: Exception) {
+                    logger.warn("error handle {}", json, e)
+                    error(ctx, e.message ?: e.javaClass.simpleName)
+                }
             }
             is BinaryWebSocketFrame -> {
                 val currentId = ctx.channel().id()
@@ -55,4 +94,8 @@ class WebSocketFrameHandler(logging: LoggingService) : SimpleChannelInboundHandl
             else -> throw UnsupportedOperationException("unsupported frame type: " + frame.javaClass.simpleName)
         }
     }
-}
\ No newline at end of file
+
+    private fun error(ctx: ChannelHandlerContext, message: String) {
+        ctx.writeAndFlush(TextWebSocketFrame(jsonService.serialize(HashMap.of("error", message))), ctx.voidPromise())
+    }
+}
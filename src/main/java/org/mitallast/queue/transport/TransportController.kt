@@ -3,6 +3,7 @@ package org.mitallast.queue.transport
 import com.google.inject.Inject
 import io.vavr.collection.HashMap
 import io.vavr.collection.Map
+import io.vavr.concurrent.Future
 import org.mitallast.queue.common.codec.Message
 import org.mitallast.queue.common.logging.LoggingService
 
@@ -11,6 +12,8 @@ class TransportController @Inject constructor(logging: LoggingService) {
     private val logger = logging.logger()
     @Volatile
     private var handlerMap: Map<Class<*>, (Message) -> Unit> = HashMap.empty()
+    @Volatile
+    private var requestHandlerMap: Map<Class<*>, (Message) -> Future<out Message>> = HashMap.empty()
 
     @Synchronized
     fun <T : Message> registerMessageHandler(
@@ -28,6 +31,14 @@ class TransportController @Inject constructor(logging: LoggingService) {
         handlerMap = handlerMap.put(requestClass, handler)
     }
 
+    @Synchronized
+    fun <T : Message> registerRequestHandler(
+        requestClass: Class<T>,
+        handler: (T) -> Future<out Message>
+    ) {
+        requestHandlerMap = requestHandlerMap.put(requestClass, handler as ((Message) -> Future<out Message>))
+    }
+
     fun <T : Message> dispatch(message: T) {
         val handler = handlerMap.getOrElse(message.javaClass, null)
         if (handler != null) {
@@ -36,4 +47,17 @@ class TransportController @Inject constructor(logging: LoggingService) {
             logger.error("handler not found for {}", message.javaClass)
         }
     }
+
+    /**
+     * Dispatches request of client, result is sent back as response.
+     */
+    fun <T : Message> dispatchRequest(message: T): Future<out Message> {
+        val handler = requestHandlerMap.getOrElse(message.javaClass, null)
+        return if (handler != null) {
+            handler.invoke(message)
+        } else {
+            logger.warn("request handler not found for {}", message.javaClass)
+            Future.failed(TransportException("request handler not found for ${message.javaClass.simpleName}"))
+        }
+    }
 }
@@ -0,0 +1,14 @@
+package org.mitallast.queue.transport
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+data class TransportError(val error: String) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::TransportError,
+            TransportError::error,
+            Codec.stringCodec()
+        )
+    }
+}
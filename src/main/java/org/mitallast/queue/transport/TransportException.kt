@@ -0,0 +1,3 @@
+package org.mitallast.queue.transport
+
+class TransportException(message: String) : RuntimeException(message)
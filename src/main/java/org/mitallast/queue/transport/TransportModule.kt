@@ -1,6 +1,7 @@
 package org.mitallast.queue.transport
 
 import com.google.inject.AbstractModule
+import org.mitallast.queue.common.codec.Codec
 import org.mitallast.queue.transport.netty.NettyTransportServer
 import org.mitallast.queue.transport.netty.NettyTransportService
 
@@ -15,4 +16,12 @@ class TransportModule : AbstractModule() {
         bind(TransportServer::class.java).to(NettyTransportServer::class.java)
         bind(TransportService::class.java).to(NettyTransportService::class.java)
     }
+
+    companion object {
+        init {
+            Codec.register(20, TransportRequest::class.java, TransportRequest.codec)
+            Codec.register(21, TransportResponse::class.java, TransportResponse.codec)
+            Codec.register(22, TransportError::class.java, TransportError.codec)
+        }
+    }
 }
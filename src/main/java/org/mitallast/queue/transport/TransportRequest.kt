@@ -0,0 +1,21 @@
+package org.mitallast.queue.transport
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Request of client which is not a cluster member, answered at the same connection by
+ * [TransportResponse] with the same id. Requests of connection are pipelined, responses
+ * can come in any order.
+ */
+data class TransportRequest(val id: Long, val message: Message) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::TransportRequest,
+            TransportRequest::id,
+            TransportRequest::message,
+            Codec.longCodec(),
+            Codec.anyCodec()
+        )
+    }
+}
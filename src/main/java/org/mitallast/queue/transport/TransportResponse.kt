@@ -0,0 +1,19 @@
+package org.mitallast.queue.transport
+
+import org.mitallast.queue.common.codec.Codec
+import org.mitallast.queue.common.codec.Message
+
+/**
+ * Response to [TransportRequest], message is [TransportError] if request is failed.
+ */
+data class TransportResponse(val id: Long, val message: Message) : Message {
+    companion object {
+        val codec = Codec.of(
+            ::TransportResponse,
+            TransportResponse::id,
+            TransportResponse::message,
+            Codec.longCodec(),
+            Codec.anyCodec()
+        )
+    }
+}
@@ -12,6 +12,9 @@ import org.mitallast.queue.security.ECDHRequest
 import org.mitallast.queue.security.SecurityService
 import org.mitallast.queue.transport.DiscoveryNode
 import org.mitallast.queue.transport.TransportController
+import org.mitallast.queue.transport.TransportError
+import org.mitallast.queue.transport.TransportRequest
+import org.mitallast.queue.transport.TransportResponse
 import org.mitallast.queue.transport.TransportServer
 
 @Suppress("OverridingDeprecatedMember")
@@ -67,6 +70,16 @@ class NettyTransportServer @Inject constructor(
                 ecdh.keyAgreement(message)
                 logger.trace("send ecdh response start")
                 ctx.writeAndFlush(ecdh.responseStart())
+            } else if (message is TransportRequest) {
+                val channel = ctx.channel()
+                transportController.dispatchRequest(message.message).onComplete { result ->
+                    val response = if (result.isSuccess) {
+                        result.get()
+                    } else {
+                        TransportError(result.cause.message ?: result.cause.javaClass.simpleName)
+                    }
+                    channel.writeAndFlush(TransportResponse(message.id, response), channel.voidPromise())
+                }
             } else {
                 transportController.dispatch(message)
             }
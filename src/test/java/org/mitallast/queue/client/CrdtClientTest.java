@@ -0,0 +1,113 @@
+package org.mitallast.queue.client;
+
+import io.vavr.collection.Vector;
+import io.vavr.concurrent.Future;
+import io.vavr.control.Option;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseClusterTest;
+import org.mitallast.queue.common.ConfigBuilder;
+import org.mitallast.queue.common.codec.Message;
+import org.mitallast.queue.common.json.JsonMessage;
+import org.mitallast.queue.crdt.CrdtService;
+import org.mitallast.queue.crdt.commutative.OrderedGSet;
+import org.mitallast.queue.crdt.routing.Resource;
+import org.mitallast.queue.crdt.routing.ResourceType;
+import org.mitallast.queue.crdt.routing.RoutingTable;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class CrdtClientTest extends BaseClusterTest {
+
+    private CrdtClient client;
+
+    @Override
+    protected ConfigBuilder config() throws IOException {
+        return super.config()
+            .with("crdt.replicas", 1)
+            .with("crdt.buckets", 1);
+    }
+
+    @Before
+    public void setUpClient() throws Exception {
+        createLeader();
+        awaitElection();
+        CrdtService crdtService = nodes.head().injector().getInstance(CrdtService.class);
+        while (crdtService.bucket(0) == null) {
+            Thread.sleep(100);
+        }
+        int port = nodes.head().config().getInt("transport.port");
+        client = new CrdtClient(new ConfigBuilder()
+            .with("client.nodes.0", "127.0.0.1:" + port)
+            .build());
+    }
+
+    @After
+    public void tearDownClient() {
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testRoutingTable() throws Exception {
+        RoutingTable table = client.routingTable().get();
+        Assert.assertEquals(1, table.getBuckets().size());
+        Assert.assertEquals(1, table.getMembers().size());
+    }
+
+    @Test
+    public void testCounter() throws Exception {
+        Assert.assertEquals(Vector.of(true), client.addResources(Vector.of(new Resource(1, ResourceType.GCounter))).get());
+        Assert.assertEquals(Option.some(0L), client.counter(1, ResourceType.GCounter, 0).get());
+
+        // pipelined over pooled connections
+        Vector<Future<Option<Long>>> futures = Vector.range(0, 1000)
+            .map(i -> client.counter(1, ResourceType.GCounter, 1));
+        for (Future<Option<Long>> future : futures) {
+            Assert.assertTrue(future.await(10, TimeUnit.SECONDS).isSuccess());
+        }
+        Assert.assertEquals(Option.some(1000L), client.counter(1, ResourceType.GCounter, 0).get());
+        Assert.assertEquals(Option.none(), client.counter(2, ResourceType.GCounter, 1).get());
+    }
+
+    @Test
+    public void testRegisterAndSet() throws Exception {
+        client.addResources(Vector.of(
+            new Resource(1, ResourceType.LWWRegister),
+            new Resource(2, ResourceType.ORSet)
+        )).get();
+
+        Message value = new JsonMessage("{\"value\":1}");
+        Assert.assertTrue(client.assign(1, value).get());
+        Assert.assertEquals(Option.some(value), client.register(1).get());
+
+        Message other = new JsonMessage("{\"value\":2}");
+        Assert.assertTrue(client.update(2, ResourceType.ORSet, Vector.of(value, other), Vector.empty()).get());
+        Assert.assertTrue(client.update(2, ResourceType.ORSet, Vector.empty(), Vector.of(value)).get());
+        Assert.assertEquals(Option.some(Vector.of(other)), client.values(2, ResourceType.ORSet).get());
+    }
+
+    @Test
+    public void testProduceConsume() throws Exception {
+        client.addResources(Vector.of(new Resource(1, ResourceType.OrderedGSet))).get();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(client.produce(1, new JsonMessage("{\"value\":" + i + "}")).get());
+        }
+        OrderedGSet.Page page = client.consume(1, new OrderedGSet.Query(0, Long.MAX_VALUE, 5, Option.none())).get().get();
+        Assert.assertEquals(5, page.getValues().size());
+        Assert.assertTrue(page.getNext().isDefined());
+
+        page = client.consume(1, new OrderedGSet.Query(0, Long.MAX_VALUE, 10, page.getNext())).get().get();
+        Assert.assertEquals(5, page.getValues().size());
+    }
+
+    @Test
+    public void testErrorResponse() throws Exception {
+        client.addResources(Vector.of(new Resource(1, ResourceType.GSet))).get();
+        Assert.assertTrue(client.counter(1, ResourceType.GSet, 1).await().isFailure());
+    }
+}
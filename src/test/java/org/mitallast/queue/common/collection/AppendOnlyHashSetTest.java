@@ -0,0 +1,52 @@
+package org.mitallast.queue.common.collection;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Iterator;
+
+public class AppendOnlyHashSetTest {
+
+    @Test
+    public void testAdd() {
+        AppendOnlyHashSet<Long> set = new AppendOnlyHashSet<>(2);
+        for (long i = 0; i < 10000; i++) {
+            Assert.assertTrue(set.add(i));
+        }
+        for (long i = 0; i < 10000; i++) {
+            Assert.assertFalse(set.add(i));
+            Assert.assertTrue(set.contains(i));
+        }
+        Assert.assertFalse(set.contains(10000L));
+        Assert.assertEquals(10000, set.size());
+    }
+
+    @Test
+    public void testInsertionOrder() {
+        AppendOnlyHashSet<String> set = new AppendOnlyHashSet<>();
+        set.add("c");
+        set.add("a");
+        set.add("b");
+        set.add("a");
+        Iterator<String> iterator = set.iterator();
+        Assert.assertEquals("c", iterator.next());
+        Assert.assertEquals("a", iterator.next());
+        Assert.assertEquals("b", iterator.next());
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testSnapshotIterator() {
+        AppendOnlyHashSet<Long> set = new AppendOnlyHashSet<>(2);
+        set.add(1L);
+        set.add(2L);
+        Iterator<Long> iterator = set.iterator();
+        for (long i = 3; i < 100; i++) {
+            set.add(i);
+        }
+        Assert.assertEquals(Long.valueOf(1), iterator.next());
+        Assert.assertEquals(Long.valueOf(2), iterator.next());
+        Assert.assertFalse(iterator.hasNext());
+        Assert.assertEquals(Long.valueOf(99), set.get(98));
+    }
+}
@@ -0,0 +1,57 @@
+package org.mitallast.queue.common.path;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Threads(1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompiledRouterBenchmark {
+
+    private final String[] paths = new String[]{
+        "/",
+        "/_stats",
+        "/queue",
+        "/queue/_stats",
+        "/queue/message",
+        "/queue/message/uuid",
+    };
+    private final RootTrieNode<String> trie;
+    private final CompiledRouter<String> router;
+    private final RouteMatch match = new RouteMatch();
+
+    private int i = 0;
+
+    public CompiledRouterBenchmark() {
+        trie = TrieNode.Companion.<String>node()
+            .insert("/", "1")
+            .insert("/_stats", "2")
+            .insert("/{queue}", "3")
+            .insert("/{queue}/_stats", "4")
+            .insert("/{queue}/message", "5")
+            .insert("/{queue}/message/{uuid}", "6");
+        router = CompiledRouter.Companion.compile(trie);
+    }
+
+    @Benchmark
+    public void trie(Blackhole blackhole) {
+        i = (i + 1) % paths.length;
+        blackhole.consume(trie.retrieve(paths[i]));
+    }
+
+    @Benchmark
+    public void router(Blackhole blackhole) {
+        i = (i + 1) % paths.length;
+        blackhole.consume(router.match(paths[i], match));
+    }
+
+    @Benchmark
+    public void routerParams(Blackhole blackhole) {
+        i = (i + 1) % paths.length;
+        blackhole.consume(router.match(paths[i], match));
+        blackhole.consume(match.params());
+    }
+}
@@ -0,0 +1,54 @@
+package org.mitallast.queue.common.path
+
+import io.vavr.collection.HashMap
+import org.junit.Assert
+import org.junit.Test
+
+class CompiledRouterTest {
+    private val trie = TrieNode.node<String>()
+        .insert("/", "1")
+        .insert("/_stats", "2")
+        .insert("/{queue}", "3")
+        .insert("/{queue}/_stats", "4")
+        .insert("/{queue}/message", "5")
+        .insert("/{queue}/message/{uuid}", "6")
+        .insert("/_all/{id}/value", "7")
+        .insert("/{index}/{id}/_source", "8")
+    private val router = CompiledRouter.compile(trie)
+    private val match = RouteMatch()
+
+    @Test
+    fun testSameAsTrie() {
+        val paths = listOf(
+            "", "/", "/_stats", "/_stats/", "/queue", "/queue/", "/queue/_stats", "/queue/message",
+            "/queue/message/uuid", "/queue/message/uuid/", "/queue/message/uuid/foo", "/_all/1/value",
+            "/_all/1/_source", "/foo/bar/_source", "/foo/bar", "/foo//bar", "//", "/%2Ffoo%20bar/message"
+        )
+        for (path in paths) {
+            val (value, params) = trie.retrieve(path)
+            Assert.assertEquals(path, value.orNull, router.match(path, match))
+            Assert.assertEquals(path, params, match.params())
+        }
+    }
+
+    @Test
+    fun testMatchRange() {
+        val uri = "/queue/message/uuid?foo=bar"
+        Assert.assertEquals("6", router.match(uri, 0, uri.indexOf('?'), match))
+        Assert.assertEquals(HashMap.of("queue", "queue", "uuid", "uuid"), match.params())
+        Assert.assertEquals(HashMap.of("queue", "queue", "uuid", "uuid", "foo", "bar"), match.params(HashMap.of("foo", "bar")))
+    }
+
+    @Test
+    fun testBacktrackWildcard() {
+        Assert.assertEquals("8", router.match("/_all/1/_source", match))
+        Assert.assertEquals(HashMap.of("index", "_all", "id", "1"), match.params())
+    }
+
+    @Test
+    fun testInsert() {
+        val updated = router.insert("/_all", "9")
+        Assert.assertEquals("9", updated.match("/_all", match))
+        Assert.assertEquals("3", router.match("/_all", match))
+    }
+}
@@ -0,0 +1,91 @@
+package org.mitallast.queue.crdt;
+
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.common.codec.Message;
+import org.mitallast.queue.crdt.bucket.Bucket;
+import org.mitallast.queue.crdt.protocol.BucketNotAllocated;
+import org.mitallast.queue.crdt.protocol.CounterRequest;
+import org.mitallast.queue.crdt.protocol.CounterResponse;
+import org.mitallast.queue.crdt.registry.DefaultCrdtRegistry;
+import org.mitallast.queue.crdt.replication.Replicator;
+import org.mitallast.queue.crdt.routing.ResourceType;
+import org.mitallast.queue.crdt.routing.RoutingTable;
+import org.mitallast.queue.transport.TransportController;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CrdtRequestHandlerTest extends BaseTest {
+
+    private final RoutingTable routingTable = new RoutingTable(1, 2);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private TransportController transportController;
+    private long allocated;
+    private long missing;
+
+    @Before
+    public void setUp() {
+        allocated = id(0);
+        missing = id(1);
+        DefaultCrdtRegistry registry = new DefaultCrdtRegistry(0, 1, mock(Replicator.class));
+        registry.createGCounter(allocated);
+        Bucket bucket = mock(Bucket.class);
+        when(bucket.registry()).thenReturn(registry);
+        when(bucket.executor()).thenReturn(executor);
+
+        CrdtService crdtService = mock(CrdtService.class);
+        when(crdtService.routingTable()).thenReturn(routingTable);
+        when(crdtService.bucket(anyLong())).thenReturn(null);
+        when(crdtService.bucket(allocated)).thenReturn(bucket);
+
+        transportController = new TransportController(logging);
+        new CrdtRequestHandler(transportController, crdtService);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private long id(int bucket) {
+        for (long id = 1; ; id++) {
+            if (routingTable.bucket(id).getIndex() == bucket) {
+                return id;
+            }
+        }
+    }
+
+    @Test
+    public void testApplied() throws Exception {
+        Message response = dispatch(new CounterRequest(allocated, ResourceType.GCounter, 2)).get();
+        Assert.assertEquals(new CounterResponse(allocated, Option.some(2L)), response);
+    }
+
+    @Test
+    public void testBucketNotAllocated() throws Exception {
+        Message response = dispatch(new CounterRequest(missing, ResourceType.GCounter, 2)).get();
+        Assert.assertEquals(new BucketNotAllocated(1), response);
+    }
+
+    @Test
+    public void testApplicationErrorIsFailure() {
+        Try<? extends Message> response = dispatch(new CounterRequest(allocated, ResourceType.GSet, 1));
+        Assert.assertTrue(response.isFailure());
+        Assert.assertTrue(response.getCause() instanceof IllegalArgumentException);
+    }
+
+    private Try<? extends Message> dispatch(Message message) {
+        return transportController.dispatchRequest(message).await(10, TimeUnit.SECONDS).getValue().get();
+    }
+}
@@ -0,0 +1,110 @@
+package org.mitallast.queue.crdt;
+
+import io.vavr.control.Option;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.crdt.ClusterCrdtTest.TestLong;
+import org.mitallast.queue.crdt.bucket.BucketSnapshot;
+import org.mitallast.queue.crdt.bucket.ResourceSnapshot;
+import org.mitallast.queue.crdt.commutative.*;
+import org.mitallast.queue.crdt.registry.CrdtRegistry;
+import org.mitallast.queue.crdt.registry.DefaultCrdtRegistry;
+import org.mitallast.queue.crdt.replication.Replicator;
+import org.mitallast.queue.crdt.routing.ResourceType;
+
+import java.io.*;
+
+import static org.mockito.Mockito.mock;
+
+public class CrdtSnapshotTest extends BaseTest {
+
+    static {
+        try {
+            Class.forName(ClusterCrdtTest.class.getName()); // registers TestLong codec
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Replicator replicator = mock(Replicator.class);
+
+    @Test
+    public void testRestoreLocal() throws Exception {
+        CrdtRegistry registry = new DefaultCrdtRegistry(0, 1, replicator);
+        registry.create(0, ResourceType.GCounter);
+        registry.create(1, ResourceType.GSet);
+        registry.create(2, ResourceType.OrderedGSet);
+        registry.create(3, ResourceType.PNCounter);
+        registry.create(4, ResourceType.ORSet);
+        registry.create(5, ResourceType.LWWMap);
+        registry.create(6, ResourceType.LWWRegister);
+
+        GCounter counter = registry.crdt(0, GCounter.class);
+        counter.add(10);
+        counter.drainDelta();
+        counter.add(5);
+        counter.downstreamUpdate(new GCounter.DownstreamAssign(2, 7));
+
+        GSet set = registry.crdt(1, GSet.class);
+        set.add(new TestLong(1));
+        set.drainDelta();
+        set.add(new TestLong(2));
+
+        registry.crdt(2, OrderedGSet.class).add(new TestLong(3), 3);
+
+        PNCounter pnCounter = registry.crdt(3, PNCounter.class);
+        pnCounter.add(10);
+        pnCounter.drainDelta();
+        pnCounter.add(-3);
+
+        ORSet orSet = registry.crdt(4, ORSet.class);
+        orSet.add(new TestLong(4));
+        orSet.add(new TestLong(5));
+        orSet.remove(new TestLong(5));
+        orSet.downstreamUpdate(new ORSet.DownstreamRemove(new TestLong(6), new long[]{2, 1}));
+
+        registry.crdt(5, LWWMap.class).put("a", new TestLong(5), 1);
+        registry.crdt(6, LWWRegister.class).assign(new TestLong(6), 1);
+
+        BucketSnapshot snapshot = new BucketSnapshot(10, new long[]{2, 5}, registry.snapshot());
+        BucketSnapshot restored = readWrite(snapshot);
+
+        CrdtRegistry local = new DefaultCrdtRegistry(0, 1, replicator);
+        for (ResourceSnapshot resource : restored.getResources()) {
+            local.restore(resource, true);
+        }
+        Assert.assertEquals(10, restored.getIndex());
+        Assert.assertArrayEquals(new long[]{2, 5}, restored.getReplicas());
+
+        Assert.assertEquals(22, local.crdt(0, GCounter.class).value());
+        Assert.assertEquals(Option.some(new GCounter.DownstreamAssign(1, 15)), local.crdt(0, GCounter.class).drainDelta());
+        Assert.assertEquals(set.values(), local.crdt(1, GSet.class).values());
+        Assert.assertTrue(local.crdt(1, GSet.class).drainDelta().isDefined());
+        Assert.assertEquals(registry.crdt(2, OrderedGSet.class).values(), local.crdt(2, OrderedGSet.class).values());
+        Assert.assertEquals(7, local.crdt(3, PNCounter.class).value());
+        Assert.assertEquals(orSet.values(), local.crdt(4, ORSet.class).values());
+        local.crdt(4, ORSet.class).downstreamUpdate(new ORSet.DownstreamAdd(new TestLong(6), 2, 1));
+        Assert.assertFalse(local.crdt(4, ORSet.class).contains(new TestLong(6)));
+        Assert.assertEquals(Option.some(new TestLong(5)), local.crdt(5, LWWMap.class).get("a"));
+        Assert.assertEquals(Option.some(new TestLong(6)), local.crdt(6, LWWRegister.class).value());
+
+        CrdtRegistry remote = new DefaultCrdtRegistry(0, 2, replicator);
+        for (ResourceSnapshot resource : restored.getResources()) {
+            remote.restore(resource, false);
+        }
+        Assert.assertEquals(17, remote.crdt(0, GCounter.class).value());
+        Assert.assertEquals(1, remote.crdt(1, GSet.class).size());
+        Assert.assertEquals(10, remote.crdt(3, PNCounter.class).value());
+    }
+
+    private BucketSnapshot readWrite(BucketSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            BucketSnapshot.Companion.getCodec().write(output, snapshot);
+        }
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return BucketSnapshot.Companion.getCodec().read(input);
+        }
+    }
+}
@@ -13,8 +13,19 @@ import org.mitallast.queue.common.codec.Codec;
 import org.mitallast.queue.common.codec.Message;
 import org.mitallast.queue.common.file.FileService;
 import org.mitallast.queue.common.logging.LoggingService;
+import org.mitallast.queue.crdt.bucket.BucketExecutors;
+import org.mitallast.queue.crdt.commutative.GCounter;
 import org.mitallast.queue.crdt.log.FileReplicatedLog;
+import org.mitallast.queue.crdt.log.LogBatch;
 import org.mitallast.queue.crdt.log.LogEntry;
+import org.mitallast.queue.crdt.log.LogStats;
+import org.mitallast.queue.crdt.replication.Replicator;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import static org.mockito.Mockito.mock;
 
 public class FileReplicatedLogTest extends BaseTest {
 
@@ -35,6 +46,7 @@ public class FileReplicatedLogTest extends BaseTest {
             logging,
             config,
             new FileService(config),
+            new BucketExecutors(config, logging),
             logEntry -> false,
             0,
             0
@@ -81,6 +93,139 @@ public class FileReplicatedLogTest extends BaseTest {
         }
     }
 
+    @Test
+    public void entriesFromLimited() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            log.append(i, new TestLong(i));
+        }
+        LogBatch batch = log.entriesFrom(10, 20, Long.MAX_VALUE);
+        Assert.assertEquals(20, batch.getEntries().size());
+        Assert.assertEquals(11, batch.getEntries().head().getIndex());
+        Assert.assertEquals(30, batch.getEntries().last().getIndex());
+
+        long entryBytes = batch.getBytes() / 20;
+        batch = log.entriesFrom(10, 100, entryBytes * 5);
+        Assert.assertEquals(5, batch.getEntries().size());
+        Assert.assertEquals(entryBytes * 5, batch.getBytes());
+
+        // at least one entry even if it exceeds limit
+        batch = log.entriesFrom(99, 100, 1);
+        Assert.assertEquals(1, batch.getEntries().size());
+        Assert.assertTrue(log.entriesFrom(100, 100, 1).isEmpty());
+    }
+
+    @Test
+    public void compactSparseSegments() throws Exception {
+        Config config = ConfigFactory.parseMap(HashMap.of(
+            "crdt.segment.size", 100,
+            "crdt.compaction.rate", "1g"
+        ).toJavaMap()).withFallback(this.config);
+        FileService fileService = new FileService(config);
+        BucketExecutors executors = new BucketExecutors(config, logging);
+        // only each 4th entry is live
+        FileReplicatedLog log = new FileReplicatedLog(logging, config, fileService, executors,
+            logEntry -> logEntry.getId() % 4 != 0, 0, 0);
+        for (int i = 0; i < 1000; i++) {
+            log.append(i, new TestLong(i));
+        }
+        LogStats before = log.stats();
+        Assert.assertEquals(10, before.getSegments());
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (log.stats().getSegments() > 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        LogStats after = log.stats();
+        Assert.assertTrue(after.getSegments() <= 4);
+        Assert.assertTrue(after.getFileBytes() < before.getFileBytes());
+
+        Vector<LogEntry> entries = log.entriesFrom(0);
+        for (LogEntry logEntry : entries) {
+            Assert.assertTrue(logEntry.getId() % 4 == 0 || logEntry.getIndex() > 900);
+        }
+        Assert.assertTrue(entries.map(LogEntry::getIndex).sorted().eq(entries.map(LogEntry::getIndex)));
+        log.close();
+
+        FileReplicatedLog reopened = new FileReplicatedLog(logging, config, fileService, executors,
+            logEntry -> false, 0, 0);
+        Assert.assertEquals(entries.map(LogEntry::getIndex), reopened.entriesFrom(0).map(LogEntry::getIndex));
+        reopened.close();
+    }
+
+    @Test
+    public void compactCounterAndRestart() throws Exception {
+        Config config = ConfigFactory.parseMap(HashMap.of(
+            "crdt.segment.size", 100,
+            "crdt.compaction.rate", "1g"
+        ).toJavaMap()).withFallback(this.config);
+        FileService fileService = new FileService(config);
+        BucketExecutors executors = new BucketExecutors(config, logging);
+        GCounter counter = new GCounter(0, 1, mock(Replicator.class));
+        // resource 1 is garbage, segments without live assign of counter are removed
+        FileReplicatedLog log = new FileReplicatedLog(logging, config, fileService, executors,
+            logEntry -> logEntry.getId() == 1 || counter.isSuperseded(logEntry.getEvent()), 0, 0);
+        for (int i = 0; i < 50; i++) {
+            counter.increment();
+            log.append(0, counter.drainDelta().get());
+        }
+        // local increments not drained into log yet
+        counter.add(5);
+        for (int i = 0; i < 100; i++) {
+            log.append(1, new TestLong(i));
+        }
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (log.stats().getSegments() > 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, log.stats().getSegments());
+        log.close();
+
+        FileReplicatedLog reopened = new FileReplicatedLog(logging, config, fileService, executors,
+            logEntry -> false, 0, 0);
+        GCounter recovered = new GCounter(0, 1, mock(Replicator.class));
+        for (LogEntry logEntry : reopened.entriesFrom(0)) {
+            if (logEntry.getId() == 0) {
+                recovered.update(logEntry.getEvent());
+            }
+        }
+        Assert.assertEquals(50, recovered.value());
+        Assert.assertTrue(recovered.drainDelta().isEmpty());
+        reopened.close();
+    }
+
+    @Test
+    public void reopenWithCopyLeftover() throws Exception {
+        Config config = ConfigFactory.parseMap(HashMap.of("crdt.segment.size", 100).toJavaMap())
+            .withFallback(this.config);
+        FileService fileService = new FileService(config);
+        BucketExecutors executors = new BucketExecutors(config, logging);
+        FileReplicatedLog log = new FileReplicatedLog(logging, config, fileService, executors,
+            logEntry -> false, 0, 0);
+        for (int i = 0; i < 250; i++) {
+            log.append(i, new TestLong(i));
+        }
+        log.close();
+
+        // copy of the first segment left by node stopped before swap
+        File tmp = fileService.resource("crdt/0/log/0", "compact.0.tmp");
+        Files.copy(fileService.resource("crdt/0/log/0", "event.0.log").toPath(), tmp.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+
+        FileReplicatedLog reopened = new FileReplicatedLog(logging, config, fileService, executors,
+            logEntry -> false, 0, 0);
+        Assert.assertFalse(tmp.exists());
+        Assert.assertEquals(3, reopened.stats().getSegments());
+        Assert.assertEquals(250, reopened.entriesFrom(0).size());
+        Assert.assertTrue(reopened.append(250, new TestLong(250)).getIndex() > 250);
+        reopened.close();
+
+        reopened = new FileReplicatedLog(logging, config, fileService, executors,
+            logEntry -> false, 0, 0);
+        Assert.assertEquals(251, reopened.entriesFrom(0).size());
+        reopened.close();
+    }
+
     public static class TestLong implements Message {
         public static final Codec<TestLong> codec = Codec.Companion.of(
             TestLong::new,
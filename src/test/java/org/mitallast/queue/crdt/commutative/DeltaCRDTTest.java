@@ -0,0 +1,114 @@
+package org.mitallast.queue.crdt.commutative;
+
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.crdt.ClusterCrdtTest.TestLong;
+import org.mitallast.queue.crdt.replication.Replicator;
+
+import java.util.Arrays;
+
+import static org.mockito.Mockito.*;
+
+public class DeltaCRDTTest extends BaseTest {
+
+    private final Replicator replicator = mock(Replicator.class);
+
+    @Test
+    public void testGCounterJoinDeltas() {
+        GCounter counter = new GCounter(0, 1, replicator);
+        for (int i = 0; i < 1000; i++) {
+            counter.increment();
+        }
+        verify(replicator, times(1000)).delta(0);
+        verify(replicator, never()).append(anyLong(), any());
+
+        Assert.assertEquals(Option.some(new GCounter.DownstreamAssign(1, 1000)), counter.drainDelta());
+        Assert.assertEquals(Option.none(), counter.drainDelta());
+    }
+
+    @Test
+    public void testGCounterSuperseded() {
+        GCounter counter = new GCounter(0, 1, replicator);
+        counter.add(9);
+        counter.drainDelta();
+        counter.add(1);
+        counter.downstreamUpdate(new GCounter.DownstreamAssign(2, 5));
+
+        // not drained increments are not in log yet
+        Assert.assertFalse(counter.isSuperseded(new GCounter.DownstreamAssign(1, 9)));
+        Assert.assertTrue(counter.isSuperseded(new GCounter.DownstreamAssign(1, 8)));
+        counter.drainDelta();
+        Assert.assertTrue(counter.isSuperseded(new GCounter.DownstreamAssign(1, 9)));
+        Assert.assertFalse(counter.isSuperseded(new GCounter.DownstreamAssign(1, 10)));
+        // assigns of other replicas are not in local log
+        Assert.assertFalse(counter.isSuperseded(new GCounter.DownstreamAssign(2, 4)));
+    }
+
+    @Test
+    public void testGSetJoinDeltas() {
+        GSet set = new GSet(0, replicator);
+        set.add(new TestLong(1));
+        set.add(new TestLong(2));
+        set.add(new TestLong(2));
+
+        Assert.assertEquals(
+            Option.some(new GSet.DownstreamAddAll(Vector.of(new TestLong(1), new TestLong(2)))),
+            set.drainDelta()
+        );
+        Assert.assertEquals(Option.none(), set.drainDelta());
+
+        GSet downstream = new GSet(0, replicator);
+        downstream.downstreamUpdate(new GSet.DownstreamAddAll(Vector.of(new TestLong(1), new TestLong(2))));
+        Assert.assertEquals(set.values(), downstream.values());
+    }
+
+    @Test
+    public void testPNCounterJoinDeltas() {
+        PNCounter counter = new PNCounter(0, 1, replicator);
+        counter.add(10);
+        counter.decrement();
+        counter.decrement();
+        Assert.assertEquals(8, counter.value());
+
+        Assert.assertEquals(Option.some(new PNCounter.DownstreamAssign(1, 10, 2)), counter.drainDelta());
+        Assert.assertEquals(Option.none(), counter.drainDelta());
+
+        Assert.assertTrue(counter.isSuperseded(new PNCounter.DownstreamAssign(1, 10, 1)));
+        Assert.assertFalse(counter.isSuperseded(new PNCounter.DownstreamAssign(1, 10, 2)));
+
+        PNCounter downstream = new PNCounter(0, 2, replicator);
+        downstream.downstreamUpdate(new PNCounter.DownstreamAssign(1, 10, 2));
+        downstream.downstreamUpdate(new PNCounter.DownstreamAssign(1, 10, 1));
+        Assert.assertEquals(8, downstream.value());
+    }
+
+    @Test
+    public void testUpdateAllFoldsAssigns() {
+        GCounter counter = new GCounter(0, 1, replicator);
+        counter.updateAll(Arrays.asList(
+            new GCounter.DownstreamAssign(2, 5),
+            new GCounter.DownstreamAssign(2, 3),
+            new GCounter.DownstreamAssign(3, 1),
+            new GCounter.DownstreamAssign(2, 7)
+        ));
+        Assert.assertEquals(8, counter.value());
+
+        PNCounter pn = new PNCounter(0, 1, replicator);
+        pn.updateAll(Arrays.asList(
+            new PNCounter.DownstreamAssign(2, 10, 1),
+            new PNCounter.DownstreamAssign(2, 8, 4)
+        ));
+        Assert.assertEquals(6, pn.value());
+
+        LWWRegister register = new LWWRegister(0, replicator);
+        register.updateAll(Arrays.asList(
+            new LWWRegister.DownstreamAssign(new TestLong(1), 2),
+            new LWWRegister.DownstreamAssign(new TestLong(2), 3),
+            new LWWRegister.DownstreamAssign(new TestLong(3), 1)
+        ));
+        Assert.assertEquals(Option.some(new TestLong(2)), register.value());
+    }
+}
@@ -0,0 +1,111 @@
+package org.mitallast.queue.crdt.commutative
+
+import io.vavr.collection.LinkedHashSet
+import io.vavr.collection.Set
+import io.vavr.collection.TreeSet
+import org.junit.Test
+import org.mitallast.queue.common.BaseTest
+import org.mitallast.queue.common.codec.Message
+import org.mitallast.queue.common.component.AbstractLifecycleComponent
+import org.mitallast.queue.crdt.ClusterCrdtTest.TestLong
+import org.mitallast.queue.crdt.protocol.AppendRejected
+import org.mitallast.queue.crdt.protocol.AppendSuccessful
+import org.mitallast.queue.crdt.protocol.InstallSnapshotAck
+import org.mitallast.queue.crdt.replication.Replicator
+import java.lang.management.ManagementFactory
+
+/**
+ * Compares allocation and retained heap of primitive-backed sets with persistent vavr sets.
+ */
+class GSetBenchmark : BaseTest() {
+    private val replicator = NoopReplicator()
+    private val count = 1000000
+    private val values = Array<Message>(count) { TestLong(it.toLong()) }
+
+    @Test
+    fun testGSet() {
+        measure("g-set") {
+            val set = GSet(0, replicator)
+            for (value in values) {
+                set.add(value)
+            }
+            set.drainDelta()
+            set
+        }
+    }
+
+    @Test
+    fun testVavrLinkedHashSet() {
+        measure("vavr linked hash set") {
+            var set: Set<Message> = LinkedHashSet.empty()
+            for (value in values) {
+                if (!set.contains(value)) {
+                    set = set.add(value)
+                }
+            }
+            set
+        }
+    }
+
+    @Test
+    fun testOrderedGSet() {
+        measure("ordered g-set") {
+            val set = OrderedGSet(0, 0, replicator)
+            for (i in values.indices) {
+                set.add(values[i], i.toLong())
+            }
+            set
+        }
+    }
+
+    @Test
+    fun testVavrTreeSet() {
+        measure("vavr tree set") {
+            var set: Set<Pair<Long, Message>> = TreeSet.empty { o1, o2 -> java.lang.Long.compare(o1.first, o2.first) }
+            for (i in values.indices) {
+                val entry = Pair(i.toLong(), values[i])
+                if (!set.contains(entry)) {
+                    set = set.add(entry)
+                }
+            }
+            set
+        }
+    }
+
+    private fun measure(metric: String, block: () -> Any) {
+        val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val thread = Thread.currentThread().id
+        val heapBefore = usedHeap()
+        val allocatedBefore = threads.getThreadAllocatedBytes(thread)
+        val start = System.currentTimeMillis()
+        val result = block.invoke()
+        val end = System.currentTimeMillis()
+        val allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore
+        val retained = usedHeap() - heapBefore
+        printQps(metric, count.toLong(), start, end)
+        logger.info("{}: allocated {} bytes, retained {} bytes", metric, allocated, retained)
+        logger.info("{}: {}", metric, result.hashCode())
+    }
+
+    private fun usedHeap(): Long {
+        val runtime = Runtime.getRuntime()
+        for (i in 0..2) {
+            System.gc()
+        }
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+    private inner class NoopReplicator : AbstractLifecycleComponent(logging), Replicator {
+        override fun append(id: Long, event: Message) {}
+        override fun delta(id: Long) {}
+        override fun successful(message: AppendSuccessful) {}
+        override fun rejected(message: AppendRejected) {}
+        override fun snapshotAck(message: InstallSnapshotAck) {}
+        override fun replicatedIndex(): Long = 0
+        override fun open() {}
+        override fun closeAndSync() {}
+        override fun doStart() {}
+        override fun doStop() {}
+        override fun doClose() {}
+    }
+}
@@ -0,0 +1,28 @@
+package org.mitallast.queue.crdt.commutative;
+
+import io.vavr.control.Option;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.crdt.ClusterCrdtTest.TestLong;
+import org.mitallast.queue.crdt.replication.Replicator;
+
+import static org.mockito.Mockito.mock;
+
+public class LWWMapTest extends BaseTest {
+
+    private final Replicator replicator = mock(Replicator.class);
+
+    @Test
+    public void testAssign() {
+        LWWMap map = new LWWMap(0, 1, replicator);
+        Assert.assertTrue(map.put("a", new TestLong(1), 10));
+        Assert.assertFalse(map.put("a", new TestLong(2), 9));
+        Assert.assertEquals(Option.some(new TestLong(1)), map.get("a"));
+
+        LWWMap.DownstreamStringAssign old = new LWWMap.DownstreamStringAssign("a", Option.some(new TestLong(1)), 10, 1);
+        map.downstreamUpdate(new LWWMap.DownstreamStringAssign("a", Option.none(), 10, 2));
+        Assert.assertEquals(Option.none(), map.get("a"));
+        Assert.assertTrue(map.shouldCompact(old));
+    }
+}
@@ -0,0 +1,94 @@
+package org.mitallast.queue.crdt.commutative;
+
+import io.vavr.collection.Vector;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.common.codec.Message;
+import org.mitallast.queue.crdt.ClusterCrdtTest.TestLong;
+import org.mitallast.queue.crdt.log.DefaultCompactionFilter;
+import org.mitallast.queue.crdt.log.LogEntry;
+import org.mitallast.queue.crdt.registry.DefaultCrdtRegistry;
+import org.mitallast.queue.crdt.replication.Replicator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ORSetTest extends BaseTest {
+
+    private final Replicator replicator = mock(Replicator.class);
+
+    @Test
+    public void testAddWins() {
+        ORSet set = new ORSet(0, 1, replicator);
+        set.add(new TestLong(1));
+        Assert.assertTrue(set.remove(new TestLong(1)));
+        Assert.assertFalse(set.remove(new TestLong(1)));
+
+        // concurrent add from other replica is not observed by remove
+        set.downstreamUpdate(new ORSet.DownstreamAdd(new TestLong(1), 2, 1));
+        set.downstreamUpdate(new ORSet.DownstreamRemove(new TestLong(1), new long[]{1, 1}));
+        Assert.assertTrue(set.contains(new TestLong(1)));
+    }
+
+    @Test
+    public void testRemoveBeforeAdd() {
+        ORSet set = new ORSet(0, 1, replicator);
+        set.downstreamUpdate(new ORSet.DownstreamRemove(new TestLong(1), new long[]{2, 1}));
+        ORSet.DownstreamAdd add = new ORSet.DownstreamAdd(new TestLong(1), 2, 1);
+        set.downstreamUpdate(add);
+        Assert.assertFalse(set.contains(new TestLong(1)));
+        Assert.assertTrue(set.shouldCompact(add));
+    }
+
+    @Test
+    public void testValues() {
+        ORSet set = new ORSet(0, 1, replicator);
+        set.add(new TestLong(1));
+        set.add(new TestLong(2));
+        set.add(new TestLong(2));
+        set.remove(new TestLong(1));
+        Assert.assertEquals(Vector.of(new TestLong(2)), set.values());
+    }
+
+    @Test
+    public void testCompactRemoveAfterLaggingReplica() {
+        List<LogEntry> log = new ArrayList<>();
+        Replicator source = mock(Replicator.class);
+        doAnswer(invocation -> log.add(new LogEntry(log.size() + 1, invocation.getArgument(0), invocation.getArgument(1))))
+            .when(source).append(anyLong(), any(Message.class));
+        AtomicLong replicated = new AtomicLong();
+        when(source.replicatedIndex()).thenAnswer(invocation -> replicated.get());
+        DefaultCrdtRegistry registry = new DefaultCrdtRegistry(0, 1, source);
+        registry.createORSet(1);
+        ORSet set = registry.crdt(1, ORSet.class);
+        DefaultCompactionFilter filter = new DefaultCompactionFilter(registry, source);
+
+        set.add(new TestLong(1));
+        set.remove(new TestLong(1));
+        Assert.assertFalse(set.contains(new TestLong(1)));
+        // nothing is acknowledged, add and remove are kept
+        Assert.assertFalse(filter.test(log.get(0)));
+        Assert.assertFalse(filter.test(log.get(1)));
+
+        // lagging replica receives add before compaction and remove after it
+        ORSet lagging = new ORSet(1, 2, replicator);
+        lagging.downstreamUpdate((CmRDT.DownstreamUpdate) log.get(0).getEvent());
+        replicated.set(1);
+        Assert.assertTrue(filter.test(log.get(0)));
+        Assert.assertFalse(filter.test(log.get(1)));
+        lagging.downstreamUpdate((CmRDT.DownstreamUpdate) log.get(1).getEvent());
+        Assert.assertFalse(lagging.contains(new TestLong(1)));
+
+        replicated.set(2);
+        Assert.assertTrue(filter.test(log.get(0)));
+        Assert.assertTrue(filter.test(log.get(1)));
+    }
+}
@@ -0,0 +1,48 @@
+package org.mitallast.queue.crdt.commutative;
+
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.crdt.ClusterCrdtTest.TestLong;
+import org.mitallast.queue.crdt.replication.Replicator;
+
+import static org.mockito.Mockito.mock;
+
+public class OrderedGSetTest extends BaseTest {
+
+    private final Replicator replicator = mock(Replicator.class);
+
+    @Test
+    public void testRange() {
+        OrderedGSet set = new OrderedGSet(0, 1, replicator);
+        for (long i = 0; i < 100; i++) {
+            set.add(new TestLong(i), i);
+        }
+        Assert.assertEquals(Vector.of(new TestLong(10), new TestLong(11)), set.values(10, 20, 2));
+        Assert.assertEquals(Vector.range(90, 100).map(TestLong::new), set.values(90, 200, 100));
+        Assert.assertEquals(Vector.empty(), set.values(20, 10, 100));
+    }
+
+    @Test
+    public void testPages() {
+        OrderedGSet set = new OrderedGSet(0, 1, replicator);
+        for (long i = 0; i < 10; i++) {
+            set.add(new TestLong(i), i);
+            set.downstreamUpdate(new OrderedGSet.DownstreamAdd(new TestLong(i + 100), i, 2));
+        }
+        Vector<Object> values = Vector.empty();
+        Option<OrderedGSet.Cursor> after = Option.none();
+        int pages = 0;
+        do {
+            OrderedGSet.Page page = set.page(new OrderedGSet.Query(0, 5, 3, after));
+            values = values.appendAll(page.getValues());
+            after = page.getNext();
+            pages++;
+        } while (after.isDefined());
+        Assert.assertEquals(4, pages);
+        Assert.assertEquals(set.values(0, 5, 100), values);
+        Assert.assertEquals(10, values.size());
+    }
+}
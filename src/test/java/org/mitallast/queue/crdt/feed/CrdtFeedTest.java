@@ -0,0 +1,92 @@
+package org.mitallast.queue.crdt.feed;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.common.json.JsonService;
+import org.mitallast.queue.crdt.commutative.GCounter;
+
+public class CrdtFeedTest extends BaseTest {
+
+    private final CrdtFeed feed = new CrdtFeed(logging, new JsonService());
+
+    @Test
+    public void testPublishToSubscribers() {
+        EmbeddedChannel channel1 = new EmbeddedChannel();
+        EmbeddedChannel channel2 = new EmbeddedChannel();
+        FeedSubscriber subscriber1 = new FeedSubscriber(channel1, update -> update);
+        FeedSubscriber subscriber2 = new FeedSubscriber(channel2, update -> update);
+        feed.subscribe(1, subscriber1);
+        feed.subscribe(1, subscriber2);
+        feed.subscribe(2, subscriber2);
+
+        feed.publish(0, 1, new GCounter.DownstreamAssign(1, 10));
+        feed.publish(0, 2, new GCounter.DownstreamAssign(1, 20));
+        feed.publish(0, 3, new GCounter.DownstreamAssign(1, 30));
+
+        String update = read(channel1);
+        Assert.assertTrue(update, update.contains("\"id\":1"));
+        Assert.assertTrue(update, update.contains("\"type\":\"GCounter.DownstreamAssign\""));
+        Assert.assertTrue(update, update.contains("\"value\":10"));
+        Assert.assertNull(channel1.readOutbound());
+        Assert.assertEquals(update, read(channel2));
+        Assert.assertTrue(read(channel2).contains("\"value\":20"));
+        Assert.assertEquals(2, feed.stats().getPublished());
+
+        feed.unsubscribe(subscriber2);
+        feed.publish(0, 1, new GCounter.DownstreamAssign(1, 11));
+        Assert.assertTrue(read(channel1).contains("\"value\":11"));
+        Assert.assertNull(channel2.readOutbound());
+        Assert.assertEquals(1, feed.stats().getSubscriptions());
+    }
+
+    @Test
+    public void testUnsubscribeFromSubscribedIds() {
+        FeedSubscriber subscriber1 = new FeedSubscriber(new EmbeddedChannel(), update -> update);
+        FeedSubscriber subscriber2 = new FeedSubscriber(new EmbeddedChannel(), update -> update);
+        feed.subscribe(1, subscriber1);
+        feed.subscribe(2, subscriber1);
+        feed.subscribe(3, subscriber1);
+        feed.subscribe(2, subscriber2);
+        feed.unsubscribe(3, subscriber1);
+        Assert.assertEquals(3, feed.stats().getSubscriptions());
+
+        feed.unsubscribe(subscriber1);
+        Assert.assertEquals(1, feed.stats().getSubscriptions());
+        Assert.assertEquals(1, feed.stats().getResources());
+
+        // subscriber is tracked again after re-subscribe
+        feed.subscribe(1, subscriber1);
+        feed.unsubscribe(subscriber1);
+        feed.unsubscribe(subscriber2);
+        Assert.assertEquals(0, feed.stats().getSubscriptions());
+    }
+
+    @Test
+    public void testDropSlowConsumer() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        FeedSubscriber subscriber = new FeedSubscriber(channel, update -> update);
+        feed.subscribe(1, subscriber);
+
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        feed.publish(0, 1, new GCounter.DownstreamAssign(1, 10));
+        Assert.assertNull(channel.readOutbound());
+        Assert.assertEquals(1, feed.stats().getDropped());
+
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        feed.publish(0, 1, new GCounter.DownstreamAssign(1, 11));
+        Assert.assertTrue(read(channel).contains("\"value\":11"));
+    }
+
+    private String read(EmbeddedChannel channel) {
+        ByteBuf buf = channel.readOutbound();
+        try {
+            return buf.toString(CharsetUtil.UTF_8);
+        } finally {
+            buf.release();
+        }
+    }
+}
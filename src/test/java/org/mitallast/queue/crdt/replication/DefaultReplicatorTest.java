@@ -0,0 +1,146 @@
+package org.mitallast.queue.crdt.replication;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.Vector;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.common.codec.Message;
+import org.mitallast.queue.common.events.DefaultEventBus;
+import org.mitallast.queue.common.file.FileService;
+import org.mitallast.queue.common.json.JsonService;
+import org.mitallast.queue.crdt.bucket.Bucket;
+import org.mitallast.queue.crdt.bucket.BucketSnapshot;
+import org.mitallast.queue.crdt.feed.CrdtFeed;
+import org.mitallast.queue.crdt.log.ReplicatedLog;
+import org.mitallast.queue.crdt.protocol.AppendSuccessful;
+import org.mitallast.queue.crdt.protocol.InstallSnapshot;
+import org.mitallast.queue.crdt.protocol.InstallSnapshotAck;
+import org.mitallast.queue.crdt.routing.RoutingReplica;
+import org.mitallast.queue.crdt.routing.fsm.AddReplica;
+import org.mitallast.queue.crdt.routing.fsm.RoutingTableFSM;
+import org.mitallast.queue.crdt.routing.fsm.UpdateMembers;
+import org.mitallast.queue.raft.resource.ResourceRegistry;
+import org.mitallast.queue.transport.DiscoveryNode;
+import org.mitallast.queue.transport.TransportService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DefaultReplicatorTest extends BaseTest {
+
+    private final DiscoveryNode node1 = new DiscoveryNode("localhost", 8801);
+    private final DiscoveryNode node2 = new DiscoveryNode("localhost", 8802);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final List<Message> sent = new ArrayList<>();
+
+    private Config config;
+    private RoutingTableFSM fsm;
+    private RoutingReplica local;
+    private RoutingReplica remote;
+
+    @Before
+    public void setUp() throws Exception {
+        config = ConfigFactory.parseMap(HashMap.of(
+            "node.path", testFolder.newFolder().getAbsolutePath(),
+            "crdt.buckets", 1,
+            "crdt.snapshot.chunk-size", 100
+        ).toJavaMap()).withFallback(ConfigFactory.defaultReference()).resolve();
+        ResourceRegistry registry = new ResourceRegistry();
+        fsm = new RoutingTableFSM(config, logging, registry, new DefaultEventBus(), new FileService(config));
+        registry.apply(1, new UpdateMembers(HashSet.of(node1, node2)));
+        registry.apply(2, new AddReplica(0, node1));
+        registry.apply(3, new AddReplica(0, node2));
+        local = fsm.get().bucket(0).getReplicas().values().find(r -> r.getMember().equals(node1)).get();
+        remote = fsm.get().bucket(0).getReplicas().values().find(r -> r.getMember().equals(node2)).get();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testStreamSnapshotInChunks() throws Exception {
+        BucketSnapshot snapshot = new BucketSnapshot(10, new long[100], Vector.empty());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BucketSnapshot.Companion.getCodec().write(new DataOutputStream(bytes), snapshot);
+        File file = testFolder.newFile();
+        Files.write(file.toPath(), bytes.toByteArray());
+
+        Bucket bucket = mock(Bucket.class);
+        ReplicatedLog log = mock(ReplicatedLog.class);
+        when(bucket.index()).thenReturn(0);
+        when(bucket.replica()).thenReturn(local.getId());
+        when(bucket.executor()).thenReturn(executor);
+        when(bucket.log()).thenReturn(log);
+        when(log.index()).thenReturn(12L);
+        when(bucket.snapshotIndex()).thenReturn(10L);
+        when(bucket.snapshotFile()).thenReturn(file);
+
+        DefaultReplicator replicator = new DefaultReplicator(config, logging, fsm, new DefaultEventBus(),
+            new RecordingTransport(), new CrdtFeed(logging, new JsonService()), bucket);
+        replicator.start();
+        // initial empty append is acknowledged, remote replica is behind snapshot
+        executor.submit(() -> {}).get();
+        sent.clear();
+        executor.submit(() -> replicator.successful(new AppendSuccessful(0, remote.getId(), 0))).get();
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        while (true) {
+            // one chunk in flight
+            Assert.assertEquals(1, sent.size());
+            InstallSnapshot chunk = (InstallSnapshot) sent.remove(0);
+            Assert.assertEquals(10, chunk.getIndex());
+            Assert.assertEquals(received.size(), chunk.getOffset());
+            Assert.assertTrue(chunk.getData().length <= 100);
+            received.write(chunk.getData());
+            if (chunk.getDone()) {
+                break;
+            }
+            long offset = received.size();
+            executor.submit(() -> replicator.snapshotAck(new InstallSnapshotAck(0, remote.getId(), 10, offset))).get();
+        }
+        Assert.assertArrayEquals(bytes.toByteArray(), received.toByteArray());
+        BucketSnapshot decoded = BucketSnapshot.Companion.getCodec()
+            .read(new DataInputStream(new ByteArrayInputStream(received.toByteArray())));
+        Assert.assertEquals(10, decoded.getIndex());
+
+        // stale ack is ignored
+        executor.submit(() -> replicator.snapshotAck(new InstallSnapshotAck(0, remote.getId(), 10, 100))).get();
+        Assert.assertTrue(sent.isEmpty());
+        replicator.stop();
+    }
+
+    private class RecordingTransport implements TransportService {
+        @Override
+        public void connectToNode(DiscoveryNode node) {
+        }
+
+        @Override
+        public void disconnectFromNode(DiscoveryNode node) {
+        }
+
+        @Override
+        public void send(DiscoveryNode node, Message message) {
+            Assert.assertEquals(node2, node);
+            sent.add(message);
+        }
+    }
+}
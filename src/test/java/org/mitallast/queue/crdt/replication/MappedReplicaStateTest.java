@@ -0,0 +1,89 @@
+package org.mitallast.queue.crdt.replication;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.vavr.collection.HashMap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.common.file.FileService;
+import org.mitallast.queue.crdt.replication.state.MappedReplicaState;
+
+import java.io.DataOutputStream;
+import java.io.File;
+
+public class MappedReplicaStateTest extends BaseTest {
+
+    private Config config;
+    private FileService fileService;
+
+    @Before
+    public void setUp() throws Exception {
+        config = ConfigFactory.parseMap(HashMap.of("node.path", testFolder.newFolder().getAbsolutePath()).toJavaMap())
+            .withFallback(ConfigFactory.defaultReference());
+        fileService = new FileService(config);
+    }
+
+    @Test
+    public void testReopen() {
+        MappedReplicaState state = new MappedReplicaState(config, fileService, 0, 1);
+        for (long replica = 0; replica < 1000; replica++) {
+            state.put(replica, replica);
+            state.put(replica, replica + 1);
+        }
+        state.putAll(new long[]{1, 10, 2, 20});
+        state.close();
+
+        MappedReplicaState reopened = new MappedReplicaState(config, fileService, 0, 1);
+        Assert.assertEquals(2000, reopened.indexes().length);
+        Assert.assertEquals(1, reopened.get(0));
+        Assert.assertEquals(10, reopened.get(1));
+        Assert.assertEquals(20, reopened.get(2));
+        Assert.assertEquals(1000, reopened.get(999));
+        reopened.close();
+    }
+
+    @Test
+    public void testReset() {
+        MappedReplicaState state = new MappedReplicaState(config, fileService, 0, 1);
+        state.put(1, 100);
+        state.put(2, 200);
+        state.reset(new long[]{2, 50});
+        Assert.assertEquals(0, state.get(1));
+        Assert.assertEquals(50, state.get(2));
+        state.close();
+
+        MappedReplicaState reopened = new MappedReplicaState(config, fileService, 0, 1);
+        Assert.assertArrayEquals(new long[]{2, 50}, reopened.indexes());
+        reopened.close();
+    }
+
+    @Test
+    public void testMigrateLegacyLog() throws Exception {
+        File legacy = fileService.resource("crdt/0/replica/1", "state.log");
+        try (DataOutputStream output = fileService.output(legacy, false)) {
+            output.writeLong(1);
+            output.writeLong(10);
+            output.writeLong(2);
+            output.writeLong(20);
+            output.writeLong(1);
+            output.writeLong(15);
+            // partially written pair
+            output.writeLong(3);
+        }
+
+        MappedReplicaState state = new MappedReplicaState(config, fileService, 0, 1);
+        Assert.assertFalse(legacy.exists());
+        Assert.assertEquals(15, state.get(1));
+        Assert.assertEquals(20, state.get(2));
+        Assert.assertEquals(0, state.get(3));
+        state.close();
+
+        MappedReplicaState reopened = new MappedReplicaState(config, fileService, 0, 1);
+        Assert.assertEquals(4, reopened.indexes().length);
+        Assert.assertEquals(15, reopened.get(1));
+        Assert.assertEquals(20, reopened.get(2));
+        reopened.close();
+    }
+}
@@ -0,0 +1,111 @@
+package org.mitallast.queue.crdt.replication;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.crdt.ClusterCrdtTest;
+import org.mitallast.queue.crdt.ClusterCrdtTest.TestLong;
+import org.mitallast.queue.crdt.commutative.GSet;
+import org.mitallast.queue.crdt.commutative.ORSet;
+import org.mitallast.queue.crdt.registry.CrdtRegistry;
+import org.mitallast.queue.crdt.registry.DefaultCrdtRegistry;
+import org.mitallast.queue.crdt.routing.ResourceType;
+
+import static org.mockito.Mockito.mock;
+
+public class MerkleTreeTest extends BaseTest {
+
+    static {
+        try {
+            Class.forName(ClusterCrdtTest.class.getName()); // registers TestLong codec
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Replicator replicator = mock(Replicator.class);
+
+    @Test
+    public void testDigestIndependentOfOrder() {
+        GSet first = new GSet(0, replicator);
+        first.downstreamUpdate(new GSet.DownstreamAdd(new TestLong(1)));
+        first.downstreamUpdate(new GSet.DownstreamAdd(new TestLong(2)));
+
+        GSet second = new GSet(0, replicator);
+        second.downstreamUpdate(new GSet.DownstreamAdd(new TestLong(2)));
+        second.downstreamUpdate(new GSet.DownstreamAdd(new TestLong(1)));
+
+        Assert.assertEquals(first.digest(), second.digest());
+        second.downstreamUpdate(new GSet.DownstreamAdd(new TestLong(3)));
+        Assert.assertNotEquals(first.digest(), second.digest());
+    }
+
+    @Test
+    public void testDiff() {
+        CrdtRegistry local = registry(1);
+        CrdtRegistry remote = registry(2);
+        for (long id = 0; id < 100; id++) {
+            local.create(id, ResourceType.GSet);
+            remote.create(id, ResourceType.GSet);
+        }
+        local.crdt(42, GSet.class).downstreamUpdate(new GSet.DownstreamAdd(new TestLong(42)));
+
+        MerkleTree localTree = MerkleTree.Companion.build(local.digests(), 16);
+        MerkleTree remoteTree = MerkleTree.Companion.build(remote.digests(), 16);
+        Assert.assertNotEquals(localTree.root(), remoteTree.root());
+
+        int[] diff = localTree.diff(remoteTree.getRanges());
+        Assert.assertArrayEquals(new int[]{MerkleTree.Companion.range(42, 16)}, diff);
+
+        long[] divergent = MerkleTree.Companion.filter(local.digests(), diff, 16);
+        boolean found = false;
+        for (int i = 0; i < divergent.length; i += 2) {
+            Assert.assertEquals(MerkleTree.Companion.range(divergent[i], 16), diff[0]);
+            found |= divergent[i] == 42;
+        }
+        Assert.assertTrue(found);
+
+        remote.restore(local.snapshot(42).get(), false);
+        Assert.assertEquals(
+            MerkleTree.Companion.build(local.digests(), 16).root(),
+            MerkleTree.Companion.build(remote.digests(), 16).root());
+    }
+
+    @Test
+    public void testORSetJoin() {
+        CrdtRegistry local = registry(1);
+        CrdtRegistry remote = registry(2);
+        local.create(0, ResourceType.ORSet);
+        remote.create(0, ResourceType.ORSet);
+
+        ORSet localSet = local.crdt(0, ORSet.class);
+        ORSet remoteSet = remote.crdt(0, ORSet.class);
+        localSet.add(new TestLong(1));
+        localSet.add(new TestLong(2));
+        remoteSet.add(new TestLong(3));
+
+        // remote observed add of 1 and removed it, remove is not delivered to local yet
+        remoteSet.downstreamUpdate(new ORSet.DownstreamAdd(new TestLong(1), 1, 1));
+        remoteSet.remove(new TestLong(1));
+
+        local.restore(remote.snapshot(0).get(), false);
+        remote.restore(local.snapshot(0).get(), false);
+
+        Assert.assertEquals(localSet.digest(), remoteSet.digest());
+        Assert.assertFalse(localSet.contains(new TestLong(1)));
+        Assert.assertFalse(remoteSet.contains(new TestLong(1)));
+        Assert.assertTrue(localSet.contains(new TestLong(2)));
+        Assert.assertTrue(remoteSet.contains(new TestLong(2)));
+        Assert.assertTrue(localSet.contains(new TestLong(3)));
+
+        // log delivery after repair does not resurrect removed element
+        localSet.downstreamUpdate(new ORSet.DownstreamAdd(new TestLong(3), 2, 1));
+        localSet.downstreamUpdate(new ORSet.DownstreamAdd(new TestLong(1), 1, 1));
+        Assert.assertFalse(localSet.contains(new TestLong(1)));
+        Assert.assertEquals(localSet.digest(), remoteSet.digest());
+    }
+
+    private CrdtRegistry registry(long replica) {
+        return new DefaultCrdtRegistry(0, replica, replicator);
+    }
+}
@@ -0,0 +1,78 @@
+package org.mitallast.queue.crdt.replication;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+
+public class ReplicationFlowTest extends BaseTest {
+
+    @Test
+    public void testWindow() {
+        ReplicationFlow flow = new ReplicationFlow(2, 1000, 100000, 10);
+        Assert.assertTrue(flow.shouldSend(1, 100));
+        flow.sent(10, 10, 1000, 0);
+        flow.sent(20, 10, 1000, 0);
+        Assert.assertTrue(flow.isFull());
+        Assert.assertFalse(flow.shouldSend(100, 100));
+        Assert.assertEquals(20, flow.getSentIndex());
+
+        flow.acknowledged(10, 1);
+        Assert.assertEquals(10, flow.getAckIndex());
+        Assert.assertEquals(1, flow.inFlight());
+        // partial batch waits for acknowledgement while window is not idle
+        Assert.assertFalse(flow.shouldSend(1, 100));
+        Assert.assertTrue(flow.shouldSend(20, 100));
+    }
+
+    @Test
+    public void testAdaptBatch() {
+        ReplicationFlow flow = new ReplicationFlow(4, 1000, 100000, 10);
+        // fast acknowledgements grow batch, at most twice per batch
+        flow.sent(1, 1, 1000, 0);
+        flow.acknowledged(1, 1);
+        Assert.assertEquals(2000, flow.getBatchBytes());
+        for (int i = 2; i < 20; i++) {
+            flow.sent(i, 1, flow.getBatchBytes(), i);
+            flow.acknowledged(i, i + 1);
+        }
+        Assert.assertEquals(100000, flow.getBatchBytes());
+
+        // slow acknowledgements shrink batch
+        for (int i = 20; i < 200; i++) {
+            flow.sent(i, 1, flow.getBatchBytes(), i * 1000);
+            flow.acknowledged(i, i * 1000 + 1000);
+        }
+        Assert.assertEquals(1000, flow.getBatchBytes());
+    }
+
+    @Test
+    public void testRejectRestart() {
+        ReplicationFlow flow = new ReplicationFlow(4, 1000, 100000, 10);
+        flow.sent(10, 10, 1000, 0);
+        flow.sent(20, 10, 1000, 0);
+        flow.sent(30, 10, 1000, 0);
+
+        Assert.assertTrue(flow.rejected(5));
+        Assert.assertEquals(5, flow.getSentIndex());
+        Assert.assertTrue(flow.isIdle());
+
+        flow.sent(15, 10, 1000, 1);
+        // rejects of batches sent before restart are ignored
+        Assert.assertFalse(flow.rejected(5));
+        Assert.assertFalse(flow.rejected(5));
+        Assert.assertEquals(15, flow.getSentIndex());
+    }
+
+    @Test
+    public void testTimeout() {
+        ReplicationFlow flow = new ReplicationFlow(4, 1000, 100000, 10);
+        flow.sent(10, 10, 1000, 0);
+        flow.acknowledged(10, 1);
+        flow.sent(20, 10, 1000, 1);
+        Assert.assertFalse(flow.isTimedOut(100, 1000));
+        Assert.assertTrue(flow.isTimedOut(2000, 1000));
+        flow.timeout();
+        Assert.assertEquals(10, flow.getSentIndex());
+        Assert.assertTrue(flow.isIdle());
+    }
+}
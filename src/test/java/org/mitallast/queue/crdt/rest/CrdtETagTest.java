@@ -0,0 +1,124 @@
+package org.mitallast.queue.crdt.rest;
+
+import io.vavr.concurrent.Future;
+import kotlin.jvm.functions.Function1;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.crdt.CrdtService;
+import org.mitallast.queue.crdt.bucket.Bucket;
+import org.mitallast.queue.crdt.bucket.BucketExecutors;
+import org.mitallast.queue.crdt.registry.DefaultCrdtRegistry;
+import org.mitallast.queue.crdt.replication.Replicator;
+import org.mitallast.queue.rest.BaseRestTest;
+import org.mitallast.queue.rest.RestController;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class CrdtETagTest extends BaseRestTest {
+
+    private final AtomicLong version = new AtomicLong();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void register(RestController controller) {
+        // replicator marks bucket modified after local update, as default replicator does
+        Replicator replicator = mock(Replicator.class);
+        doAnswer(invocation -> version.incrementAndGet()).when(replicator).delta(anyLong());
+        DefaultCrdtRegistry registry = new DefaultCrdtRegistry(0, 1, replicator);
+        registry.createGCounter(1);
+
+        ScheduledExecutorService executor = new BucketExecutors(config, logging).executor(0);
+        Bucket bucket = mock(Bucket.class);
+        when(bucket.index()).thenReturn(0);
+        when(bucket.replica()).thenReturn(1L);
+        when(bucket.version()).thenAnswer(invocation -> version.get());
+        when(bucket.registry()).thenReturn(registry);
+        when(bucket.executor()).thenReturn(executor);
+
+        CrdtService crdtService = mock(CrdtService.class);
+        when(crdtService.bucket(anyLong())).thenReturn(null);
+        when(crdtService.bucket(1L)).thenReturn(bucket);
+        when(crdtService.execute(eq(1L), any(), any())).thenAnswer(invocation -> {
+            Function1<Bucket, Object> task = invocation.getArgument(2);
+            return Future.of(executor, () -> task.invoke(bucket));
+        });
+        new RestGCounter(controller, crdtService);
+    }
+
+    @Test
+    public void testETag() throws Exception {
+        HttpResponse<String> response = get("/_crdt/1/g-counter/value");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("0", response.body());
+        Assert.assertEquals("W/\"0-1-0\"", etag(response));
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        String etag = etag(get("/_crdt/1/g-counter/value"));
+        HttpResponse<String> response = get("/_crdt/1/g-counter/value", etag);
+        Assert.assertEquals(304, response.statusCode());
+        Assert.assertEquals("", response.body());
+        Assert.assertEquals(etag, etag(response));
+    }
+
+    @Test
+    public void testIfNoneMatchList() throws Exception {
+        String etag = etag(get("/_crdt/1/g-counter/value"));
+        Assert.assertEquals(304, get("/_crdt/1/g-counter/value", "W/\"0-1-ff\", " + etag).statusCode());
+        // weak comparison ignores W/ prefix
+        Assert.assertEquals(304, get("/_crdt/1/g-counter/value", "\"a\",\"0-1-0\"").statusCode());
+        Assert.assertEquals(200, get("/_crdt/1/g-counter/value", "W/\"0-1-ff\", \"a\"").statusCode());
+    }
+
+    @Test
+    public void testIfNoneMatchAny() throws Exception {
+        HttpResponse<String> response = get("/_crdt/1/g-counter/value", "*");
+        Assert.assertEquals(304, response.statusCode());
+        Assert.assertEquals("W/\"0-1-0\"", etag(response));
+    }
+
+    @Test
+    public void testETagChangesAfterWrite() throws Exception {
+        String etag = etag(get("/_crdt/1/g-counter/value"));
+        Assert.assertEquals(200, post("/_crdt/1/g-counter/increment", "").statusCode());
+
+        HttpResponse<String> response = get("/_crdt/1/g-counter/value", etag);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("1", response.body());
+        Assert.assertNotEquals(etag, etag(response));
+        Assert.assertEquals(304, get("/_crdt/1/g-counter/value", etag(response)).statusCode());
+    }
+
+    @Test
+    public void testMissingBucketHasNoETag() throws Exception {
+        HttpResponse<String> response = get("/_crdt/2/g-counter/value", "*");
+        Assert.assertEquals(404, response.statusCode());
+        Assert.assertFalse(response.headers().firstValue("etag").isPresent());
+    }
+
+    @Test
+    public void testInvalidIdHasNoETag() throws Exception {
+        HttpResponse<String> response = get("/_crdt/abc/g-counter/value", "*");
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertFalse(response.headers().firstValue("etag").isPresent());
+    }
+
+    private HttpResponse<String> get(String path, String ifNoneMatch) throws Exception {
+        return client.send(HttpRequest.newBuilder(uri(path))
+            .header("If-None-Match", ifNoneMatch)
+            .GET()
+            .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String etag(HttpResponse<String> response) {
+        return response.headers().firstValue("etag").orElse(null);
+    }
+}
@@ -0,0 +1,159 @@
+package org.mitallast.queue.crdt.rest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.crdt.CrdtService;
+import org.mitallast.queue.crdt.bucket.Bucket;
+import org.mitallast.queue.crdt.bucket.BucketExecutors;
+import org.mitallast.queue.crdt.registry.DefaultCrdtRegistry;
+import org.mitallast.queue.crdt.replication.Replicator;
+import org.mitallast.queue.crdt.routing.RoutingTable;
+import org.mitallast.queue.rest.BaseRestTest;
+import org.mitallast.queue.rest.RestController;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RestCrdtBulkTest extends BaseRestTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final RoutingTable routingTable = new RoutingTable(1, 2);
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private Bucket bucket1;
+
+    @Override
+    protected void register(RestController controller) {
+        BucketExecutors executors = new BucketExecutors(config, logging);
+        CrdtService crdtService = mock(CrdtService.class);
+        when(crdtService.routingTable()).thenReturn(routingTable);
+        Bucket bucket0 = bucket(0, executors);
+        bucket1 = bucket(1, executors);
+        when(crdtService.bucket(0)).thenReturn(bucket0);
+        when(crdtService.bucket(1)).thenReturn(bucket1);
+        bucket0.registry().createGCounter(id(0, 0));
+        bucket1.registry().createGCounter(id(1, 0));
+        new RestCrdtBulk(controller, json, crdtService);
+    }
+
+    private Bucket bucket(int index, BucketExecutors executors) {
+        Bucket bucket = mock(Bucket.class);
+        when(bucket.index()).thenReturn(index);
+        when(bucket.registry()).thenReturn(new DefaultCrdtRegistry(index, 1, mock(Replicator.class)));
+        when(bucket.executor()).thenReturn(executors.executor(index));
+        return bucket;
+    }
+
+    /**
+     * N-th resource id routed to bucket.
+     */
+    private long id(int bucket, int n) {
+        for (long id = 1; ; id++) {
+            if (routingTable.bucket(id).getIndex() == bucket && n-- == 0) {
+                return id;
+            }
+        }
+    }
+
+    @Test
+    public void testMixedOperations() throws Exception {
+        String body = String.join("\n",
+            "{\"id\": " + id(0, 0) + ", \"type\": \"g-counter\", \"op\": \"add\", \"value\": 10}",
+            "{\"id\": " + id(1, 0) + ", \"type\": \"g-counter\", \"op\": \"increment\"}",
+            "{\"id\": " + id(0, 0) + ", \"type\": \"g-counter\", \"op\": \"value\"}",
+            "{\"id\": " + id(0, 0) + ", \"type\": \"g-counter\", \"op\": \"unknown\"}",
+            "{\"id\": " + id(0, 1) + ", \"type\": \"lww-map\", \"op\": \"get\", \"key\": \"k\"}",
+            "{\"id\": " + id(1, 0) + ", \"type\": \"g-counter\", \"op\": \"add\", \"value\": 5}"
+        );
+        // group of bucket 1 waits until group of bucket 0 is received
+        bucket1.executor().execute(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        HttpResponse<Stream<String>> response = client.send(HttpRequest.newBuilder(uri("/_bulk"))
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build(), HttpResponse.BodyHandlers.ofLines());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("application/x-ndjson", response.headers().firstValue("content-type").orElse(null));
+
+        Map<Integer, JsonNode> results = new HashMap<>();
+        Iterator<String> lines = response.body().iterator();
+        for (int i = 0; i < 4; i++) {
+            JsonNode result = mapper.readTree(lines.next());
+            results.put(result.get("line").asInt(), result);
+        }
+        Assert.assertEquals(Set.of(0, 2, 3, 4), results.keySet());
+        blocked.countDown();
+        for (int i = 0; i < 2; i++) {
+            JsonNode result = mapper.readTree(lines.next());
+            results.put(result.get("line").asInt(), result);
+        }
+        Assert.assertFalse(lines.hasNext());
+
+        assertResult(results.get(0), id(0, 0), 200, "10");
+        assertResult(results.get(1), id(1, 0), 200, "1");
+        assertResult(results.get(2), id(0, 0), 200, "10");
+        assertResult(results.get(3), id(0, 0), 400, "\"unknown operation g-counter unknown\"");
+        assertResult(results.get(4), id(0, 1), 404, "null");
+        assertResult(results.get(5), id(1, 0), 200, "6");
+    }
+
+    @Test
+    public void testInvalidId() throws Exception {
+        String body = String.join("\n",
+            "{\"type\": \"g-counter\", \"op\": \"add\", \"value\": 10}",
+            "{\"id\": \"abc\", \"type\": \"g-counter\", \"op\": \"add\", \"value\": 10}",
+            "{\"id\": 1.5, \"type\": \"g-counter\", \"op\": \"add\", \"value\": 10}",
+            "{\"id\": " + id(0, 0) + ", \"type\": \"g-counter\", \"op\": \"add\", \"value\": 1}"
+        );
+        HttpResponse<String> response = post("/_bulk", body);
+        Assert.assertEquals(200, response.statusCode());
+
+        Map<Integer, JsonNode> results = new HashMap<>();
+        for (String line : response.body().split("\n")) {
+            JsonNode result = mapper.readTree(line);
+            results.put(result.get("line").asInt(), result);
+        }
+        Assert.assertEquals(Set.of(0, 1, 2, 3), results.keySet());
+        Assert.assertEquals(400, results.get(0).get("status").asInt());
+        Assert.assertEquals("\"id is required\"", results.get(0).get("result").toString());
+        Assert.assertEquals(400, results.get(1).get("status").asInt());
+        Assert.assertEquals("\"invalid id: \\\"abc\\\"\"", results.get(1).get("result").toString());
+        Assert.assertEquals(400, results.get(2).get("status").asInt());
+        Assert.assertEquals("\"invalid id: 1.5\"", results.get(2).get("result").toString());
+        assertResult(results.get(3), id(0, 0), 200, "1");
+    }
+
+    @Test
+    public void testInvalidJson() throws Exception {
+        HttpResponse<String> response = post("/_bulk", "{\"id\": 1, ");
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertTrue(response.body(), response.body().startsWith("invalid json"));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        HttpResponse<String> response = post("/_bulk", "");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
+
+    private void assertResult(JsonNode result, long id, int status, String value) {
+        Assert.assertEquals(id, result.get("id").asLong());
+        Assert.assertEquals(status, result.get("status").asInt());
+        Assert.assertEquals(value, result.get("result").toString());
+    }
+}
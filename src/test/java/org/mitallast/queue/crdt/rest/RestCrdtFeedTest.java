@@ -0,0 +1,62 @@
+package org.mitallast.queue.crdt.rest;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.crdt.commutative.GCounter;
+import org.mitallast.queue.crdt.feed.CrdtFeed;
+import org.mitallast.queue.rest.BaseRestTest;
+import org.mitallast.queue.rest.RestController;
+import org.mitallast.queue.rest.netty.WebSocketFrameHandler;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class RestCrdtFeedTest extends BaseRestTest {
+
+    private CrdtFeed feed;
+
+    @Override
+    protected void register(RestController controller) {
+        feed = new CrdtFeed(logging, json);
+        new RestCrdtFeed(controller, new WebSocketFrameHandler(logging, json), feed);
+    }
+
+    @Test
+    public void testInvalidIds() throws Exception {
+        HttpResponse<String> response = get("/_crdt/subscribe?ids=1,x");
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertEquals("invalid id: x", response.body());
+
+        response = get("/_crdt/subscribe?ids=,");
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertEquals("ids are required", response.body());
+
+        response = get("/_crdt/subscribe");
+        Assert.assertEquals(400, response.statusCode());
+    }
+
+    @Test
+    public void testSubscribe() throws Exception {
+        HttpResponse<Stream<String>> response = client.sendAsync(
+            HttpRequest.newBuilder(uri("/_crdt/subscribe?ids=1,%202")).build(),
+            HttpResponse.BodyHandlers.ofLines()
+        ).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("text/event-stream", response.headers().firstValue("content-type").orElse(null));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (feed.stats().getSubscriptions() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        feed.publish(0, 2, new GCounter.DownstreamAssign(1, 20));
+        Iterator<String> lines = response.body().iterator();
+        String line = lines.next();
+        Assert.assertTrue(line, line.startsWith("data: "));
+        Assert.assertTrue(line, line.contains("\"id\":2"));
+        Assert.assertTrue(line, line.contains("\"value\":20"));
+        response.body().close();
+    }
+}
@@ -0,0 +1,104 @@
+package org.mitallast.queue.crdt.rest;
+
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.concurrent.Future;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.crdt.CrdtService;
+import org.mitallast.queue.crdt.routing.Resource;
+import org.mitallast.queue.crdt.routing.ResourceType;
+import org.mitallast.queue.rest.BaseRestTest;
+import org.mitallast.queue.rest.RestController;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayInputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class RestCrdtResourcesTest extends BaseRestTest {
+
+    private CrdtService crdtService;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void register(RestController controller) {
+        crdtService = mock(CrdtService.class);
+        when(crdtService.addResources(any())).thenAnswer(invocation -> {
+            Seq<Resource> resources = invocation.getArgument(0);
+            return Future.successful(resources.map(resource -> resource.getId() % 2 == 1).toVector());
+        });
+        when(crdtService.removeResources(any())).thenAnswer(invocation -> {
+            Seq<Long> ids = invocation.getArgument(0);
+            return Future.successful(ids.map(id -> true).toVector());
+        });
+        new RestCrdtResources(controller, json, crdtService);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAddArray() throws Exception {
+        HttpResponse<String> response = post("/_crdt/resources",
+            "[{\"id\": 1, \"type\": \"GCounter\"}, {\"id\": 2, \"type\": \"LWWMap\"}]");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("[{\"id\":1,\"applied\":true},{\"id\":2,\"applied\":false}]", response.body());
+        ArgumentCaptor<Seq<Resource>> resources = ArgumentCaptor.forClass(Seq.class);
+        verify(crdtService).addResources(resources.capture());
+        Assert.assertEquals(Vector.of(1L, 2L), resources.getValue().map(Resource::getId));
+        Assert.assertEquals(Vector.of(ResourceType.GCounter, ResourceType.LWWMap), resources.getValue().map(Resource::getType));
+    }
+
+    @Test
+    public void testAddStream() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            body.append("{\"id\": ").append(i).append(", \"type\": \"GSet\"}\n");
+        }
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        // body of unknown length is sent chunked
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri("/_crdt/resources"))
+            .POST(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(bytes)))
+            .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.body().startsWith("[{\"id\":0,\"applied\":false},{\"id\":1,\"applied\":true}"));
+        Assert.assertTrue(response.body().endsWith("{\"id\":999,\"applied\":true}]"));
+    }
+
+    @Test
+    public void testAddInvalidItem() throws Exception {
+        HttpResponse<String> response = post("/_crdt/resources",
+            "[{\"id\": 1, \"type\": \"GCounter\"}, {\"id\": 2, \"type\": \"Unknown\"}]");
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertEquals("invalid resource at 1: {\"id\":2,\"type\":\"Unknown\"}", response.body());
+
+        response = post("/_crdt/resources", "{\"type\": \"GCounter\"}");
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertEquals("invalid resource at 0: {\"type\":\"GCounter\"}", response.body());
+
+        response = post("/_crdt/resources", "{\"id\": 1, \"type\": ");
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertTrue(response.body(), response.body().startsWith("invalid json"));
+
+        verify(crdtService, never()).addResources(any());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri("/_crdt/resources"))
+            .method("DELETE", HttpRequest.BodyPublishers.ofString("1 2 3"))
+            .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("[{\"id\":1,\"applied\":true},{\"id\":2,\"applied\":true},{\"id\":3,\"applied\":true}]", response.body());
+
+        response = client.send(HttpRequest.newBuilder(uri("/_crdt/resources"))
+            .method("DELETE", HttpRequest.BodyPublishers.ofString("[1, \"x\"]"))
+            .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertEquals("invalid id at 1: \"x\"", response.body());
+        verify(crdtService).removeResources(any());
+    }
+}
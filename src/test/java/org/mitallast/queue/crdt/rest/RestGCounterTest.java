@@ -0,0 +1,80 @@
+package org.mitallast.queue.crdt.rest;
+
+import io.vavr.concurrent.Future;
+import kotlin.jvm.functions.Function1;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.crdt.CrdtService;
+import org.mitallast.queue.crdt.bucket.Bucket;
+import org.mitallast.queue.crdt.bucket.BucketExecutors;
+import org.mitallast.queue.crdt.registry.DefaultCrdtRegistry;
+import org.mitallast.queue.crdt.replication.Replicator;
+import org.mitallast.queue.rest.BaseRestTest;
+import org.mitallast.queue.rest.RestController;
+
+import java.net.http.HttpResponse;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class RestGCounterTest extends BaseRestTest {
+
+    private final Set<String> deltaThreads = ConcurrentHashMap.newKeySet();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void register(RestController controller) {
+        Replicator replicator = mock(Replicator.class);
+        doAnswer(invocation -> deltaThreads.add(Thread.currentThread().getName()))
+            .when(replicator).delta(anyLong());
+        DefaultCrdtRegistry registry = new DefaultCrdtRegistry(0, 1, replicator);
+        registry.createGCounter(1);
+
+        ScheduledExecutorService executor = new BucketExecutors(config, logging).executor(0);
+        Bucket bucket = mock(Bucket.class);
+        when(bucket.registry()).thenReturn(registry);
+        when(bucket.executor()).thenReturn(executor);
+
+        CrdtService crdtService = mock(CrdtService.class);
+        when(crdtService.bucket(anyLong())).thenReturn(null);
+        when(crdtService.bucket(1L)).thenReturn(bucket);
+        when(crdtService.execute(anyLong(), any(), any())).thenAnswer(invocation -> {
+            Object value = invocation.getArgument(1);
+            return Future.successful(value);
+        });
+        when(crdtService.execute(eq(1L), any(), any())).thenAnswer(invocation -> {
+            Function1<Bucket, Object> task = invocation.getArgument(2);
+            return Future.of(executor, () -> task.invoke(bucket));
+        });
+        new RestGCounter(controller, crdtService);
+    }
+
+    @Test
+    public void testWritesRunOnBucketExecutor() throws Exception {
+        executeConcurrent(() -> {
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals(200, post("/_crdt/1/g-counter/increment", "").statusCode());
+            }
+        });
+        HttpResponse<String> add = post("/_crdt/1/g-counter/add?value=20", "");
+        Assert.assertEquals(200, add.statusCode());
+        Assert.assertEquals(String.valueOf(concurrency() * 10 + 20), add.body());
+
+        HttpResponse<String> value = get("/_crdt/1/g-counter/value");
+        Assert.assertEquals(String.valueOf(concurrency() * 10 + 20), value.body());
+
+        Assert.assertFalse(deltaThreads.isEmpty());
+        for (String thread : deltaThreads) {
+            Assert.assertTrue(thread, thread.startsWith("crdt"));
+        }
+    }
+
+    @Test
+    public void testWriteToMissingBucket() throws Exception {
+        Assert.assertEquals(404, post("/_crdt/2/g-counter/increment", "").statusCode());
+    }
+}
@@ -0,0 +1,60 @@
+package org.mitallast.queue.crdt.routing;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+
+public class RoutingTableTest extends BaseTest {
+
+    @Test
+    public void testRangesCoverHashSpace() {
+        RoutingTable table = new RoutingTable(1, 7);
+        Assert.assertEquals(Long.MIN_VALUE, table.bucket(0).getStart());
+        Assert.assertEquals(Long.MAX_VALUE, table.bucket(6).getEnd());
+        for (int i = 1; i < 7; i++) {
+            Assert.assertEquals(table.bucket(i - 1).getEnd() + 1, table.bucket(i).getStart());
+        }
+    }
+
+    @Test
+    public void testRouteNegativeIds() {
+        RoutingTable table = new RoutingTable(1, 3);
+        int[] counts = new int[3];
+        for (long id = -1000; id < 1000; id++) {
+            RoutingBucket bucket = table.bucket(id);
+            Assert.assertTrue(bucket.contains(RoutingTable.Companion.hash(id)));
+            counts[bucket.getIndex()]++;
+        }
+        for (int count : counts) {
+            Assert.assertTrue(count > 500);
+        }
+    }
+
+    @Test
+    public void testSplit() {
+        RoutingTable table = new RoutingTable(1, 2);
+        for (long id = 0; id < 1000; id++) {
+            table = table.withResource(new Resource(id, ResourceType.GCounter));
+        }
+        int before = table.bucket(1).getResources().size();
+
+        RoutingTable split = table.split(1);
+        Assert.assertEquals(3, split.getBuckets().size());
+        RoutingBucket left = split.bucket(1);
+        RoutingBucket right = split.bucket(2);
+        Assert.assertEquals(1, right.getSplitFrom());
+        Assert.assertTrue(right.isSplitting());
+        Assert.assertEquals(left.getEnd() + 1, right.getStart());
+        Assert.assertEquals(table.bucket(1).getEnd(), right.getEnd());
+        Assert.assertEquals(before, left.getResources().size() + right.getResources().size());
+        Assert.assertEquals(table.bucket(0).getResources(), split.bucket(0).getResources());
+
+        for (long id = 0; id < 1000; id++) {
+            RoutingBucket bucket = split.bucket(id);
+            Assert.assertTrue(bucket.hasResource(id));
+        }
+
+        RoutingTable completed = split.withSplitCompleted(2);
+        Assert.assertFalse(completed.bucket(2).isSplitting());
+    }
+}
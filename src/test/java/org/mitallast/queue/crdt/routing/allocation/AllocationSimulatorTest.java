@@ -0,0 +1,164 @@
+package org.mitallast.queue.crdt.routing.allocation;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.Map;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.common.codec.Message;
+import org.mitallast.queue.crdt.routing.RoutingBucket;
+import org.mitallast.queue.crdt.routing.RoutingReplica;
+import org.mitallast.queue.crdt.routing.RoutingTable;
+import org.mitallast.queue.crdt.routing.fsm.AddReplica;
+import org.mitallast.queue.crdt.routing.fsm.CloseReplica;
+import org.mitallast.queue.transport.DiscoveryNode;
+
+/**
+ * Offline simulation of allocation: commands of strategy are applied to routing table as by
+ * routing FSM, closed replicas are removed only when strategy has nothing to do, as if their
+ * logs are synced slowly.
+ */
+public class AllocationSimulatorTest extends BaseTest {
+
+    private final Config config = ConfigFactory.defaultReference();
+    private final BucketLoads loads = new BucketLoads(config);
+    private final LoadAwareAllocationStrategy strategy = new LoadAwareAllocationStrategy(config, loads);
+
+    private final DiscoveryNode node1 = new DiscoveryNode("localhost", 8801);
+    private final DiscoveryNode node2 = new DiscoveryNode("localhost", 8802);
+    private final DiscoveryNode node3 = new DiscoveryNode("localhost", 8803);
+    private final DiscoveryNode node4 = new DiscoveryNode("localhost", 8804);
+
+    // zipf-like ops of buckets, the first two are hot
+    private final long[] ops = new long[]{20000, 10000, 1000, 900, 800, 700, 600, 500, 400, 300, 200, 100};
+
+    private boolean reporting = false;
+    private int maxHotMoving = 0;
+    private int steps = 0;
+
+    @Test
+    public void testAllocateByCountWithoutLoads() {
+        RoutingTable table = simulate(new RoutingTable(2, 12).withMembers(HashSet.of(node1, node2, node3)));
+        for (DiscoveryNode node : table.getMembers()) {
+            Assert.assertEquals(8, table.bucketsCount(node));
+        }
+    }
+
+    @Test
+    public void testRebalanceByLoad() {
+        RoutingTable table = simulate(new RoutingTable(2, 12).withMembers(HashSet.of(node1, node2, node3)));
+        reporting = true;
+        report(table);
+        double initial = imbalance(table);
+        table = simulate(table);
+        double balanced = imbalance(table);
+        logger.info("imbalance with 3 nodes {} -> {}", initial, balanced);
+        Assert.assertTrue(balanced < initial / 2);
+        Assert.assertTrue(balanced <= 0.25);
+
+        table = simulate(table.withMembers(HashSet.of(node1, node2, node3, node4)));
+        double added = imbalance(table);
+        logger.info("imbalance with 4 nodes {}, steps {}", added, steps);
+        Assert.assertTrue(added <= 0.25);
+        Assert.assertTrue(maxHotMoving <= 1);
+        for (RoutingBucket bucket : table.getBuckets()) {
+            Assert.assertEquals(2, bucket.getReplicas().size());
+        }
+    }
+
+    @Test
+    public void testPlanLimitsConcurrentMoves() {
+        RoutingTable table = simulate(new RoutingTable(1, 12).withMembers(HashSet.of(node1)));
+        report(table);
+        table = table.withMembers(HashSet.of(node1, node2, node3, node4));
+        for (int i = 0; i < 10; i++) {
+            Option<Message> command = strategy.update(table);
+            if (command.isEmpty()) {
+                break;
+            }
+            table = apply(table, command.get());
+        }
+        // closed replicas are not removed, so no more than concurrent-moves are started
+        int moving = table.getBuckets().count(b -> b.getReplicas().size() > 1);
+        Assert.assertEquals(config.getInt("crdt.allocation.concurrent-moves"), moving);
+    }
+
+    private RoutingTable simulate(RoutingTable table) {
+        for (int i = 0; i < 1000; i++) {
+            Option<Message> command = strategy.update(table);
+            if (command.isDefined()) {
+                table = apply(table, command.get());
+                steps++;
+            } else if (table.getBuckets().exists(b -> b.getReplicas().values().exists(RoutingReplica::isClosed))) {
+                table = removeClosed(table);
+            } else {
+                return table;
+            }
+            int replicas = table.getReplicas();
+            int hotMoving = table.getBuckets()
+                .filter(b -> b.getIndex() < 2)
+                .count(b -> b.getReplicas().size() > replicas);
+            maxHotMoving = Math.max(maxHotMoving, hotMoving);
+            if (reporting) {
+                report(table);
+            }
+        }
+        Assert.fail("allocation does not converge");
+        return table;
+    }
+
+    private RoutingTable apply(RoutingTable table, Message command) {
+        if (command instanceof AddReplica) {
+            AddReplica add = (AddReplica) command;
+            Assert.assertFalse(table.bucket(add.getBucket()).exists(add.getMember()));
+            return table.withReplica(add.getBucket(), add.getMember());
+        } else if (command instanceof CloseReplica) {
+            CloseReplica close = (CloseReplica) command;
+            RoutingReplica replica = table.bucket(close.getBucket()).getReplicas().get(close.getReplica()).get();
+            Assert.assertTrue(replica.isOpened());
+            return table.withReplica(close.getBucket(), replica.close());
+        }
+        throw new IllegalArgumentException("unexpected command " + command);
+    }
+
+    private RoutingTable removeClosed(RoutingTable table) {
+        for (RoutingBucket bucket : table.getBuckets()) {
+            for (RoutingReplica replica : bucket.getReplicas().values()) {
+                if (replica.isClosed()) {
+                    table = table.withoutReplica(bucket.getIndex(), replica.getId());
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Every open replica reports its share of bucket ops, bytes are proportional to ops.
+     */
+    private void report(RoutingTable table) {
+        Vector<BucketLoad> reports = Vector.empty();
+        for (RoutingBucket bucket : table.getBuckets()) {
+            Vector<RoutingReplica> open = bucket.replicaSeq().filter(RoutingReplica::isOpened).toVector();
+            for (RoutingReplica replica : open) {
+                long share = ops[bucket.getIndex()] / open.size();
+                reports = reports.append(new BucketLoad(bucket.getIndex(), replica.getId(), share, share * 100, share * 200));
+            }
+        }
+        loads.update(new BucketLoadReport(reports));
+    }
+
+    /**
+     * Difference of the most and the least loaded nodes relative to average node load.
+     */
+    private double imbalance(RoutingTable table) {
+        Map<DiscoveryNode, Double> nodes = strategy.nodeLoads(table, strategy.weights(table));
+        double max = nodes.values().max().get();
+        double min = nodes.values().min().get();
+        double mean = nodes.values().sum().doubleValue() / nodes.size();
+        return (max - min) / mean;
+    }
+}
@@ -0,0 +1,159 @@
+package org.mitallast.queue.crdt.routing.fsm;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+import kotlin.Unit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.common.codec.Message;
+import org.mitallast.queue.common.events.DefaultEventBus;
+import org.mitallast.queue.common.events.EventBus;
+import org.mitallast.queue.common.file.FileService;
+import org.mitallast.queue.crdt.routing.Resource;
+import org.mitallast.queue.crdt.routing.ResourceType;
+import org.mitallast.queue.crdt.routing.RoutingBucket;
+import org.mitallast.queue.crdt.routing.RoutingReplica;
+import org.mitallast.queue.crdt.routing.RoutingTable;
+import org.mitallast.queue.crdt.routing.event.RoutingTableChanged;
+import org.mitallast.queue.raft.resource.ResourceRegistry;
+import org.mitallast.queue.transport.DiscoveryNode;
+
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RoutingTableFSMTest extends BaseTest {
+
+    private Config config;
+    private FileService fileService;
+    private final EventBus eventBus = new DefaultEventBus();
+    private final List<RoutingTableChanged> events = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        config = ConfigFactory.parseMap(HashMap.of(
+            "node.path", testFolder.newFolder().getAbsolutePath(),
+            "crdt.buckets", 4,
+            "crdt.routing.checkpoint", 10
+        ).toJavaMap()).withFallback(ConfigFactory.defaultReference());
+        fileService = new FileService(config);
+        eventBus.subscribe(RoutingTableChanged.class, event -> {
+            events.add(event);
+            return Unit.INSTANCE;
+        });
+    }
+
+    @Test
+    public void testDelta() {
+        ResourceRegistry registry = new ResourceRegistry();
+        RoutingTableFSM fsm = new RoutingTableFSM(config, logging, registry, eventBus, fileService);
+
+        registry.apply(1, new UpdateMembers(HashSet.of(new DiscoveryNode("localhost", 8801))));
+        Assert.assertEquals(4, events.get(0).getDelta().getBuckets().size());
+        Assert.assertFalse(events.get(0).getDelta().isResourceChange());
+
+        registry.apply(2, new AddResource(1, ResourceType.GCounter));
+        Assert.assertEquals(HashSet.of(fsm.get().bucket(1L).getIndex()), events.get(1).getDelta().getBuckets());
+        Assert.assertEquals(1, events.get(1).getDelta().getAdded().size());
+
+        registry.apply(3, new RemoveResource(ResourceType.GCounter, 1));
+        Assert.assertEquals(1, events.get(2).getDelta().getRemoved().size());
+    }
+
+    @Test
+    public void testBatch() {
+        ResourceRegistry registry = new ResourceRegistry();
+        RoutingTableFSM fsm = new RoutingTableFSM(config, logging, registry, eventBus, fileService);
+        registry.apply(1, new AddResource(1, ResourceType.GCounter));
+
+        Vector<Resource> resources = Vector.range(0L, 100L).map(id -> new Resource(id, ResourceType.GCounter))
+            .append(new Resource(2, ResourceType.GSet));
+        Option<Message> response = registry.apply(2, new AddResources(resources));
+        Vector<Boolean> created = ((AddResourcesResponse) response.get()).getCreated();
+        Assert.assertEquals(101, created.size());
+        Assert.assertTrue(created.get(0));
+        Assert.assertFalse(created.get(1));
+        Assert.assertFalse(created.get(100));
+        Assert.assertEquals(99, events.get(1).getDelta().getAdded().size());
+        Assert.assertEquals(100, fsm.get().getBuckets().map(b -> b.getResources().size()).sum().intValue());
+
+        response = registry.apply(3, new RemoveResources(Vector.of(1L, 1L, 1000L)));
+        Assert.assertEquals(Vector.of(true, false, false), ((RemoveResourcesResponse) response.get()).getRemoved());
+        Assert.assertFalse(fsm.get().hasResource(1));
+    }
+
+    @Test
+    public void testRestoreFromCheckpointAndLog() {
+        ResourceRegistry registry = new ResourceRegistry();
+        new RoutingTableFSM(config, logging, registry, eventBus, fileService);
+        for (long id = 1; id <= 25; id++) {
+            registry.apply(id, new AddResource(id, ResourceType.GCounter));
+        }
+
+        ResourceRegistry restoredRegistry = new ResourceRegistry();
+        RoutingTableFSM restored = new RoutingTableFSM(config, logging, restoredRegistry, eventBus, fileService);
+        Assert.assertEquals(25, restored.lastApplied());
+        for (long id = 1; id <= 25; id++) {
+            Assert.assertTrue(restored.get().hasResource(id));
+        }
+
+        // replayed by raft, already applied
+        Assert.assertTrue(restoredRegistry.apply(25, new AddResource(100, ResourceType.GCounter)).isEmpty());
+        Assert.assertFalse(restored.get().hasResource(100));
+        Assert.assertTrue(restoredRegistry.apply(26, new AddResource(100, ResourceType.GCounter)).isDefined());
+        Assert.assertTrue(restored.get().hasResource(100));
+    }
+
+    @Test
+    public void testRestoreLegacyWithoutResources() throws Exception {
+        DiscoveryNode node = new DiscoveryNode("localhost", 8801);
+        writeLegacy(new LegacyRoutingTable(1, HashSet.of(node), Vector.range(0, 4).map(index ->
+            new LegacyRoutingTable.Bucket(index, Vector.of(new RoutingReplica(index, node)), Vector.empty())
+        ), 4));
+
+        RoutingTableFSM fsm = new RoutingTableFSM(config, logging, new ResourceRegistry(), eventBus, fileService);
+        RoutingTable table = fsm.get();
+        Assert.assertEquals(HashSet.of(node), table.getMembers());
+        Assert.assertEquals(4, table.getNextReplica());
+        Assert.assertEquals(RoutingTable.Companion.ranges(4).map(RoutingBucket::getStart), table.getBuckets().map(RoutingBucket::getStart));
+        Assert.assertEquals(RoutingTable.Companion.ranges(4).map(RoutingBucket::getEnd), table.getBuckets().map(RoutingBucket::getEnd));
+        for (RoutingBucket bucket : table.getBuckets()) {
+            Assert.assertEquals(1, bucket.getReplicas().size());
+            Assert.assertTrue(bucket.getReplicas().containsKey((long) bucket.getIndex()));
+        }
+        Assert.assertEquals(0, fileService.resource("crdt", "routing.bin").length());
+
+        // migrated table is checkpointed
+        RoutingTableFSM restored = new RoutingTableFSM(config, logging, new ResourceRegistry(), eventBus, fileService);
+        Assert.assertEquals(4, restored.get().getNextReplica());
+    }
+
+    @Test
+    public void testRestoreLegacyWithResources() throws Exception {
+        writeLegacy(new LegacyRoutingTable(1, HashSet.empty(), Vector.range(0, 4).map(index ->
+            new LegacyRoutingTable.Bucket(index, Vector.empty(),
+                index == 1 ? Vector.of(new Resource(5, ResourceType.GCounter)) : Vector.empty())
+        ), 0));
+
+        try {
+            new RoutingTableFSM(config, logging, new ResourceRegistry(), eventBus, fileService);
+            Assert.fail("legacy table with resources is restored");
+        } catch (IllegalStateException expected) {
+            Assert.assertTrue(expected.getMessage(), expected.getMessage().contains("1 resources"));
+        }
+        Assert.assertTrue(fileService.resource("crdt", "routing.bin").length() > 0);
+        Assert.assertEquals(0, fileService.resource("crdt", "routing.checkpoint").length());
+    }
+
+    private void writeLegacy(LegacyRoutingTable table) throws Exception {
+        try (DataOutputStream stream = fileService.output(fileService.resource("crdt", "routing.bin"), false)) {
+            LegacyRoutingTable.Companion.getCodec().write(stream, table);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.mitallast.queue.rest;
+
+import com.typesafe.config.ConfigFactory;
+import io.vavr.collection.HashMap;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+
+public class AccessLogTest extends BaseTest {
+
+    @Test
+    public void testSampleRateZero() {
+        AccessLog accessLog = accessLog(0.0);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(0, accessLog.start());
+        }
+    }
+
+    @Test
+    public void testSampleRateOne() {
+        AccessLog accessLog = accessLog(1.0);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertNotEquals(0, accessLog.start());
+        }
+    }
+
+    private AccessLog accessLog(double sampleRate) {
+        return new AccessLog(ConfigFactory.parseMap(HashMap.of(
+            "rest.access-log.sample-rate", sampleRate
+        ).toJavaMap()).withFallback(ConfigFactory.defaultReference()).resolve());
+    }
+}
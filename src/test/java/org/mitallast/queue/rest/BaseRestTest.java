@@ -0,0 +1,96 @@
+package org.mitallast.queue.rest;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.common.json.JsonService;
+import org.mitallast.queue.rest.netty.HttpServerHandler;
+import org.mitallast.queue.rest.netty.HttpServerInitializer;
+import org.mitallast.queue.rest.netty.WebSocketFrameHandler;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves handlers registered by test at ephemeral port of localhost, without other services.
+ */
+public abstract class BaseRestTest extends BaseTest {
+
+    protected Config config;
+    protected JsonService json;
+    protected RestExecutor executor;
+    protected RestController controller;
+    protected HttpClient client;
+
+    private EventLoopGroup group;
+    private Channel channel;
+
+    @Before
+    public void setUpRest() throws Exception {
+        config = config().withFallback(ConfigFactory.defaultReference()).resolve();
+        json = new JsonService();
+        executor = new RestExecutor(config, logging);
+        controller = new RestController(logging, json, executor, new AccessLog(config), new RestLimiter(config));
+        register(controller);
+
+        group = new NioEventLoopGroup(2);
+        channel = new ServerBootstrap()
+            .group(group)
+            .channel(NioServerSocketChannel.class)
+            .childHandler(new HttpServerInitializer(
+                new HttpServerHandler(controller),
+                new WebSocketFrameHandler(logging, json),
+                config.getBoolean("rest.http2.enabled"),
+                config.getLong("rest.http2.max-concurrent-streams"),
+                null,
+                config.getInt("rest.compression.level"),
+                (int) (long) config.getBytes("rest.compression.threshold")
+            ))
+            .bind("127.0.0.1", 0)
+            .sync()
+            .channel();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @After
+    public void tearDownRest() throws Exception {
+        channel.close().sync();
+        group.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+        executor.close();
+    }
+
+    protected Config config() {
+        return ConfigFactory.empty();
+    }
+
+    protected abstract void register(RestController controller);
+
+    protected int port() {
+        return ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    protected URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + port() + path);
+    }
+
+    protected HttpResponse<String> get(String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(uri(path)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    protected HttpResponse<String> post(String path, String body) throws Exception {
+        return client.send(HttpRequest.newBuilder(uri(path))
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
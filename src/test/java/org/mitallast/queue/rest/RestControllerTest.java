@@ -0,0 +1,96 @@
+package org.mitallast.queue.rest;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.vavr.collection.HashMap;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.common.json.JsonService;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class RestControllerTest extends BaseTest {
+
+    private RestExecutor executor;
+    private AccessLog accessLog;
+    private RestController controller;
+    private EmbeddedChannel channel;
+    private ChannelHandlerContext ctx;
+
+    @Before
+    public void setUp() {
+        Config config = ConfigFactory.parseMap(HashMap.of(
+            "rest.access-log.sample-rate", 1,
+            "rest.limits.in-flight.groups._bulk", 1
+        ).toJavaMap()).withFallback(ConfigFactory.defaultReference()).resolve();
+        executor = new RestExecutor(config, logging);
+        accessLog = spy(new AccessLog(config));
+        controller = new RestController(logging, new JsonService(), executor, accessLog, new RestLimiter(config));
+        controller.register(HttpMethod.POST, "_bulk", request -> {
+            throw new IllegalStateException("handler error");
+        });
+        channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ctx = channel.pipeline().firstContext();
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        executor.close();
+    }
+
+    @Test
+    public void testHandlerError() {
+        for (int i = 0; i < 2; i++) {
+            FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/_bulk",
+                Unpooled.copiedBuffer(new byte[16]));
+            controller.dispatchRequest(ctx, request);
+            // content is released once by dispatch, second release would fail it
+            Assert.assertEquals(0, request.refCnt());
+
+            channel.flush();
+            FullHttpResponse response = channel.readOutbound();
+            Assert.assertEquals(HttpResponseStatus.INTERNAL_SERVER_ERROR, response.status());
+            response.release();
+            Assert.assertNull(channel.readOutbound());
+        }
+        // in-flight limit of _bulk is 1, so second request is routed only if error response released the slot
+        // error response is sent by the same request, which is sampled once and logged once
+        verify(accessLog, times(2)).start();
+        verify(accessLog, times(2)).log(any(), eq(HttpMethod.POST), eq("/_bulk"), eq(500), anyLong());
+    }
+
+    @Test
+    public void testRequestCreationError() {
+        // request created after slot is acquired fails, error response is sent by fallback request
+        doThrow(new IllegalStateException("access log error")).doCallRealMethod().when(accessLog).start();
+        for (int i = 0; i < 2; i++) {
+            FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/_bulk",
+                Unpooled.copiedBuffer(new byte[16]));
+            controller.dispatchRequest(ctx, request);
+            Assert.assertEquals(0, request.refCnt());
+
+            channel.flush();
+            FullHttpResponse response = channel.readOutbound();
+            // 503 would mean slot of the first request leaked
+            Assert.assertEquals(HttpResponseStatus.INTERNAL_SERVER_ERROR, response.status());
+            response.release();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.mitallast.queue.rest;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.vavr.collection.HashMap;
+import kotlin.Unit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class RestExecutorTest extends BaseTest {
+
+    private RestExecutor executor;
+
+    @Before
+    public void setUp() {
+        Config config = ConfigFactory.parseMap(HashMap.of(
+            "rest.executor.threads", 1,
+            "rest.executor.queue-size", 1
+        ).toJavaMap()).withFallback(ConfigFactory.defaultReference()).resolve();
+        executor = new RestExecutor(config, logging);
+    }
+
+    @After
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    public void testRejectWhenQueueIsFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(2);
+
+        RestRequest running = request();
+        executor.execute(running, request -> {
+            started.countDown();
+            await(release);
+            completed.countDown();
+            return Unit.INSTANCE;
+        });
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        RestRequest queued = request();
+        executor.execute(queued, request -> {
+            completed.countDown();
+            return Unit.INSTANCE;
+        });
+
+        RestRequest rejected = request();
+        ResponseBuilder response = rejected.response();
+        executor.execute(rejected, request -> {
+            Assert.fail("rejected request is executed");
+            return Unit.INSTANCE;
+        });
+        verify(response).status(HttpResponseStatus.SERVICE_UNAVAILABLE);
+        verify(response).text(anyString());
+        Assert.assertEquals(1, executor.stats().getRejected());
+        Assert.assertEquals(1, executor.stats().getQueued());
+
+        // content of rejected request is released once, as dispatch releases its own reference
+        Assert.assertEquals(1, rejected.getContent().refCnt());
+        Assert.assertEquals(2, running.getContent().refCnt());
+        Assert.assertEquals(2, queued.getContent().refCnt());
+
+        release.countDown();
+        Assert.assertTrue(completed.await(10, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (queued.getContent().refCnt() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(1, running.getContent().refCnt());
+        Assert.assertEquals(1, queued.getContent().refCnt());
+        Assert.assertEquals(1, executor.stats().getRejected());
+    }
+
+    private RestRequest request() {
+        ByteBuf content = Unpooled.copiedBuffer(new byte[16]);
+        ResponseBuilder response = mock(ResponseBuilder.class);
+        when(response.status(any(HttpResponseStatus.class))).thenReturn(response);
+        RestRequest request = mock(RestRequest.class);
+        when(request.getContent()).thenReturn(content);
+        when(request.getHttpMethod()).thenReturn(HttpMethod.POST);
+        when(request.getUri()).thenReturn("/_bulk");
+        when(request.response()).thenReturn(response);
+        return request;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.mitallast.queue.rest;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.vavr.collection.HashMap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+
+public class RestLimiterTest extends BaseTest {
+
+    private RestLimiter limiter;
+    private ChannelHandlerContext ctx;
+
+    @Before
+    public void setUp() {
+        Config config = ConfigFactory.parseMap(HashMap.of(
+            "rest.limits.rate", 1,
+            "rest.limits.burst", 3,
+            "rest.limits.in-flight.default", 0,
+            "rest.limits.in-flight.groups._bulk", 2
+        ).toJavaMap()).withFallback(ConfigFactory.defaultReference()).resolve();
+        limiter = new RestLimiter(config);
+        ctx = new EmbeddedChannel(new ChannelInboundHandlerAdapter()).pipeline().firstContext();
+    }
+
+    @Test
+    public void testRate() {
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0, limiter.acquire(ctx, request("client-1")));
+        }
+        Assert.assertTrue(limiter.acquire(ctx, request("client-1")) > 0);
+        Assert.assertEquals(0, limiter.acquire(ctx, request("client-2")));
+        Assert.assertEquals(0, limiter.acquire(ctx, request(null)));
+        Assert.assertEquals(1, limiter.stats().getLimited());
+    }
+
+    @Test
+    public void testInFlight() {
+        RestLimiter.InFlight bulk = limiter.inFlight("/_bulk");
+        Assert.assertNotNull(bulk);
+        Assert.assertSame(bulk, limiter.inFlight("/_bulk/"));
+        Assert.assertTrue(bulk.tryAcquire());
+        Assert.assertTrue(bulk.tryAcquire());
+        Assert.assertFalse(bulk.tryAcquire());
+        bulk.release();
+        Assert.assertTrue(bulk.tryAcquire());
+
+        Assert.assertNotNull(limiter.inFlight("/_crdt/1/g-counter"));
+        Assert.assertNull(limiter.inFlight("/_bulkx"));
+        Assert.assertNull(limiter.inFlight("/"));
+    }
+
+    private FullHttpRequest request(String apiKey) {
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+        if (apiKey != null) {
+            request.headers().set("X-Api-Key", apiKey);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,78 @@
+package org.mitallast.queue.rest.netty;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.netty.handler.codec.http.HttpMethod;
+import io.vavr.collection.HashMap;
+import kotlin.Unit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.rest.BaseRestTest;
+import org.mitallast.queue.rest.RestController;
+
+import java.io.ByteArrayInputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+public class HttpCompressorTest extends BaseRestTest {
+
+    private static final String SMALL = "small";
+    private static final String LARGE = "large ".repeat(100);
+
+    @Override
+    protected Config config() {
+        return ConfigFactory.parseMap(HashMap.of(
+            "rest.compression.level", 6,
+            "rest.compression.threshold", 64
+        ).toJavaMap());
+    }
+
+    @Override
+    protected void register(RestController controller) {
+        controller.register(HttpMethod.GET, "small", request -> {
+            request.response().text(SMALL);
+            return Unit.INSTANCE;
+        });
+        controller.register(HttpMethod.GET, "large", request -> {
+            request.response().text(LARGE);
+            return Unit.INSTANCE;
+        });
+    }
+
+    @Test
+    public void testAboveThresholdIsCompressed() throws Exception {
+        HttpResponse<byte[]> response = get("/large", "gzip");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("gzip", response.headers().firstValue("content-encoding").orElse(null));
+        Assert.assertTrue(response.body().length < LARGE.length());
+        try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(response.body()))) {
+            Assert.assertEquals(LARGE, new String(input.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testBelowThresholdIsNotCompressed() throws Exception {
+        HttpResponse<byte[]> response = get("/small", "gzip");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertFalse(response.headers().firstValue("content-encoding").isPresent());
+        Assert.assertEquals(SMALL, new String(response.body(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWithoutAcceptEncodingIsNotCompressed() throws Exception {
+        HttpResponse<byte[]> response = get("/large", null);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertFalse(response.headers().firstValue("content-encoding").isPresent());
+        Assert.assertEquals(LARGE, new String(response.body(), StandardCharsets.UTF_8));
+    }
+
+    private HttpResponse<byte[]> get(String path, String acceptEncoding) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri(path)).GET();
+        if (acceptEncoding != null) {
+            request.header("Accept-Encoding", acceptEncoding);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
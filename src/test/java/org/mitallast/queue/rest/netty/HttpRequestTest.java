@@ -0,0 +1,115 @@
+package org.mitallast.queue.rest.netty;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.netty.handler.codec.http.HttpMethod;
+import io.vavr.collection.HashMap;
+import kotlin.Unit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.rest.BaseRestTest;
+import org.mitallast.queue.rest.JsonLines;
+import org.mitallast.queue.rest.RestController;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class HttpRequestTest extends BaseRestTest {
+
+    private final CompletableFuture<JsonLines> lines = new CompletableFuture<>();
+
+    @Override
+    protected Config config() {
+        return ConfigFactory.parseMap(HashMap.of(
+            "rest.limits.in-flight.groups._bulk", 1,
+            "rest.limits.in-flight.groups._events", 1
+        ).toJavaMap());
+    }
+
+    @Override
+    protected void register(RestController controller) {
+        controller.register(HttpMethod.POST, "_bulk", request -> {
+            JsonLines output = request.response().jsonLines();
+            output.write(List.of("first"));
+            // the first response is ended by test, next ones at once
+            if (!lines.complete(output)) {
+                output.end();
+            }
+            return Unit.INSTANCE;
+        });
+        controller.register(HttpMethod.GET, "_events", request -> {
+            request.response().eventStream();
+            return Unit.INSTANCE;
+        });
+    }
+
+    @Test(timeout = 30000)
+    public void testStreamedResponseHoldsSlotUntilEnd() throws Exception {
+        CompletableFuture<HttpResponse<Stream<String>>> first = client.sendAsync(HttpRequest.newBuilder(uri("/_bulk"))
+            .POST(HttpRequest.BodyPublishers.ofString(""))
+            .build(), HttpResponse.BodyHandlers.ofLines());
+        Iterator<String> body = first.get(10, TimeUnit.SECONDS).body().iterator();
+        Assert.assertEquals("\"first\"", body.next());
+
+        // head and first line are written, slot is still held
+        Assert.assertEquals(503, post("/_bulk", "").statusCode());
+
+        lines.get().end();
+        Assert.assertFalse(body.hasNext());
+        Assert.assertEquals(200, awaitStatus(() -> post("/_bulk", "").statusCode()));
+    }
+
+    @Test(timeout = 30000)
+    public void testEventStreamHoldsSlotUntilClose() throws Exception {
+        Socket first = events();
+        Assert.assertTrue(status(first).contains(" 200 "));
+        Socket second = events();
+        Assert.assertTrue(status(second).contains(" 503 "));
+        second.close();
+
+        first.close();
+        Assert.assertEquals(200, awaitStatus(() -> {
+            try (Socket socket = events()) {
+                return Integer.parseInt(status(socket).split(" ")[1]);
+            }
+        }));
+    }
+
+    private Socket events() throws Exception {
+        Socket socket = new Socket("127.0.0.1", port());
+        socket.setSoTimeout(10000);
+        socket.getOutputStream().write("GET /_events HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+        return socket;
+    }
+
+    private static String status(Socket socket) throws Exception {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+    }
+
+    /**
+     * Slot is released by write listener at event loop, client can see end of response before it.
+     */
+    private static int awaitStatus(StatusRequest request) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        int status = request.send();
+        while (status == 503 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            status = request.send();
+        }
+        return status;
+    }
+
+    private interface StatusRequest {
+        int send() throws Exception;
+    }
+}
@@ -0,0 +1,136 @@
+package org.mitallast.queue.rest.netty;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.util.CharsetUtil;
+import kotlin.Unit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.rest.BaseRestTest;
+import org.mitallast.queue.rest.RestController;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class HttpServerInitializerTest extends BaseRestTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final EventLoopGroup clientGroup = new NioEventLoopGroup(1);
+
+    @Override
+    protected void register(RestController controller) {
+        controller.register(HttpMethod.GET, "fast", request -> {
+            request.response().text("fast");
+            return Unit.INSTANCE;
+        });
+        controller.register(HttpMethod.GET, "slow", request -> {
+            scheduler.schedule(() -> request.response().text("slow"), 500, TimeUnit.MILLISECONDS);
+            return Unit.INSTANCE;
+        });
+    }
+
+    @After
+    public void tearDownClient() throws Exception {
+        clientGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testHttp1() throws Exception {
+        HttpResponse<String> response = get("/fast");
+        Assert.assertEquals(HttpClient.Version.HTTP_1_1, response.version());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("fast", response.body());
+    }
+
+    @Test
+    public void testUpgrade() throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        // the first request is sent as HTTP/1.1 with upgrade and answered as stream 1
+        HttpResponse<String> upgraded = client.send(HttpRequest.newBuilder(uri("/fast")).build(),
+            HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(HttpClient.Version.HTTP_2, upgraded.version());
+        Assert.assertEquals("fast", upgraded.body());
+
+        ConcurrentLinkedQueue<String> completed = new ConcurrentLinkedQueue<>();
+        CompletableFuture<HttpResponse<String>> slow = client.sendAsync(HttpRequest.newBuilder(uri("/slow")).build(),
+            HttpResponse.BodyHandlers.ofString()).whenComplete((r, e) -> completed.add(r.body()));
+        CompletableFuture<HttpResponse<String>> fast = client.sendAsync(HttpRequest.newBuilder(uri("/fast")).build(),
+            HttpResponse.BodyHandlers.ofString()).whenComplete((r, e) -> completed.add(r.body()));
+        Assert.assertEquals(HttpClient.Version.HTTP_2, slow.get(10, TimeUnit.SECONDS).version());
+        Assert.assertEquals(HttpClient.Version.HTTP_2, fast.get(10, TimeUnit.SECONDS).version());
+        Assert.assertArrayEquals(new String[]{"fast", "slow"}, completed.toArray());
+    }
+
+    @Test
+    public void testPriorKnowledge() throws Exception {
+        Channel channel = new Bootstrap()
+            .group(clientGroup)
+            .channel(NioSocketChannel.class)
+            .handler(new ChannelInitializer<Channel>() {
+                @Override
+                protected void initChannel(Channel ch) {
+                    ch.pipeline().addLast(Http2FrameCodecBuilder.forClient().build());
+                    ch.pipeline().addLast(new Http2MultiplexHandler(new ChannelInboundHandlerAdapter()));
+                }
+            })
+            .connect("127.0.0.1", port())
+            .sync()
+            .channel();
+
+        // both streams share one connection, the fast one is answered while the slow one waits
+        ConcurrentLinkedQueue<String> completed = new ConcurrentLinkedQueue<>();
+        CompletableFuture<HttpResponseStatus> slow = stream(channel, "/slow", completed);
+        CompletableFuture<HttpResponseStatus> fast = stream(channel, "/fast", completed);
+        Assert.assertEquals(200, fast.get(10, TimeUnit.SECONDS).code());
+        Assert.assertEquals(200, slow.get(10, TimeUnit.SECONDS).code());
+        Assert.assertArrayEquals(new String[]{"fast", "slow"}, completed.toArray());
+        channel.close().sync();
+    }
+
+    private CompletableFuture<HttpResponseStatus> stream(Channel channel, String path, ConcurrentLinkedQueue<String> completed) throws Exception {
+        CompletableFuture<HttpResponseStatus> future = new CompletableFuture<>();
+        Http2StreamChannel stream = new Http2StreamChannelBootstrap(channel)
+            .handler(new ChannelInitializer<Channel>() {
+                @Override
+                protected void initChannel(Channel ch) {
+                    ch.pipeline().addLast(new Http2StreamFrameToHttpObjectCodec(false));
+                    ch.pipeline().addLast(new HttpObjectAggregator(65536));
+                    ch.pipeline().addLast(new SimpleChannelInboundHandler<FullHttpResponse>() {
+                        @Override
+                        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+                            completed.add(response.content().toString(CharsetUtil.UTF_8));
+                            future.complete(response.status());
+                        }
+                    });
+                }
+            })
+            .open()
+            .sync()
+            .getNow();
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path);
+        request.headers().set(HttpHeaderNames.HOST, "127.0.0.1:" + port());
+        stream.writeAndFlush(request).sync();
+        return future;
+    }
+}
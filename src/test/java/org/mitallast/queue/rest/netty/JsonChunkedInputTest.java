@@ -0,0 +1,126 @@
+package org.mitallast.queue.rest.netty;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.CharsetUtil;
+import io.vavr.collection.LinkedHashMap;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.common.json.JsonService;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class JsonChunkedInputTest extends BaseTest {
+
+    private final JsonService jsonService = new JsonService();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testArray() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChunkedWriteHandler());
+        channel.writeAndFlush(new JsonChunkedInput(jsonService, null, null, values(1000), 256));
+
+        List<ByteBuf> chunks = readChunks(channel);
+        Assert.assertTrue(chunks.size() > 1);
+        JsonNode json = mapper.readTree(concat(chunks));
+        Assert.assertTrue(json.isArray());
+        Assert.assertEquals(1000, json.size());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals("value-" + i, json.get(i).asText());
+        }
+    }
+
+    @Test
+    public void testEmptyArray() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChunkedWriteHandler());
+        channel.writeAndFlush(new JsonChunkedInput(jsonService, values(0)));
+        Assert.assertEquals("[]", concat(readChunks(channel)));
+    }
+
+    @Test
+    public void testFields() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChunkedWriteHandler());
+        channel.writeAndFlush(new JsonChunkedInput(jsonService, LinkedHashMap.of("total", 100, "next", "a"),
+            "values", values(100), 64));
+
+        JsonNode json = mapper.readTree(concat(readChunks(channel)));
+        Assert.assertEquals(100, json.get("total").asInt());
+        Assert.assertEquals("a", json.get("next").asText());
+        Assert.assertEquals(100, json.get("values").size());
+        Assert.assertEquals("value-99", json.get("values").get(99).asText());
+    }
+
+    @Test
+    public void testPauseWhileNotWritable() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChunkedWriteHandler());
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        Assert.assertFalse(channel.isWritable());
+
+        CountingIterator values = new CountingIterator(values(1000));
+        JsonChunkedInput input = new JsonChunkedInput(jsonService, null, null, values, 256);
+        channel.writeAndFlush(input);
+        Assert.assertNull(channel.readOutbound());
+        Assert.assertEquals(0, values.read);
+        Assert.assertEquals(0, input.progress());
+
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        channel.runPendingTasks();
+        JsonNode json = mapper.readTree(concat(readChunks(channel)));
+        Assert.assertEquals(1000, json.size());
+        Assert.assertEquals(1000, values.read);
+        Assert.assertTrue(input.isEndOfInput());
+    }
+
+    private static Iterator<Object> values(int count) {
+        List<Object> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add("value-" + i);
+        }
+        return values.iterator();
+    }
+
+    private static List<ByteBuf> readChunks(EmbeddedChannel channel) {
+        List<ByteBuf> chunks = new ArrayList<>();
+        ByteBuf chunk;
+        while ((chunk = channel.readOutbound()) != null) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private static String concat(List<ByteBuf> chunks) {
+        ByteBuf buf = Unpooled.wrappedBuffer(chunks.toArray(new ByteBuf[0]));
+        try {
+            return buf.toString(CharsetUtil.UTF_8);
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static class CountingIterator implements Iterator<Object> {
+        private final Iterator<Object> iterator;
+        private int read;
+
+        private CountingIterator(Iterator<Object> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Object next() {
+            read++;
+            return iterator.next();
+        }
+    }
+}